@@ -1,18 +1,53 @@
 package com.example.tvremote;
 
 import android.app.Activity;
+import android.content.Context;
+import android.net.Uri;
+import android.net.wifi.WifiManager;
 import android.os.Bundle;
+import android.webkit.WebResourceRequest;
+import android.webkit.WebResourceResponse;
 import android.webkit.WebSettings;
 import android.webkit.WebView;
 import android.webkit.WebViewClient;
 
+import com.example.tvremote.adb.AdbSessions;
+import com.example.tvremote.adb.DevicePool;
+import com.example.tvremote.control.ControlApi;
+import com.example.tvremote.task.Lanes;
+
+import java.util.Locale;
+
 public class MainActivity extends Activity {
+    // The page is served from memory under this origin rather than file://, so fetch() and
+    // same-origin rules work and every request can be answered by shouldInterceptRequest
+    private static final String HOST = "appassets.androidplatform.net";
+    private static final String START_URL = "https://" + HOST + "/index.html";
+
+    // Like the native app's, these outlive the activity so a recreated one reuses connections
+    private static final Lanes lanes = new Lanes();
+    private static AdbSessions adbSessions;
+    private static DevicePool devicePool;
+    private static ControlApi controlApi;
+
     private WebView webView;
+    private WebBridge bridge;
+    private WebAssetCache assets;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         
+        // Read the UI while the WebView is being created, which takes longer
+        assets = new WebAssetCache(getAssets());
+        assets.preload();
+        if (controlApi == null) {
+            adbSessions = new AdbSessions(getFilesDir());
+            devicePool = new DevicePool(adbSessions);
+            controlApi = new ControlApi(adbSessions, devicePool, lanes);
+        }
+        controlApi.setDefaultRange(localRange());
+        
         // Create WebView
         webView = new WebView(this);
         setContentView(webView);
@@ -21,19 +56,40 @@ public class MainActivity extends Activity {
         WebSettings webSettings = webView.getSettings();
         webSettings.setJavaScriptEnabled(true);
         webSettings.setDomStorageEnabled(true);
+        // Nothing is loaded from files; the page only talks to its own origin and the bridge
+        webSettings.setAllowFileAccess(false);
         
         // Enable zoom
         webSettings.setBuiltInZoomControls(true);
         webSettings.setDisplayZoomControls(false);
         
         // Enable remote debugging
-        if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.KITKAT) {
-            WebView.setWebContentsDebuggingEnabled(true);
-        }
+        WebView.setWebContentsDebuggingEnabled(true);
         
-        // Load local web app
-        webView.setWebViewClient(new WebViewClient());
-        webView.loadUrl("file:///android_asset/index.html");
+        bridge = new WebBridge(webView, controlApi);
+        webView.addJavascriptInterface(bridge, "TvRemoteNative");
+        webView.setWebViewClient(new WebViewClient() {
+            @Override
+            public WebResourceResponse shouldInterceptRequest(WebView view, WebResourceRequest request) {
+                Uri url = request.getUrl();
+                if (!HOST.equals(url.getHost())) {
+                    return null;
+                }
+                if ("/frames".equals(url.getPath())) {
+                    String after = url.getQueryParameter("after");
+                    return bridge.nextFrame(after != null ? Long.parseLong(after) : 0);
+                }
+                return assets.get(url.getPath());
+            }
+        });
+        webView.loadUrl(START_URL);
+    }
+    
+    @Override
+    protected void onDestroy() {
+        bridge.close();
+        webView.destroy();
+        super.onDestroy();
     }
     
     @Override
@@ -44,4 +100,11 @@ public class MainActivity extends Activity {
             super.onBackPressed();
         }
     }
-}
\ No newline at end of file
+    
+    // The phone's own /24, scanned when the page does not name a range
+    private String localRange() {
+        WifiManager wifiManager = (WifiManager) getApplicationContext().getSystemService(Context.WIFI_SERVICE);
+        int ip = wifiManager.getConnectionInfo().getIpAddress();
+        return String.format(Locale.US, "%d.%d.%d.0/24", ip & 0xff, ip >> 8 & 0xff, ip >> 16 & 0xff);
+    }
+}
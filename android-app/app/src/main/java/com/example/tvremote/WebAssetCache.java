@@ -0,0 +1,109 @@
+package com.example.tvremote;
+
+import android.content.res.AssetManager;
+import android.webkit.WebResourceResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Serves the bundled web UI from memory. {@link #preload} reads every asset on a background
+ * thread while the WebView is still being created, so the page and everything it references
+ * come back without touching the APK again.
+ */
+public class WebAssetCache {
+    private static final Map<String, String> MIME_TYPES = new HashMap<>();
+
+    static {
+        MIME_TYPES.put("html", "text/html");
+        MIME_TYPES.put("js", "application/javascript");
+        MIME_TYPES.put("css", "text/css");
+        MIME_TYPES.put("png", "image/png");
+        MIME_TYPES.put("svg", "image/svg+xml");
+        MIME_TYPES.put("json", "application/json");
+    }
+
+    private final AssetManager assets;
+    private final Map<String, byte[]> files = new HashMap<>();
+    private final CountDownLatch loaded = new CountDownLatch(1);
+
+    public WebAssetCache(AssetManager assets) {
+        this.assets = assets;
+    }
+
+    public void preload() {
+        Thread thread = new Thread(() -> {
+            try {
+                String[] names = assets.list("");
+                for (String name : names != null ? names : new String[0]) {
+                    if (mimeType(name) == null) {
+                        // Directories and files the page never asks for
+                        continue;
+                    }
+                    try {
+                        byte[] data = read(name);
+                        synchronized (files) {
+                            files.put("/" + name, data);
+                        }
+                    } catch (IOException e) {
+                        // Reported as 404 when requested
+                    }
+                }
+            } catch (IOException e) {
+                // Nothing cached; every request is a 404
+            } finally {
+                loaded.countDown();
+            }
+        }, "asset-preload");
+        thread.setPriority(Thread.MAX_PRIORITY);
+        thread.start();
+    }
+
+    // Called on a WebView thread; waits for the preload if it is still running
+    public WebResourceResponse get(String path) {
+        try {
+            loaded.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        byte[] data;
+        synchronized (files) {
+            data = files.get(path.equals("/") ? "/index.html" : path);
+        }
+        String mimeType = mimeType(path);
+        if (data == null || mimeType == null) {
+            return new WebResourceResponse("text/plain", "UTF-8", 404, "Not Found", Collections.<String, String>emptyMap(),
+                    new ByteArrayInputStream(new byte[0]));
+        }
+        return new WebResourceResponse(mimeType, "UTF-8", new ByteArrayInputStream(data));
+    }
+
+    private byte[] read(String name) throws IOException {
+        InputStream in = assets.open(name, AssetManager.ACCESS_STREAMING);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(in.available() > 0 ? in.available() : 8192);
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static String mimeType(String path) {
+        if (path.equals("/")) {
+            return "text/html";
+        }
+        int dot = path.lastIndexOf('.');
+        return dot >= 0 ? MIME_TYPES.get(path.substring(dot + 1)) : null;
+    }
+}
@@ -0,0 +1,122 @@
+package com.example.tvremote;
+
+import android.util.Log;
+import android.webkit.JavascriptInterface;
+import android.webkit.WebResourceResponse;
+import android.webkit.WebView;
+
+import com.example.tvremote.control.ControlApi;
+import com.example.tvremote.control.Json;
+import com.example.tvremote.control.Peer;
+import com.example.tvremote.control.ScreenFrame;
+
+import java.io.ByteArrayInputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The page's way to the TVs, exposed to script.js as TvRemoteNative. Events carry the same
+ * JSON as the socket.io events of server.js, passed to send(), and are answered by calling
+ * tvRemoteNative.dispatch(event, data) in the page.
+ *
+ * Screen frames do not go through JavaScript strings at all: the page fetches /frames from
+ * its own origin and {@link #nextFrame} answers with the PNG bytes, which the WebView decodes
+ * off the JS thread. The page asks for the next frame only after drawing one, and a newer
+ * capture replaces one nobody fetched, so frames are dropped rather than queued.
+ */
+public class WebBridge implements Peer {
+    private static final String TAG = "WebBridge";
+    // How long a /frames request waits for a new frame before answering 204
+    static final long FRAME_WAIT_MS = 2000;
+
+    private final WebView webView;
+    private final ControlApi api;
+    // Latest frame and its sequence number; guarded by this
+    private ScreenFrame frame;
+    private long frameSeq;
+
+    public WebBridge(WebView webView, ControlApi api) {
+        this.webView = webView;
+        this.api = api;
+    }
+
+    /**
+     * Called from the page's JavaBridge thread. Returns `data` for "echo", which
+     * benchmarkTransport() uses to time the bridge, and null for everything else; replies
+     * arrive later through dispatch().
+     */
+    @JavascriptInterface
+    @SuppressWarnings("unchecked")
+    public String send(String event, String data) {
+        if (event.equals("echo")) {
+            return data;
+        }
+        Map<String, Object> parsed;
+        try {
+            Object value = Json.parse(data);
+            parsed = value instanceof Map ? (Map<String, Object>) value : new HashMap<String, Object>();
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Bad " + event + " data: " + e.getMessage());
+            return null;
+        }
+        api.handle(this, event, parsed);
+        return null;
+    }
+
+    @Override
+    public boolean emit(String event, String data) {
+        StringBuilder script = new StringBuilder(48 + (data != null ? data.length() : 4));
+        script.append("tvRemoteNative.dispatch(");
+        Json.appendString(script, event);
+        script.append(',').append(data != null ? data : "null").append(')');
+        String js = script.toString();
+        webView.post(() -> webView.evaluateJavascript(js, null));
+        return true;
+    }
+
+    @Override
+    public synchronized boolean sendScreen(ScreenFrame frame) {
+        this.frame = frame;
+        frameSeq++;
+        notifyAll();
+        return true;
+    }
+
+    // Answers GET /frames?after=seq on a WebView network thread, where blocking is allowed
+    public WebResourceResponse nextFrame(long after) {
+        ScreenFrame next;
+        long seq;
+        synchronized (this) {
+            long deadline = System.currentTimeMillis() + FRAME_WAIT_MS;
+            long wait;
+            while (frameSeq <= after && (wait = deadline - System.currentTimeMillis()) > 0) {
+                try {
+                    wait(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            next = frame;
+            seq = frameSeq;
+        }
+        Map<String, String> headers = new HashMap<>();
+        headers.put("Cache-Control", "no-store");
+        if (next == null || seq <= after) {
+            return new WebResourceResponse("image/png", null, 204, "No Content", headers,
+                    new ByteArrayInputStream(new byte[0]));
+        }
+        headers.put("X-Frame-Seq", Long.toString(seq));
+        headers.put("X-Frame-Time", Long.toString(next.frameTimeMs));
+        return new WebResourceResponse("image/png", null, 200, "OK", headers, new ByteArrayInputStream(next.png));
+    }
+
+    // The page is gone; stops its screen capture and wakes a waiting /frames request
+    public void close() {
+        api.disconnect(this);
+        synchronized (this) {
+            frame = null;
+            notifyAll();
+        }
+    }
+}
@@ -0,0 +1,34 @@
+#!/bin/sh
+# Cold start and tab switch benchmark for an installed build on the attached phone.
+#
+#   app/benchmarks/startup.sh [runs]
+#
+# Each run force-stops the app, launches it with `am start -W` and, through the benchmarkTabs
+# extra, has it visit every tab twice (first visits build the tab, second visits show the
+# cached one). Prints the launch time reported by the activity manager, the app's own startup
+# trace and the tab switch times it logged.
+set -e
+
+RUNS=${1:-5}
+PACKAGE=com.example.tvremote
+ACTIVITY=$PACKAGE/.MainActivity
+TAG=TvRemote
+
+for run in $(seq 1 "$RUNS"); do
+    adb shell am force-stop $PACKAGE
+    # Drop the page cache's copy of the app too, as after a reboot (needs root; ignored otherwise)
+    adb shell "su -c 'echo 3 > /proc/sys/vm/drop_caches'" >/dev/null 2>&1 || true
+    adb logcat -c
+    total=$(adb shell am start -W -S --ez benchmarkTabs true -n $ACTIVITY | tr -d '\r' \
+        | sed -n 's/^TotalTime: //p')
+    # Wait for the tab walk to finish
+    for _ in $(seq 1 50); do
+        if adb logcat -d -s $TAG:I | grep -q "Tab switch benchmark done"; then
+            break
+        fi
+        sleep 0.2
+    done
+    echo "run $run: launch ${total} ms"
+    adb logcat -d -s $TAG:I | tr -d '\r' | sed -n 's/.*\(Cold start:.*drawn.*\)/  \1/p' | head -n 1
+    adb logcat -d -s $TAG:I | tr -d '\r' | sed -n 's/.*\(Tab switch.*\)/  \1/p'
+done
@@ -0,0 +1,65 @@
+package com.example.tvremote;
+
+import android.content.Intent;
+import android.os.Bundle;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.Button;
+import android.widget.TextView;
+
+import com.example.tvremote.metrics.Metrics;
+import com.example.tvremote.task.TaskScope;
+
+public class DiagnosticsFragment extends ScopedFragment {
+    private static final long REFRESH_MS = 1000;
+
+    private TextView metricsText;
+    private Button exportMetrics;
+    private Runnable refresh;
+    // The tab stays alive while other tabs are shown; it only refreshes while visible
+    private volatile boolean hidden;
+
+    @Override
+    public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
+        View view = inflater.inflate(R.layout.fragment_diagnostics, container, false);
+
+        metricsText = view.findViewById(R.id.metricsText);
+        exportMetrics = view.findViewById(R.id.exportMetrics);
+        exportMetrics.setOnClickListener(v -> exportJson());
+
+        // The text is built on a discovery thread; the UI thread only sets it
+        TaskScope scope = scope();
+        refresh = () -> {
+            if (hidden) {
+                return;
+            }
+            String text = MainActivity.getStartupTrace().summary() + "\n\n"
+                    + MainActivity.getMetrics().summary(System.nanoTime()) + "\n" + lanes().summary();
+            scope.ui(() -> metricsText.setText(text));
+        };
+        scope.submit(lanes().discovery, refresh);
+        scope.schedule(lanes().discovery, refresh, REFRESH_MS);
+
+        return view;
+    }
+    
+    @Override
+    public void onHiddenChanged(boolean hidden) {
+        super.onHiddenChanged(hidden);
+        this.hidden = hidden;
+        if (!hidden && refresh != null) {
+            scope().submit(lanes().discovery, refresh);
+        }
+    }
+
+    // Hands the snapshot to whatever the user picks (mail, drive, a dashboard uploader)
+    private void exportJson() {
+        Metrics metrics = MainActivity.getMetrics();
+        Intent send = new Intent(Intent.ACTION_SEND);
+        send.setType("application/json");
+        send.putExtra(Intent.EXTRA_SUBJECT, "TV Remote metrics");
+        send.putExtra(Intent.EXTRA_TEXT, metrics.toJson(System.currentTimeMillis(), System.nanoTime()));
+        startActivity(Intent.createChooser(send, getString(R.string.export_metrics)));
+    }
+}
@@ -1,10 +1,18 @@
 package com.example.tvremote;
 
 import android.app.Activity;
+import android.app.Fragment;
+import android.app.FragmentTransaction;
 import android.content.Context;
 import android.net.wifi.WifiManager;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.KeyEvent;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.AdapterView;
 import android.widget.ArrayAdapter;
 import android.widget.Button;
@@ -13,10 +21,51 @@ import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.example.tvremote.adb.AdbSession;
+import com.example.tvremote.adb.AdbSessions;
+import com.example.tvremote.adb.Broadcaster;
+import com.example.tvremote.adb.DevicePool;
+import com.example.tvremote.control.ControlApi;
+import com.example.tvremote.control.ControlServer;
+import com.example.tvremote.discovery.DeviceCache;
+import com.example.tvremote.discovery.DeviceRegistry;
+import com.example.tvremote.discovery.MdnsDiscovery;
+import com.example.tvremote.input.CompiledMacro;
+import com.example.tvremote.input.InputAgentClient;
+import com.example.tvremote.input.InputPipeline;
+import com.example.tvremote.input.Macro;
+import com.example.tvremote.input.MacroPlayer;
+import com.example.tvremote.input.MacroRecorder;
+import com.example.tvremote.input.TextInjector;
+import com.example.tvremote.metrics.DeviceMetrics;
+import com.example.tvremote.metrics.Metrics;
+import com.example.tvremote.screen.DisplayGeometryService;
+import com.example.tvremote.screen.ScreenSettleDetector;
+import com.example.tvremote.state.DeviceState;
+import com.example.tvremote.state.DeviceStateService;
+import com.example.tvremote.task.Lanes;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class MainActivity extends Activity {
+    private static final String TAG = "TvRemote";
+    // Launch extra for the startup benchmark: visit every tab twice and log each switch
+    static final String EXTRA_BENCHMARK_TABS = "benchmarkTabs";
+    private static final int TAB_COUNT = 5;
+    
     private Spinner deviceSpinner;
     private ImageButton refreshButton;
     private ImageButton disconnectButton;
@@ -24,14 +73,97 @@ public class MainActivity extends Activity {
     private Button tabRemote;
     private Button tabNetwork;
     private Button tabScreen;
+    private Button tabDiagnostics;
+    private Button tabWall;
     
     private List<String> devices = new ArrayList<>();
     private ArrayAdapter<String> deviceAdapter;
     
+    // Sessions outlive the activity so a recreated activity reuses open connections
+    private static AdbSessions adbSessions;
+    // Keeps every device the user works with connected and heartbeated, not just the selected one
+    private static DevicePool devicePool;
+    private static Broadcaster broadcaster;
+    // Devices seen by earlier scans and mDNS, so the spinner is filled before discovery runs
+    private static DeviceCache deviceCache;
+    // Devices we have connected to; the last used one is reconnected at launch
+    private static DeviceRegistry deviceRegistry;
+    // Screen size, rotation and overscan per device, kept in the registry
+    private static DisplayGeometryService displayGeometry;
+    // Power, foreground app and volume of the selected device, polled faster while it is in use
+    private static DeviceStateService deviceStates;
+    // Background threads for input, capture and discovery work; like the sessions they outlive the activity
+    private static final Lanes lanes = new Lanes();
+    // Local HTTP/WebSocket API for kiosks and home automation; null while switched off
+    private static ControlServer controlServer;
+    private static String controlServerToken;
+    private static ControlApi controlApi;
+    private static final Metrics metrics = new Metrics();
+    private static final StartupTrace startupTrace = new StartupTrace(processStartNanos());
+    
+    private static final String MACRO_SUFFIX = ".macro";
+    private final MacroRecorder macroRecorder = new MacroRecorder();
+    private MacroPlayer macroPlayer;
+    // By serial, built on the UI thread the first time a device gets input
+    private final Map<String, InputPipeline.Listener> pipelineListeners = new HashMap<>();
+    
+    // Tabs are created on first visit and then only shown and hidden, so they keep their state
+    private final Fragment[] tabs = new Fragment[TAB_COUNT];
+    private int currentTab = -1;
+    
+    // Serial of the device currently being (or already) warmed up
+    private String warmSerial;
+    // Serial of the device whose state is polled
+    private String stateSerial;
+    private MdnsDiscovery mdnsDiscovery;
+    private WifiManager.MulticastLock multicastLock;
+    
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        startupTrace.mark(StartupTrace.ACTIVITY_CREATED);
+        
+        if (adbSessions == null) {
+            adbSessions = new AdbSessions(getFilesDir());
+            adbSessions.setMetrics(metrics);
+            adbSessions.setJournalDirectory(new File(getFilesDir(), "journal"));
+            devicePool = new DevicePool(adbSessions);
+            broadcaster = new Broadcaster(adbSessions);
+            deviceStates = new DeviceStateService(adbSessions);
+        }
+        if (deviceCache == null) {
+            deviceCache = new DeviceCache(new File(getFilesDir(), "devices.cache"));
+            try {
+                deviceCache.load();
+            } catch (IOException e) {
+                // Start with an empty cache; discovery refills it
+            }
+        }
+        if (deviceRegistry == null) {
+            deviceRegistry = new DeviceRegistry(new File(getFilesDir(), "devices.registry"));
+            try {
+                deviceRegistry.load();
+            } catch (IOException e) {
+                // A damaged registry only costs the warm reconnect
+            }
+            startupTrace.mark(StartupTrace.REGISTRY_LOADED);
+            displayGeometry = new DisplayGeometryService(adbSessions, deviceRegistry);
+        }
+        
+        // Connect to known devices before inflating anything, so the TCP connect and the ADB
+        // handshake overlap with building the UI; the last used device goes first
+        DeviceRegistry.Device last = deviceRegistry.getAutoConnectDevice();
+        if (last != null) {
+            warmUp(last.serial);
+        }
+        devicePool.setListener(poolListener);
+        deviceStates.setListener(stateListener);
+        for (DeviceRegistry.Device device : deviceRegistry.autoConnectDevices()) {
+            devicePool.add(device.serial);
+        }
+        
         setContentView(R.layout.activity_main);
+        mdnsDiscovery = new MdnsDiscovery(mdnsListener);
         
         // Initialize UI components
         initializeViews();
@@ -40,6 +172,36 @@ public class MainActivity extends Activity {
         
         // Load devices
         loadDevices();
+        
+        if (last != null) {
+            for (int i = 1; i < devices.size(); i++) {
+                if (devices.get(i).startsWith(last.serial + " ")) {
+                    deviceSpinner.setSelection(i);
+                }
+            }
+        }
+        // Fragments the system restored keep their state; they only need to be found again
+        for (int i = 0; i < TAB_COUNT; i++) {
+            tabs[i] = getFragmentManager().findFragmentByTag(tabTag(i));
+        }
+        switchToTab(0);
+        startupTrace.mark(StartupTrace.FIRST_FRAGMENT);
+        whenDrawn(() -> {
+            startupTrace.mark(StartupTrace.FIRST_FRAME);
+            Log.i(TAG, startupTrace.summary());
+            if (getIntent().getBooleanExtra(EXTRA_BENCHMARK_TABS, false)) {
+                benchmarkTabs(1, 2 * TAB_COUNT);
+            }
+        });
+    }
+    
+    // Process start on the same clock as System.nanoTime(); class load time before API 24
+    private static long processStartNanos() {
+        long now = System.nanoTime();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            return now - (SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime()) * 1000000L;
+        }
+        return now;
     }
     
     private void initializeViews() {
@@ -50,6 +212,8 @@ public class MainActivity extends Activity {
         tabRemote = findViewById(R.id.tabRemote);
         tabNetwork = findViewById(R.id.tabNetwork);
         tabScreen = findViewById(R.id.tabScreen);
+        tabDiagnostics = findViewById(R.id.tabDiagnostics);
+        tabWall = findViewById(R.id.tabWall);
     }
     
     private void setupListeners() {
@@ -59,6 +223,8 @@ public class MainActivity extends Activity {
         tabRemote.setOnClickListener(v -> switchToTab(0));
         tabNetwork.setOnClickListener(v -> switchToTab(1));
         tabScreen.setOnClickListener(v -> switchToTab(2));
+        tabDiagnostics.setOnClickListener(v -> switchToTab(3));
+        tabWall.setOnClickListener(v -> switchToTab(4));
     }
     
     private void setupDeviceSpinner() {
@@ -71,6 +237,13 @@ public class MainActivity extends Activity {
             public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
                 if (position > 0) {
                     statusText.setText("Device selected: " + devices.get(position));
+                    String serial = getSelectedDeviceId();
+                    deviceRegistry.markUsed(serial, null, System.currentTimeMillis());
+                    saveDeviceRegistry();
+                    devicePool.add(serial);
+                    devicePool.touch(serial);
+                    warmUp(serial);
+                    watchState(serial);
                 }
             }
             
@@ -81,20 +254,218 @@ public class MainActivity extends Activity {
         });
     }
     
+    @Override
+    protected void onResume() {
+        super.onResume();
+        // Android drops multicast packets to save power unless someone holds this lock
+        WifiManager wifiManager = (WifiManager) getApplicationContext().getSystemService(Context.WIFI_SERVICE);
+        multicastLock = wifiManager.createMulticastLock("tvremote-mdns");
+        multicastLock.setReferenceCounted(false);
+        multicastLock.acquire();
+        mdnsDiscovery.start();
+    }
+    
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        // The pool outlives the activity; stop it from updating this one's views
+        devicePool.setListener(null);
+        deviceStates.setListener(null);
+    }
+    
+    @Override
+    protected void onPause() {
+        super.onPause();
+        mdnsDiscovery.stop();
+        // Keeps the latency history gathered while the app was in front
+        saveDeviceRegistry();
+        Log.i(TAG, lanes.summary());
+        if (multicastLock != null) {
+            multicastLock.release();
+            multicastLock = null;
+        }
+    }
+    
     private void loadDevices() {
-        // For now, we'll add some dummy devices
-        // In a real implementation, we would scan for ADB devices
         devices.clear();
         devices.add("Select device");
-        devices.add("192.168.0.100:5555 (connected)");
-        devices.add("192.168.0.101:5555 (offline)");
+        long now = System.currentTimeMillis();
+        // Devices we have used come first; discovery only adds the ones we have not
+        for (DeviceRegistry.Device device : deviceRegistry.devices()) {
+            DeviceCache.Entry entry = deviceCache.get(device.serial);
+            devices.add(entry != null ? deviceLabel(entry, now) : registryLabel(device));
+        }
+        for (DeviceCache.Entry entry : deviceCache.entries(now)) {
+            if (deviceRegistry.get(entry.serial) == null) {
+                devices.add(deviceLabel(entry, now));
+            }
+        }
+        deviceAdapter.notifyDataSetChanged();
+    }
+    
+    private static String registryLabel(DeviceRegistry.Device device) {
+        return device.serial + " (" + device.label() + ", known)";
+    }
+    
+    private static String deviceLabel(DeviceCache.Entry entry, long now) {
+        String state = entry.isFresh(now) ? "online" : "last seen";
+        return entry.name != null ? entry.serial + " (" + entry.name + ", " + state + ")" : entry.serial + " (" + state + ")";
+    }
+    
+    public DeviceCache getDeviceCache() {
+        return deviceCache;
+    }
+    
+    public MdnsDiscovery getMdnsDiscovery() {
+        return mdnsDiscovery;
+    }
+    
+    // Address clients connect to, token included, or null while the control server is off
+    public String getControlServerAddress() {
+        return controlServer != null
+                ? "ws://" + getLocalIpAddress() + ":" + controlServer.getPort() + "/?token=" + controlServerToken
+                : null;
+    }
+    
+    // Keeps running when the activity is destroyed, like the sessions it drives
+    public void setControlServerEnabled(boolean enabled) throws IOException {
+        if (!enabled) {
+            if (controlServer != null) {
+                controlServer.close();
+                controlServer = null;
+            }
+            return;
+        }
+        if (controlServer == null) {
+            if (controlApi == null) {
+                controlApi = new ControlApi(adbSessions, devicePool, lanes);
+                controlApi.setDisplayGeometry(displayGeometry);
+            }
+            String[] parts = getLocalIpAddress().split("\\.");
+            controlApi.setDefaultRange(parts[0] + "." + parts[1] + "." + parts[2] + ".0/24");
+            controlServerToken = ControlServer.loadToken(new File(getFilesDir(), "control.token"));
+            ControlServer server = new ControlServer(controlApi, controlServerToken);
+            server.start(InetAddress.getByName("0.0.0.0"), ControlServer.DEFAULT_PORT);
+            controlServer = server;
+        }
+    }
+    
+    // Adds (or re-selects) a device found by a scan; state is shown next to the serial
+    public void addDevice(String serial, String state) {
+        deviceSpinner.setSelection(showDevice(serial + " (" + state + ")"));
+    }
+    
+    // Adds or updates a spinner entry without changing the selection; returns its position
+    private int showDevice(String label) {
+        String serial = label.substring(0, label.indexOf(' '));
+        for (int i = 1; i < devices.size(); i++) {
+            if (devices.get(i).startsWith(serial + " ")) {
+                devices.set(i, label);
+                deviceAdapter.notifyDataSetChanged();
+                return i;
+            }
+        }
+        devices.add(label);
         deviceAdapter.notifyDataSetChanged();
+        return devices.size() - 1;
+    }
+    
+    // Remembers a device in the cache and shows it; callable from any thread
+    public void onDeviceDiscovered(String serial, String name, int source, long ttlMs) {
+        long now = System.currentTimeMillis();
+        DeviceCache.Entry entry = deviceCache.put(serial, name, source, ttlMs, now);
+        String label = deviceLabel(entry, now);
+        saveDeviceCache();
+        runOnUiThread(() -> showDevice(label));
+    }
+    
+    // File writes stay off the UI thread; save() holds the registry lock, so it writes a consistent state
+    private void saveDeviceRegistry() {
+        lanes.discovery.execute(() -> {
+            try {
+                deviceRegistry.save();
+            } catch (IOException e) {
+                // Only costs the warm reconnect on next launch
+            }
+        });
+    }
+    
+    // Connects and opens the input shell in the background so the first key press is immediate
+    private void warmUp(String serial) {
+        if (serial.equals(warmSerial) && adbSessions.get(serial).isConnected()) {
+            return;
+        }
+        warmSerial = serial;
+        adbSessions.get(serial).warmUp(new AdbSession.Callback() {
+            @Override
+            public void onSuccess(String banner, long latencyNanos) {
+                long fingerprint = 0;
+                try {
+                    fingerprint = adbSessions.getCrypto().fingerprint();
+                } catch (IOException e) {
+                    // Unreachable: the key was loaded to connect
+                }
+                DeviceRegistry.Device device = deviceRegistry.onConnected(serial, banner, fingerprint,
+                        System.currentTimeMillis());
+                saveDeviceRegistry();
+                startupTrace.mark(StartupTrace.CONNECTED);
+                long latencyMs = latencyNanos / 1000000;
+                runOnUiThread(() -> statusText.setText("Connected to " + device.label() + " (" + latencyMs + " ms)"));
+            }
+            
+            @Override
+            public void onFailure(IOException error) {
+                runOnUiThread(() -> {
+                    if (serial.equals(warmSerial)) {
+                        warmSerial = null;
+                    }
+                    statusText.setText("Could not connect to " + serial + ": " + error.getMessage());
+                });
+            }
+        });
+    }
+    
+    private void saveDeviceCache() {
+        lanes.discovery.execute(() -> {
+            try {
+                deviceCache.save();
+            } catch (IOException e) {
+                // Only costs the instant spinner fill on next launch
+            }
+        });
     }
     
+    private final MdnsDiscovery.Listener mdnsListener = new MdnsDiscovery.Listener() {
+        @Override
+        public void onServiceFound(MdnsDiscovery.Service service) {
+            onDeviceDiscovered(service.getAdbSerial(), service.getName(), DeviceCache.SOURCE_MDNS,
+                    service.ttlSeconds * 1000);
+        }
+        
+        @Override
+        public void onServiceLost(MdnsDiscovery.Service service) {
+            long now = System.currentTimeMillis();
+            deviceCache.expire(service.getAdbSerial(), now);
+            DeviceCache.Entry entry = deviceCache.get(service.getAdbSerial());
+            if (entry != null) {
+                String label = deviceLabel(entry, now);
+                runOnUiThread(() -> showDevice(label));
+            }
+        }
+    };
+    
     private void refreshDevices() {
         statusText.setText("Refreshing devices...");
-        // In a real implementation, we would scan for devices here
         loadDevices();
+        // Pooled devices update themselves; this only restores their labels after the reload
+        for (DevicePool.Status status : devicePool.statuses()) {
+            poolListener.onStatusChanged(status);
+        }
+        mdnsDiscovery.requery();
+        String selected = getSelectedDeviceId();
+        if (selected != null) {
+            deviceStates.refresh(selected);
+        }
         statusText.setText("Devices refreshed");
         Toast.makeText(this, "Devices refreshed", Toast.LENGTH_SHORT).show();
     }
@@ -104,7 +475,15 @@ public class MainActivity extends Activity {
         if (selectedPosition > 0) {
             String device = devices.get(selectedPosition);
             statusText.setText("Disconnecting device: " + device);
-            // In a real implementation, we would disconnect the device here
+            String serial = getSelectedDeviceId();
+            devicePool.remove(serial);
+            deviceStates.unwatch(serial);
+            // Remembered, but no longer reconnected at launch
+            deviceRegistry.clearAutoConnect(serial);
+            saveDeviceRegistry();
+            if (serial.equals(warmSerial)) {
+                warmSerial = null;
+            }
             devices.remove(selectedPosition);
             deviceAdapter.notifyDataSetChanged();
             deviceSpinner.setSelection(0);
@@ -117,42 +496,508 @@ public class MainActivity extends Activity {
     }
     
     private void switchToTab(int tabIndex) {
-        // Reset all tabs
-        tabRemote.setBackgroundColor(getResources().getColor(R.color.buttonNormal));
-        tabNetwork.setBackgroundColor(getResources().getColor(R.color.buttonNormal));
-        tabScreen.setBackgroundColor(getResources().getColor(R.color.buttonNormal));
+        if (tabIndex == currentTab) {
+            return;
+        }
+        long startNanos = System.nanoTime();
+        Button[] buttons = { tabRemote, tabNetwork, tabScreen, tabDiagnostics, tabWall };
+        for (int i = 0; i < TAB_COUNT; i++) {
+            boolean selected = i == tabIndex;
+            buttons[i].setBackgroundColor(getResources().getColor(selected ? R.color.colorPrimary : R.color.buttonNormal));
+            buttons[i].setTextColor(getResources().getColor(selected ? android.R.color.white : R.color.textSecondary));
+        }
         
-        tabRemote.setTextColor(getResources().getColor(R.color.textSecondary));
-        tabNetwork.setTextColor(getResources().getColor(R.color.textSecondary));
-        tabScreen.setTextColor(getResources().getColor(R.color.textSecondary));
+        // Hides every other tab, not just the current one, in case the system restored several
+        FragmentTransaction transaction = getFragmentManager().beginTransaction();
+        for (int i = 0; i < TAB_COUNT; i++) {
+            if (i != tabIndex && tabs[i] != null && !tabs[i].isHidden()) {
+                transaction.hide(tabs[i]);
+            }
+        }
+        boolean created = tabs[tabIndex] == null;
+        if (created) {
+            tabs[tabIndex] = createTab(tabIndex);
+            transaction.add(R.id.tabContent, tabs[tabIndex], tabTag(tabIndex));
+        } else {
+            transaction.show(tabs[tabIndex]);
+        }
+        transaction.commit();
+        // Builds the new tab's view now, so the frame measured below is the one that shows it
+        getFragmentManager().executePendingTransactions();
+        currentTab = tabIndex;
         
-        // Highlight selected tab
+        whenDrawn(() -> {
+            long elapsedNanos = System.nanoTime() - startNanos;
+            metrics.tabSwitch.record(elapsedNanos);
+            Log.i(TAG, "Tab switch to " + tabIndex + (created ? " (new)" : " (cached)") + ": "
+                    + elapsedNanos / 1000000 + " ms");
+        });
+    }
+    
+    private static Fragment createTab(int tabIndex) {
         switch (tabIndex) {
-            case 0: // Remote
-                tabRemote.setBackgroundColor(getResources().getColor(R.color.colorPrimary));
-                tabRemote.setTextColor(getResources().getColor(android.R.color.white));
-                // Load remote fragment
-                getFragmentManager().beginTransaction()
-                    .replace(R.id.tabContent, new RemoteFragment())
-                    .commit();
-                break;
-            case 1: // Network
-                tabNetwork.setBackgroundColor(getResources().getColor(R.color.colorPrimary));
-                tabNetwork.setTextColor(getResources().getColor(android.R.color.white));
-                // Load network fragment
-                getFragmentManager().beginTransaction()
-                    .replace(R.id.tabContent, new NetworkFragment())
-                    .commit();
-                break;
-            case 2: // Screen
-                tabScreen.setBackgroundColor(getResources().getColor(R.color.colorPrimary));
-                tabScreen.setTextColor(getResources().getColor(android.R.color.white));
-                // Load screen fragment
-                getFragmentManager().beginTransaction()
-                    .replace(R.id.tabContent, new ScreenFragment())
-                    .commit();
-                break;
+            case 1: return new NetworkFragment();
+            case 2: return new ScreenFragment();
+            case 3: return new DiagnosticsFragment();
+            case 4: return new WallFragment();
+            default: return new RemoteFragment();
+        }
+    }
+    
+    private static String tabTag(int tabIndex) {
+        return "tab" + tabIndex;
+    }
+    
+    // Runs the action once, just before the next frame is drawn
+    private void whenDrawn(Runnable action) {
+        ViewTreeObserver observer = getWindow().getDecorView().getViewTreeObserver();
+        observer.addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                getWindow().getDecorView().getViewTreeObserver().removeOnPreDrawListener(this);
+                action.run();
+                return true;
+            }
+        });
+    }
+    
+    // Startup benchmark: walks through the tabs, each switch once the previous one was drawn
+    private void benchmarkTabs(int step, int steps) {
+        if (step > steps) {
+            Log.i(TAG, "Tab switch benchmark done: " + metrics.tabSwitch.snapshot().summary());
+            return;
+        }
+        findViewById(R.id.tabContent).post(() -> {
+            switchToTab(step % TAB_COUNT);
+            whenDrawn(() -> benchmarkTabs(step + 1, steps));
+        });
+    }
+    
+    // Serial ("host:port") of the device picked in the spinner, or null
+    public String getSelectedDeviceId() {
+        int selectedPosition = deviceSpinner.getSelectedItemPosition();
+        if (selectedPosition <= 0) {
+            return null;
+        }
+        String entry = devices.get(selectedPosition);
+        int space = entry.indexOf(' ');
+        return space > 0 ? entry.substring(0, space) : entry;
+    }
+    
+    // Picks a device from the wall and opens its mirror
+    public void mirrorDevice(String serial) {
+        for (int i = 1; i < devices.size(); i++) {
+            if (devices.get(i).startsWith(serial + " ")) {
+                deviceSpinner.setSelection(i);
+                switchToTab(2);
+                return;
+            }
+        }
+        addDevice(serial, "online");
+        switchToTab(2);
+    }
+    
+    public AdbSession getSelectedSession() {
+        String deviceId = getSelectedDeviceId();
+        return deviceId != null ? adbSessions.get(deviceId) : null;
+    }
+    
+    // Only the selected device is polled; the previous one stops costing anything
+    private void watchState(String serial) {
+        if (serial.equals(stateSerial)) {
+            return;
+        }
+        if (stateSerial != null) {
+            deviceStates.unwatch(stateSerial);
+        }
+        stateSerial = serial;
+        deviceStates.watch(serial);
+        showDeviceState(deviceStates.get(serial));
+    }
+    
+    // Null until the selected device has been probed
+    public DeviceState getSelectedDeviceState() {
+        String serial = getSelectedDeviceId();
+        return serial != null ? deviceStates.get(serial) : null;
+    }
+    
+    /*
+     * POWER toggles, so pressing it "just in case" turns a TV that was on off. With a known
+     * state the explicit SLEEP and WAKEUP keys are sent instead; they do nothing if the TV is
+     * already there.
+     */
+    public void togglePower() {
+        DeviceState state = getSelectedDeviceState();
+        if (state == null || state.power == DeviceState.POWER_UNKNOWN) {
+            sendKey(KeyEvent.KEYCODE_POWER);
+        } else {
+            sendKey(state.power == DeviceState.POWER_ON ? KeyEvent.KEYCODE_SLEEP : KeyEvent.KEYCODE_WAKEUP);
+        }
+    }
+    
+    private void showDeviceState(DeviceState state) {
+        Fragment remote = tabs[0];
+        if (remote instanceof RemoteFragment && remote.getView() != null) {
+            ((RemoteFragment) remote).showDeviceState(state);
+        }
+    }
+    
+    public void sendKey(int keyCode) {
+        startupTrace.mark(StartupTrace.FIRST_KEY);
+        AdbSession session = requireSession();
+        if (session != null) {
+            macroRecorder.key(keyCode);
+        }
+        if (session == null || inputAgent(session).pressKey(keyCode)) {
+            return;
+        }
+        if (!inputPipeline(session).submitKey(keyCode)) {
+            statusText.setText("Device is not keeping up, input dropped");
+        }
+    }
+    
+    // Goes through the injection agent once it runs, `input tap` on the shell until then
+    public void sendTap(int x, int y) {
+        AdbSession session = requireSession();
+        if (session != null) {
+            macroRecorder.tap(x, y);
+        }
+        if (session == null || inputAgent(session).tap(x, y)) {
+            return;
+        }
+        if (!inputPipeline(session).submitCommand("input tap " + x + " " + y)) {
+            statusText.setText("Device is not keeping up, input dropped");
+        }
+    }
+    
+    // The selected device's injection agent (started if needed), or null without a device
+    public InputAgentClient getSelectedInputAgent() {
+        AdbSession session = requireSession();
+        return session != null ? inputAgent(session) : null;
+    }
+    
+    // The selected device's display geometry, delivered on the UI thread; cached after the first query
+    public void requestDisplayGeometry(DisplayGeometryService.Listener listener) {
+        String serial = getSelectedDeviceId();
+        if (serial != null) {
+            displayGeometry.request(serial, onUiThread(listener));
+        }
+    }
+    
+    // Mirrored frames reveal rotation and resolution changes; the listener hears the new geometry
+    public void onMirrorFrameSize(int width, int height, boolean exact, DisplayGeometryService.Listener listener) {
+        String serial = getSelectedDeviceId();
+        if (serial != null) {
+            displayGeometry.onFrameSize(serial, width, height, exact, onUiThread(listener));
+        }
+    }
+    
+    private DisplayGeometryService.Listener onUiThread(DisplayGeometryService.Listener listener) {
+        return (serial, geometry) -> runOnUiThread(() -> listener.onGeometry(serial, geometry));
+    }
+    
+    // Gestures the agent could not stream are sent as a single `input` command instead
+    public void onGestureEnd(int x, int y, int toX, int toY, int durationMs, boolean streamed) {
+        boolean tap = Math.abs(toX - x) < 8 && Math.abs(toY - y) < 8;
+        if (tap) {
+            macroRecorder.tap(x, y);
+        } else {
+            macroRecorder.swipe(x, y, toX, toY, durationMs, System.nanoTime() - durationMs * 1000000L);
+        }
+        if (streamed) {
+            return;
+        }
+        AdbSession session = requireSession();
+        String command = tap ? "input tap " + x + " " + y
+                : "input swipe " + x + " " + y + " " + toX + " " + toY + " " + Math.max(durationMs, 50);
+        if (session != null && !inputPipeline(session).submitCommand(command)) {
+            statusText.setText("Device is not keeping up, input dropped");
+        }
+    }
+    
+    // Mirrors the phone-side text field into the focused TV field; only the change goes out
+    public void syncText(CharSequence text) {
+        AdbSession session = requireSession();
+        if (session == null) {
+            return;
+        }
+        inputPipeline(session);
+        if (!session.getTextInjector().sync(text)) {
+            statusText.setText("Device is not keeping up, rest of the text follows");
+        }
+    }
+    
+    // Presses ENTER after the text and starts over with an empty field
+    public void submitText(CharSequence text) {
+        AdbSession session = requireSession();
+        if (session == null) {
+            return;
+        }
+        inputPipeline(session);
+        TextInjector injector = session.getTextInjector();
+        if (!injector.sync(text) || !injector.pressKey(TextInjector.KEYCODE_ENTER)) {
+            statusText.setText("Device is not keeping up, input dropped");
+        }
+        injector.reset();
+    }
+    
+    // The TV field no longer holds what was typed here, e.g. after switching devices
+    public void resetText() {
+        AdbSession session = getSelectedSession();
+        if (session != null) {
+            session.getTextInjector().reset();
+        }
+    }
+    
+    // Input commands (tap, swipe) share the key pipeline so they stay in order with keys
+    public void sendInputCommand(String command) {
+        AdbSession session = requireSession();
+        if (session != null && !inputPipeline(session).submitCommand(command)) {
+            statusText.setText("Device is not keeping up, input dropped");
+        }
+    }
+    
+    public boolean isRecordingMacro() {
+        return macroRecorder.isRecording();
+    }
+    
+    public void startMacroRecording() {
+        macroRecorder.start();
+        statusText.setText("Recording macro...");
+    }
+    
+    // Playback waits here for the screen to stop changing, e.g. for an app to finish opening
+    public void addMacroCheckpoint() {
+        if (macroRecorder.isRecording()) {
+            macroRecorder.checkpoint(500);
+            statusText.setText("Checkpoint added");
+        }
+    }
+    
+    public void stopMacroRecording(String name) {
+        Macro macro = macroRecorder.stop(name);
+        if (macro.steps.isEmpty()) {
+            statusText.setText("Nothing recorded");
+            return;
+        }
+        File file = new File(getDir("macros", MODE_PRIVATE), name + MACRO_SUFFIX);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            macro.writeTo(out);
+            statusText.setText("Saved " + name + " (" + macro.steps.size() + " steps, " + file.length() + " bytes)");
+        } catch (IOException e) {
+            statusText.setText("Could not save macro: " + e.getMessage());
+        }
+    }
+    
+    public void discardMacroRecording() {
+        macroRecorder.stop(null);
+        statusText.setText("Recording discarded");
+    }
+    
+    public List<String> getMacroNames() {
+        List<String> names = new ArrayList<>();
+        String[] files = getDir("macros", MODE_PRIVATE).list();
+        if (files != null) {
+            Arrays.sort(files);
+            for (String file : files) {
+                if (file.endsWith(MACRO_SUFFIX)) {
+                    names.add(file.substring(0, file.length() - MACRO_SUFFIX.length()));
+                }
+            }
         }
+        return names;
+    }
+    
+    public void playMacro(String name) {
+        AdbSession session = requireSession();
+        if (session == null) {
+            return;
+        }
+        InputAgentClient agent = inputAgent(session);
+        if (!agent.isReady()) {
+            statusText.setText("Input agent is starting, try again in a moment");
+            return;
+        }
+        CompiledMacro macro;
+        File file = new File(getDir("macros", MODE_PRIVATE), name + MACRO_SUFFIX);
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            macro = CompiledMacro.compile(Macro.readFrom(in));
+        } catch (IOException e) {
+            statusText.setText("Could not load macro: " + e.getMessage());
+            return;
+        }
+        if (macroPlayer != null) {
+            macroPlayer.cancel();
+        }
+        macroPlayer = new MacroPlayer(agent, new ScreenSettleDetector(session));
+        statusText.setText("Playing " + name + "...");
+        macroPlayer.playAsync(lanes.input, macro, new MacroPlayer.Listener() {
+            @Override
+            public void onPlaybackComplete(MacroPlayer.Result result) {
+                runOnUiThread(() -> statusText.setText(result.summary()));
+            }
+            
+            @Override
+            public void onPlaybackFailed(IOException error) {
+                runOnUiThread(() -> statusText.setText("Macro failed: " + error.getMessage()));
+            }
+        });
+    }
+    
+    public List<String> getGroupNames() {
+        return deviceRegistry.groupNames();
+    }
+    
+    public boolean addSelectedDeviceToGroup(String group) {
+        String serial = getSelectedDeviceId();
+        if (serial == null) {
+            statusText.setText("Please select a device first");
+            return false;
+        }
+        deviceRegistry.addToGroup(serial, group);
+        saveDeviceRegistry();
+        statusText.setText("Added " + serial + " to " + group);
+        return true;
+    }
+    
+    // Sends the keys to every device in the group (null: every pooled device) at once
+    public void broadcastKeys(String group, int... keyCodes) {
+        List<String> serials = new ArrayList<>();
+        if (group != null) {
+            serials.addAll(deviceRegistry.members(group));
+        } else {
+            for (DevicePool.Status status : devicePool.statuses()) {
+                serials.add(status.serial);
+            }
+        }
+        if (serials.isEmpty()) {
+            statusText.setText("No devices to send to");
+            return;
+        }
+        for (String serial : serials) {
+            // So each device's acks are recorded against it
+            inputPipeline(adbSessions.get(serial));
+        }
+        statusText.setText("Sending to " + serials.size() + " devices...");
+        broadcaster.sendAsync(lanes.input, serials, keyCodes, Broadcaster.DEFAULT_TIMEOUT_MS,
+                report -> runOnUiThread(() -> statusText.setText(report.summary())));
+    }
+    
+    public void sendShellCommand(String command) {
+        AdbSession session = requireSession();
+        if (session != null) {
+            session.shell(command, statusCallback);
+        }
+    }
+    
+    private InputAgentClient inputAgent(AdbSession session) {
+        InputAgentClient agent = session.getInputAgent(new File(getPackageCodePath()));
+        if (!agent.isReady()) {
+            agent.startAsync();
+        }
+        return agent;
+    }
+    
+    private InputPipeline inputPipeline(AdbSession session) {
+        InputPipeline pipeline = session.getInputPipeline();
+        String serial = session.getSerial();
+        InputPipeline.Listener listener = pipelineListeners.get(serial);
+        if (listener == null) {
+            listener = pipelineListener(serial);
+            pipelineListeners.put(serial, listener);
+        }
+        pipeline.setListener(listener);
+        return pipeline;
+    }
+    
+    private AdbSession requireSession() {
+        String deviceId = getSelectedDeviceId();
+        if (deviceId == null) {
+            statusText.setText("Please select a device first");
+            Toast.makeText(this, "Please select a device first", Toast.LENGTH_SHORT).show();
+            return null;
+        }
+        // Keeps the device in use from being evicted from the pool, and its state polled closely
+        devicePool.touch(deviceId);
+        deviceStates.onInput(deviceId);
+        return adbSessions.get(deviceId);
+    }
+    
+    // Session callbacks arrive on the session thread
+    private final AdbSession.Callback statusCallback = new AdbSession.Callback() {
+        @Override
+        public void onSuccess(String output, long latencyNanos) {
+            long latencyMs = latencyNanos / 1000000;
+            runOnUiThread(() -> statusText.setText("Command sent (" + latencyMs + " ms)"));
+        }
+        
+        @Override
+        public void onFailure(IOException error) {
+            runOnUiThread(() -> statusText.setText("Command failed: " + error.getMessage()));
+        }
+    };
+    
+    // Live state and heartbeat round trip next to each pooled device; arrives on a pool thread
+    private final DevicePool.Listener poolListener = status -> runOnUiThread(() -> {
+        DeviceRegistry.Device device = deviceRegistry.get(status.serial);
+        DeviceCache.Entry entry = deviceCache.get(status.serial);
+        String name = device != null ? device.label() : entry != null ? entry.label() : null;
+        String state = status.describe();
+        showDevice(name != null && !name.equals(status.serial)
+                ? status.serial + " (" + name + ", " + state + ")" : status.serial + " (" + state + ")");
+    });
+    
+    private final DeviceStateService.Listener stateListener = (serial, state) -> runOnUiThread(() -> {
+        if (serial.equals(getSelectedDeviceId())) {
+            showDeviceState(state);
+        }
+    });
+    
+    // One per device, so acks are recorded against the device that sent them, not the one selected
+    private InputPipeline.Listener pipelineListener(String serial) {
+        DeviceMetrics deviceMetrics = metrics.device(serial);
+        return new InputPipeline.Listener() {
+            @Override
+            public void onAcked(int events, long latencyNanos) {
+                long latencyMs = latencyNanos / 1000000;
+                boolean firstAck = startupTrace.mark(StartupTrace.FIRST_KEY_ACKED);
+                if (firstAck) {
+                    Log.i(TAG, startupTrace.summary());
+                }
+                metrics.keyAck.record(latencyNanos);
+                deviceMetrics.keyAck.record(latencyNanos);
+                runOnUiThread(() -> {
+                    deviceRegistry.addLatency(serial, latencyNanos);
+                    statusText.setText(firstAck ? startupTrace.summary()
+                            : "Sent " + events + " input event(s) (" + latencyMs + " ms)");
+                });
+            }
+            
+            @Override
+            public void onError(IOException error) {
+                runOnUiThread(() -> statusText.setText("Input failed: " + error.getMessage()));
+            }
+        };
+    }
+    
+    public static Metrics getMetrics() {
+        return metrics;
+    }
+    
+    public static Lanes getLanes() {
+        return lanes;
+    }
+    
+    public static AdbSessions getAdbSessions() {
+        return adbSessions;
+    }
+    
+    public static DevicePool getDevicePool() {
+        return devicePool;
+    }
+    
+    public static StartupTrace getStartupTrace() {
+        return startupTrace;
     }
     
     // Get local IP address for network scanning
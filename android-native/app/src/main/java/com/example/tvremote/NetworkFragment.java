@@ -1,6 +1,5 @@
 package com.example.tvremote;
 
-import android.app.Fragment;
 import android.os.Bundle;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -12,13 +11,29 @@ import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
-public class NetworkFragment extends Fragment {
+import com.example.tvremote.discovery.CidrRange;
+import com.example.tvremote.discovery.DeviceCache;
+import com.example.tvremote.discovery.SubnetScanner;
+import com.example.tvremote.task.TaskScope;
+
+import java.io.IOException;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+public class NetworkFragment extends ScopedFragment {
     private EditText networkRange;
     private Button scanNetwork;
     private TextView scanStatus;
     private ProgressBar scanProgress;
     private TextView progressText;
     private LinearLayout discoveredDevices;
+    private Button controlServer;
+    
+    private final SubnetScanner scanner = new SubnetScanner();
+    // One row per serial, whether it came from the cache, mDNS or this scan
+    private final Map<String, TextView> deviceRows = new HashMap<>();
     
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
@@ -37,10 +52,29 @@ public class NetworkFragment extends Fragment {
         scanProgress = view.findViewById(R.id.scanProgress);
         progressText = view.findViewById(R.id.progressText);
         discoveredDevices = view.findViewById(R.id.discoveredDevices);
+        controlServer = view.findViewById(R.id.controlServer);
+        showControlServer();
     }
     
     private void setupListeners() {
         scanNetwork.setOnClickListener(v -> scanNetwork());
+        controlServer.setOnClickListener(v -> toggleControlServer());
+    }
+    
+    private void toggleControlServer() {
+        MainActivity mainActivity = (MainActivity) getActivity();
+        try {
+            mainActivity.setControlServerEnabled(mainActivity.getControlServerAddress() == null);
+        } catch (IOException e) {
+            Toast.makeText(getActivity(), "Control server failed: " + e.getMessage(), Toast.LENGTH_LONG).show();
+        }
+        showControlServer();
+    }
+    
+    private void showControlServer() {
+        // The address carries the token, which kiosks need to be let in
+        String address = ((MainActivity) getActivity()).getControlServerAddress();
+        controlServer.setText(address != null ? "Stop control server (" + address + ")" : "Start control server");
     }
     
     private void scanNetwork() {
@@ -54,50 +88,102 @@ public class NetworkFragment extends Fragment {
             range = parts[0] + "." + parts[1] + "." + parts[2] + ".0/24";
         }
         
-        scanStatus.setText("Scanning network range: " + range);
+        CidrRange cidr;
+        try {
+            cidr = CidrRange.parse(range);
+        } catch (IllegalArgumentException e) {
+            scanStatus.setText(e.getMessage());
+            return;
+        }
         
-        // In a real implementation, this would scan the network
-        // For now, we'll simulate the scanning process
-        simulateNetworkScan();
-    }
-    
-    private void simulateNetworkScan() {
-        // Reset progress
+        scanStatus.setText("Scanning network range: " + cidr);
+        scanNetwork.setEnabled(false);
         scanProgress.setProgress(0);
         progressText.setText("0%");
+        discoveredDevices.removeAllViews();
+        deviceRows.clear();
+        
+        // Devices already known from mDNS or earlier scans show up straight away
+        MainActivity mainActivity = (MainActivity) getActivity();
+        long now = System.currentTimeMillis();
+        for (DeviceCache.Entry entry : mainActivity.getDeviceCache().entries(now)) {
+            if (entry.isFresh(now)) {
+                addDiscoveredDevice(entry.serial, entry.serial + " (" + entry.label() + ")", "connected");
+            }
+        }
+        mainActivity.getMdnsDiscovery().requery();
         
-        // Simulate scanning
-        new Thread(() -> {
-            for (int i = 0; i <= 100; i += 10) {
-                final int progress = i;
-                getActivity().runOnUiThread(() -> {
+        // Results stream in from a discovery thread as each host answers. Leaving the tab ends the
+        // scope, which stops the scan and drops any results still on their way to the views.
+        TaskScope scope = scope();
+        SubnetScanner.Listener listener = new SubnetScanner.Listener() {
+            @Override
+            public void onFound(SubnetScanner.Result result) {
+                if (result.kind != SubnetScanner.Result.KIND_ADB_SERVER) {
+                    mainActivity.onDeviceDiscovered(result.getSerial(), result.getModel(),
+                            DeviceCache.SOURCE_SCAN, DeviceCache.SCAN_TTL_MS);
+                }
+                scope.ui(() -> addDiscoveredDevice(result));
+            }
+            
+            @Override
+            public void onProgress(int done, int total) {
+                int progress = (int) (done * 100L / total);
+                scope.ui(() -> {
                     scanProgress.setProgress(progress);
                     progressText.setText(progress + "%");
                 });
-                
-                try {
-                    Thread.sleep(200);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
             }
             
-            getActivity().runOnUiThread(() -> {
-                scanStatus.setText("Scan complete. Found 2 potential devices.");
-                addDiscoveredDevice("192.168.0.100:5555");
-                addDiscoveredDevice("192.168.0.102:5555");
-            });
-        }).start();
+            @Override
+            public void onComplete(int found, long elapsedNanos) {
+                if (!scope.isCancelled()) {
+                    MainActivity.getMetrics().scan.record(elapsedNanos);
+                }
+                scope.ui(() -> {
+                    scanNetwork.setEnabled(true);
+                    scanStatus.setText(String.format(Locale.US, "Scan complete in %.1f s. Found %d potential devices.",
+                            elapsedNanos / 1e9, found));
+                });
+            }
+        };
+        scope.submit(lanes().discovery, () -> {
+            try {
+                scanner.scan(cidr, listener);
+            } catch (IOException e) {
+                listener.onComplete(0, 0);
+            }
+        });
     }
     
-    private void addDiscoveredDevice(String deviceId) {
-        // In a real implementation, this would add a button to connect to the device
-        TextView deviceView = new TextView(getActivity());
-        deviceView.setText(deviceId);
-        deviceView.setPadding(16, 16, 16, 16);
-        deviceView.setBackgroundResource(R.color.surfaceDark);
-        deviceView.setMarginBottom(8);
-        
-        discoveredDevices.addView(deviceView);
+    private void addDiscoveredDevice(SubnetScanner.Result result) {
+        TextView deviceView = addDiscoveredDevice(result.getSerial(), result.toString(),
+                result.kind == SubnetScanner.Result.KIND_DEVICE ? "connected" : "unauthorized");
+        if (result.kind == SubnetScanner.Result.KIND_ADB_SERVER) {
+            // A desktop adb server, not a TV; shown for reference only
+            deviceView.setEnabled(false);
+            deviceView.setOnClickListener(null);
+        }
+    }
+    
+    private TextView addDiscoveredDevice(String serial, String text, String state) {
+        TextView deviceView = deviceRows.get(serial);
+        if (deviceView == null) {
+            deviceView = new TextView(getActivity());
+            deviceView.setPadding(16, 16, 16, 16);
+            deviceView.setBackgroundResource(R.color.surfaceDark);
+            LinearLayout.LayoutParams params = new LinearLayout.LayoutParams(
+                    LinearLayout.LayoutParams.MATCH_PARENT, LinearLayout.LayoutParams.WRAP_CONTENT);
+            params.bottomMargin = 8;
+            deviceView.setLayoutParams(params);
+            deviceRows.put(serial, deviceView);
+            discoveredDevices.addView(deviceView);
+        }
+        deviceView.setText(text);
+        deviceView.setOnClickListener(v -> {
+            ((MainActivity) getActivity()).addDevice(serial, state);
+            Toast.makeText(getActivity(), "Added " + serial, Toast.LENGTH_SHORT).show();
+        });
+        return deviceView;
     }
-}
\ No newline at end of file
+}
@@ -1,26 +1,50 @@
 package com.example.tvremote;
 
+import android.app.AlertDialog;
 import android.app.Fragment;
 import android.os.Bundle;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.view.KeyEvent;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.ArrayAdapter;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.LinearLayout;
+import android.widget.Spinner;
+import android.widget.TextView;
 import android.widget.Toast;
 
+import com.example.tvremote.state.DeviceState;
+
+import java.util.ArrayList;
+import java.util.List;
+
 public class RemoteFragment extends Fragment {
+    private static final int TARGET_SELECTED = 0;
+    private static final int TARGET_ALL = 1;
+    
+    private Spinner targetSpinner;
+    private Button addToGroup;
+    private Button recordMacro;
+    private Button playMacro;
+    private final List<String> targets = new ArrayList<>();
+    private ArrayAdapter<String> targetAdapter;
     private Button navUp, navDown, navLeft, navRight, navCenter;
     private Button actionBack, actionHome, actionMenu;
     private Button volUp, mute, volDown;
     private Button power;
+    private TextView deviceState;
     private Button toggleKeyboard;
     private LinearLayout keyboardSection;
     private EditText visibleInput;
     private Button clearInput, sendInput;
     
     private boolean keyboardVisible = false;
+    // Set while the field is changed locally, so the change is not mirrored to the TV
+    private boolean ignoreTextChanges = false;
     
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
@@ -28,11 +52,18 @@ public class RemoteFragment extends Fragment {
         
         initializeViews(view);
         setupListeners();
+        setupTargetSpinner();
+        showDeviceState(((MainActivity) getActivity()).getSelectedDeviceState());
         
         return view;
     }
     
     private void initializeViews(View view) {
+        targetSpinner = view.findViewById(R.id.targetSpinner);
+        addToGroup = view.findViewById(R.id.addToGroup);
+        recordMacro = view.findViewById(R.id.recordMacro);
+        playMacro = view.findViewById(R.id.playMacro);
+        
         navUp = view.findViewById(R.id.navUp);
         navDown = view.findViewById(R.id.navDown);
         navLeft = view.findViewById(R.id.navLeft);
@@ -48,6 +79,7 @@ public class RemoteFragment extends Fragment {
         volDown = view.findViewById(R.id.volDown);
         
         power = view.findViewById(R.id.power);
+        deviceState = view.findViewById(R.id.deviceState);
         
         toggleKeyboard = view.findViewById(R.id.toggleKeyboard);
         keyboardSection = view.findViewById(R.id.keyboardSection);
@@ -57,25 +89,42 @@ public class RemoteFragment extends Fragment {
     }
     
     private void setupListeners() {
+        addToGroup.setOnClickListener(v -> showAddToGroupDialog());
+        
+        // Macros: long-press Record while recording to add a wait-for-screen checkpoint
+        recordMacro.setOnClickListener(v -> toggleRecording());
+        recordMacro.setOnLongClickListener(v -> {
+            ((MainActivity) getActivity()).addMacroCheckpoint();
+            return true;
+        });
+        playMacro.setOnClickListener(v -> showMacrosDialog());
+        
         // Navigation buttons
-        navUp.setOnClickListener(v -> sendCommand("input keyevent KEYCODE_DPAD_UP"));
-        navDown.setOnClickListener(v -> sendCommand("input keyevent KEYCODE_DPAD_DOWN"));
-        navLeft.setOnClickListener(v -> sendCommand("input keyevent KEYCODE_DPAD_LEFT"));
-        navRight.setOnClickListener(v -> sendCommand("input keyevent KEYCODE_DPAD_RIGHT"));
-        navCenter.setOnClickListener(v -> sendCommand("input keyevent KEYCODE_DPAD_CENTER"));
+        navUp.setOnClickListener(v -> sendKey(KeyEvent.KEYCODE_DPAD_UP));
+        navDown.setOnClickListener(v -> sendKey(KeyEvent.KEYCODE_DPAD_DOWN));
+        navLeft.setOnClickListener(v -> sendKey(KeyEvent.KEYCODE_DPAD_LEFT));
+        navRight.setOnClickListener(v -> sendKey(KeyEvent.KEYCODE_DPAD_RIGHT));
+        navCenter.setOnClickListener(v -> sendKey(KeyEvent.KEYCODE_DPAD_CENTER));
         
         // Action buttons
-        actionBack.setOnClickListener(v -> sendCommand("input keyevent KEYCODE_BACK"));
-        actionHome.setOnClickListener(v -> sendCommand("input keyevent KEYCODE_HOME"));
-        actionMenu.setOnClickListener(v -> sendCommand("input keyevent KEYCODE_MENU"));
+        actionBack.setOnClickListener(v -> sendKey(KeyEvent.KEYCODE_BACK));
+        actionHome.setOnClickListener(v -> sendKey(KeyEvent.KEYCODE_HOME));
+        actionMenu.setOnClickListener(v -> sendKey(KeyEvent.KEYCODE_MENU));
         
         // Volume buttons
-        volUp.setOnClickListener(v -> sendCommand("input keyevent KEYCODE_VOLUME_UP"));
-        mute.setOnClickListener(v -> sendCommand("input keyevent KEYCODE_MUTE"));
-        volDown.setOnClickListener(v -> sendCommand("input keyevent KEYCODE_VOLUME_DOWN"));
+        volUp.setOnClickListener(v -> sendKey(KeyEvent.KEYCODE_VOLUME_UP));
+        mute.setOnClickListener(v -> sendKey(KeyEvent.KEYCODE_MUTE));
+        volDown.setOnClickListener(v -> sendKey(KeyEvent.KEYCODE_VOLUME_DOWN));
         
-        // Power button
-        power.setOnClickListener(v -> sendCommand("input keyevent KEYCODE_POWER"));
+        // Power button: the selected TV is turned off or on by its last known state; groups
+        // still get a plain POWER, as their TVs are not probed
+        power.setOnClickListener(v -> {
+            if (targetSpinner.getSelectedItemPosition() <= TARGET_SELECTED) {
+                ((MainActivity) getActivity()).togglePower();
+            } else {
+                sendKey(KeyEvent.KEYCODE_POWER);
+            }
+        });
         
         // Keyboard toggle
         toggleKeyboard.setOnClickListener(v -> toggleKeyboard());
@@ -83,29 +132,143 @@ public class RemoteFragment extends Fragment {
         // Input controls
         clearInput.setOnClickListener(v -> clearInput());
         sendInput.setOnClickListener(v -> sendInput());
+        
+        // Each edit is mirrored as it happens; the injector works out what actually changed
+        visibleInput.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+            
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+            
+            @Override
+            public void afterTextChanged(Editable s) {
+                if (keyboardVisible && !ignoreTextChanges) {
+                    ((MainActivity) getActivity()).syncText(s);
+                }
+            }
+        });
     }
     
-    private void sendCommand(String command) {
-        // In a real implementation, this would send the ADB command
-        Toast.makeText(getActivity(), "Sending command: " + command, Toast.LENGTH_SHORT).show();
+    private void setupTargetSpinner() {
+        targetAdapter = new ArrayAdapter<>(getActivity(), android.R.layout.simple_spinner_item, targets);
+        targetAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        targetSpinner.setAdapter(targetAdapter);
+        refreshTargets();
+    }
+    
+    // "This device", "All devices", then one entry per device group
+    private void refreshTargets() {
+        targets.clear();
+        targets.add(getString(R.string.this_device));
+        targets.add(getString(R.string.all_devices));
+        targets.addAll(((MainActivity) getActivity()).getGroupNames());
+        targetAdapter.notifyDataSetChanged();
+    }
+    
+    private void showAddToGroupDialog() {
+        EditText name = new EditText(getActivity());
+        name.setHint("Group name, e.g. Lobby");
+        new AlertDialog.Builder(getActivity())
+            .setTitle("Add selected device to group")
+            .setView(name)
+            .setPositiveButton("Add", (dialog, which) -> {
+                String group = name.getText().toString().trim();
+                if (!group.isEmpty() && ((MainActivity) getActivity()).addSelectedDeviceToGroup(group)) {
+                    refreshTargets();
+                    targetSpinner.setSelection(targets.indexOf(group));
+                }
+            })
+            .setNegativeButton("Cancel", null)
+            .show();
+    }
+    
+    private void toggleRecording() {
+        MainActivity activity = (MainActivity) getActivity();
+        if (!activity.isRecordingMacro()) {
+            activity.startMacroRecording();
+            recordMacro.setText(R.string.stop_recording);
+            return;
+        }
+        recordMacro.setText(R.string.record_macro);
+        EditText name = new EditText(getActivity());
+        name.setHint("Macro name, e.g. Open Netflix");
+        new AlertDialog.Builder(getActivity())
+            .setTitle("Save macro")
+            .setView(name)
+            .setPositiveButton("Save", (dialog, which) -> {
+                String macro = name.getText().toString().trim().replace('/', '_');
+                activity.stopMacroRecording(macro.isEmpty() ? "Macro" : macro);
+            })
+            .setNegativeButton("Discard", (dialog, which) -> activity.discardMacroRecording())
+            .show();
+    }
+    
+    private void showMacrosDialog() {
+        List<String> names = ((MainActivity) getActivity()).getMacroNames();
+        if (names.isEmpty()) {
+            Toast.makeText(getActivity(), "No macros recorded yet", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        new AlertDialog.Builder(getActivity())
+            .setTitle("Play macro")
+            .setItems(names.toArray(new String[0]),
+                (dialog, which) -> ((MainActivity) getActivity()).playMacro(names.get(which)))
+            .setNegativeButton("Cancel", null)
+            .show();
+    }
+    
+    // Null while the selected device has not been probed yet
+    public void showDeviceState(DeviceState state) {
+        deviceState.setText(state != null ? state.describe() : getString(R.string.state_unknown));
+        int power = state != null ? state.power : DeviceState.POWER_UNKNOWN;
+        this.power.setText(power == DeviceState.POWER_ON ? R.string.turn_off
+                : power == DeviceState.POWER_OFF ? R.string.turn_on : R.string.power);
+    }
+    
+    // Goes to the selected device, or to every device of the chosen target at once
+    private void sendKey(int keyCode) {
+        MainActivity activity = (MainActivity) getActivity();
+        int target = targetSpinner.getSelectedItemPosition();
+        if (target <= TARGET_SELECTED) {
+            activity.sendKey(keyCode);
+        } else if (target == TARGET_ALL) {
+            activity.broadcastKeys(null, keyCode);
+        } else {
+            activity.broadcastKeys(targets.get(target), keyCode);
+        }
     }
     
     private void toggleKeyboard() {
         keyboardVisible = !keyboardVisible;
         keyboardSection.setVisibility(keyboardVisible ? View.VISIBLE : View.GONE);
         toggleKeyboard.setText(keyboardVisible ? "Hide Keyboard" : "Show Keyboard");
+        if (keyboardVisible) {
+            // Start from an empty field; we cannot know what the TV field holds by now
+            ((MainActivity) getActivity()).resetText();
+            setInputSilently("");
+        }
     }
     
+    // Erases the text on the TV as well, through the text watcher
     private void clearInput() {
         visibleInput.setText("");
     }
     
+    // The text is already on the TV; Send submits it and starts a new entry
     private void sendInput() {
         String text = visibleInput.getText().toString();
         if (!text.isEmpty()) {
-            // In a real implementation, this would send the text
-            Toast.makeText(getActivity(), "Sending text: " + text, Toast.LENGTH_SHORT).show();
-            clearInput();
+            ((MainActivity) getActivity()).submitText(text);
+            setInputSilently("");
         }
     }
+    
+    private void setInputSilently(String text) {
+        ignoreTextChanges = true;
+        visibleInput.setText(text);
+        ignoreTextChanges = false;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,38 @@
+package com.example.tvremote;
+
+import android.app.Fragment;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.example.tvremote.task.Lanes;
+import com.example.tvremote.task.TaskScope;
+
+/**
+ * A fragment whose background work ends with its view. Work started through {@link #scope()}
+ * is cancelled in onDestroyView, and its UI callbacks are dropped from then on.
+ */
+public abstract class ScopedFragment extends Fragment {
+    private static final Handler MAIN = new Handler(Looper.getMainLooper());
+    private TaskScope scope;
+
+    // Callbacks should hold on to the scope they were started in, not call this again later
+    protected TaskScope scope() {
+        if (scope == null) {
+            scope = new TaskScope(MAIN::post);
+        }
+        return scope;
+    }
+
+    protected Lanes lanes() {
+        return MainActivity.getLanes();
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+        if (scope != null) {
+            scope.cancel();
+            scope = null;
+        }
+    }
+}
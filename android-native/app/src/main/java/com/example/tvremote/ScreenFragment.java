@@ -1,33 +1,72 @@
 package com.example.tvremote;
 
-import android.app.Fragment;
-import android.graphics.Bitmap;
 import android.graphics.Color;
 import android.os.Bundle;
-import android.os.Handler;
+import android.os.SystemClock;
+import android.view.KeyEvent;
 import android.view.LayoutInflater;
 import android.view.MotionEvent;
+import android.view.Surface;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewStub;
 import android.widget.Button;
 import android.widget.FrameLayout;
-import android.widget.ImageView;
 import android.widget.TextView;
 import android.widget.Toast;
 
-public class ScreenFragment extends Fragment {
+import com.example.tvremote.adb.AdbSession;
+import com.example.tvremote.input.GestureStreamer;
+import com.example.tvremote.input.InputAgentClient;
+import com.example.tvremote.input.TouchMapping;
+import com.example.tvremote.screen.AccessUnitAssembler;
+import com.example.tvremote.screen.CaptureController;
+import com.example.tvremote.screen.DisplayGeometry;
+import com.example.tvremote.screen.FrameBufferPool;
+import com.example.tvremote.screen.H264Decoder;
+import com.example.tvremote.screen.H264ScreenStream;
+import com.example.tvremote.screen.MirrorStats;
+import com.example.tvremote.screen.RawFrame;
+import com.example.tvremote.screen.RawFrameRenderer;
+import com.example.tvremote.screen.RawScreenStream;
+import com.example.tvremote.screen.TileDiff;
+import com.example.tvremote.task.TaskScope;
+
+import java.io.IOException;
+import java.util.concurrent.Future;
+
+public class ScreenFragment extends ScopedFragment {
     private Button startScreenCapture, stopScreenCapture;
     private TextView fpsCounter;
-    private ImageView screenCanvas;
+    // Inflated from screenSurfaceStub on the first start, so opening the tab stays cheap
+    private ViewStub screenSurfaceStub;
+    private SurfaceView screenSurface;
     private Button screenControlLeft, screenControlCenter, screenControlRight;
     private FrameLayout mousePad;
     private Button mouseLeftClick, mouseRightClick;
     
     private boolean isCapturing = false;
-    private Handler handler = new Handler();
-    private Runnable captureRunnable;
-    private int frameCount = 0;
-    private long lastFpsUpdate = 0;
+    // Start (again) once the surface exists: on first use, and when the tab is shown again
+    private boolean startWhenSurfaceReady = false;
+    private Future<?> statsTicker;
+    private MirrorStats stats;
+    // Replaced on the UI thread when falling back to raw capture, read by the stats ticker
+    private volatile CaptureController controller;
+    private H264ScreenStream screenStream;
+    private H264Decoder decoder;
+    private RawScreenStream rawStream;
+    private RawFrameRenderer rawRenderer;
+    // Survives stop/start so raw mode does not reallocate its multi-megabyte frame buffers
+    private final FrameBufferPool framePool = new FrameBufferPool(3);
+    // Touches on the mouse pad and on the mirror both become gestures on the TV
+    private final GestureStreamer gestures = new GestureStreamer();
+    // The pad stands for the visible screen (inside any overscan), the mirror for the whole display
+    private final TouchMapping padMapping = new TouchMapping();
+    private final TouchMapping mirrorMapping = new TouchMapping();
+    private DisplayGeometry geometry = DisplayGeometry.DEFAULT;
+    private String geometrySerial;
     
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
@@ -43,7 +82,7 @@ public class ScreenFragment extends Fragment {
         startScreenCapture = view.findViewById(R.id.startScreenCapture);
         stopScreenCapture = view.findViewById(R.id.stopScreenCapture);
         fpsCounter = view.findViewById(R.id.fpsCounter);
-        screenCanvas = view.findViewById(R.id.screenCanvas);
+        screenSurfaceStub = view.findViewById(R.id.screenSurfaceStub);
         screenControlLeft = view.findViewById(R.id.screenControlLeft);
         screenControlCenter = view.findViewById(R.id.screenControlCenter);
         screenControlRight = view.findViewById(R.id.screenControlRight);
@@ -54,143 +93,275 @@ public class ScreenFragment extends Fragment {
     
     private void setupListeners() {
         startScreenCapture.setOnClickListener(v -> startScreenCapture());
-        stopScreenCapture.setOnClickListener(v -> stopScreenCapture());
+        stopScreenCapture.setOnClickListener(v -> {
+            startWhenSurfaceReady = false;
+            if (isCapturing) {
+                stopScreenCapture();
+                Toast.makeText(getActivity(), "Screen capture stopped", Toast.LENGTH_SHORT).show();
+            }
+        });
         
-        screenControlLeft.setOnClickListener(v -> sendCommand("input keyevent KEYCODE_DPAD_LEFT"));
-        screenControlCenter.setOnClickListener(v -> sendCommand("input keyevent KEYCODE_DPAD_CENTER"));
-        screenControlRight.setOnClickListener(v -> sendCommand("input keyevent KEYCODE_DPAD_RIGHT"));
+        screenControlLeft.setOnClickListener(v -> sendKey(KeyEvent.KEYCODE_DPAD_LEFT));
+        screenControlCenter.setOnClickListener(v -> sendKey(KeyEvent.KEYCODE_DPAD_CENTER));
+        screenControlRight.setOnClickListener(v -> sendKey(KeyEvent.KEYCODE_DPAD_RIGHT));
         
-        mouseLeftClick.setOnClickListener(v -> sendCommand("input keyevent KEYCODE_DPAD_CENTER"));
-        mouseRightClick.setOnClickListener(v -> sendCommand("input keyevent KEYCODE_BACK"));
+        mouseLeftClick.setOnClickListener(v -> sendKey(KeyEvent.KEYCODE_DPAD_CENTER));
+        mouseRightClick.setOnClickListener(v -> sendKey(KeyEvent.KEYCODE_BACK));
         
         // Set up touch listener for mouse pad
         setupMousePad();
+        
+        // Mappings are only recomputed when a view or the display geometry changes
+        mousePad.addOnLayoutChangeListener((v, l, t, r, b, ol, ot, or, ob) -> updateMappings());
+        loadGeometry();
     }
     
-    private void setupMousePad() {
-        mousePad.setOnTouchListener(new View.OnTouchListener() {
-            private float lastX, lastY;
-            private boolean isMoving = false;
+    /*
+     * The surface goes away whenever the tab is hidden, and the decoder cannot outlive it. A
+     * capture running at that point is stopped and picked up again when the surface returns.
+     */
+    private void inflateSurface() {
+        screenSurface = (SurfaceView) screenSurfaceStub.inflate();
+        screenSurface.addOnLayoutChangeListener((v, l, t, r, b, ol, ot, or, ob) -> updateMappings());
+        screenSurface.setOnTouchListener((v, event) -> isCapturing && onTouch(v, event, mirrorMapping));
+        screenSurface.getHolder().addCallback(new SurfaceHolder.Callback() {
+            @Override
+            public void surfaceCreated(SurfaceHolder holder) {
+                if (startWhenSurfaceReady) {
+                    startWhenSurfaceReady = false;
+                    startScreenCapture();
+                }
+            }
+            
+            @Override
+            public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+            }
             
             @Override
-            public boolean onTouch(View v, MotionEvent event) {
-                switch (event.getAction()) {
-                    case MotionEvent.ACTION_DOWN:
-                        lastX = event.getX();
-                        lastY = event.getY();
-                        isMoving = false;
-                        v.setBackgroundColor(Color.GRAY);
-                        return true;
-                        
-                    case MotionEvent.ACTION_MOVE:
-                        float deltaX = event.getX() - lastX;
-                        float deltaY = event.getY() - lastY;
-                        
-                        // Only consider it a move if there's significant movement
-                        if (Math.abs(deltaX) > 5 || Math.abs(deltaY) > 5) {
-                            isMoving = true;
-                            // Send swipe command
-                            sendSwipe((int)deltaX, (int)deltaY);
-                            lastX = event.getX();
-                            lastY = event.getY();
-                        }
-                        return true;
-                        
-                    case MotionEvent.ACTION_UP:
-                        v.setBackgroundColor(Color.TRANSPARENT);
-                        // If it wasn't a move, treat as a tap
-                        if (!isMoving) {
-                            sendTap((int)event.getX(), (int)event.getY());
-                        }
-                        return true;
+            public void surfaceDestroyed(SurfaceHolder holder) {
+                if (isCapturing) {
+                    stopScreenCapture();
+                    startWhenSurfaceReady = true;
                 }
-                return false;
             }
         });
+        updateMappings();
+    }
+    
+    private void loadGeometry() {
+        MainActivity activity = (MainActivity) getActivity();
+        geometrySerial = activity.getSelectedDeviceId();
+        activity.requestDisplayGeometry(this::onGeometry);
+    }
+    
+    private void onGeometry(String serial, DisplayGeometry geometry) {
+        if (serial.equals(geometrySerial) && !geometry.equals(this.geometry)) {
+            this.geometry = geometry;
+            updateMappings();
+        }
+    }
+    
+    private void updateMappings() {
+        padMapping.setVisibleArea(mousePad.getWidth(), mousePad.getHeight(), geometry);
+        if (screenSurface != null) {
+            mirrorMapping.setFullDisplay(screenSurface.getWidth(), screenSurface.getHeight(), geometry);
+        }
+    }
+    
+    private void setupMousePad() {
+        TaskScope scope = scope();
+        gestures.setListener((x, y, toX, toY, durationMs, streamed) -> scope.ui(() ->
+                ((MainActivity) getActivity()).onGestureEnd(x, y, toX, toY, durationMs, streamed)));
+        mousePad.setOnTouchListener((v, event) -> onTouch(v, event, padMapping));
+    }
+    
+    private boolean onTouch(View v, MotionEvent event, TouchMapping mapping) {
+        // Event times are uptimeMillis; latency is measured on the nanoTime clock
+        long touchNanos = System.nanoTime() - (SystemClock.uptimeMillis() - event.getEventTime()) * 1000000L;
+        switch (event.getActionMasked()) {
+            case MotionEvent.ACTION_DOWN:
+                MainActivity activity = (MainActivity) getActivity();
+                InputAgentClient agent = activity.getSelectedInputAgent();
+                if (agent == null) {
+                    return false;
+                }
+                if (!activity.getSelectedDeviceId().equals(geometrySerial)) {
+                    // Another TV was picked; this gesture uses the old mapping until its geometry arrives
+                    loadGeometry();
+                }
+                gestures.down(agent, mapping, event.getX(), event.getY(), touchNanos);
+                if (v == mousePad) {
+                    v.setBackgroundColor(Color.GRAY);
+                }
+                return true;
+                
+            case MotionEvent.ACTION_MOVE:
+                gestures.move(event.getX(), event.getY(), touchNanos);
+                return true;
+                
+            case MotionEvent.ACTION_UP:
+            case MotionEvent.ACTION_CANCEL:
+                gestures.up(event.getX(), event.getY(), touchNanos);
+                if (v == mousePad) {
+                    v.setBackgroundColor(Color.TRANSPARENT);
+                }
+                return true;
+        }
+        return false;
     }
     
     private void startScreenCapture() {
         if (isCapturing) return;
         
+        AdbSession session = ((MainActivity) getActivity()).getSelectedSession();
+        if (session == null) {
+            Toast.makeText(getActivity(), "Please select a device first", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (screenSurface == null) {
+            inflateSurface();
+        }
+        Surface surface = screenSurface.getHolder().getSurface();
+        if (surface == null || !surface.isValid()) {
+            // surfaceCreated comes back here
+            startWhenSurfaceReady = true;
+            fpsCounter.setText("Preparing screen view...");
+            return;
+        }
+        
         isCapturing = true;
         startScreenCapture.setEnabled(false);
         stopScreenCapture.setEnabled(true);
         fpsCounter.setText("0 FPS");
         
-        frameCount = 0;
-        lastFpsUpdate = System.currentTimeMillis();
-        
-        // Start capturing frames
-        captureRunnable = new Runnable() {
+        TaskScope scope = scope();
+        stats = new MirrorStats(MainActivity.getMetrics().captureToDisplay);
+        controller = new CaptureController(stats, CaptureController.DEFAULT_TARGET_LATENCY_MS,
+                CaptureController.DEFAULT_MAX_FPS, true);
+        decoder = new H264Decoder(surface, stats, controller, (width, height) -> onVideoSize(scope, width, height));
+        H264ScreenStream stream = new H264ScreenStream(session, new H264ScreenStream.Listener() {
             @Override
-            public void run() {
-                if (isCapturing) {
-                    // In a real implementation, this would capture the screen
-                    captureScreenFrame();
-                    
-                    // Update FPS counter every second
-                    long now = System.currentTimeMillis();
-                    if (now - lastFpsUpdate >= 1000) {
-                        int fps = frameCount;
-                        fpsCounter.setText(fps + " FPS");
-                        frameCount = 0;
-                        lastFpsUpdate = now;
+            public void onAccessUnit(AccessUnitAssembler.AccessUnit unit) {
+                decoder.onAccessUnit(unit);
+            }
+            
+            @Override
+            public void onStreamError(IOException error, boolean fatal) {
+                scope.ui(() -> {
+                    if (fatal && isCapturing) {
+                        startRawCapture(session);
+                    } else if (isCapturing) {
+                        fpsCounter.setText("Reconnecting...");
                     }
-                    
-                    // Schedule next frame capture
-                    handler.postDelayed(this, 100); // 10 FPS
-                }
+                });
             }
-        };
+        }, stats);
+        controller.setListener(stream::setQuality);
+        screenStream = stream;
+        screenStream.start();
         
-        handler.post(captureRunnable);
+        // Frames are decoded on the stream thread and the counters rolled on the capture lane;
+        // the UI only shows the result
+        MirrorStats tickerStats = stats;
+        statsTicker = scope.schedule(lanes().capture, () -> {
+            tickerStats.roll(System.nanoTime());
+            String touch = gestures.summary();
+            String summary = touch.isEmpty() ? controller.summary() : controller.summary() + ", " + touch;
+            scope.ui(() -> {
+                if (isCapturing) {
+                    fpsCounter.setText(summary);
+                }
+            });
+        }, 1000);
         Toast.makeText(getActivity(), "Screen capture started", Toast.LENGTH_SHORT).show();
     }
     
     private void stopScreenCapture() {
+        if (!isCapturing) return;
+        
         isCapturing = false;
         startScreenCapture.setEnabled(true);
         stopScreenCapture.setEnabled(false);
         fpsCounter.setText("0 FPS");
         
-        if (captureRunnable != null) {
-            handler.removeCallbacks(captureRunnable);
+        if (statsTicker != null) {
+            statsTicker.cancel(false);
+            statsTicker = null;
         }
-        
-        // Clear the screen canvas
-        screenCanvas.setImageBitmap(null);
-        Toast.makeText(getActivity(), "Screen capture stopped", Toast.LENGTH_SHORT).show();
-    }
-    
-    private void captureScreenFrame() {
-        frameCount++;
-        
-        // In a real implementation, this would capture an actual screen frame
-        // For now, we'll just update the UI to show it's working
-        if (frameCount % 10 == 0) {
-            // Simulate receiving a screen frame
-            // In a real app, this would be an actual bitmap from the device
+        if (screenStream != null) {
+            screenStream.stop();
+            screenStream = null;
+        }
+        if (decoder != null) {
+            decoder.release();
+            decoder = null;
+        }
+        if (rawStream != null) {
+            rawStream.stop();
+            rawStream = null;
+        }
+        if (rawRenderer != null) {
+            rawRenderer.release();
+            rawRenderer = null;
         }
     }
     
-    private void sendCommand(String command) {
-        // In a real implementation, this would send the ADB command
-        Toast.makeText(getActivity(), "Sending command: " + command, Toast.LENGTH_SHORT).show();
+    // Older boxes cannot stream H.264 from screenrecord; poll raw screencap frames instead
+    private void startRawCapture(AdbSession session) {
+        if (decoder != null) {
+            decoder.release();
+            decoder = null;
+        }
+        screenStream = null;
+        Toast.makeText(getActivity(), "H.264 streaming unsupported, using raw capture", Toast.LENGTH_SHORT).show();
+        
+        // screencap always delivers full size, so only the frame rate adapts here
+        controller = new CaptureController(stats, CaptureController.DEFAULT_TARGET_LATENCY_MS,
+                CaptureController.DEFAULT_MAX_FPS, false);
+        TaskScope scope = scope();
+        rawRenderer = new RawFrameRenderer(screenSurface.getHolder(), stats,
+                (width, height) -> onVideoSize(scope, width, height));
+        RawFrameRenderer renderer = rawRenderer;
+        rawStream = new RawScreenStream(session, framePool, new RawScreenStream.Listener() {
+            @Override
+            public void onFrame(RawFrame frame, TileDiff diff) {
+                renderer.render(frame, diff);
+            }
+            
+            @Override
+            public void onStreamError(IOException error, boolean fatal) {
+                scope.ui(() -> {
+                    if (fatal) {
+                        Toast.makeText(getActivity(), "Screen capture is not supported on this device", Toast.LENGTH_LONG).show();
+                        stopScreenCapture();
+                    } else if (isCapturing) {
+                        fpsCounter.setText("Reconnecting...");
+                    }
+                });
+            }
+        }, stats, controller);
+        rawStream.start();
     }
     
-    private void sendSwipe(int deltaX, int deltaY) {
-        // In a real implementation, this would send a swipe command
-        Toast.makeText(getActivity(), "Swipe: " + deltaX + ", " + deltaY, Toast.LENGTH_SHORT).show();
+    // Called from the stream thread once the SPS or decoder reports the picture size
+    private void onVideoSize(TaskScope scope, int width, int height) {
+        scope.ui(() -> {
+            ViewGroup.LayoutParams params = screenSurface.getLayoutParams();
+            params.height = screenSurface.getWidth() * height / width;
+            screenSurface.setLayoutParams(params);
+            // Raw frames are the display's exact size; the H.264 stream may be scaled down
+            ((MainActivity) getActivity()).onMirrorFrameSize(width, height, rawStream != null, this::onGeometry);
+        });
     }
     
-    private void sendTap(int x, int y) {
-        // In a real implementation, this would send a tap command
-        Toast.makeText(getActivity(), "Tap at: " + x + ", " + y, Toast.LENGTH_SHORT).show();
+    private void sendKey(int keyCode) {
+        ((MainActivity) getActivity()).sendKey(keyCode);
     }
     
     @Override
     public void onDestroy() {
         super.onDestroy();
+        gestures.close();
         if (isCapturing) {
             stopScreenCapture();
         }
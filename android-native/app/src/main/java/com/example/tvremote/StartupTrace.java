@@ -0,0 +1,64 @@
+package com.example.tvremote;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Milestones of a cold start, measured from process start, ending with the first key press
+ * the TV acknowledged. Only the first occurrence of each milestone counts, so reconnects and
+ * later key presses do not move the numbers.
+ */
+public class StartupTrace {
+    public static final String ACTIVITY_CREATED = "activity";
+    public static final String REGISTRY_LOADED = "registry";
+    public static final String FIRST_FRAGMENT = "fragment";
+    public static final String FIRST_FRAME = "drawn";
+    public static final String CONNECTED = "connected";
+    public static final String FIRST_KEY = "key";
+    public static final String FIRST_KEY_ACKED = "acked";
+
+    private final long originNanos;
+    private final List<String> names = new ArrayList<>();
+    private final List<Long> elapsedNanos = new ArrayList<>();
+    private boolean finished;
+
+    public StartupTrace(long originNanos) {
+        this.originNanos = originNanos;
+    }
+
+    // Returns true if this is the first time the milestone was reached
+    public synchronized boolean mark(String name, long nowNanos) {
+        if (finished || names.contains(name)) {
+            return false;
+        }
+        names.add(name);
+        elapsedNanos.add(nowNanos - originNanos);
+        if (FIRST_KEY_ACKED.equals(name)) {
+            finished = true;
+        }
+        return true;
+    }
+
+    public boolean mark(String name) {
+        return mark(name, System.nanoTime());
+    }
+
+    public synchronized boolean isFinished() {
+        return finished;
+    }
+
+    // Milliseconds from process start, or -1 if the milestone was not reached
+    public synchronized long elapsedMs(String name) {
+        int index = names.indexOf(name);
+        return index < 0 ? -1 : elapsedNanos.get(index) / 1000000;
+    }
+
+    public synchronized String summary() {
+        StringBuilder sb = new StringBuilder("Cold start:");
+        for (int i = 0; i < names.size(); i++) {
+            sb.append(String.format(Locale.US, " %s %d ms", names.get(i), elapsedNanos.get(i) / 1000000));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,366 @@
+package com.example.tvremote;
+
+import android.graphics.Bitmap;
+import android.os.Bundle;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AbsListView;
+import android.widget.BaseAdapter;
+import android.widget.GridView;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import com.example.tvremote.adb.AdbSession;
+import com.example.tvremote.adb.AdbStream;
+import com.example.tvremote.adb.DevicePool;
+import com.example.tvremote.screen.ThumbnailDecoder;
+import com.example.tvremote.screen.ThumbnailScheduler;
+import com.example.tvremote.task.Lane;
+import com.example.tvremote.task.TaskScope;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+/**
+ * Live thumbnails of every pooled device. One {@link ThumbnailScheduler} shares a fixed
+ * transfer and decode budget across the whole wall, so adding TVs slows their refresh instead
+ * of the phone; tiles on screen and TVs whose picture is changing are refreshed first.
+ * Unchanged pictures are recognised by checksum and not decoded at all.
+ */
+public class WallFragment extends ScopedFragment {
+    private static final long PUMP_MS = 50;
+    // The device list and the summary line are refreshed every this many pumps
+    private static final int SUMMARY_PUMPS = 20;
+    private static final int THUMBNAIL_WIDTH = 240;
+
+    private static final class Tile {
+        final String serial;
+        Bitmap bitmap;
+        String status = "waiting";
+
+        Tile(String serial) {
+            this.serial = serial;
+        }
+    }
+
+    private TextView wallSummary;
+    private GridView wallGrid;
+    private final TileAdapter adapter = new TileAdapter();
+    // UI thread only
+    private final List<Tile> tiles = new ArrayList<>();
+
+    private ThumbnailScheduler scheduler;
+    private final ThumbnailDecoder decoder = new ThumbnailDecoder(THUMBNAIL_WIDTH, 8);
+    // Captures block while the TV encodes the PNG, so they get threads of their own
+    private final Lane workers = new Lane("thumbnails", ThumbnailScheduler.DEFAULT_MAX_IN_FLIGHT, Thread.MIN_PRIORITY);
+    // Checksum of the last picture per device, written by the workers
+    private final Map<String, Long> checksums = new ConcurrentHashMap<>();
+    private Future<?> pump;
+    private int pumps;
+    private long lastBytes, lastDecodeNanos, lastCaptures, lastSummaryNanos;
+
+    @Override
+    public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
+        View view = inflater.inflate(R.layout.fragment_wall, container, false);
+        wallSummary = view.findViewById(R.id.wallSummary);
+        wallGrid = view.findViewById(R.id.wallGrid);
+        wallGrid.setAdapter(adapter);
+        wallGrid.setOnItemClickListener((parent, v, position, id) ->
+                ((MainActivity) getActivity()).mirrorDevice(tiles.get(position).serial));
+        wallGrid.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(AbsListView view, int scrollState) {
+            }
+
+            @Override
+            public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+                updateVisibility();
+            }
+        });
+
+        long now = System.nanoTime();
+        scheduler = new ThumbnailScheduler(ThumbnailScheduler.DEFAULT_BYTES_PER_SECOND,
+                ThumbnailScheduler.DEFAULT_DECODE_NANOS_PER_SECOND, ThumbnailScheduler.DEFAULT_MAX_IN_FLIGHT, now);
+        lastBytes = 0;
+        lastDecodeNanos = 0;
+        lastCaptures = 0;
+        lastSummaryNanos = now;
+        start();
+        return view;
+    }
+
+    @Override
+    public void onHiddenChanged(boolean hidden) {
+        super.onHiddenChanged(hidden);
+        if (hidden) {
+            stop();
+        } else {
+            start();
+        }
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        if (!isHidden()) {
+            start();
+        }
+    }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+        stop();
+    }
+
+    @Override
+    public void onDestroyView() {
+        stop();
+        super.onDestroyView();
+        for (Tile tile : tiles) {
+            decoder.release(tile.bitmap);
+            tile.bitmap = null;
+        }
+        tiles.clear();
+        // A new view starts without pictures, so nothing may be skipped as unchanged
+        checksums.clear();
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        workers.shutdown();
+    }
+
+    private void start() {
+        if (pump != null || scheduler == null) {
+            return;
+        }
+        // The device list first, so the pump has something to capture straight away
+        List<String> serials = onlineDevices();
+        TaskScope scope = scope();
+        syncTiles(serials);
+        pumps = 0;
+        pump = scope.schedule(lanes().capture, () -> pump(scope), PUMP_MS);
+    }
+
+    private void stop() {
+        if (pump != null) {
+            pump.cancel(false);
+            pump = null;
+        }
+    }
+
+    // Capture lane: starts whatever the budget allows right now
+    private void pump(TaskScope scope) {
+        if (++pumps % SUMMARY_PUMPS == 0) {
+            List<String> serials = onlineDevices();
+            String summary = summary();
+            scope.ui(() -> {
+                syncTiles(serials);
+                if (!tiles.isEmpty()) {
+                    wallSummary.setText(summary);
+                }
+            });
+        }
+        String serial;
+        while ((serial = scheduler.next(System.nanoTime())) != null) {
+            String device = serial;
+            workers.execute(() -> capture(scope, device));
+        }
+    }
+
+    // Worker thread
+    private void capture(TaskScope scope, String serial) {
+        byte[] png;
+        try {
+            png = screencap(MainActivity.getAdbSessions().get(serial));
+        } catch (IOException e) {
+            scheduler.onFailed(serial, System.nanoTime());
+            String status = e.getMessage();
+            scope.ui(() -> showStatus(serial, status));
+            return;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(png, 0, png.length);
+        Long previous = checksums.put(serial, crc.getValue());
+        if (previous != null && previous == crc.getValue()) {
+            scheduler.onCaptured(serial, png.length, 0, false, System.nanoTime());
+            return;
+        }
+        long decodeStart = System.nanoTime();
+        Bitmap bitmap;
+        try {
+            bitmap = decoder.decode(png);
+        } catch (IOException e) {
+            checksums.remove(serial);
+            // The transfer and the decode attempt still count against the budget
+            scheduler.onCaptured(serial, png.length, System.nanoTime() - decodeStart, false, System.nanoTime());
+            String status = e.getMessage();
+            scope.ui(() -> showStatus(serial, status));
+            return;
+        }
+        long now = System.nanoTime();
+        scheduler.onCaptured(serial, png.length, now - decodeStart, true, now);
+        if (scope.isCancelled()) {
+            decoder.release(bitmap);
+            return;
+        }
+        scope.ui(() -> showBitmap(serial, bitmap));
+    }
+
+    private static byte[] screencap(AdbSession session) throws IOException {
+        AdbStream stream = session.ensureConnected().open("exec:screencap -p");
+        try {
+            ByteArrayOutputStream png = new ByteArrayOutputStream(256 * 1024);
+            byte[] data;
+            while ((data = stream.read()) != null) {
+                png.write(data, 0, data.length);
+            }
+            return png.toByteArray();
+        } finally {
+            stream.close();
+        }
+    }
+
+    private static List<String> onlineDevices() {
+        List<String> serials = new ArrayList<>();
+        for (DevicePool.Status status : MainActivity.getDevicePool().statuses()) {
+            if (status.state == DevicePool.STATE_ONLINE) {
+                serials.add(status.serial);
+            }
+        }
+        return serials;
+    }
+
+    // UI thread: offline devices keep their tile with the last picture, only new ones are added
+    private void syncTiles(List<String> serials) {
+        Set<String> online = new HashSet<>(serials);
+        long now = System.nanoTime();
+        boolean added = false;
+        for (Tile tile : tiles) {
+            if (!online.remove(tile.serial)) {
+                scheduler.remove(tile.serial);
+                tile.status = "offline";
+            } else if (!scheduler.contains(tile.serial)) {
+                scheduler.add(tile.serial, now);
+            }
+        }
+        for (String serial : serials) {
+            if (online.contains(serial)) {
+                tiles.add(new Tile(serial));
+                scheduler.add(serial, now);
+                added = true;
+            }
+        }
+        adapter.notifyDataSetChanged();
+        if (added) {
+            wallGrid.post(this::updateVisibility);
+        }
+    }
+
+    private void updateVisibility() {
+        int first = wallGrid.getFirstVisiblePosition();
+        int last = wallGrid.getLastVisiblePosition();
+        for (int i = 0; i < tiles.size(); i++) {
+            scheduler.setVisible(tiles.get(i).serial, i >= first && i <= last);
+        }
+    }
+
+    private void showBitmap(String serial, Bitmap bitmap) {
+        int position = indexOf(serial);
+        if (position < 0) {
+            decoder.release(bitmap);
+            return;
+        }
+        Tile tile = tiles.get(position);
+        Bitmap old = tile.bitmap;
+        tile.bitmap = bitmap;
+        tile.status = "live";
+        bindVisible(position);
+        // Only reused once the view has let go of it
+        decoder.release(old);
+    }
+
+    private void showStatus(String serial, String status) {
+        int position = indexOf(serial);
+        if (position >= 0) {
+            tiles.get(position).status = status;
+            bindVisible(position);
+        }
+    }
+
+    // Rebinds one tile in place; notifyDataSetChanged would rebind the whole grid for every frame
+    private void bindVisible(int position) {
+        View view = wallGrid.getChildAt(position - wallGrid.getFirstVisiblePosition());
+        if (view != null) {
+            bind(view, tiles.get(position));
+        }
+    }
+
+    private int indexOf(String serial) {
+        for (int i = 0; i < tiles.size(); i++) {
+            if (tiles.get(i).serial.equals(serial)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void bind(View view, Tile tile) {
+        ((ImageView) view.findViewById(R.id.tileImage)).setImageBitmap(tile.bitmap);
+        ((TextView) view.findViewById(R.id.tileLabel)).setText(tile.serial + " (" + tile.status + ")");
+    }
+
+    // Rates since the last summary; capture lane
+    private String summary() {
+        long now = System.nanoTime();
+        long bytes = scheduler.getBytesSpent();
+        long decodeNanos = scheduler.getDecodeNanosSpent();
+        long captures = scheduler.getCaptureCount();
+        double seconds = (now - lastSummaryNanos) / 1e9;
+        String summary = String.format(Locale.US, "%.2f MB/s, decode %.0f%% of a core, %.1f captures/s, %d bitmaps allocated",
+                (bytes - lastBytes) / seconds / 1048576, (decodeNanos - lastDecodeNanos) / seconds / 1e7,
+                (captures - lastCaptures) / seconds, decoder.getAllocationCount());
+        lastBytes = bytes;
+        lastDecodeNanos = decodeNanos;
+        lastCaptures = captures;
+        lastSummaryNanos = now;
+        return summary;
+    }
+
+    private final class TileAdapter extends BaseAdapter {
+        @Override
+        public int getCount() {
+            return tiles.size();
+        }
+
+        @Override
+        public Object getItem(int position) {
+            return tiles.get(position);
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return position;
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            View view = convertView != null ? convertView
+                    : LayoutInflater.from(parent.getContext()).inflate(R.layout.view_wall_tile, parent, false);
+            bind(view, tiles.get(position));
+            return view;
+        }
+    }
+}
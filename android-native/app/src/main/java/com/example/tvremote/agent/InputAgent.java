@@ -0,0 +1,149 @@
+package com.example.tvremote.agent;
+
+import android.hardware.input.InputManager;
+import android.net.LocalServerSocket;
+import android.net.LocalSocket;
+import android.os.SystemClock;
+import android.view.InputDevice;
+import android.view.InputEvent;
+import android.view.KeyCharacterMap;
+import android.view.KeyEvent;
+import android.view.MotionEvent;
+
+import com.example.tvremote.input.FrameScheduler;
+import com.example.tvremote.input.InputFrame;
+import com.example.tvremote.input.InputFrameDecoder;
+import com.example.tvremote.input.InputFrameEncoder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+
+/**
+ * Runs on the TV, not in the app:
+ * {@code CLASSPATH=/data/local/tmp/tvremote-agent.apk app_process / com.example.tvremote.agent.InputAgent <socket>}
+ * It runs as the shell user, which may inject input, and serves one client at a time on an
+ * abstract local socket that the app reaches through ADB's "localabstract:" service. Any app
+ * on the TV can connect to an abstract socket, so only clients with the shell or root uid,
+ * which is how adbd's forward arrives, are served; anything else could use the agent to
+ * inject input it has no permission for.
+ */
+public final class InputAgent {
+    // InputManager.INJECT_INPUT_EVENT_MODE_ASYNC
+    private static final int INJECT_MODE_ASYNC = 0;
+    // Process.SHELL_UID and Process.ROOT_UID
+    private static final int SHELL_UID = 2000;
+    private static final int ROOT_UID = 0;
+
+    private final Object inputManager;
+    private final Method injectInputEvent;
+    private final InputFrame frame = new InputFrame();
+    private final InputFrameEncoder replies = new InputFrameEncoder(InputFrame.PING_SIZE * 16);
+    private final FrameScheduler scheduler = new FrameScheduler();
+    private long keyDownTime;
+    private long motionDownTime;
+
+    private InputAgent() throws ReflectiveOperationException {
+        // Hidden API, but stable since API 16 and callable from the shell uid
+        inputManager = InputManager.class.getMethod("getInstance").invoke(null);
+        injectInputEvent = InputManager.class.getMethod("injectInputEvent", InputEvent.class, int.class);
+    }
+
+    public static void main(String[] args) throws Exception {
+        String socketName = args.length > 0 ? args[0] : "tvremote-agent-" + InputFrame.VERSION;
+        InputAgent agent = new InputAgent();
+        LocalServerSocket server = new LocalServerSocket(socketName);
+        System.out.println("ready");
+        System.out.flush();
+        while (true) {
+            LocalSocket client = server.accept();
+            try {
+                int uid = client.getPeerCredentials().getUid();
+                if (uid != SHELL_UID && uid != ROOT_UID) {
+                    System.err.println("refused client with uid " + uid);
+                    continue;
+                }
+                agent.serve(client.getInputStream(), client.getOutputStream());
+            } catch (IOException e) {
+                System.err.println("client error: " + e.getMessage());
+            } finally {
+                client.close();
+            }
+        }
+    }
+
+    private void serve(InputStream in, OutputStream out) throws IOException {
+        InputFrameDecoder decoder = new InputFrameDecoder();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            decoder.feed(buffer, 0, n);
+            while (decoder.next(frame)) {
+                switch (frame.type) {
+                    case InputFrame.TYPE_KEY:
+                        injectKey(frame);
+                        break;
+                    case InputFrame.TYPE_MOTION:
+                        injectMotion(frame);
+                        break;
+                    case InputFrame.TYPE_SCHEDULE:
+                        // Macro timing runs here so network jitter does not reach the TV
+                        long delay = scheduler.delayFor(frame, SystemClock.uptimeMillis());
+                        if (delay > 0) {
+                            SystemClock.sleep(delay);
+                        }
+                        break;
+                    case InputFrame.TYPE_PING:
+                        if (!replies.putPing(frame.seq)) {
+                            flush(out);
+                            replies.putPing(frame.seq);
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+            flush(out);
+        }
+    }
+
+    private void flush(OutputStream out) throws IOException {
+        if (!replies.isEmpty()) {
+            out.write(replies.array(), 0, replies.size());
+            out.flush();
+            replies.reset();
+        }
+    }
+
+    private void injectKey(InputFrame f) {
+        long now = SystemClock.uptimeMillis();
+        if (f.action == InputFrame.ACTION_DOWN) {
+            keyDownTime = now;
+        }
+        KeyEvent event = new KeyEvent(keyDownTime, now, f.action, f.keyCode, 0, f.metaState,
+                KeyCharacterMap.VIRTUAL_KEYBOARD, 0, 0, InputDevice.SOURCE_KEYBOARD);
+        inject(event);
+    }
+
+    private void injectMotion(InputFrame f) {
+        long now = SystemClock.uptimeMillis();
+        if (f.action == InputFrame.ACTION_DOWN) {
+            motionDownTime = now;
+        }
+        float pressure = f.pressure / (float) InputFrame.MAX_PRESSURE;
+        MotionEvent event = MotionEvent.obtain(motionDownTime, now, f.action, f.x, f.y,
+                pressure, 1f, 0, 1f, 1f, 0, 0);
+        event.setSource(InputDevice.SOURCE_TOUCHSCREEN);
+        inject(event);
+        event.recycle();
+    }
+
+    private void inject(InputEvent event) {
+        try {
+            injectInputEvent.invoke(inputManager, event, INJECT_MODE_ASYNC);
+        } catch (ReflectiveOperationException e) {
+            System.err.println("inject failed: " + e);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.example.tvremote.screen;
+
+import android.media.MediaCodec;
+import android.media.MediaFormat;
+import android.view.Surface;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes access units from {@link H264ScreenStream} straight into a Surface. Runs on the
+ * stream thread: each unit is queued, then every ready output buffer is rendered.
+ */
+public class H264Decoder implements AccessUnitAssembler.Listener {
+    public interface SizeListener {
+        void onVideoSize(int width, int height);
+    }
+
+    private static final String MIME = "video/avc";
+    private static final long INPUT_TIMEOUT_US = 50000;
+
+    private final Surface surface;
+    private final MirrorStats stats;
+    private final CaptureController controller;
+    private final SizeListener sizeListener;
+    private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+    private final AccessUnitAssembler.AccessUnit savedConfig = new AccessUnitAssembler.AccessUnit();
+    private MediaCodec codec;
+    private int codecWidth;
+    private int codecHeight;
+    private boolean waitingForKeyFrame = true;
+
+    public H264Decoder(Surface surface, MirrorStats stats, CaptureController controller, SizeListener sizeListener) {
+        this.surface = surface;
+        this.stats = stats;
+        this.controller = controller;
+        this.sizeListener = sizeListener;
+    }
+
+    @Override
+    public synchronized void onAccessUnit(AccessUnitAssembler.AccessUnit unit) {
+        try {
+            if (unit.config) {
+                if (codec != null && unit.width > 0 && (unit.width != codecWidth || unit.height != codecHeight)) {
+                    // The stream was restarted at another resolution
+                    release();
+                }
+                save(unit);
+                configure(unit);
+                return;
+            }
+            if (codec == null && unit.keyFrame && savedConfig.size > 0) {
+                // screenrecord sends SPS/PPS only once, so a recreated codec reuses the saved copy
+                configure(savedConfig);
+            }
+            if (codec == null || (waitingForKeyFrame && !unit.keyFrame)) {
+                // Nothing decodable until the first SPS/PPS and IDR arrive
+                stats.onFrameDropped();
+                return;
+            }
+            waitingForKeyFrame = false;
+            queue(unit, 0);
+            drain();
+        } catch (IllegalStateException e) {
+            // Codec died (surface destroyed, mediaserver restart); start over at the next keyframe
+            release();
+        }
+    }
+
+    private void configure(AccessUnitAssembler.AccessUnit config) {
+        if (codec == null) {
+            try {
+                codec = MediaCodec.createDecoderByType(MIME);
+            } catch (IOException e) {
+                throw new IllegalStateException("No H.264 decoder", e);
+            }
+            int width = config.width > 0 ? config.width : 1920;
+            int height = config.height > 0 ? config.height : 1080;
+            MediaFormat format = MediaFormat.createVideoFormat(MIME, width, height);
+            codec.configure(format, surface, null, 0);
+            codec.start();
+            codecWidth = config.width;
+            codecHeight = config.height;
+            waitingForKeyFrame = true;
+            if (sizeListener != null && config.width > 0) {
+                sizeListener.onVideoSize(config.width, config.height);
+            }
+        }
+        queue(config, MediaCodec.BUFFER_FLAG_CODEC_CONFIG);
+    }
+
+    private void save(AccessUnitAssembler.AccessUnit config) {
+        if (savedConfig.data.length < config.size) {
+            savedConfig.data = new byte[config.size];
+        }
+        System.arraycopy(config.data, 0, savedConfig.data, 0, config.size);
+        savedConfig.size = config.size;
+        savedConfig.width = config.width;
+        savedConfig.height = config.height;
+        savedConfig.config = true;
+    }
+
+    private void queue(AccessUnitAssembler.AccessUnit unit, int flags) {
+        int index = codec.dequeueInputBuffer(INPUT_TIMEOUT_US);
+        if (index < 0) {
+            stats.onFrameDropped();
+            return;
+        }
+        ByteBuffer buffer = codec.getInputBuffer(index);
+        buffer.clear();
+        buffer.put(unit.data, 0, unit.size);
+        // The receive time rides along as the timestamp so render latency can be measured
+        codec.queueInputBuffer(index, 0, unit.size, unit.receivedAtNanos / 1000, flags);
+    }
+
+    private void drain() {
+        while (true) {
+            int index = codec.dequeueOutputBuffer(info, 0);
+            if (index >= 0) {
+                long latency = System.nanoTime() - info.presentationTimeUs * 1000;
+                // Frames that arrive too late are skipped rather than shown behind schedule
+                boolean render = info.size > 0 && controller.onFrameLatency(latency);
+                codec.releaseOutputBuffer(index, render);
+                if (render) {
+                    stats.onFrameShown(latency);
+                }
+            } else if (index == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+                MediaFormat format = codec.getOutputFormat();
+                if (sizeListener != null && format.containsKey(MediaFormat.KEY_WIDTH)) {
+                    sizeListener.onVideoSize(format.getInteger(MediaFormat.KEY_WIDTH),
+                            format.getInteger(MediaFormat.KEY_HEIGHT));
+                }
+            } else if (index == MediaCodec.INFO_TRY_AGAIN_LATER) {
+                return;
+            }
+        }
+    }
+
+    public synchronized void release() {
+        if (codec != null) {
+            try {
+                codec.stop();
+            } catch (IllegalStateException ignored) {
+            }
+            codec.release();
+            codec = null;
+        }
+        waitingForKeyFrame = true;
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.tvremote.screen;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.view.SurfaceHolder;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Draws raw frames onto a SurfaceView. Bitmaps come from a small ring that is allocated once
+ * per frame size: each slot remembers which tiles changed since it was last written, so
+ * bringing a slot up to date copies only those tiles, and the slot that was just posted is
+ * never the one being rewritten. Only the dirty region of the surface is locked and redrawn.
+ */
+public class RawFrameRenderer {
+    public interface SizeListener {
+        void onVideoSize(int width, int height);
+    }
+
+    private static final int RING_SIZE = 2;
+    // Above this share of dirty tiles one bulk copy beats per-tile conversion
+    private static final float FULL_COPY_RATIO = 0.5f;
+
+    private final SurfaceHolder holder;
+    private final MirrorStats stats;
+    private final SizeListener sizeListener;
+    private final Bitmap[] ring = new Bitmap[RING_SIZE];
+    private final boolean[][] pending = new boolean[RING_SIZE][];
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect source = new Rect();
+    private final Rect target = new Rect();
+    private final Rect dirtyRect = new Rect();
+    private int[] tilePixels = new int[0];
+    private int slot;
+    private int width;
+    private int height;
+    private int format;
+
+    public RawFrameRenderer(SurfaceHolder holder, MirrorStats stats, SizeListener sizeListener) {
+        this.holder = holder;
+        this.stats = stats;
+        this.sizeListener = sizeListener;
+    }
+
+    public synchronized void render(RawFrame frame, TileDiff diff) {
+        if (frame.width != width || frame.height != height || frame.format != format) {
+            allocate(frame, diff.getTilesX() * diff.getTilesY());
+        }
+        int tiles = diff.getTilesX() * diff.getTilesY();
+        for (int i = 0; i < RING_SIZE; i++) {
+            for (int t = 0; t < tiles; t++) {
+                if (diff.isDirty(t % diff.getTilesX(), t / diff.getTilesX())) {
+                    pending[i][t] = true;
+                }
+            }
+        }
+        slot = (slot + 1) % RING_SIZE;
+        Bitmap bitmap = ring[slot];
+        update(bitmap, pending[slot], frame, diff);
+        draw(bitmap, diff);
+        stats.onFrameShown(System.nanoTime() - frame.capturedAtNanos);
+    }
+
+    private void allocate(RawFrame frame, int tiles) {
+        release();
+        width = frame.width;
+        height = frame.height;
+        format = frame.format;
+        for (int i = 0; i < RING_SIZE; i++) {
+            ring[i] = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            // RGBX leaves the fourth byte undefined; treat it as opaque
+            ring[i].setHasAlpha(format != RawFrame.FORMAT_RGBX_8888);
+            pending[i] = new boolean[tiles];
+        }
+        if (sizeListener != null) {
+            sizeListener.onVideoSize(width, height);
+        }
+    }
+
+    private void update(Bitmap bitmap, boolean[] dirty, RawFrame frame, TileDiff diff) {
+        int tilesX = diff.getTilesX();
+        int tiles = tilesX * diff.getTilesY();
+        int count = 0;
+        for (int t = 0; t < tiles; t++) {
+            if (dirty[t]) {
+                count++;
+            }
+        }
+        if (count > tiles * FULL_COPY_RATIO && frame.format != RawFrame.FORMAT_BGRA_8888) {
+            // ARGB_8888 bitmaps store RGBA bytes, the same layout screencap uses
+            frame.pixels.position(0);
+            bitmap.copyPixelsFromBuffer(frame.pixels);
+            frame.pixels.position(0);
+            Arrays.fill(dirty, 0, tiles, false);
+            return;
+        }
+        int tileSize = diff.getTileSize();
+        if (tilePixels.length < tileSize * tileSize) {
+            tilePixels = new int[tileSize * tileSize];
+        }
+        for (int t = 0; t < tiles; t++) {
+            if (!dirty[t]) {
+                continue;
+            }
+            int x = (t % tilesX) * tileSize;
+            int y = (t / tilesX) * tileSize;
+            int w = Math.min(tileSize, width - x);
+            int h = Math.min(tileSize, height - y);
+            readTile(frame, x, y, w, h);
+            bitmap.setPixels(tilePixels, 0, w, x, y, w, h);
+            dirty[t] = false;
+        }
+    }
+
+    // Converts one tile of RGBA/RGBX/BGRA bytes into ARGB ints for Bitmap.setPixels
+    private void readTile(RawFrame frame, int x, int y, int w, int h) {
+        ByteBuffer pixels = frame.pixels;
+        boolean bgra = frame.format == RawFrame.FORMAT_BGRA_8888;
+        boolean opaque = frame.format == RawFrame.FORMAT_RGBX_8888;
+        int stride = frame.stride();
+        int i = 0;
+        for (int row = y; row < y + h; row++) {
+            int offset = row * stride + x * 4;
+            for (int col = 0; col < w; col++, offset += 4) {
+                // Little-endian read of R,G,B,A gives 0xAABBGGRR
+                int rgba = pixels.getInt(offset);
+                int r = bgra ? (rgba >> 16) & 0xff : rgba & 0xff;
+                int b = bgra ? rgba & 0xff : (rgba >> 16) & 0xff;
+                int a = opaque ? 0xff : rgba >>> 24;
+                tilePixels[i++] = a << 24 | r << 16 | (rgba & 0xff00) | b;
+            }
+        }
+    }
+
+    private void draw(Bitmap bitmap, TileDiff diff) {
+        Rect frameRect = holder.getSurfaceFrame();
+        if (frameRect.isEmpty()) {
+            return;
+        }
+        target.set(frameRect);
+        source.set(0, 0, width, height);
+        // Map the dirty box into surface coordinates, rounding outwards
+        dirtyRect.set(diff.getLeft() * target.width() / width,
+                diff.getTop() * target.height() / height,
+                (diff.getRight() * target.width() + width - 1) / width,
+                (diff.getBottom() * target.height() + height - 1) / height);
+        Canvas canvas = holder.lockCanvas(dirtyRect);
+        if (canvas == null) {
+            return;
+        }
+        try {
+            canvas.drawBitmap(bitmap, source, target, paint);
+        } finally {
+            holder.unlockCanvasAndPost(canvas);
+        }
+    }
+
+    public synchronized void release() {
+        for (int i = 0; i < RING_SIZE; i++) {
+            if (ring[i] != null) {
+                ring[i].recycle();
+                ring[i] = null;
+            }
+        }
+        width = 0;
+        height = 0;
+        format = 0;
+    }
+}
@@ -0,0 +1,108 @@
+package com.example.tvremote.screen;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Decodes screencap PNGs into thumbnails for the wall. BitmapFactory subsamples while it
+ * decodes, so a 1080p picture never exists at full size here, and each thumbnail is decoded
+ * into a bitmap handed back by {@link #release} instead of a new allocation. With twenty
+ * tiles refreshing several times a second that is the difference between a steady heap and
+ * constant GC pauses in the grid.
+ */
+public class ThumbnailDecoder {
+    private static final int PNG_HEADER_SIZE = 24;
+    private static final long PNG_SIGNATURE = 0x89504e470d0a1a0aL;
+
+    private final int targetWidth;
+    private final int maxPooled;
+    private final ArrayDeque<Bitmap> free = new ArrayDeque<>();
+    private int allocations;
+
+    // Thumbnails come out between targetWidth and twice that wide
+    public ThumbnailDecoder(int targetWidth, int maxPooled) {
+        this.targetWidth = targetWidth;
+        this.maxPooled = maxPooled;
+    }
+
+    public Bitmap decode(byte[] png) throws IOException {
+        if (png.length < PNG_HEADER_SIZE || getLong(png, 0) != PNG_SIGNATURE) {
+            throw new IOException("screencap did not return a PNG");
+        }
+        // IHDR is always the first chunk, so the size is known without a bounds-only decode
+        int width = getInt(png, 16);
+        int height = getInt(png, 20);
+        if (width <= 0 || height <= 0) {
+            throw new IOException("Bad PNG size " + width + "x" + height);
+        }
+        int sample = 1;
+        while (width / (sample * 2) >= targetWidth) {
+            sample *= 2;
+        }
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sample;
+        options.inMutable = true;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        // Rounding of the subsampled size differs between decoders; one extra row and column is safe
+        options.inBitmap = acquire((width / sample + 1) * (height / sample + 1) * 4);
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeByteArray(png, 0, png.length, options);
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap did not fit after all; this one allocates
+            release(options.inBitmap);
+            options.inBitmap = null;
+            bitmap = BitmapFactory.decodeByteArray(png, 0, png.length, options);
+        }
+        if (bitmap == null) {
+            release(options.inBitmap);
+            throw new IOException("Could not decode a " + width + "x" + height + " screenshot");
+        }
+        if (bitmap != options.inBitmap) {
+            release(options.inBitmap);
+            synchronized (this) {
+                allocations++;
+            }
+        }
+        return bitmap;
+    }
+
+    // The bitmap must no longer be drawn anywhere
+    public synchronized void release(Bitmap bitmap) {
+        if (bitmap == null || free.contains(bitmap)) {
+            return;
+        }
+        if (free.size() >= maxPooled) {
+            free.removeLast().recycle();
+        }
+        free.push(bitmap);
+    }
+
+    public synchronized int getAllocationCount() {
+        return allocations;
+    }
+
+    private synchronized Bitmap acquire(int byteCount) {
+        Iterator<Bitmap> it = free.iterator();
+        while (it.hasNext()) {
+            Bitmap bitmap = it.next();
+            if (bitmap.getAllocationByteCount() >= byteCount) {
+                it.remove();
+                return bitmap;
+            }
+        }
+        return null;
+    }
+
+    private static int getInt(byte[] b, int offset) {
+        return (b[offset] & 0xff) << 24 | (b[offset + 1] & 0xff) << 16 | (b[offset + 2] & 0xff) << 8 | (b[offset + 3] & 0xff);
+    }
+
+    private static long getLong(byte[] b, int offset) {
+        return (getInt(b, offset) & 0xffffffffL) << 32 | (getInt(b, offset + 4) & 0xffffffffL);
+    }
+}
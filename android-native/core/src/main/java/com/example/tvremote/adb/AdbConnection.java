@@ -0,0 +1,299 @@
+package com.example.tvremote.adb;
+
+import com.example.tvremote.metrics.Meter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A single authenticated TCP connection to adbd. Streams are multiplexed on it, so opening a
+ * shell costs one OPEN/OKAY round trip instead of a new socket, handshake and adb process.
+ */
+public class AdbConnection implements Closeable {
+    public interface Listener {
+        void onDisconnected(AdbConnection connection, IOException cause);
+    }
+
+    public static final int DEFAULT_CONNECT_TIMEOUT_MS = 3000;
+    // Long enough for someone to accept the "Allow USB debugging?" prompt on the TV
+    public static final int DEFAULT_AUTH_TIMEOUT_MS = 30000;
+    private static final int OPEN_TIMEOUT_MS = 5000;
+
+    private final Socket socket;
+    private final InputStream in;
+    private final OutputStream out;
+    private final String serial;
+    private final byte[] writeHeader = new byte[AdbProtocol.HEADER_SIZE];
+    private final byte[] readHeader = new byte[AdbProtocol.HEADER_SIZE];
+    private final ConcurrentHashMap<Integer, AdbStream> streams = new ConcurrentHashMap<>();
+    private final AtomicInteger nextLocalId = new AtomicInteger(1);
+
+    private volatile int maxPayload = 4096;
+    private volatile String deviceBanner = "";
+    private volatile boolean closed;
+    private volatile Listener listener;
+    private volatile Meter receiveMeter;
+    private Thread readerThread;
+
+    private AdbConnection(Socket socket, String serial) throws IOException {
+        this.socket = socket;
+        this.serial = serial;
+        this.in = new BufferedInputStream(socket.getInputStream(), 64 * 1024);
+        this.out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+    }
+
+    public static AdbConnection connect(String host, int port, AdbCrypto crypto) throws IOException {
+        return connect(host, port, crypto, DEFAULT_CONNECT_TIMEOUT_MS, DEFAULT_AUTH_TIMEOUT_MS);
+    }
+
+    public static AdbConnection connect(String host, int port, AdbCrypto crypto,
+                                        int connectTimeoutMs, int authTimeoutMs) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.setTcpNoDelay(true);
+            socket.setKeepAlive(true);
+            socket.connect(new InetSocketAddress(host, port), connectTimeoutMs);
+            AdbConnection connection = new AdbConnection(socket, host + ":" + port);
+            connection.handshake(crypto, connectTimeoutMs, authTimeoutMs);
+            connection.startReader();
+            return connection;
+        } catch (IOException e) {
+            closeQuietly(socket);
+            throw e;
+        }
+    }
+
+    private void handshake(AdbCrypto crypto, int connectTimeoutMs, int authTimeoutMs) throws IOException {
+        byte[] banner = AdbProtocol.HOST_BANNER.getBytes(StandardCharsets.UTF_8);
+        sendMessage(AdbProtocol.A_CNXN, AdbProtocol.A_VERSION, AdbProtocol.MAX_PAYLOAD,
+                banner, 0, banner.length);
+
+        boolean sentSignature = false;
+        boolean sentPublicKey = false;
+        socket.setSoTimeout(connectTimeoutMs);
+        try {
+            while (true) {
+                AdbMessage message = AdbMessage.read(in, readHeader);
+                if (message.command == AdbProtocol.A_CNXN) {
+                    maxPayload = Math.min(message.arg1, AdbProtocol.MAX_PAYLOAD);
+                    deviceBanner = message.payloadString();
+                    break;
+                }
+                if (message.command != AdbProtocol.A_AUTH || message.arg0 != AdbProtocol.AUTH_TOKEN) {
+                    throw new IOException("Unexpected " + message + " during handshake with " + serial);
+                }
+                if (crypto == null) {
+                    throw new IOException(serial + " requires authentication");
+                }
+                if (!sentSignature) {
+                    byte[] signature;
+                    try {
+                        signature = crypto.signToken(message.payload);
+                    } catch (GeneralSecurityException e) {
+                        throw new IOException("Could not sign ADB token", e);
+                    }
+                    sendMessage(AdbProtocol.A_AUTH, AdbProtocol.AUTH_SIGNATURE, 0,
+                            signature, 0, signature.length);
+                    sentSignature = true;
+                } else if (!sentPublicKey) {
+                    // Key is unknown to the device: offer it and wait for the user to accept
+                    byte[] publicKey = crypto.publicKeyPayload();
+                    sendMessage(AdbProtocol.A_AUTH, AdbProtocol.AUTH_RSAPUBLICKEY, 0,
+                            publicKey, 0, publicKey.length);
+                    sentPublicKey = true;
+                    socket.setSoTimeout(authTimeoutMs);
+                } else {
+                    throw new IOException(serial + " rejected our ADB key");
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            throw new IOException("Timed out waiting for " + serial + " to authorize", e);
+        }
+        socket.setSoTimeout(0);
+    }
+
+    private void startReader() {
+        readerThread = new Thread(this::readLoop, "adb-reader-" + serial);
+        readerThread.setDaemon(true);
+        readerThread.start();
+    }
+
+    private void readLoop() {
+        IOException failure = null;
+        try {
+            while (!closed) {
+                AdbMessage message = AdbMessage.read(in, readHeader);
+                Meter meter = receiveMeter;
+                if (meter != null) {
+                    meter.add(AdbProtocol.HEADER_SIZE + message.payload.length, System.nanoTime());
+                }
+                dispatch(message);
+            }
+        } catch (IOException e) {
+            failure = e;
+        }
+        shutdown(failure);
+    }
+
+    private void dispatch(AdbMessage message) throws IOException {
+        // arg0 is the device's id for the stream, arg1 is ours
+        AdbStream stream = streams.get(message.arg1);
+        switch (message.command) {
+            case AdbProtocol.A_OKAY:
+                if (stream != null) {
+                    stream.onOkay(message.arg0);
+                }
+                break;
+            case AdbProtocol.A_WRTE:
+                if (stream != null) {
+                    stream.onData(message.payload);
+                    sendMessage(AdbProtocol.A_OKAY, message.arg1, message.arg0, null, 0, 0);
+                } else {
+                    sendMessage(AdbProtocol.A_CLSE, 0, message.arg0, null, 0, 0);
+                }
+                break;
+            case AdbProtocol.A_CLSE:
+                if (stream != null) {
+                    streams.remove(message.arg1);
+                    stream.onRemoteClose();
+                }
+                break;
+            default:
+                // SYNC and unsolicited packets are ignored, as adb itself does
+                break;
+        }
+    }
+
+    public AdbStream open(String destination) throws IOException {
+        if (closed) {
+            throw new IOException("Connection to " + serial + " is closed");
+        }
+        int localId = nextLocalId.getAndIncrement();
+        AdbStream stream = new AdbStream(this, localId, destination);
+        streams.put(localId, stream);
+        byte[] payload = (destination + "\0").getBytes(StandardCharsets.UTF_8);
+        try {
+            sendMessage(AdbProtocol.A_OPEN, localId, 0, payload, 0, payload.length);
+            stream.awaitOpen(OPEN_TIMEOUT_MS);
+        } catch (IOException e) {
+            streams.remove(localId);
+            throw e;
+        }
+        return stream;
+    }
+
+    /**
+     * Heartbeat: times the OKAY that answers an OPEN of a command with no output. Unlike a
+     * shell command this costs the device almost nothing, and a half-open socket fails it
+     * within the open timeout.
+     */
+    public long ping() throws IOException {
+        long start = System.nanoTime();
+        AdbStream stream = open("exec:true");
+        long rtt = System.nanoTime() - start;
+        stream.close();
+        return rtt;
+    }
+
+    // Runs a one-shot shell command and returns its output
+    public String shell(String command) throws IOException {
+        AdbStream stream = open("shell:" + command);
+        try {
+            return stream.readAll();
+        } finally {
+            stream.close();
+        }
+    }
+
+    void sendMessage(int command, int arg0, int arg1, byte[] data, int offset, int length) throws IOException {
+        synchronized (writeHeader) {
+            if (closed) {
+                throw new IOException("Connection to " + serial + " is closed");
+            }
+            try {
+                AdbMessage.write(out, writeHeader, command, arg0, arg1, data, offset, length);
+            } catch (IOException e) {
+                closeQuietly(socket);
+                throw e;
+            }
+        }
+    }
+
+    void releaseStream(AdbStream stream) {
+        streams.remove(stream.getLocalId());
+    }
+
+    public String getSerial() {
+        return serial;
+    }
+
+    public String getDeviceBanner() {
+        return deviceBanner;
+    }
+
+    public int getMaxPayload() {
+        return maxPayload;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public int getOpenStreamCount() {
+        return streams.size();
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    // Counts every packet read from now on, header included
+    public void setReceiveMeter(Meter meter) {
+        this.receiveMeter = meter;
+    }
+
+    @Override
+    public void close() {
+        shutdown(null);
+    }
+
+    private void shutdown(IOException cause) {
+        List<AdbStream> open;
+        synchronized (writeHeader) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            open = new ArrayList<>(streams.values());
+            streams.clear();
+        }
+        closeQuietly(socket);
+        for (AdbStream stream : open) {
+            stream.onRemoteClose();
+        }
+        Listener l = listener;
+        if (l != null) {
+            l.onDisconnected(this, cause);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
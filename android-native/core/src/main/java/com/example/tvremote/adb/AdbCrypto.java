@@ -0,0 +1,173 @@
+package com.example.tvremote.adb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+
+import javax.crypto.Cipher;
+
+/**
+ * RSA identity used to answer AUTH challenges, stored the same way adb stores ~/.android/adbkey.
+ */
+public class AdbCrypto {
+    private static final int KEY_BITS = 2048;
+    private static final int KEY_WORDS = KEY_BITS / 32;
+
+    // ASN.1 DigestInfo prefix for SHA-1; adbd treats the 20 byte token as a SHA-1 digest
+    private static final byte[] SHA1_DIGEST_INFO = {
+            0x30, 0x21, 0x30, 0x09, 0x06, 0x05, 0x2b, 0x0e, 0x03, 0x02, 0x1a, 0x05, 0x00, 0x04, 0x14
+    };
+
+    private final KeyPair keyPair;
+    private final String identity;
+
+    public AdbCrypto(KeyPair keyPair, String identity) {
+        this.keyPair = keyPair;
+        this.identity = identity;
+    }
+
+    public static AdbCrypto generate(String identity) throws GeneralSecurityException {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(KEY_BITS);
+        return new AdbCrypto(generator.generateKeyPair(), identity);
+    }
+
+    public static AdbCrypto loadOrCreate(File privateKeyFile, File publicKeyFile, String identity)
+            throws IOException, GeneralSecurityException {
+        if (privateKeyFile.exists() && publicKeyFile.exists()) {
+            KeyFactory factory = KeyFactory.getInstance("RSA");
+            PrivateKey privateKey = factory.generatePrivate(new PKCS8EncodedKeySpec(readFile(privateKeyFile)));
+            PublicKey publicKey = factory.generatePublic(new X509EncodedKeySpec(readFile(publicKeyFile)));
+            return new AdbCrypto(new KeyPair(publicKey, privateKey), identity);
+        }
+        AdbCrypto crypto = generate(identity);
+        writeFile(privateKeyFile, crypto.keyPair.getPrivate().getEncoded());
+        writeFile(publicKeyFile, crypto.keyPair.getPublic().getEncoded());
+        return crypto;
+    }
+
+    public KeyPair getKeyPair() {
+        return keyPair;
+    }
+
+    // First 8 bytes of the SHA-256 of the public key; tells whether a device authorized this key
+    public long fingerprint() {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(keyPair.getPublic().getEncoded());
+            long value = 0;
+            for (int i = 0; i < 8; i++) {
+                value = value << 8 | (digest[i] & 0xff);
+            }
+            return value;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("SHA-256 unavailable", e);
+        }
+    }
+
+    public byte[] signToken(byte[] token) throws GeneralSecurityException {
+        int size = KEY_BITS / 8;
+        byte[] block = new byte[size];
+        // PKCS#1 v1.5 type 1 padding applied by hand so NoPadding behaves the same on every provider
+        int digestStart = size - SHA1_DIGEST_INFO.length - token.length;
+        block[0] = 0x00;
+        block[1] = 0x01;
+        for (int i = 2; i < digestStart - 1; i++) {
+            block[i] = (byte) 0xff;
+        }
+        block[digestStart - 1] = 0x00;
+        System.arraycopy(SHA1_DIGEST_INFO, 0, block, digestStart, SHA1_DIGEST_INFO.length);
+        System.arraycopy(token, 0, block, digestStart + SHA1_DIGEST_INFO.length, token.length);
+
+        Cipher cipher = Cipher.getInstance("RSA/ECB/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, keyPair.getPrivate());
+        return cipher.doFinal(block);
+    }
+
+    // Public key in the mincrypt RSAPublicKey layout adbd expects, base64 encoded with a user suffix
+    public byte[] publicKeyPayload() {
+        RSAPublicKey publicKey = (RSAPublicKey) keyPair.getPublic();
+        BigInteger modulus = publicKey.getModulus();
+        BigInteger r32 = BigInteger.ONE.shiftLeft(32);
+        BigInteger n0inv = modulus.mod(r32).modInverse(r32).negate().mod(r32);
+        BigInteger rr = BigInteger.ONE.shiftLeft(KEY_BITS).pow(2).mod(modulus);
+
+        byte[] struct = new byte[4 + 4 + KEY_WORDS * 4 + KEY_WORDS * 4 + 4];
+        int offset = 0;
+        AdbMessage.putInt(struct, offset, KEY_WORDS);
+        offset += 4;
+        AdbMessage.putInt(struct, offset, n0inv.intValue());
+        offset += 4;
+        offset = putWords(struct, offset, modulus);
+        offset = putWords(struct, offset, rr);
+        AdbMessage.putInt(struct, offset, publicKey.getPublicExponent().intValue());
+
+        String encoded = base64(struct) + " " + identity + "\0";
+        return encoded.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int putWords(byte[] target, int offset, BigInteger value) {
+        BigInteger mask = BigInteger.ONE.shiftLeft(32).subtract(BigInteger.ONE);
+        for (int i = 0; i < KEY_WORDS; i++) {
+            AdbMessage.putInt(target, offset, value.shiftRight(i * 32).and(mask).intValue());
+            offset += 4;
+        }
+        return offset;
+    }
+
+    private static final char[] BASE64 =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+    // java.util.Base64 needs API 26 and android.util.Base64 is missing on the JVM
+    public static String base64(byte[] data) {
+        StringBuilder sb = new StringBuilder((data.length + 2) / 3 * 4);
+        for (int i = 0; i < data.length; i += 3) {
+            int b0 = data[i] & 0xff;
+            int b1 = i + 1 < data.length ? data[i + 1] & 0xff : 0;
+            int b2 = i + 2 < data.length ? data[i + 2] & 0xff : 0;
+            sb.append(BASE64[b0 >> 2]);
+            sb.append(BASE64[(b0 << 4 | b1 >> 4) & 0x3f]);
+            sb.append(i + 1 < data.length ? BASE64[(b1 << 2 | b2 >> 6) & 0x3f] : '=');
+            sb.append(i + 2 < data.length ? BASE64[b2 & 0x3f] : '=');
+        }
+        return sb.toString();
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        InputStream in = new FileInputStream(file);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void writeFile(File file, byte[] data) throws IOException {
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+}
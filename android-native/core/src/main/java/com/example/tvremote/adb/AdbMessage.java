@@ -0,0 +1,115 @@
+package com.example.tvremote.adb;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A single ADB packet: a 24 byte little-endian header followed by an optional payload.
+ */
+public final class AdbMessage {
+    static final byte[] EMPTY = new byte[0];
+
+    public final int command;
+    public final int arg0;
+    public final int arg1;
+    public final byte[] payload;
+
+    public AdbMessage(int command, int arg0, int arg1, byte[] payload) {
+        this.command = command;
+        this.arg0 = arg0;
+        this.arg1 = arg1;
+        this.payload = payload != null ? payload : EMPTY;
+    }
+
+    public String payloadString() {
+        int length = payload.length;
+        // Banners and destinations are NUL terminated
+        while (length > 0 && payload[length - 1] == 0) {
+            length--;
+        }
+        return new String(payload, 0, length, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public String toString() {
+        return AdbProtocol.commandName(command) + "(" + arg0 + ", " + arg1 + ", " + payload.length + " bytes)";
+    }
+
+    public static int checksum(byte[] data, int offset, int length) {
+        int sum = 0;
+        for (int i = offset; i < offset + length; i++) {
+            sum += data[i] & 0xff;
+        }
+        return sum;
+    }
+
+    // Encodes the header into the caller's buffer so the hot write path does not allocate
+    public static void writeHeader(byte[] header, int command, int arg0, int arg1,
+                                   byte[] data, int offset, int length) {
+        putInt(header, 0, command);
+        putInt(header, 4, arg0);
+        putInt(header, 8, arg1);
+        putInt(header, 12, length);
+        putInt(header, 16, data != null ? checksum(data, offset, length) : 0);
+        putInt(header, 20, ~command);
+    }
+
+    public static void write(OutputStream out, byte[] header, int command, int arg0, int arg1,
+                             byte[] data, int offset, int length) throws IOException {
+        writeHeader(header, command, arg0, arg1, data, offset, length);
+        out.write(header, 0, AdbProtocol.HEADER_SIZE);
+        if (length > 0) {
+            out.write(data, offset, length);
+        }
+        out.flush();
+    }
+
+    public static AdbMessage read(InputStream in, byte[] header) throws IOException {
+        readFully(in, header, 0, AdbProtocol.HEADER_SIZE);
+        int command = getInt(header, 0);
+        int arg0 = getInt(header, 4);
+        int arg1 = getInt(header, 8);
+        int length = getInt(header, 12);
+        int magic = getInt(header, 20);
+        if (magic != ~command) {
+            throw new IOException("Bad ADB header magic for " + AdbProtocol.commandName(command));
+        }
+        if (length < 0 || length > AdbProtocol.MAX_PAYLOAD * 4) {
+            throw new IOException("Bad ADB payload length " + length);
+        }
+        byte[] payload = EMPTY;
+        if (length > 0) {
+            payload = new byte[length];
+            readFully(in, payload, 0, length);
+        }
+        return new AdbMessage(command, arg0, arg1, payload);
+    }
+
+    static void readFully(InputStream in, byte[] buffer, int offset, int length) throws IOException {
+        while (length > 0) {
+            int n = in.read(buffer, offset, length);
+            if (n < 0) {
+                throw new EOFException("ADB connection closed");
+            }
+            offset += n;
+            length -= n;
+        }
+    }
+
+    static void putInt(byte[] buffer, int offset, int value) {
+        buffer[offset] = (byte) value;
+        buffer[offset + 1] = (byte) (value >>> 8);
+        buffer[offset + 2] = (byte) (value >>> 16);
+        buffer[offset + 3] = (byte) (value >>> 24);
+    }
+
+    static int getInt(byte[] buffer, int offset) {
+        return (buffer[offset] & 0xff)
+                | (buffer[offset + 1] & 0xff) << 8
+                | (buffer[offset + 2] & 0xff) << 16
+                | (buffer[offset + 3] & 0xff) << 24;
+    }
+}
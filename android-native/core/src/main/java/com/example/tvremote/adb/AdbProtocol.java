@@ -0,0 +1,42 @@
+package com.example.tvremote.adb;
+
+/**
+ * Constants of the ADB wire protocol (see system/core/adb/protocol.txt).
+ */
+public final class AdbProtocol {
+    public static final int A_SYNC = 0x434e5953;
+    public static final int A_CNXN = 0x4e584e43;
+    public static final int A_AUTH = 0x48545541;
+    public static final int A_OPEN = 0x4e45504f;
+    public static final int A_OKAY = 0x59414b4f;
+    public static final int A_CLSE = 0x45534c43;
+    public static final int A_WRTE = 0x45545257;
+
+    // 0x01000001 lets the device skip payload checksums; we still send them for older devices
+    public static final int A_VERSION = 0x01000001;
+    public static final int MAX_PAYLOAD = 256 * 1024;
+    public static final int HEADER_SIZE = 24;
+
+    // AUTH packet types
+    public static final int AUTH_TOKEN = 1;
+    public static final int AUTH_SIGNATURE = 2;
+    public static final int AUTH_RSAPUBLICKEY = 3;
+
+    public static final String HOST_BANNER = "host::\0";
+
+    private AdbProtocol() {
+    }
+
+    public static String commandName(int command) {
+        switch (command) {
+            case A_SYNC: return "SYNC";
+            case A_CNXN: return "CNXN";
+            case A_AUTH: return "AUTH";
+            case A_OPEN: return "OPEN";
+            case A_OKAY: return "OKAY";
+            case A_CLSE: return "CLSE";
+            case A_WRTE: return "WRTE";
+            default: return String.format("0x%08x", command);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.example.tvremote.adb;
+
+import com.example.tvremote.input.CommandJournal;
+import com.example.tvremote.input.InputAgentClient;
+import com.example.tvremote.input.InputPipeline;
+import com.example.tvremote.input.TextInjector;
+import com.example.tvremote.metrics.DeviceMetrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Long-lived session with one device. Keeps the {@link AdbConnection} open between commands and
+ * runs everything on a dedicated thread so callers (fragments) never block.
+ */
+public class AdbSession implements ConnectionProvider {
+    public interface Callback {
+        void onSuccess(String output, long latencyNanos);
+
+        void onFailure(IOException error);
+    }
+
+    public interface CryptoProvider {
+        AdbCrypto getCrypto() throws IOException;
+    }
+
+    private final String host;
+    private final int port;
+    private final CryptoProvider cryptoProvider;
+    private final ExecutorService executor;
+    /*
+     * Held for the whole connect, which can take the AUTH timeout. The lazily created input
+     * objects are guarded by the session monitor instead, so the main thread can reach the
+     * pipeline or agent while another thread is connecting.
+     */
+    private final Object connectLock = new Object();
+
+    private volatile AdbConnection connection;
+    private volatile DeviceMetrics metrics;
+    private File journalFile;
+    // Input sent through the agent; what it could not confirm is replayed by the pipeline
+    private CommandJournal agentJournal;
+    private InputPipeline inputPipeline;
+    private TextInjector textInjector;
+    private InputAgentClient inputAgent;
+
+    public AdbSession(String host, int port, CryptoProvider cryptoProvider) {
+        this.host = host;
+        this.port = port;
+        this.cryptoProvider = cryptoProvider;
+        this.executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "adb-session-" + host + ":" + port);
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void setMetrics(DeviceMetrics metrics) {
+        this.metrics = metrics;
+        synchronized (this) {
+            if (inputPipeline != null) {
+                inputPipeline.setMetrics(metrics);
+            }
+        }
+    }
+
+    /*
+     * Input is journaled there from the time the pipeline is created, and replayed after a
+     * drop. Input sent through the agent goes to a second journal next to it.
+     */
+    public synchronized void setJournalFile(File journalFile) {
+        this.journalFile = journalFile;
+    }
+
+    public String getSerial() {
+        return host + ":" + port;
+    }
+
+    public boolean isConnected() {
+        return getConnection() != null;
+    }
+
+    // The live connection or null; unlike ensureConnected() it never dials
+    public AdbConnection getConnection() {
+        AdbConnection c = connection;
+        return c != null && !c.isClosed() ? c : null;
+    }
+
+    public void connect(Callback callback) {
+        submit(callback, () -> {
+            ensureConnected();
+            return connection.getDeviceBanner();
+        });
+    }
+
+    // Connects and opens the input shell so the first key press goes straight out
+    public void warmUp(Callback callback) {
+        submit(callback, () -> {
+            AdbConnection c = ensureConnected();
+            getInputPipeline().warmUp();
+            return c.getDeviceBanner();
+        });
+    }
+
+    // Equivalent of `adb shell input keyevent <code>` without spawning adb
+    public void sendKey(int keyCode, Callback callback) {
+        shell("input keyevent " + keyCode, callback);
+    }
+
+    // Shared interactive shell for key and touch input; created on first use
+    public synchronized InputPipeline getInputPipeline() {
+        if (inputPipeline == null) {
+            CommandJournal journal = null;
+            if (journalFile != null) {
+                try {
+                    journal = CommandJournal.open(journalFile);
+                } catch (IOException e) {
+                    // Input still works, it just is not replayed after a drop
+                }
+            }
+            inputPipeline = new InputPipeline(this::openShell, InputPipeline.DEFAULT_CAPACITY, journal);
+            inputPipeline.setMetrics(metrics);
+            if (journalFile != null) {
+                try {
+                    agentJournal = CommandJournal.open(new File(journalFile.getParentFile(), "agent-" + journalFile.getName()));
+                    // Left over from a run that ended before the agent confirmed it
+                    inputPipeline.adopt(agentJournal);
+                } catch (IOException e) {
+                    agentJournal = null;
+                }
+            }
+        }
+        return inputPipeline;
+    }
+
+    // Typed text rides the same shell so it stays in order with keys sent through the pipeline
+    public synchronized TextInjector getTextInjector() {
+        if (textInjector == null) {
+            textInjector = new TextInjector(getInputPipeline());
+        }
+        return textInjector;
+    }
+
+    // agentPackage is the APK that carries the agent, normally this app's own
+    public synchronized InputAgentClient getInputAgent(File agentPackage) {
+        if (inputAgent == null) {
+            inputAgent = new InputAgentClient(this, agentPackage);
+            InputPipeline pipeline = getInputPipeline();
+            if (agentJournal != null) {
+                inputAgent.setJournal(agentJournal, pipeline);
+            }
+        }
+        return inputAgent;
+    }
+
+    public AdbStream openShell() throws IOException {
+        return ensureConnected().open("shell:");
+    }
+
+    public void shell(String command, Callback callback) {
+        submit(callback, () -> ensureConnected().shell(command));
+    }
+
+    @Override
+    public AdbConnection connect() throws IOException {
+        return ensureConnected();
+    }
+
+    // Blocking variant for code already running off the main thread; never call it on the main thread
+    public AdbConnection ensureConnected() throws IOException {
+        synchronized (connectLock) {
+            AdbConnection c = connection;
+            if (c == null || c.isClosed()) {
+                boolean reconnect = c != null;
+                c = AdbConnection.connect(host, port, cryptoProvider.getCrypto());
+                DeviceMetrics m = metrics;
+                if (m != null) {
+                    c.setReceiveMeter(m.bytesReceived);
+                    if (reconnect) {
+                        m.reconnects.increment();
+                    }
+                }
+                connection = c;
+            }
+            return c;
+        }
+    }
+
+    // Closes the connection but keeps the session usable; the next command reconnects
+    public void disconnect() {
+        AdbConnection c = connection;
+        if (c != null) {
+            c.close();
+        }
+    }
+
+    public void close() {
+        synchronized (this) {
+            if (inputPipeline != null) {
+                inputPipeline.close();
+            }
+            if (inputAgent != null) {
+                inputAgent.close();
+            }
+            if (agentJournal != null) {
+                agentJournal.close();
+            }
+        }
+        executor.shutdownNow();
+        AdbConnection c = connection;
+        if (c != null) {
+            c.close();
+        }
+    }
+
+    private interface Task {
+        String run() throws IOException;
+    }
+
+    private void submit(Callback callback, Task task) {
+        long start = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                String output;
+                try {
+                    output = task.run();
+                } catch (IOException e) {
+                    if (callback != null) {
+                        callback.onFailure(e);
+                    }
+                    return;
+                }
+                if (callback != null) {
+                    callback.onSuccess(output, System.nanoTime() - start);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            if (callback != null) {
+                callback.onFailure(new IOException("Session " + getSerial() + " is closed", e));
+            }
+        }
+    }
+}
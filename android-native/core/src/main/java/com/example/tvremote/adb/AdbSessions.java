@@ -0,0 +1,101 @@
+package com.example.tvremote.adb;
+
+import com.example.tvremote.metrics.Metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Process-wide table of {@link AdbSession}s, one per device serial ("host:port").
+ */
+public class AdbSessions implements AdbSession.CryptoProvider {
+    public static final int DEFAULT_PORT = 5555;
+
+    private final File keyDirectory;
+    private final Map<String, AdbSession> sessions = new HashMap<>();
+    private final Object cryptoLock = new Object();
+    private AdbCrypto crypto;
+    private Metrics metrics;
+    private File journalDirectory;
+
+    public AdbSessions(File keyDirectory) {
+        this.keyDirectory = keyDirectory;
+    }
+
+    // Sessions record into the device's metrics from then on
+    public synchronized void setMetrics(Metrics metrics) {
+        this.metrics = metrics;
+        for (Map.Entry<String, AdbSession> entry : sessions.entrySet()) {
+            entry.getValue().setMetrics(metrics.device(entry.getKey()));
+        }
+    }
+
+    // One input journal per device goes there; without one, input lost to a drop stays lost
+    public synchronized void setJournalDirectory(File journalDirectory) {
+        this.journalDirectory = journalDirectory;
+    }
+
+    /*
+     * Key generation takes around a second on slow phones, so it happens on first connect, on
+     * a connecting thread. It has a lock of its own: get() is called on the main thread.
+     */
+    @Override
+    public AdbCrypto getCrypto() throws IOException {
+        synchronized (cryptoLock) {
+            if (crypto == null) {
+                try {
+                    crypto = AdbCrypto.loadOrCreate(new File(keyDirectory, "adbkey"),
+                            new File(keyDirectory, "adbkey.pub"), "tvremote@android");
+                } catch (GeneralSecurityException e) {
+                    throw new IOException("Could not load ADB key", e);
+                }
+            }
+            return crypto;
+        }
+    }
+
+    public synchronized AdbSession get(String serial) {
+        AdbSession session = sessions.get(serial);
+        if (session == null) {
+            String host = serial;
+            int port = DEFAULT_PORT;
+            int colon = serial.lastIndexOf(':');
+            if (colon > 0) {
+                host = serial.substring(0, colon);
+                port = Integer.parseInt(serial.substring(colon + 1));
+            }
+            session = new AdbSession(host, port, this);
+            if (metrics != null) {
+                session.setMetrics(metrics.device(serial));
+            }
+            if (journalDirectory != null) {
+                session.setJournalFile(new File(journalDirectory, serial.replaceAll("[^\\w.-]", "_") + ".journal"));
+            }
+            sessions.put(serial, session);
+        }
+        return session;
+    }
+
+    public synchronized void close(String serial) {
+        AdbSession session = sessions.remove(serial);
+        if (session != null) {
+            session.close();
+        }
+    }
+
+    public void closeAll() {
+        List<AdbSession> open;
+        synchronized (this) {
+            open = new ArrayList<>(sessions.values());
+            sessions.clear();
+        }
+        for (AdbSession session : open) {
+            session.close();
+        }
+    }
+}
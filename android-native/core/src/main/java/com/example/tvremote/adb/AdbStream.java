@@ -0,0 +1,207 @@
+package com.example.tvremote.adb;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One logical stream (e.g. "shell:...") multiplexed over an {@link AdbConnection}.
+ * ADB allows a single unacknowledged WRTE per stream, so writers wait for the device's OKAY.
+ */
+public class AdbStream implements Closeable {
+    private static final byte[] EOF = new byte[0];
+
+    private final AdbConnection connection;
+    private final int localId;
+    private final String destination;
+    private final LinkedBlockingQueue<byte[]> readQueue = new LinkedBlockingQueue<>();
+    private final Object lock = new Object();
+
+    private int remoteId;
+    private boolean writeReady;
+    private boolean closed;
+    private boolean eof;
+
+    AdbStream(AdbConnection connection, int localId, String destination) {
+        this.connection = connection;
+        this.localId = localId;
+        this.destination = destination;
+    }
+
+    public int getLocalId() {
+        return localId;
+    }
+
+    public String getDestination() {
+        return destination;
+    }
+
+    public boolean isClosed() {
+        synchronized (lock) {
+            return closed;
+        }
+    }
+
+    void awaitOpen(long timeoutMs) throws IOException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (lock) {
+            while (remoteId == 0 && !closed) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new IOException("Timed out opening " + destination);
+                }
+                waitOn(remaining);
+            }
+            if (remoteId == 0) {
+                throw new IOException("Device refused to open " + destination);
+            }
+        }
+    }
+
+    public void write(String data) throws IOException {
+        write(data, 0);
+    }
+
+    // Gives up with an IOException if the device has not OKAYed a chunk within timeoutMs (0 waits forever)
+    public void write(String data, long timeoutMs) throws IOException {
+        byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        write(bytes, 0, bytes.length, timeoutMs);
+    }
+
+    public void write(byte[] data, int offset, int length) throws IOException {
+        write(data, offset, length, 0);
+    }
+
+    public void write(byte[] data, int offset, int length, long timeoutMs) throws IOException {
+        int maxPayload = connection.getMaxPayload();
+        while (length > 0) {
+            int chunk = Math.min(length, maxPayload);
+            int remote;
+            synchronized (lock) {
+                long deadline = System.currentTimeMillis() + timeoutMs;
+                while (!writeReady && !closed) {
+                    if (timeoutMs == 0) {
+                        waitOn(0);
+                        continue;
+                    }
+                    long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        throw new IOException("Timed out writing to " + destination);
+                    }
+                    waitOn(remaining);
+                }
+                if (closed) {
+                    throw new IOException("Stream " + destination + " is closed");
+                }
+                writeReady = false;
+                remote = remoteId;
+            }
+            connection.sendMessage(AdbProtocol.A_WRTE, localId, remote, data, offset, chunk);
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    // Returns the next payload from the device, or null once the stream is closed
+    public byte[] read() throws IOException {
+        if (eof) {
+            return null;
+        }
+        try {
+            byte[] data = readQueue.take();
+            if (data == EOF) {
+                eof = true;
+                return null;
+            }
+            return data;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted reading " + destination);
+        }
+    }
+
+    // Like read() but gives up after timeoutMs; returns an empty array on timeout
+    public byte[] read(long timeoutMs) throws IOException {
+        if (eof) {
+            return null;
+        }
+        try {
+            byte[] data = readQueue.poll(timeoutMs, TimeUnit.MILLISECONDS);
+            if (data == null) {
+                return AdbMessage.EMPTY;
+            }
+            if (data == EOF) {
+                eof = true;
+                return null;
+            }
+            return data;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted reading " + destination);
+        }
+    }
+
+    public String readAll() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] data;
+        while ((data = read()) != null) {
+            out.write(data, 0, data.length);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() {
+        int remote;
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            remote = remoteId;
+            lock.notifyAll();
+        }
+        readQueue.offer(EOF);
+        connection.releaseStream(this);
+        if (remote != 0) {
+            try {
+                connection.sendMessage(AdbProtocol.A_CLSE, localId, remote, null, 0, 0);
+            } catch (IOException ignored) {
+                // Connection already gone, nothing left to close
+            }
+        }
+    }
+
+    void onOkay(int remote) {
+        synchronized (lock) {
+            remoteId = remote;
+            writeReady = true;
+            lock.notifyAll();
+        }
+    }
+
+    void onData(byte[] data) {
+        readQueue.offer(data);
+    }
+
+    void onRemoteClose() {
+        synchronized (lock) {
+            closed = true;
+            lock.notifyAll();
+        }
+        readQueue.offer(EOF);
+    }
+
+    private void waitOn(long timeoutMs) throws IOException {
+        try {
+            lock.wait(timeoutMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting on " + destination);
+        }
+    }
+}
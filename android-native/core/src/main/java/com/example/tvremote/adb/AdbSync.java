@@ -0,0 +1,127 @@
+package com.example.tvremote.adb;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Client side of the "sync:" file service, enough to stat and push a file.
+ */
+public class AdbSync {
+    private static final int MAX_DATA = 64 * 1024;
+
+    private final AdbStream stream;
+    private final byte[] request = new byte[8 + MAX_DATA];
+    private byte[] pending = AdbMessage.EMPTY;
+    private int pendingOffset;
+
+    public static final class Stat {
+        public final int mode;
+        public final int size;
+        public final int mtime;
+
+        Stat(int mode, int size, int mtime) {
+            this.mode = mode;
+            this.size = size;
+            this.mtime = mtime;
+        }
+
+        public boolean exists() {
+            return mode != 0;
+        }
+    }
+
+    public AdbSync(AdbConnection connection) throws IOException {
+        stream = connection.open("sync:");
+    }
+
+    public Stat stat(String remotePath) throws IOException {
+        byte[] path = remotePath.getBytes(StandardCharsets.UTF_8);
+        writeRequest("STAT", path, path.length);
+        byte[] reply = readExactly(16);
+        expectId(reply, "STAT");
+        return new Stat(AdbMessage.getInt(reply, 4), AdbMessage.getInt(reply, 8), AdbMessage.getInt(reply, 12));
+    }
+
+    public void push(InputStream data, String remotePath, int mode, int mtimeSeconds) throws IOException {
+        byte[] header = (remotePath + "," + mode).getBytes(StandardCharsets.UTF_8);
+        writeRequest("SEND", header, header.length);
+        byte[] chunk = new byte[MAX_DATA];
+        int n;
+        while ((n = data.read(chunk)) > 0) {
+            writeRequest("DATA", chunk, n);
+        }
+        putId(request, "DONE");
+        AdbMessage.putInt(request, 4, mtimeSeconds);
+        stream.write(request, 0, 8);
+
+        byte[] reply = readExactly(8);
+        if (matches(reply, "FAIL")) {
+            byte[] message = readExactly(AdbMessage.getInt(reply, 4));
+            throw new IOException("Push to " + remotePath + " failed: "
+                    + new String(message, StandardCharsets.UTF_8));
+        }
+        expectId(reply, "OKAY");
+    }
+
+    public void close() {
+        try {
+            putId(request, "QUIT");
+            AdbMessage.putInt(request, 4, 0);
+            stream.write(request, 0, 8);
+        } catch (IOException ignored) {
+            // Closing anyway
+        }
+        stream.close();
+    }
+
+    private void writeRequest(String id, byte[] data, int length) throws IOException {
+        putId(request, id);
+        AdbMessage.putInt(request, 4, length);
+        System.arraycopy(data, 0, request, 8, length);
+        stream.write(request, 0, 8 + length);
+    }
+
+    private byte[] readExactly(int length) throws IOException {
+        byte[] result = new byte[length];
+        int filled = 0;
+        while (filled < length) {
+            if (pendingOffset == pending.length) {
+                pending = stream.read();
+                pendingOffset = 0;
+                if (pending == null) {
+                    pending = AdbMessage.EMPTY;
+                    throw new IOException("sync stream closed");
+                }
+                continue;
+            }
+            int n = Math.min(length - filled, pending.length - pendingOffset);
+            System.arraycopy(pending, pendingOffset, result, filled, n);
+            pendingOffset += n;
+            filled += n;
+        }
+        return result;
+    }
+
+    private static void putId(byte[] buffer, String id) {
+        for (int i = 0; i < 4; i++) {
+            buffer[i] = (byte) id.charAt(i);
+        }
+    }
+
+    private static boolean matches(byte[] buffer, String id) {
+        for (int i = 0; i < 4; i++) {
+            if (buffer[i] != id.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void expectId(byte[] buffer, String id) throws IOException {
+        if (!matches(buffer, id)) {
+            throw new IOException("Expected " + id + " from sync service, got "
+                    + new String(buffer, 0, 4, StandardCharsets.US_ASCII));
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.tvremote.adb;
+
+import com.example.tvremote.input.InputPipeline;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends the same key presses to many devices at once. They go through each device's
+ * {@link InputPipeline}, so they ride the shell it keeps open instead of opening one per
+ * device, and the whole broadcast takes about as long as the slowest device rather than the
+ * sum of all of them. The keys go as one shell line, so a device runs all of them or none.
+ * A device that has not finished by the deadline is reported as timed out and does not hold
+ * up the others; if its line has not been written yet it is taken back, so a device reported
+ * as timed out does not run it later.
+ */
+public class Broadcaster {
+    public interface Listener {
+        void onBroadcastComplete(Report report);
+    }
+
+    public static final long DEFAULT_TIMEOUT_MS = 3000;
+
+    public static final class Result {
+        public final String serial;
+        public final boolean ok;
+        public final boolean timedOut;
+        public final long latencyNanos;
+        public final String error;
+
+        Result(String serial, boolean ok, boolean timedOut, long latencyNanos, String error) {
+            this.serial = serial;
+            this.ok = ok;
+            this.timedOut = timedOut;
+            this.latencyNanos = latencyNanos;
+            this.error = error;
+        }
+    }
+
+    public static final class Report {
+        public final String command;
+        public final List<Result> results;
+        public final long elapsedNanos;
+
+        Report(String command, List<Result> results, long elapsedNanos) {
+            this.command = command;
+            this.results = Collections.unmodifiableList(results);
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public int getSucceeded() {
+            int ok = 0;
+            for (Result result : results) {
+                if (result.ok) {
+                    ok++;
+                }
+            }
+            return ok;
+        }
+
+        public long getSlowestNanos() {
+            long slowest = 0;
+            for (Result result : results) {
+                if (result.ok) {
+                    slowest = Math.max(slowest, result.latencyNanos);
+                }
+            }
+            return slowest;
+        }
+
+        // "9/10 devices in 84 ms (slowest 80 ms); 10.0.0.7:5555 timed out"
+        public String summary() {
+            StringBuilder sb = new StringBuilder(String.format(Locale.US, "%d/%d devices in %d ms (slowest %d ms)",
+                    getSucceeded(), results.size(), elapsedNanos / 1000000, getSlowestNanos() / 1000000));
+            String separator = "; ";
+            for (Result result : results) {
+                if (!result.ok) {
+                    sb.append(separator).append(result.serial)
+                            .append(result.timedOut ? " timed out" : " failed: " + result.error);
+                    separator = ", ";
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    private final AdbSessions sessions;
+
+    public Broadcaster(AdbSessions sessions) {
+        this.sessions = sessions;
+    }
+
+    /** Blocks until every device has answered or timeoutMs has passed. */
+    public Report send(Collection<String> serials, int[] keyCodes, long timeoutMs) throws InterruptedException {
+        StringBuilder line = new StringBuilder("input keyevent");
+        for (int keyCode : keyCodes) {
+            line.append(' ').append(keyCode);
+        }
+        String command = line.toString();
+        List<String> targets = new ArrayList<>(serials);
+        Result[] results = new Result[targets.size()];
+        InputPipeline.Submission[] submissions = new InputPipeline.Submission[targets.size()];
+        CountDownLatch done = new CountDownLatch(targets.size());
+        long start = System.nanoTime();
+        for (int i = 0; i < targets.size(); i++) {
+            int index = i;
+            String serial = targets.get(i);
+            submissions[i] = sessions.get(serial).getInputPipeline().submitCommand(command, new InputPipeline.Completion() {
+                @Override
+                public void onAcked(long latencyNanos) {
+                    finish(index, new Result(serial, true, false, latencyNanos, null));
+                }
+
+                @Override
+                public void onFailed(String reason) {
+                    finish(index, new Result(serial, false, false, System.nanoTime() - start, reason));
+                }
+
+                private void finish(int index, Result result) {
+                    synchronized (results) {
+                        if (results[index] == null) {
+                            results[index] = result;
+                        }
+                    }
+                    done.countDown();
+                }
+            });
+        }
+        done.await(timeoutMs, TimeUnit.MILLISECONDS);
+        long elapsed = System.nanoTime() - start;
+        // Outside the results lock: a completion takes it while holding the pipeline's
+        boolean[] cancelled = new boolean[results.length];
+        for (int i = 0; i < results.length; i++) {
+            cancelled[i] = submissions[i].cancel();
+        }
+        List<Result> report = new ArrayList<>(results.length);
+        synchronized (results) {
+            for (int i = 0; i < results.length; i++) {
+                if (results[i] == null) {
+                    // Late answers find the slot taken and are dropped
+                    results[i] = new Result(targets.get(i), false, true, elapsed,
+                            cancelled[i] ? null : "sent, not confirmed");
+                }
+                report.add(results[i]);
+            }
+        }
+        return new Report(command, report, elapsed);
+    }
+
+    /** Runs {@link #send} on the executor; the listener is called on its thread. */
+    public void sendAsync(Executor executor, Collection<String> serials, int[] keyCodes, long timeoutMs,
+                          Listener listener) {
+        List<String> targets = new ArrayList<>(serials);
+        int[] codes = keyCodes.clone();
+        executor.execute(() -> {
+            try {
+                listener.onBroadcastComplete(send(targets, codes, timeoutMs));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+}
@@ -0,0 +1,11 @@
+package com.example.tvremote.adb;
+
+import java.io.IOException;
+
+/**
+ * Hands out a live connection to a device, reconnecting if needed. {@link AdbSession}
+ * implements it; helpers take this instead of the session so they can be tested alone.
+ */
+public interface ConnectionProvider {
+    AdbConnection connect() throws IOException;
+}
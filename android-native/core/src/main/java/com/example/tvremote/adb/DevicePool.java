@@ -0,0 +1,410 @@
+package com.example.tvremote.adb;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps connections open to many devices at once on top of {@link AdbSessions}. Every watched
+ * device is heartbeated with {@link AdbConnection#ping}; a failed heartbeat or a dropped socket
+ * puts it into exponential backoff until it answers again. At most maxOpen connections are
+ * held: when another device needs one, the least recently used connection is closed and that
+ * device is parked as idle until {@link #touch} asks for it again. Status changes are reported
+ * to the listener on a pool thread.
+ */
+public class DevicePool implements Closeable {
+    public interface Listener {
+        void onStatusChanged(Status status);
+    }
+
+    public static final int STATE_CONNECTING = 0;
+    public static final int STATE_ONLINE = 1;
+    public static final int STATE_BACKOFF = 2;
+    public static final int STATE_IDLE = 3;
+
+    public static final int DEFAULT_MAX_OPEN = 32;
+    public static final long DEFAULT_HEARTBEAT_MS = 5000;
+    public static final long DEFAULT_INITIAL_BACKOFF_MS = 1000;
+    public static final long DEFAULT_MAX_BACKOFF_MS = 60000;
+    // Connects to unreachable devices block for the connect timeout, so several run at once
+    private static final int WORKERS = 4;
+
+    public static final class Status {
+        public final String serial;
+        public final int state;
+        // Last heartbeat round trip, 0 before the first one
+        public final long rttNanos;
+        // Consecutive failed connects or heartbeats
+        public final int failures;
+        public final long retryDelayMs;
+        public final String error;
+
+        Status(Entry entry) {
+            this.serial = entry.serial;
+            this.state = entry.state;
+            this.rttNanos = entry.rttNanos;
+            this.failures = entry.failures;
+            this.retryDelayMs = entry.retryDelayMs;
+            this.error = entry.error;
+        }
+
+        public String describe() {
+            switch (state) {
+                case STATE_ONLINE:
+                    return String.format(Locale.US, "online %.1f ms", rttNanos / 1e6);
+                case STATE_BACKOFF:
+                    return "offline, retry in " + (retryDelayMs + 999) / 1000 + " s";
+                case STATE_IDLE:
+                    return "idle";
+                default:
+                    return "connecting";
+            }
+        }
+    }
+
+    private static final class Entry {
+        final String serial;
+        int state = STATE_CONNECTING;
+        long rttNanos;
+        int failures;
+        long retryDelayMs;
+        String error;
+        long lastUsedNanos;
+        // Counts against maxOpen while connecting or connected
+        boolean holding;
+        AdbConnection connection;
+        ScheduledFuture<?> task;
+
+        Entry(String serial) {
+            this.serial = serial;
+        }
+    }
+
+    private final AdbSessions sessions;
+    private final int maxOpen;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final ScheduledExecutorService executor;
+    private final Random random = new Random();
+    private volatile Listener listener;
+
+    private volatile long heartbeatMs = DEFAULT_HEARTBEAT_MS;
+    private volatile long initialBackoffMs = DEFAULT_INITIAL_BACKOFF_MS;
+    private volatile long maxBackoffMs = DEFAULT_MAX_BACKOFF_MS;
+    private volatile long idleTimeoutMs;
+
+    public DevicePool(AdbSessions sessions) {
+        this(sessions, DEFAULT_MAX_OPEN);
+    }
+
+    public DevicePool(AdbSessions sessions, int maxOpen) {
+        this.sessions = sessions;
+        this.maxOpen = maxOpen;
+        ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(WORKERS, r -> {
+            Thread thread = new Thread(r, "device-pool");
+            thread.setDaemon(true);
+            return thread;
+        });
+        pool.setRemoveOnCancelPolicy(true);
+        this.executor = pool;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void setHeartbeatIntervalMs(long heartbeatMs) {
+        this.heartbeatMs = heartbeatMs;
+    }
+
+    public void setBackoff(long initialMs, long maxMs) {
+        this.initialBackoffMs = initialMs;
+        this.maxBackoffMs = maxMs;
+    }
+
+    // Connections unused for this long are closed even below the cap; 0 keeps them open
+    public void setIdleTimeoutMs(long idleTimeoutMs) {
+        this.idleTimeoutMs = idleTimeoutMs;
+    }
+
+    /** Starts watching a device; connects right away. */
+    public void add(String serial) {
+        Status status;
+        synchronized (this) {
+            if (entries.containsKey(serial)) {
+                return;
+            }
+            Entry entry = new Entry(serial);
+            entry.lastUsedNanos = System.nanoTime();
+            entries.put(serial, entry);
+            scheduleLocked(entry, () -> connect(entry), 0);
+            status = new Status(entry);
+        }
+        notifyListener(status);
+    }
+
+    /** Stops watching a device and closes its session. */
+    public void remove(String serial) {
+        synchronized (this) {
+            Entry entry = entries.remove(serial);
+            if (entry == null) {
+                return;
+            }
+            cancelLocked(entry);
+            releaseLocked(entry);
+        }
+        sessions.close(serial);
+    }
+
+    /**
+     * Marks a device as in use so it is the last to be evicted. An idle device is reconnected
+     * and one waiting out its backoff is retried now.
+     */
+    public void touch(String serial) {
+        Status status = null;
+        synchronized (this) {
+            Entry entry = entries.get(serial);
+            if (entry == null) {
+                return;
+            }
+            entry.lastUsedNanos = System.nanoTime();
+            if (entry.state == STATE_IDLE || entry.state == STATE_BACKOFF) {
+                entry.state = STATE_CONNECTING;
+                scheduleLocked(entry, () -> connect(entry), 0);
+                status = new Status(entry);
+            }
+        }
+        if (status != null) {
+            notifyListener(status);
+        }
+    }
+
+    public synchronized Status getStatus(String serial) {
+        Entry entry = entries.get(serial);
+        return entry != null ? new Status(entry) : null;
+    }
+
+    public synchronized List<Status> statuses() {
+        List<Status> result = new ArrayList<>(entries.size());
+        for (Entry entry : entries.values()) {
+            result.add(new Status(entry));
+        }
+        return result;
+    }
+
+    public synchronized int getOpenCount() {
+        int open = 0;
+        for (Entry entry : entries.values()) {
+            if (entry.holding) {
+                open++;
+            }
+        }
+        return open;
+    }
+
+    private void connect(Entry entry) {
+        boolean parked = false;
+        synchronized (this) {
+            if (entries.get(entry.serial) != entry) {
+                return;
+            }
+            if (!entry.holding && !makeRoomLocked(entry)) {
+                // Everything open was used more recently than this device
+                entry.state = STATE_IDLE;
+                entry.error = null;
+                parked = true;
+            } else {
+                entry.holding = true;
+                entry.state = STATE_CONNECTING;
+            }
+        }
+        if (parked) {
+            notifyListener(entry);
+            return;
+        }
+        AdbConnection connection;
+        long rtt;
+        try {
+            connection = sessions.get(entry.serial).ensureConnected();
+            rtt = connection.ping();
+        } catch (IOException e) {
+            onFailure(entry, null, e);
+            return;
+        }
+        synchronized (this) {
+            if (entries.get(entry.serial) != entry || !entry.holding) {
+                return;
+            }
+            entry.connection = connection;
+            entry.state = STATE_ONLINE;
+            entry.rttNanos = rtt;
+            entry.failures = 0;
+            entry.error = null;
+            scheduleLocked(entry, () -> heartbeat(entry), heartbeatMs);
+        }
+        connection.setListener((c, cause) -> onFailure(entry, c,
+                cause != null ? cause : new IOException("Connection closed")));
+        if (connection.isClosed()) {
+            // Dropped before the listener was in place
+            onFailure(entry, connection, new IOException("Connection closed"));
+            return;
+        }
+        notifyListener(entry);
+    }
+
+    private void heartbeat(Entry entry) {
+        AdbConnection connection;
+        synchronized (this) {
+            if (entries.get(entry.serial) != entry || entry.state != STATE_ONLINE) {
+                return;
+            }
+            long idle = idleTimeoutMs;
+            if (idle > 0 && System.nanoTime() - entry.lastUsedNanos > idle * 1000000L) {
+                evictLocked(entry);
+                connection = null;
+            } else {
+                connection = entry.connection;
+            }
+        }
+        if (connection == null) {
+            notifyListener(entry);
+            return;
+        }
+        long rtt;
+        try {
+            rtt = connection.ping();
+        } catch (IOException e) {
+            onFailure(entry, connection, e);
+            // A socket that stopped answering is not closed by the reader; do it here
+            connection.close();
+            return;
+        }
+        synchronized (this) {
+            if (entries.get(entry.serial) != entry || entry.connection != connection) {
+                return;
+            }
+            entry.rttNanos = rtt;
+            scheduleLocked(entry, () -> heartbeat(entry), heartbeatMs);
+        }
+        notifyListener(entry);
+    }
+
+    // connection is null for a failed connect, otherwise the connection that went away
+    private void onFailure(Entry entry, AdbConnection connection, IOException error) {
+        synchronized (this) {
+            if (entries.get(entry.serial) != entry || entry.connection != connection || !entry.holding) {
+                // Removed, evicted, or a stale notification about an older connection
+                return;
+            }
+            releaseLocked(entry);
+            entry.failures++;
+            entry.error = error.getMessage();
+            entry.state = STATE_BACKOFF;
+            entry.retryDelayMs = backoffMs(entry.failures);
+            scheduleLocked(entry, () -> connect(entry), entry.retryDelayMs);
+        }
+        notifyListener(entry);
+    }
+
+    // initial * 2^(failures - 1), capped, with +-20% jitter so a venue's TVs do not retry in step
+    long backoffMs(int failures) {
+        long delay = initialBackoffMs;
+        for (int i = 1; i < failures && delay < maxBackoffMs; i++) {
+            delay *= 2;
+        }
+        delay = Math.min(delay, maxBackoffMs);
+        double jitter;
+        synchronized (random) {
+            jitter = 0.8 + random.nextDouble() * 0.4;
+        }
+        return (long) (delay * jitter);
+    }
+
+    private boolean makeRoomLocked(Entry entry) {
+        int open = 0;
+        Entry oldest = null;
+        for (Entry other : entries.values()) {
+            if (!other.holding) {
+                continue;
+            }
+            open++;
+            if (other.state == STATE_ONLINE && other.lastUsedNanos < entry.lastUsedNanos
+                    && (oldest == null || other.lastUsedNanos < oldest.lastUsedNanos)) {
+                oldest = other;
+            }
+        }
+        if (open < maxOpen) {
+            return true;
+        }
+        if (oldest == null) {
+            return false;
+        }
+        evictLocked(oldest);
+        Status status = new Status(oldest);
+        executor.execute(() -> notifyListener(status));
+        return true;
+    }
+
+    private void evictLocked(Entry entry) {
+        cancelLocked(entry);
+        releaseLocked(entry);
+        entry.state = STATE_IDLE;
+        AdbSession session = sessions.get(entry.serial);
+        executor.execute(session::disconnect);
+    }
+
+    private void releaseLocked(Entry entry) {
+        if (entry.connection != null) {
+            entry.connection.setListener(null);
+            entry.connection = null;
+        }
+        entry.holding = false;
+    }
+
+    private void scheduleLocked(Entry entry, Runnable task, long delayMs) {
+        cancelLocked(entry);
+        entry.task = executor.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void cancelLocked(Entry entry) {
+        if (entry.task != null) {
+            entry.task.cancel(false);
+            entry.task = null;
+        }
+    }
+
+    private void notifyListener(Entry entry) {
+        Status status;
+        synchronized (this) {
+            status = new Status(entry);
+        }
+        notifyListener(status);
+    }
+
+    private void notifyListener(Status status) {
+        Listener l = listener;
+        if (l != null) {
+            l.onStatusChanged(status);
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            for (Entry entry : entries.values()) {
+                cancelLocked(entry);
+                releaseLocked(entry);
+            }
+            entries.clear();
+        }
+        executor.shutdownNow();
+    }
+}
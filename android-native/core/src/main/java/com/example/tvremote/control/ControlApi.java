@@ -0,0 +1,409 @@
+package com.example.tvremote.control;
+
+import com.example.tvremote.adb.AdbSession;
+import com.example.tvremote.adb.AdbSessions;
+import com.example.tvremote.adb.AdbStream;
+import com.example.tvremote.adb.DevicePool;
+import com.example.tvremote.discovery.CidrRange;
+import com.example.tvremote.discovery.SubnetScanner;
+import com.example.tvremote.screen.DisplayGeometryService;
+import com.example.tvremote.task.Lanes;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ScheduledFuture;
+import java.util.regex.Pattern;
+
+/**
+ * The server.js events on top of the app's own ADB sessions: input goes through each device's
+ * persistent input shell and the device pool's connections instead of one `adb` process per
+ * command. Replies use the same event names and fields as server.js.
+ *
+ * Screen capture is shared: every client watching a device gets the same PNG frames, sent as
+ * binary messages, from one capture loop per device paced by how long a capture takes.
+ *
+ * Besides the {@link ControlServer}, any {@link Peer} can use it through {@link #handle}, e.g.
+ * an app's bridge to its own web UI.
+ */
+public class ControlApi implements ControlServer.Handler {
+    static final long MIN_FRAME_INTERVAL_MS = 100;
+    private static final Pattern ALLOWED_COMMAND =
+            Pattern.compile("input (keyevent|tap|swipe|text)( [A-Za-z0-9_.%-]+)+");
+
+    private final AdbSessions sessions;
+    private final DevicePool pool;
+    private final Lanes lanes;
+    private final Map<String, ScreenFeed> feeds = new HashMap<>();
+    // Peer -> the feed that peer watches; guarded by feeds
+    private final Map<Peer, ScreenFeed> watching = new HashMap<>();
+    private volatile String defaultRange;
+    private volatile DisplayGeometryService displayGeometry;
+
+    public ControlApi(AdbSessions sessions, DevicePool pool, Lanes lanes) {
+        this.sessions = sessions;
+        this.pool = pool;
+        this.lanes = lanes;
+    }
+
+    // Range scanned when scanNetwork does not name one, e.g. the phone's own /24
+    public void setDefaultRange(String range) {
+        this.defaultRange = range;
+    }
+
+    // Adds getDisplayGeometry, answered from the registry's cache when it can
+    public void setDisplayGeometry(DisplayGeometryService displayGeometry) {
+        this.displayGeometry = displayGeometry;
+    }
+
+    @Override
+    public void onOpen(ControlServer.Client client) {
+    }
+
+    @Override
+    public void onEvent(ControlServer.Client client, String event, Map<String, Object> data) {
+        handle(client, event, data);
+    }
+
+    @Override
+    public void onClose(ControlServer.Client client) {
+        disconnect(client);
+    }
+
+    @Override
+    public String onGet(String path) {
+        if (path.equals("/devices")) {
+            return devicesJson();
+        }
+        return null;
+    }
+
+    // One event from any peer; must not block, the work is handed to the lanes
+    public void handle(Peer client, String event, Map<String, Object> data) {
+        switch (event) {
+            case "sendCommand":
+                sendCommand(client, data);
+                break;
+            case "sendText":
+                sendText(client, data);
+                break;
+            case "sendTap":
+                submit(client, data, String.format(Locale.US, "input tap %d %d",
+                        Json.getInt(data, "x", 0), Json.getInt(data, "y", 0)));
+                break;
+            case "sendSwipe":
+                submit(client, data, String.format(Locale.US, "input swipe %d %d %d %d %d",
+                        Json.getInt(data, "x1", 0), Json.getInt(data, "y1", 0),
+                        Json.getInt(data, "x2", 0), Json.getInt(data, "y2", 0),
+                        Json.getInt(data, "duration", 300)));
+                break;
+            case "listDevices":
+                client.emit("devicesList", devicesJson());
+                break;
+            case "connectToDevice":
+                connectToDevice(client, data);
+                break;
+            case "disconnectDevice":
+                disconnectDevice(client, data);
+                break;
+            case "getDisplayGeometry":
+                getDisplayGeometry(client, data);
+                break;
+            case "scanNetwork":
+                scanNetwork(client, Json.getString(data, "networkRange"));
+                break;
+            case "startScreenCapture":
+                startScreenCapture(client, data);
+                break;
+            case "stopScreenCapture":
+                stopScreenCapture(client);
+                client.emit("screenCaptureStopped", null);
+                break;
+            default:
+                client.emit("error", error("Unknown event " + event));
+        }
+    }
+
+    // The peer is gone; stops its screen capture
+    public void disconnect(Peer client) {
+        stopScreenCapture(client);
+    }
+
+    /*
+     * Same rule as server.js (only `input` commands), narrowed to the input verbs the UI sends
+     * with plain arguments: the line runs on the shared shell ahead of the ack marker, so a
+     * quote, backslash or `#` would swallow the marker and stall that device's input.
+     */
+    static boolean isAllowedCommand(String command) {
+        return command != null && ALLOWED_COMMAND.matcher(command).matches();
+    }
+
+    private void sendCommand(Peer client, Map<String, Object> data) {
+        String command = Json.getString(data, "command");
+        if (!isAllowedCommand(command)) {
+            client.emit("commandResponse", error("Unauthorized command"));
+            return;
+        }
+        submit(client, data, command);
+    }
+
+    private void sendText(Peer client, Map<String, Object> data) {
+        String serial = serial(client, data, "commandResponse");
+        if (serial == null) {
+            return;
+        }
+        String text = Json.getString(data, "text");
+        int deletes = Json.getInt(data, "deletes", 0);
+        lanes.input.execute(() -> {
+            pool.touch(serial);
+            boolean ok = sessions.get(serial).getTextInjector().edit(deletes, text != null ? text : "");
+            client.emit("commandResponse", ok ? "{\"success\":true,\"output\":\"\"}" : error("Input queue is full"));
+        });
+    }
+
+    // Queued on the device's input shell; the reply only says whether it was accepted
+    private void submit(Peer client, Map<String, Object> data, String command) {
+        String serial = serial(client, data, "commandResponse");
+        if (serial == null) {
+            return;
+        }
+        lanes.input.execute(() -> {
+            pool.touch(serial);
+            boolean ok = sessions.get(serial).getInputPipeline().submitCommand(command);
+            client.emit("commandResponse", ok ? "{\"success\":true,\"output\":\"\"}" : error("Input queue is full"));
+        });
+    }
+
+    // data.deviceId, or like `adb` without -s the only online device; replies with an error if neither
+    private String serial(Peer client, Map<String, Object> data, String replyEvent) {
+        String serial = Json.getString(data, "deviceId");
+        if (serial != null && !serial.isEmpty()) {
+            return serial;
+        }
+        serial = null;
+        for (DevicePool.Status status : pool.statuses()) {
+            if (status.state == DevicePool.STATE_ONLINE) {
+                if (serial != null) {
+                    client.emit(replyEvent, error("More than one device; pass deviceId"));
+                    return null;
+                }
+                serial = status.serial;
+            }
+        }
+        if (serial == null) {
+            client.emit(replyEvent, error("No device ID provided"));
+        }
+        return serial;
+    }
+
+    // Keeps the device connected and heartbeated from now on
+    private void connectToDevice(Peer client, Map<String, Object> data) {
+        String serial = serial(client, data, "commandResponse");
+        if (serial != null) {
+            pool.add(serial);
+            client.emit("commandResponse", "{\"success\":true,\"output\":\"\"}");
+        }
+    }
+
+    private void disconnectDevice(Peer client, Map<String, Object> data) {
+        String serial = Json.getString(data, "deviceId");
+        if (serial == null || serial.isEmpty()) {
+            client.emit("disconnectResponse", error("No device ID provided"));
+            return;
+        }
+        lanes.input.execute(() -> {
+            pool.remove(serial);
+            sessions.close(serial);
+            StringBuilder json = new StringBuilder("{\"success\":true,\"output\":\"\",\"deviceId\":");
+            Json.appendString(json, serial);
+            client.emit("disconnectResponse", json.append('}').toString());
+        });
+    }
+
+    private void getDisplayGeometry(Peer client, Map<String, Object> data) {
+        String serial = Json.getString(data, "deviceId");
+        DisplayGeometryService service = displayGeometry;
+        if (serial == null || serial.isEmpty() || service == null) {
+            client.emit("displayGeometry", error(service == null ? "Not supported" : "No device ID provided"));
+            return;
+        }
+        service.request(serial, (deviceId, geometry) -> {
+            StringBuilder json = new StringBuilder("{\"deviceId\":");
+            Json.appendString(json, deviceId);
+            json.append(",\"width\":").append(geometry.width).append(",\"height\":").append(geometry.height);
+            client.emit("displayGeometry", json.append('}').toString());
+        });
+    }
+
+    private String devicesJson() {
+        List<DevicePool.Status> statuses = pool.statuses();
+        StringBuilder json = new StringBuilder(32 + 48 * statuses.size()).append("{\"devices\":[");
+        for (int i = 0; i < statuses.size(); i++) {
+            DevicePool.Status status = statuses.get(i);
+            json.append(i > 0 ? ",{\"id\":" : "{\"id\":");
+            Json.appendString(json, status.serial);
+            // `adb devices` says "device" for a usable one
+            json.append(",\"status\":");
+            Json.appendString(json, status.state == DevicePool.STATE_ONLINE ? "device" : "offline");
+            json.append(",\"detail\":");
+            Json.appendString(json, status.describe());
+            json.append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    private void scanNetwork(Peer client, String requested) {
+        client.emit("scanStatus", status("Starting network scan..."));
+        String text = requested != null && !requested.isEmpty() ? requested : defaultRange;
+        CidrRange range = null;
+        try {
+            range = text != null ? CidrRange.parse(text) : null;
+        } catch (IllegalArgumentException e) {
+            // Reported below
+        }
+        if (range == null) {
+            client.emit("scanStatus", status("Error: Could not determine network range"));
+            return;
+        }
+        client.emit("scanStatus", status("Scanning network range: " + range));
+        CidrRange scanRange = range;
+        lanes.discovery.execute(() -> {
+            StringBuilder found = new StringBuilder("{\"devices\":[");
+            try {
+                new SubnetScanner().scan(scanRange, new SubnetScanner.Listener() {
+                    @Override
+                    public void onFound(SubnetScanner.Result result) {
+                        if (result.kind == SubnetScanner.Result.KIND_ADB_SERVER) {
+                            return;
+                        }
+                        StringBuilder json = new StringBuilder("{\"deviceId\":");
+                        Json.appendString(json, result.getSerial());
+                        json.append(",\"ip\":");
+                        Json.appendString(json, result.host);
+                        json.append(",\"port\":").append(result.port)
+                                .append(",\"authorized\":").append(result.kind == SubnetScanner.Result.KIND_DEVICE)
+                                .append('}');
+                        client.emit("deviceDiscovered", json.toString());
+                        if (found.length() > "{\"devices\":[".length()) {
+                            found.append(',');
+                        }
+                        Json.appendString(found, result.getSerial());
+                    }
+
+                    @Override
+                    public void onProgress(int done, int total) {
+                        client.emit("scanProgress", "{\"progress\":" + done * 100 / total + "}");
+                    }
+
+                    @Override
+                    public void onComplete(int count, long elapsedNanos) {
+                        client.emit("scanStatus", status("Scan complete. Found " + count + " potential devices."));
+                        client.emit("scanComplete", found.append("]}").toString());
+                    }
+                });
+            } catch (IOException e) {
+                client.emit("scanStatus", status("Error: " + e.getMessage()));
+            }
+        });
+    }
+
+    private void startScreenCapture(Peer client, Map<String, Object> data) {
+        String serial = serial(client, data, "screenCaptureStopped");
+        if (serial == null) {
+            return;
+        }
+        stopScreenCapture(client);
+        synchronized (feeds) {
+            ScreenFeed feed = feeds.get(serial);
+            if (feed == null) {
+                feed = new ScreenFeed(serial);
+                feeds.put(serial, feed);
+            }
+            feed.viewers.add(client);
+            watching.put(client, feed);
+        }
+    }
+
+    // Like server.js, a client watches one device at a time
+    private void stopScreenCapture(Peer client) {
+        synchronized (feeds) {
+            ScreenFeed feed = watching.remove(client);
+            if (feed != null) {
+                feed.viewers.remove(client);
+                if (feed.viewers.isEmpty()) {
+                    feed.task.cancel(false);
+                    feeds.remove(feed.serial);
+                }
+            }
+        }
+    }
+
+    private final class ScreenFeed implements Runnable {
+        final String serial;
+        final CopyOnWriteArraySet<Peer> viewers = new CopyOnWriteArraySet<>();
+        final ScheduledFuture<?> task;
+
+        ScreenFeed(String serial) {
+            this.serial = serial;
+            // The next capture starts a period after this one ends, so a slow one spaces frames out
+            this.task = lanes.capture.schedule(this, MIN_FRAME_INTERVAL_MS);
+        }
+
+        // Smoothed capture time in ms, as server.js reports it
+        long frameTimeMs;
+
+        @Override
+        public void run() {
+            ScreenFrame frame;
+            long start = System.nanoTime();
+            try {
+                byte[] png = capturePng(sessions.get(serial));
+                long elapsedMs = (System.nanoTime() - start) / 1000000;
+                frameTimeMs = frameTimeMs == 0 ? elapsedMs : frameTimeMs + (elapsedMs - frameTimeMs) / 4;
+                frame = new ScreenFrame(serial, png, frameTimeMs);
+            } catch (IOException e) {
+                String message = error(e.getMessage());
+                for (Peer client : viewers) {
+                    client.emit("screenError", message);
+                }
+                return;
+            }
+            for (Peer client : viewers) {
+                client.sendScreen(frame);
+            }
+        }
+    }
+
+    private static byte[] capturePng(AdbSession session) throws IOException {
+        AdbStream stream = session.ensureConnected().open("exec:screencap -p");
+        try {
+            ByteArrayOutputStream png = new ByteArrayOutputStream(256 * 1024);
+            byte[] data;
+            while ((data = stream.read()) != null) {
+                png.write(data, 0, data.length);
+            }
+            if (png.size() == 0) {
+                throw new IOException("screencap returned nothing");
+            }
+            return png.toByteArray();
+        } finally {
+            stream.close();
+        }
+    }
+
+    private static String status(String text) {
+        StringBuilder json = new StringBuilder("{\"status\":");
+        Json.appendString(json, text);
+        return json.append('}').toString();
+    }
+
+    private static String error(String message) {
+        StringBuilder json = new StringBuilder("{\"error\":");
+        Json.appendString(json, message != null ? message : "Unknown error");
+        return json.append('}').toString();
+    }
+}
@@ -0,0 +1,551 @@
+package com.example.tvremote.control;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Local HTTP and WebSocket endpoint for kiosks and home-automation boxes, so they can drive
+ * TVs through the app instead of a laptop running server.js. One thread serves every client
+ * from a Selector. WebSocket messages are JSON text frames shaped like the socket.io events
+ * of server.js: {"event": "sendTap", "data": {...}}, answered the same way. Screen data goes
+ * out as binary frames.
+ *
+ * Anything on the LAN can reach the port, so every request must carry the install's token,
+ * as a ?token= query parameter or an "Authorization: Bearer" header. Browsers are only let in
+ * from a page served by this same host: a request with a foreign Origin is refused, and no
+ * CORS headers are sent, so a web page the user happens to open cannot drive the TVs.
+ *
+ * The {@link Handler} runs on the server thread and must hand anything slow to other
+ * threads; replies can be sent from any thread through {@link Client}.
+ */
+public class ControlServer implements Closeable {
+    public interface Handler {
+        void onOpen(Client client);
+
+        void onEvent(Client client, String event, Map<String, Object> data);
+
+        void onClose(Client client);
+
+        // JSON body for a plain GET of `path`, or null for 404
+        String onGet(String path);
+    }
+
+    public static final int DEFAULT_PORT = 8765;
+    static final int MAX_REQUEST_HEAD = 8 * 1024;
+    static final int MAX_MESSAGE_SIZE = 64 * 1024;
+    // A client this far behind is not reading; it is disconnected instead of buffered for
+    static final int MAX_QUEUED_BYTES = 16 * 1024 * 1024;
+    private static final int READ_BUFFER = 4096;
+    private static final int TOKEN_BYTES = 16;
+
+    private static final class Outgoing {
+        final ByteBuffer buffer;
+        final boolean droppable;
+
+        Outgoing(ByteBuffer buffer, boolean droppable) {
+            this.buffer = buffer;
+            this.droppable = droppable;
+        }
+    }
+
+    public final class Client implements Peer {
+        private final int id;
+        private final SocketChannel channel;
+        private final String remoteAddress;
+        private SelectionKey key;
+        private ByteBuffer in = ByteBuffer.allocate(READ_BUFFER);
+        private WebSocket.Decoder decoder;
+
+        // Guarded by this; touched by any thread that sends
+        private final ArrayDeque<Outgoing> out = new ArrayDeque<>();
+        private long queuedBytes;
+        private int queuedDroppable;
+        private boolean writeScheduled;
+        private boolean closeAfterFlush;
+        private boolean closed;
+
+        Client(int id, SocketChannel channel) {
+            this.id = id;
+            this.channel = channel;
+            this.remoteAddress = String.valueOf(channel.socket().getRemoteSocketAddress());
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public String getRemoteAddress() {
+            return remoteAddress;
+        }
+
+        @Override
+        public boolean emit(String event, String data) {
+            StringBuilder message = new StringBuilder(32 + (data != null ? data.length() : 4));
+            message.append("{\"event\":");
+            Json.appendString(message, event);
+            message.append(",\"data\":").append(data != null ? data : "null").append('}');
+            return send(WebSocket.frame(WebSocket.OP_TEXT, message.toString().getBytes(StandardCharsets.UTF_8)), false);
+        }
+
+        /**
+         * Queues a binary frame built with {@link WebSocket#frame}, which can be shared between
+         * clients. Returns false and drops it while this client still has an earlier one queued,
+         * so a slow client gets fewer frames rather than older ones.
+         */
+        public boolean sendBinary(ByteBuffer frame) {
+            return send(frame.duplicate(), true);
+        }
+
+        @Override
+        public boolean sendScreen(ScreenFrame frame) {
+            return send(frame.webSocketFrame(), true);
+        }
+
+        // Closes once everything queued so far is written
+        public void close() {
+            synchronized (this) {
+                closeAfterFlush = true;
+            }
+            scheduleWrite(this);
+        }
+
+        boolean send(ByteBuffer frame, boolean droppable) {
+            synchronized (this) {
+                if (closed || closeAfterFlush || (droppable && queuedDroppable > 0)) {
+                    return false;
+                }
+                if (queuedBytes + frame.remaining() > MAX_QUEUED_BYTES) {
+                    closeAfterFlush = true;
+                    out.clear();
+                } else {
+                    out.add(new Outgoing(frame, droppable));
+                    queuedBytes += frame.remaining();
+                    if (droppable) {
+                        queuedDroppable++;
+                    }
+                }
+            }
+            scheduleWrite(this);
+            return true;
+        }
+    }
+
+    private final Handler handler;
+    private final byte[] token;
+    private final ConcurrentLinkedQueue<Client> pendingWrites = new ConcurrentLinkedQueue<>();
+    private final Map<Integer, Client> webSocketClients = new ConcurrentHashMap<>();
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread thread;
+    private volatile boolean closed;
+    private int nextId = 1;
+
+    public ControlServer(Handler handler, String token) {
+        if (token == null || token.isEmpty()) {
+            throw new IllegalArgumentException("A token is required");
+        }
+        this.handler = handler;
+        this.token = token.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Reads the token kept in `file`, creating a random one the first time, so clients set up
+     * once keep working across restarts. Deleting the file revokes every client.
+     */
+    public static String loadToken(File file) throws IOException {
+        if (file.exists()) {
+            byte[] data = new byte[(int) file.length()];
+            try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+                in.readFully(data);
+            }
+            String saved = new String(data, StandardCharsets.US_ASCII).trim();
+            if (!saved.isEmpty()) {
+                return saved;
+            }
+        }
+        byte[] random = new byte[TOKEN_BYTES];
+        new SecureRandom().nextBytes(random);
+        StringBuilder hex = new StringBuilder(TOKEN_BYTES * 2);
+        for (byte b : random) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        String created = hex.toString();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(created.getBytes(StandardCharsets.US_ASCII));
+        }
+        return created;
+    }
+
+    // Port 0 picks a free port; see getPort()
+    public synchronized void start(InetAddress address, int port) throws IOException {
+        if (thread != null) {
+            return;
+        }
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.socket().bind(new InetSocketAddress(address, port), 128);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        thread = new Thread(this::serve, "control-server");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    public boolean isRunning() {
+        return thread != null && !closed;
+    }
+
+    // WebSocket clients currently connected
+    public int getClientCount() {
+        return webSocketClients.size();
+    }
+
+    @Override
+    public void close() {
+        Thread t;
+        synchronized (this) {
+            closed = true;
+            t = thread;
+        }
+        if (t == null) {
+            return;
+        }
+        selector.wakeup();
+        try {
+            t.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void serve() {
+        try {
+            while (!closed) {
+                Client pending;
+                while ((pending = pendingWrites.poll()) != null) {
+                    if (pending.key != null && pending.key.isValid()) {
+                        pending.key.interestOps(pending.key.interestOps() | SelectionKey.OP_WRITE);
+                    }
+                }
+                selector.select();
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Client client = (Client) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            read(client);
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            write(client);
+                        }
+                    } catch (IOException e) {
+                        disconnect(client);
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            // Falls through to shutting everything down
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Client) {
+                    disconnect((Client) key.attachment());
+                }
+            }
+            closeQuietly(serverChannel);
+            closeQuietly(selector);
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            Client client = new Client(nextId++, channel);
+            client.key = channel.register(selector, SelectionKey.OP_READ, client);
+        }
+    }
+
+    private void read(Client client) throws IOException {
+        if (!client.in.hasRemaining()) {
+            // Only reached while a request head or message is still incomplete
+            int limit = client.decoder == null ? MAX_REQUEST_HEAD : MAX_MESSAGE_SIZE + 14;
+            if (client.in.capacity() >= limit) {
+                throw new IOException("Request too large");
+            }
+            ByteBuffer grown = ByteBuffer.allocate(Math.min(client.in.capacity() * 2, limit));
+            client.in.flip();
+            grown.put(client.in);
+            client.in = grown;
+        }
+        int n = client.channel.read(client.in);
+        if (n < 0) {
+            disconnect(client);
+            return;
+        }
+        client.in.flip();
+        try {
+            if (client.decoder == null) {
+                readRequest(client);
+            }
+            if (client.decoder != null) {
+                readFrames(client);
+            }
+        } finally {
+            client.in.compact();
+        }
+    }
+
+    private void readRequest(Client client) {
+        ByteBuffer in = client.in;
+        int end = -1;
+        for (int i = in.position(); i + 3 < in.limit(); i++) {
+            if (in.get(i) == '\r' && in.get(i + 1) == '\n' && in.get(i + 2) == '\r' && in.get(i + 3) == '\n') {
+                end = i;
+                break;
+            }
+        }
+        if (end < 0) {
+            return;
+        }
+        byte[] head = new byte[end - in.position()];
+        in.get(head);
+        in.position(end + 4);
+
+        String[] lines = new String(head, StandardCharsets.ISO_8859_1).split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        Map<String, String> headers = new HashMap<>();
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon > 0) {
+                headers.put(lines[i].substring(0, colon).trim().toLowerCase(Locale.US), lines[i].substring(colon + 1).trim());
+            }
+        }
+        if (requestLine.length < 3 || !requestLine[0].equals("GET")) {
+            respond(client, "405 Method Not Allowed", "{\"error\":\"Only GET is supported\"}");
+            return;
+        }
+        String target = requestLine[1];
+        int query = target.indexOf('?');
+        String path = query >= 0 ? target.substring(0, query) : target;
+        if (!isSameOrigin(headers)) {
+            respond(client, "403 Forbidden", "{\"error\":\"Origin not allowed\"}");
+            return;
+        }
+        if (!hasToken(headers, query >= 0 ? target.substring(query + 1) : "")) {
+            respond(client, "401 Unauthorized", "{\"error\":\"Missing or wrong token\"}");
+            return;
+        }
+        String key = headers.get("sec-websocket-key");
+        String upgrade = headers.get("upgrade");
+        if (key != null && upgrade != null && upgrade.equalsIgnoreCase("websocket")) {
+            String response = "HTTP/1.1 101 Switching Protocols\r\n"
+                    + "Upgrade: websocket\r\n"
+                    + "Connection: Upgrade\r\n"
+                    + "Sec-WebSocket-Accept: " + WebSocket.acceptKey(key) + "\r\n\r\n";
+            client.send(ByteBuffer.wrap(response.getBytes(StandardCharsets.ISO_8859_1)), false);
+            client.decoder = new WebSocket.Decoder(MAX_MESSAGE_SIZE);
+            webSocketClients.put(client.id, client);
+            handler.onOpen(client);
+            return;
+        }
+        String body = handler.onGet(path);
+        if (body != null) {
+            respond(client, "200 OK", body);
+        } else {
+            respond(client, "404 Not Found", "{\"error\":\"Not found\"}");
+        }
+    }
+
+    // Clients outside a browser send no Origin; a browser's must name this very host
+    private static boolean isSameOrigin(Map<String, String> headers) {
+        String origin = headers.get("origin");
+        if (origin == null) {
+            return true;
+        }
+        String host = headers.get("host");
+        return host != null && (origin.equalsIgnoreCase("http://" + host) || origin.equalsIgnoreCase("https://" + host));
+    }
+
+    private boolean hasToken(Map<String, String> headers, String query) {
+        String given = null;
+        String authorization = headers.get("authorization");
+        if (authorization != null && authorization.regionMatches(true, 0, "Bearer ", 0, 7)) {
+            given = authorization.substring(7).trim();
+        }
+        for (String param : query.split("&")) {
+            if (param.startsWith("token=")) {
+                given = param.substring(6);
+            }
+        }
+        // Compares every byte, so the time taken says nothing about how much was right
+        return given != null && MessageDigest.isEqual(token, given.getBytes(StandardCharsets.UTF_8));
+    }
+
+    // Plain HTTP answers close the connection; browsers and curl handle that fine
+    private void respond(Client client, String status, String body) {
+        byte[] content = body.getBytes(StandardCharsets.UTF_8);
+        String head = "HTTP/1.1 " + status + "\r\n"
+                + "Content-Type: application/json; charset=utf-8\r\n"
+                + "Content-Length: " + content.length + "\r\n"
+                + "Connection: close\r\n\r\n";
+        byte[] headBytes = head.getBytes(StandardCharsets.ISO_8859_1);
+        ByteBuffer response = ByteBuffer.allocate(headBytes.length + content.length);
+        response.put(headBytes).put(content).flip();
+        client.send(response, false);
+        client.close();
+        client.in.position(client.in.limit());
+    }
+
+    private void readFrames(Client client) {
+        WebSocket.Decoder decoder = client.decoder;
+        try {
+            while (decoder.next(client.in)) {
+                switch (decoder.opcode) {
+                    case WebSocket.OP_TEXT:
+                        onMessage(client, new String(decoder.payload, 0, decoder.length, StandardCharsets.UTF_8));
+                        break;
+                    case WebSocket.OP_PING:
+                        client.send(WebSocket.frame(WebSocket.OP_PONG, decoder.payload), false);
+                        break;
+                    case WebSocket.OP_CLOSE:
+                        client.send(WebSocket.frame(WebSocket.OP_CLOSE, decoder.payload), false);
+                        client.close();
+                        return;
+                    default:
+                        // Binary messages and pongs carry nothing for us
+                        break;
+                }
+            }
+        } catch (WebSocket.ProtocolException e) {
+            // 1002: protocol error
+            client.send(WebSocket.frame(WebSocket.OP_CLOSE, new byte[] {0x03, (byte) 0xea}), false);
+            client.close();
+            client.in.position(client.in.limit());
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void onMessage(Client client, String text) {
+        String event;
+        Map<String, Object> data;
+        try {
+            Object message = Json.parse(text);
+            if (!(message instanceof Map)) {
+                throw new IllegalArgumentException("Expected an object");
+            }
+            Object eventValue = ((Map<String, Object>) message).get("event");
+            Object dataValue = ((Map<String, Object>) message).get("data");
+            if (!(eventValue instanceof String)) {
+                throw new IllegalArgumentException("Missing event");
+            }
+            event = (String) eventValue;
+            data = dataValue instanceof Map ? (Map<String, Object>) dataValue : new HashMap<String, Object>();
+        } catch (IllegalArgumentException e) {
+            StringBuilder error = new StringBuilder("{\"error\":");
+            Json.appendString(error, "Bad message: " + e.getMessage());
+            client.emit("error", error.append('}').toString());
+            return;
+        }
+        handler.onEvent(client, event, data);
+    }
+
+    private void write(Client client) throws IOException {
+        boolean close;
+        synchronized (client) {
+            while (!client.out.isEmpty()) {
+                Outgoing next = client.out.peek();
+                client.channel.write(next.buffer);
+                if (next.buffer.hasRemaining()) {
+                    return;
+                }
+                client.out.poll();
+                client.queuedBytes -= next.buffer.limit();
+                if (next.droppable) {
+                    client.queuedDroppable--;
+                }
+            }
+            client.writeScheduled = false;
+            client.key.interestOps(SelectionKey.OP_READ);
+            close = client.closeAfterFlush;
+        }
+        if (close) {
+            disconnect(client);
+        }
+    }
+
+    private void scheduleWrite(Client client) {
+        synchronized (client) {
+            if (client.writeScheduled || client.closed) {
+                return;
+            }
+            client.writeScheduled = true;
+        }
+        pendingWrites.add(client);
+        if (Thread.currentThread() != thread) {
+            selector.wakeup();
+        }
+    }
+
+    private void disconnect(Client client) {
+        synchronized (client) {
+            if (client.closed) {
+                return;
+            }
+            client.closed = true;
+            client.out.clear();
+        }
+        if (client.key != null) {
+            client.key.cancel();
+        }
+        closeQuietly(client.channel);
+        if (webSocketClients.remove(client.id) != null) {
+            handler.onClose(client);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            if (closeable != null) {
+                closeable.close();
+            }
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,14 @@
+package com.example.tvremote.control;
+
+/**
+ * Whatever a {@link ControlApi} client is connected through: a WebSocket of the
+ * {@link ControlServer}, or an app's own bridge to its web UI. Both methods may be called from
+ * any thread and must not block.
+ */
+public interface Peer {
+    // {"event": event, "data": data}; data is a JSON object or null
+    boolean emit(String event, String data);
+
+    // Returns false if the frame was dropped because the peer is still busy with an earlier one
+    boolean sendScreen(ScreenFrame frame);
+}
@@ -0,0 +1,29 @@
+package com.example.tvremote.control;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One captured screen as PNG, shared by every peer watching the device. The WebSocket framing
+ * is built once, on first use, so a frame sent to many clients is copied only once.
+ */
+public final class ScreenFrame {
+    public final String serial;
+    public final byte[] png;
+    // Smoothed capture time, which also paces the captures
+    public final long frameTimeMs;
+    private ByteBuffer webSocketFrame;
+
+    public ScreenFrame(String serial, byte[] png, long frameTimeMs) {
+        this.serial = serial;
+        this.png = png;
+        this.frameTimeMs = frameTimeMs;
+    }
+
+    // Read-only view; each caller gets its own position
+    public synchronized ByteBuffer webSocketFrame() {
+        if (webSocketFrame == null) {
+            webSocketFrame = WebSocket.frame(WebSocket.OP_BINARY, png);
+        }
+        return webSocketFrame.asReadOnlyBuffer();
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.tvremote.control;
+
+import com.example.tvremote.adb.AdbCrypto;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The parts of RFC 6455 the control server needs: the handshake key, unmasked server frames
+ * and an incremental decoder for masked client frames. Fragmented messages are reassembled;
+ * extensions are never negotiated, so the reserved bits must be clear.
+ */
+public final class WebSocket {
+    public static final int OP_CONTINUATION = 0;
+    public static final int OP_TEXT = 1;
+    public static final int OP_BINARY = 2;
+    public static final int OP_CLOSE = 8;
+    public static final int OP_PING = 9;
+    public static final int OP_PONG = 10;
+
+    private static final String GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    private WebSocket() {
+    }
+
+    // Value of Sec-WebSocket-Accept for the client's Sec-WebSocket-Key
+    public static String acceptKey(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            return AdbCrypto.base64(sha1.digest((key.trim() + GUID).getBytes(StandardCharsets.US_ASCII)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static ByteBuffer frame(int opcode, byte[] payload) {
+        return frame(opcode, payload, 0, payload.length);
+    }
+
+    // One final, unmasked frame ready to write
+    public static ByteBuffer frame(int opcode, byte[] payload, int offset, int length) {
+        int header = length < 126 ? 2 : length <= 0xffff ? 4 : 10;
+        ByteBuffer frame = ByteBuffer.allocate(header + length);
+        frame.put((byte) (0x80 | opcode));
+        if (length < 126) {
+            frame.put((byte) length);
+        } else if (length <= 0xffff) {
+            frame.put((byte) 126).putShort((short) length);
+        } else {
+            frame.put((byte) 127).putLong(length);
+        }
+        frame.put(payload, offset, length);
+        frame.flip();
+        return frame;
+    }
+
+    public static class ProtocolException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public ProtocolException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * Reads client frames out of whatever bytes have arrived. {@link #next} returns true once a
+     * whole message (or control frame) is available in {@link #opcode} and the first
+     * {@link #length} bytes of {@link #payload}, which is only valid until the next call.
+     */
+    public static final class Decoder {
+        private final int maxMessageSize;
+        private int messageOpcode = -1;
+        private byte[] message = new byte[0];
+        private int messageLength;
+
+        public int opcode;
+        public byte[] payload;
+        public int length;
+
+        public Decoder(int maxMessageSize) {
+            this.maxMessageSize = maxMessageSize;
+        }
+
+        // Consumes at most one frame from `in`; leaves a partial frame in place for the next call
+        public boolean next(ByteBuffer in) throws ProtocolException {
+            while (true) {
+                if (in.remaining() < 2) {
+                    return false;
+                }
+                int start = in.position();
+                int b0 = in.get(start) & 0xff;
+                int b1 = in.get(start + 1) & 0xff;
+                if ((b0 & 0x70) != 0) {
+                    throw new ProtocolException("Reserved bits set");
+                }
+                if ((b1 & 0x80) == 0) {
+                    throw new ProtocolException("Client frames must be masked");
+                }
+                int headerLength = 2;
+                long frameLength = b1 & 0x7f;
+                if (frameLength == 126) {
+                    headerLength += 2;
+                    if (in.remaining() < headerLength) {
+                        return false;
+                    }
+                    frameLength = in.getShort(start + 2) & 0xffff;
+                } else if (frameLength == 127) {
+                    headerLength += 8;
+                    if (in.remaining() < headerLength) {
+                        return false;
+                    }
+                    frameLength = in.getLong(start + 2);
+                }
+                if (frameLength < 0 || frameLength > maxMessageSize) {
+                    throw new ProtocolException("Frame of " + frameLength + " bytes is too large");
+                }
+                headerLength += 4;
+                if (in.remaining() < headerLength + frameLength) {
+                    return false;
+                }
+
+                boolean fin = (b0 & 0x80) != 0;
+                int frameOpcode = b0 & 0x0f;
+                int maskAt = start + headerLength - 4;
+                in.position(start + headerLength);
+                if (frameOpcode >= OP_CLOSE) {
+                    if (!fin || frameLength > 125) {
+                        throw new ProtocolException("Invalid control frame");
+                    }
+                    opcode = frameOpcode;
+                    payload = new byte[(int) frameLength];
+                    length = payload.length;
+                    unmask(in, maskAt, payload, 0, length);
+                    return true;
+                }
+                if (frameOpcode == OP_CONTINUATION ? messageOpcode < 0 : messageOpcode >= 0) {
+                    throw new ProtocolException("Unexpected frame " + frameOpcode);
+                }
+                if (frameOpcode != OP_CONTINUATION) {
+                    messageOpcode = frameOpcode;
+                    messageLength = 0;
+                }
+                int total = messageLength + (int) frameLength;
+                if (total > maxMessageSize) {
+                    throw new ProtocolException("Message of " + total + " bytes is too large");
+                }
+                if (message.length < total) {
+                    byte[] grown = new byte[Math.max(total, message.length * 2)];
+                    System.arraycopy(message, 0, grown, 0, messageLength);
+                    message = grown;
+                }
+                unmask(in, maskAt, message, messageLength, (int) frameLength);
+                messageLength = total;
+                if (fin) {
+                    opcode = messageOpcode;
+                    payload = message;
+                    length = messageLength;
+                    messageOpcode = -1;
+                    return true;
+                }
+            }
+        }
+
+        private static void unmask(ByteBuffer in, int maskAt, byte[] target, int offset, int length) {
+            for (int i = 0; i < length; i++) {
+                target[offset + i] = (byte) (in.get() ^ in.get(maskAt + (i & 3)));
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.example.tvremote.discovery;
+
+/**
+ * An IPv4 range in CIDR notation ("192.168.1.0/24", or a bare address for /32). Iterates
+ * usable hosts only: network and broadcast addresses are skipped for prefixes up to /30.
+ */
+public final class CidrRange {
+    // Anything wider than a /16 is almost certainly a typo, and would take minutes to scan
+    public static final int MIN_PREFIX = 16;
+
+    private final int network;
+    private final int prefix;
+    private final int first;
+    private final int size;
+
+    private CidrRange(int network, int prefix) {
+        this.network = network;
+        this.prefix = prefix;
+        long span = 1L << (32 - prefix);
+        if (prefix <= 30) {
+            first = network + 1;
+            size = (int) span - 2;
+        } else {
+            first = network;
+            size = (int) span;
+        }
+    }
+
+    public static CidrRange parse(String text) {
+        String value = text.trim();
+        int slash = value.indexOf('/');
+        int prefix = 32;
+        if (slash >= 0) {
+            try {
+                prefix = Integer.parseInt(value.substring(slash + 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad prefix length in " + text);
+            }
+            value = value.substring(0, slash);
+        }
+        if (prefix < MIN_PREFIX || prefix > 32) {
+            throw new IllegalArgumentException("Prefix must be between /" + MIN_PREFIX + " and /32: " + text);
+        }
+        int address = parseAddress(value);
+        int mask = prefix == 0 ? 0 : -1 << (32 - prefix);
+        return new CidrRange(address & mask, prefix);
+    }
+
+    // Dotted quad to a big-endian int
+    public static int parseAddress(String text) {
+        String[] parts = text.split("\\.");
+        if (parts.length != 4) {
+            throw new IllegalArgumentException("Not an IPv4 address: " + text);
+        }
+        int address = 0;
+        for (String part : parts) {
+            int octet;
+            try {
+                octet = Integer.parseInt(part);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Not an IPv4 address: " + text);
+            }
+            if (octet < 0 || octet > 255) {
+                throw new IllegalArgumentException("Not an IPv4 address: " + text);
+            }
+            address = address << 8 | octet;
+        }
+        return address;
+    }
+
+    public static String formatAddress(int address) {
+        return (address >>> 24) + "." + (address >> 16 & 0xff) + "." + (address >> 8 & 0xff) + "." + (address & 0xff);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int address(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(index + " of " + size);
+        }
+        return first + index;
+    }
+
+    public String host(int index) {
+        return formatAddress(address(index));
+    }
+
+    @Override
+    public String toString() {
+        return formatAddress(network) + "/" + prefix;
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.tvremote.discovery;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Devices seen by the subnet scan or mDNS, merged by serial and kept on disk so the spinner
+ * can be filled at launch before any discovery has run. Each entry is "fresh" for the TTL its
+ * source gave it (the DNS record TTL, or {@link #SCAN_TTL_MS}) and is forgotten entirely once
+ * it has not been seen for {@link #RETENTION_MS}.
+ */
+public class DeviceCache {
+    public static final int SOURCE_SCAN = 1;
+    public static final int SOURCE_MDNS = 2;
+    public static final long SCAN_TTL_MS = 30 * 60 * 1000L;
+    public static final long RETENTION_MS = 7 * 24 * 60 * 60 * 1000L;
+
+    public static final class Entry {
+        public final String serial;
+        public String name;
+        public int sources;
+        public long lastSeenMs;
+        public long freshUntilMs;
+
+        Entry(String serial) {
+            this.serial = serial;
+        }
+
+        public boolean isFresh(long nowMs) {
+            return nowMs < freshUntilMs;
+        }
+
+        public String label() {
+            return name != null && !name.isEmpty() ? name : serial;
+        }
+    }
+
+    private final File file;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    public DeviceCache(File file) {
+        this.file = file;
+    }
+
+    public synchronized Entry put(String serial, String name, int source, long ttlMs, long nowMs) {
+        Entry entry = entries.get(serial);
+        if (entry == null) {
+            entry = new Entry(serial);
+            entries.put(serial, entry);
+        }
+        // mDNS instance names are what the user called the TV; keep them over scan model names
+        if (name != null && !name.isEmpty() && (source == SOURCE_MDNS || (entry.sources & SOURCE_MDNS) == 0)) {
+            entry.name = name;
+        }
+        entry.sources |= source;
+        entry.lastSeenMs = nowMs;
+        entry.freshUntilMs = Math.max(entry.freshUntilMs, nowMs + ttlMs);
+        return entry;
+    }
+
+    // A goodbye from one source; the entry stays cached but is no longer fresh
+    public synchronized void expire(String serial, long nowMs) {
+        Entry entry = entries.get(serial);
+        if (entry != null) {
+            entry.freshUntilMs = Math.min(entry.freshUntilMs, nowMs);
+        }
+    }
+
+    public synchronized Entry get(String serial) {
+        return entries.get(serial);
+    }
+
+    /** Entries still within retention, fresh ones first, most recently seen first. */
+    public synchronized List<Entry> entries(long nowMs) {
+        List<Entry> result = new ArrayList<>();
+        for (Entry entry : entries.values()) {
+            if (nowMs - entry.lastSeenMs < RETENTION_MS) {
+                result.add(entry);
+            }
+        }
+        Collections.sort(result, (a, b) -> {
+            boolean aFresh = a.isFresh(nowMs);
+            if (aFresh != b.isFresh(nowMs)) {
+                return aFresh ? -1 : 1;
+            }
+            return Long.compare(b.lastSeenMs, a.lastSeenMs);
+        });
+        return result;
+    }
+
+    public synchronized void load() throws IOException {
+        entries.clear();
+        if (!file.exists()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t", -1);
+                if (fields.length != 5) {
+                    continue;
+                }
+                try {
+                    Entry entry = new Entry(fields[0]);
+                    entry.name = fields[1].isEmpty() ? null : fields[1];
+                    entry.sources = Integer.parseInt(fields[2]);
+                    entry.lastSeenMs = Long.parseLong(fields[3]);
+                    entry.freshUntilMs = Long.parseLong(fields[4]);
+                    entries.put(entry.serial, entry);
+                } catch (NumberFormatException e) {
+                    // Skip a damaged line rather than losing the whole cache
+                }
+            }
+        }
+    }
+
+    // Written to a temporary file first so a crash mid-write cannot truncate the cache
+    public synchronized void save() throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8)) {
+            for (Entry entry : entries.values()) {
+                String name = entry.name == null ? "" : entry.name.replace('\t', ' ').replace('\n', ' ');
+                writer.write(entry.serial + "\t" + name + "\t" + entry.sources + "\t"
+                        + entry.lastSeenMs + "\t" + entry.freshUntilMs + "\n");
+            }
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Could not replace " + file);
+        }
+    }
+}
@@ -0,0 +1,375 @@
+package com.example.tvremote.discovery;
+
+import com.example.tvremote.screen.DisplayGeometry;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Devices this app has actually connected to, as opposed to {@link DeviceCache} which holds
+ * everything discovery has seen. Remembers which devices to reconnect at launch and which of
+ * them was used last, whether each accepted our ADB key, what the device banner advertised,
+ * which groups it belongs to (for broadcasts), its display geometry and a short history of
+ * input round trips. Stored as a small versioned binary file that is read once at startup,
+ * before the first fragment is shown.
+ */
+public class DeviceRegistry {
+    public static final int FEATURE_SHELL_V2 = 1;
+    public static final int FEATURE_CMD = 1 << 1;
+    public static final int FEATURE_STAT_V2 = 1 << 2;
+    public static final int FEATURE_LS_V2 = 1 << 3;
+    public static final int FEATURE_ABB = 1 << 4;
+    public static final int FEATURE_ABB_EXEC = 1 << 5;
+    public static final int FEATURE_SENDRECV_V2 = 1 << 6;
+
+    private static final String[] FEATURE_NAMES = {
+            "shell_v2", "cmd", "stat_v2", "ls_v2", "abb", "abb_exec", "sendrecv_v2"
+    };
+
+    public static final int LATENCY_SAMPLES = 16;
+    private static final int MAGIC = 0x54565247; // "TVRG"
+    // Version 1 had no groups, version 2 no display geometry
+    private static final int VERSION = 3;
+
+    public static final class Device {
+        public final String serial;
+        public String name;
+        public String model;
+        public int features;
+        // Fingerprint of the key the device last accepted (AdbCrypto.fingerprint), 0 if none yet
+        public long authorizedKey;
+        public long lastConnectedMs;
+        public long lastUsedMs;
+        public boolean autoConnect;
+        public int connectCount;
+        final List<String> groups = new ArrayList<>();
+        // Null until DisplayGeometryService has queried the device
+        DisplayGeometry display;
+        // Input round trips in microseconds, a ring of LATENCY_SAMPLES
+        final int[] latencyMicros = new int[LATENCY_SAMPLES];
+        int latencyCount;
+        int latencyNext;
+
+        Device(String serial) {
+            this.serial = serial;
+        }
+
+        public boolean hasFeature(int feature) {
+            return (features & feature) != 0;
+        }
+
+        public boolean isAuthorized(long keyFingerprint) {
+            return authorizedKey != 0 && authorizedKey == keyFingerprint;
+        }
+
+        public int getLatencySampleCount() {
+            return latencyCount;
+        }
+
+        // Median of the recorded round trips, or -1 before the first one
+        public int getMedianLatencyMicros() {
+            if (latencyCount == 0) {
+                return -1;
+            }
+            int[] sorted = Arrays.copyOf(latencyMicros, latencyCount);
+            Arrays.sort(sorted);
+            return sorted[latencyCount / 2];
+        }
+
+        public List<String> getGroups() {
+            return new ArrayList<>(groups);
+        }
+
+        public String label() {
+            if (name != null && !name.isEmpty()) {
+                return name;
+            }
+            return model != null && !model.isEmpty() ? model : serial;
+        }
+    }
+
+    private final File file;
+    private final Map<String, Device> devices = new LinkedHashMap<>();
+
+    public DeviceRegistry(File file) {
+        this.file = file;
+    }
+
+    public synchronized Device get(String serial) {
+        return devices.get(serial);
+    }
+
+    private Device getOrCreate(String serial) {
+        Device device = devices.get(serial);
+        if (device == null) {
+            device = new Device(serial);
+            devices.put(serial, device);
+        }
+        return device;
+    }
+
+    /** The device picked in the UI; it is reconnected at launch until explicitly disconnected. */
+    public synchronized Device markUsed(String serial, String name, long nowMs) {
+        Device device = getOrCreate(serial);
+        if (name != null && !name.isEmpty()) {
+            device.name = name;
+        }
+        device.lastUsedMs = nowMs;
+        device.autoConnect = true;
+        return device;
+    }
+
+    // An explicit disconnect: keep what we learned but do not reconnect on the next launch
+    public synchronized void clearAutoConnect(String serial) {
+        Device device = devices.get(serial);
+        if (device != null) {
+            device.autoConnect = false;
+        }
+    }
+
+    public synchronized void addToGroup(String serial, String group) {
+        Device device = getOrCreate(serial);
+        if (!device.groups.contains(group)) {
+            device.groups.add(group);
+        }
+    }
+
+    public synchronized void removeFromGroup(String serial, String group) {
+        Device device = devices.get(serial);
+        if (device != null) {
+            device.groups.remove(group);
+        }
+    }
+
+    /** Every group name in use, sorted. */
+    public synchronized List<String> groupNames() {
+        List<String> names = new ArrayList<>();
+        for (Device device : devices.values()) {
+            for (String group : device.groups) {
+                if (!names.contains(group)) {
+                    names.add(group);
+                }
+            }
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    public synchronized List<String> members(String group) {
+        List<String> serials = new ArrayList<>();
+        for (Device device : devices.values()) {
+            if (device.groups.contains(group)) {
+                serials.add(device.serial);
+            }
+        }
+        return serials;
+    }
+
+    public synchronized Device onConnected(String serial, String banner, long keyFingerprint, long nowMs) {
+        Device device = getOrCreate(serial);
+        String model = bannerProperty(banner, "ro.product.model");
+        if (model != null) {
+            device.model = model;
+        }
+        device.features = parseFeatures(banner);
+        device.authorizedKey = keyFingerprint;
+        device.lastConnectedMs = nowMs;
+        device.connectCount++;
+        return device;
+    }
+
+    public synchronized DisplayGeometry getDisplayGeometry(String serial) {
+        Device device = devices.get(serial);
+        return device != null ? device.display : null;
+    }
+
+    // Null forgets the geometry so it is queried again
+    public synchronized void setDisplayGeometry(String serial, DisplayGeometry geometry) {
+        if (geometry == null) {
+            Device device = devices.get(serial);
+            if (device != null) {
+                device.display = null;
+            }
+            return;
+        }
+        getOrCreate(serial).display = geometry;
+    }
+
+    public synchronized void addLatency(String serial, long latencyNanos) {
+        Device device = devices.get(serial);
+        if (device == null) {
+            return;
+        }
+        device.latencyMicros[device.latencyNext] = (int) Math.min(Integer.MAX_VALUE, latencyNanos / 1000);
+        device.latencyNext = (device.latencyNext + 1) % LATENCY_SAMPLES;
+        device.latencyCount = Math.min(LATENCY_SAMPLES, device.latencyCount + 1);
+    }
+
+    /** The most recently used of the devices to reconnect at launch, or null. */
+    public synchronized Device getAutoConnectDevice() {
+        Device last = null;
+        for (Device device : devices.values()) {
+            if (device.autoConnect && (last == null || device.lastUsedMs > last.lastUsedMs)) {
+                last = device;
+            }
+        }
+        return last;
+    }
+
+    public synchronized List<Device> autoConnectDevices() {
+        List<Device> result = new ArrayList<>();
+        for (Device device : devices.values()) {
+            if (device.autoConnect) {
+                result.add(device);
+            }
+        }
+        return result;
+    }
+
+    /** All known devices, most recently used first. */
+    public synchronized List<Device> devices() {
+        List<Device> result = new ArrayList<>(devices.values());
+        Collections.sort(result, (a, b) -> Long.compare(
+                Math.max(b.lastUsedMs, b.lastConnectedMs), Math.max(a.lastUsedMs, a.lastConnectedMs)));
+        return result;
+    }
+
+    // "device::ro.product.name=x;ro.product.model=y;...;features=a,b" as sent in CNXN
+    static String bannerProperty(String banner, String key) {
+        if (banner == null) {
+            return null;
+        }
+        int start = banner.indexOf(key + "=");
+        if (start < 0) {
+            return null;
+        }
+        start += key.length() + 1;
+        int end = banner.indexOf(';', start);
+        String value = banner.substring(start, end < 0 ? banner.length() : end);
+        int nul = value.indexOf('\0');
+        return nul >= 0 ? value.substring(0, nul) : value;
+    }
+
+    static int parseFeatures(String banner) {
+        String list = bannerProperty(banner, "features");
+        if (list == null) {
+            return 0;
+        }
+        int mask = 0;
+        for (String feature : list.split(",")) {
+            for (int i = 0; i < FEATURE_NAMES.length; i++) {
+                if (FEATURE_NAMES[i].equals(feature.trim())) {
+                    mask |= 1 << i;
+                }
+            }
+        }
+        return mask;
+    }
+
+    public synchronized void load() throws IOException {
+        if (!file.exists()) {
+            devices.clear();
+            return;
+        }
+        Map<String, Device> loaded = new LinkedHashMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            int version = in.readInt() == MAGIC ? in.readUnsignedByte() : -1;
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Unrecognized device registry " + file);
+            }
+            int count = in.readUnsignedShort();
+            for (int i = 0; i < count; i++) {
+                Device device = new Device(in.readUTF());
+                device.name = emptyToNull(in.readUTF());
+                device.model = emptyToNull(in.readUTF());
+                device.features = in.readInt();
+                device.authorizedKey = in.readLong();
+                device.lastConnectedMs = in.readLong();
+                device.lastUsedMs = in.readLong();
+                device.autoConnect = in.readBoolean();
+                device.connectCount = in.readInt();
+                device.latencyCount = Math.min(LATENCY_SAMPLES, in.readUnsignedByte());
+                for (int j = 0; j < device.latencyCount; j++) {
+                    device.latencyMicros[j] = in.readInt();
+                }
+                device.latencyNext = device.latencyCount % LATENCY_SAMPLES;
+                if (version >= 2) {
+                    int groups = in.readUnsignedByte();
+                    for (int j = 0; j < groups; j++) {
+                        device.groups.add(in.readUTF());
+                    }
+                }
+                if (version >= 3 && in.readBoolean()) {
+                    device.display = new DisplayGeometry(in.readUnsignedShort(), in.readUnsignedShort(),
+                            in.readUnsignedByte(), in.readUnsignedShort(), in.readUnsignedShort(),
+                            in.readUnsignedShort(), in.readUnsignedShort());
+                }
+                loaded.put(device.serial, device);
+            }
+        }
+        // Only replace the registry once the whole file has parsed
+        devices.clear();
+        devices.putAll(loaded);
+    }
+
+    // Written to a temporary file first so a crash mid-write cannot truncate the registry
+    public synchronized void save() throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeShort(devices.size());
+            for (Device device : devices.values()) {
+                out.writeUTF(device.serial);
+                out.writeUTF(device.name == null ? "" : device.name);
+                out.writeUTF(device.model == null ? "" : device.model);
+                out.writeInt(device.features);
+                out.writeLong(device.authorizedKey);
+                out.writeLong(device.lastConnectedMs);
+                out.writeLong(device.lastUsedMs);
+                out.writeBoolean(device.autoConnect);
+                out.writeInt(device.connectCount);
+                // Oldest sample first, so the ring can be rebuilt in order
+                out.writeByte(device.latencyCount);
+                int first = device.latencyCount < LATENCY_SAMPLES ? 0 : device.latencyNext;
+                for (int j = 0; j < device.latencyCount; j++) {
+                    out.writeInt(device.latencyMicros[(first + j) % LATENCY_SAMPLES]);
+                }
+                out.writeByte(device.groups.size());
+                for (String group : device.groups) {
+                    out.writeUTF(group);
+                }
+                DisplayGeometry display = device.display;
+                out.writeBoolean(display != null);
+                if (display != null) {
+                    out.writeShort(display.width);
+                    out.writeShort(display.height);
+                    out.writeByte(display.rotation);
+                    out.writeShort(display.overscanLeft);
+                    out.writeShort(display.overscanTop);
+                    out.writeShort(display.overscanRight);
+                    out.writeShort(display.overscanBottom);
+                }
+            }
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+}
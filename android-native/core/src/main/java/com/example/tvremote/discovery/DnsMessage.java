@@ -0,0 +1,284 @@
+package com.example.tvremote.discovery;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Just enough of RFC 1035 to read mDNS/DNS-SD traffic (RFC 6762/6763): questions plus PTR, SRV,
+ * TXT, A and AAAA records, with name compression. Other record types are kept with their raw
+ * rdata so sections still line up. Malformed packets throw instead of yielding partial records.
+ */
+public final class DnsMessage {
+    public static final int TYPE_A = 1;
+    public static final int TYPE_PTR = 12;
+    public static final int TYPE_TXT = 16;
+    public static final int TYPE_AAAA = 28;
+    public static final int TYPE_SRV = 33;
+    public static final int TYPE_ANY = 255;
+
+    public static final int CLASS_IN = 1;
+    // Top bit of the class: cache-flush in answers, unicast-response-wanted in questions
+    public static final int CLASS_FLAG = 0x8000;
+
+    public static final int SECTION_ANSWER = 0;
+    public static final int SECTION_AUTHORITY = 1;
+    public static final int SECTION_ADDITIONAL = 2;
+
+    private static final int FLAG_RESPONSE = 0x8000;
+    private static final int MAX_POINTER_JUMPS = 32;
+
+    public static final class Question {
+        public final String name;
+        public final int type;
+        public final boolean unicastResponse;
+
+        Question(String name, int type, boolean unicastResponse) {
+            this.name = name;
+            this.type = type;
+            this.unicastResponse = unicastResponse;
+        }
+    }
+
+    public static final class Record {
+        public String name;
+        public int type;
+        public int section;
+        public boolean cacheFlush;
+        public long ttl;
+        // PTR target or SRV host
+        public String target;
+        public int port;
+        public int priority;
+        public int weight;
+        // A/AAAA address bytes, or raw rdata for other types
+        public byte[] data;
+        public List<String> txt = Collections.emptyList();
+
+        @Override
+        public String toString() {
+            return name + " " + typeName(type) + " ttl=" + ttl + (target != null ? " " + target : "")
+                    + (type == TYPE_SRV ? ":" + port : "");
+        }
+    }
+
+    public int id;
+    public int flags;
+    public final List<Question> questions = new ArrayList<>();
+    public final List<Record> records = new ArrayList<>();
+
+    public boolean isResponse() {
+        return (flags & FLAG_RESPONSE) != 0;
+    }
+
+    public static DnsMessage parse(byte[] data, int offset, int length) throws IOException {
+        return new Reader(data, offset, length).message();
+    }
+
+    /** An mDNS query (id 0, no flags) asking for each name with the given type. */
+    public static byte[] query(int type, String... names) {
+        int size = 12;
+        for (String name : names) {
+            size += encodedLength(name) + 4;
+        }
+        byte[] out = new byte[size];
+        out[5] = (byte) names.length;
+        int position = 12;
+        for (String name : names) {
+            position = writeName(out, position, name);
+            out[position++] = (byte) (type >> 8);
+            out[position++] = (byte) type;
+            out[position++] = 0;
+            out[position++] = CLASS_IN;
+        }
+        return out;
+    }
+
+    public static String typeName(int type) {
+        switch (type) {
+            case TYPE_A:
+                return "A";
+            case TYPE_PTR:
+                return "PTR";
+            case TYPE_TXT:
+                return "TXT";
+            case TYPE_AAAA:
+                return "AAAA";
+            case TYPE_SRV:
+                return "SRV";
+            default:
+                return "TYPE" + type;
+        }
+    }
+
+    private static int encodedLength(String name) {
+        return name.getBytes(StandardCharsets.UTF_8).length + 2;
+    }
+
+    private static int writeName(byte[] out, int position, String name) {
+        for (String label : name.split("\\.")) {
+            byte[] bytes = label.getBytes(StandardCharsets.UTF_8);
+            out[position++] = (byte) bytes.length;
+            System.arraycopy(bytes, 0, out, position, bytes.length);
+            position += bytes.length;
+        }
+        out[position++] = 0;
+        return position;
+    }
+
+    private static final class Reader {
+        private final byte[] data;
+        private final int start;
+        private final int end;
+        private int position;
+        private final StringBuilder name = new StringBuilder();
+
+        Reader(byte[] data, int offset, int length) {
+            this.data = data;
+            this.start = offset;
+            this.end = offset + length;
+            this.position = offset;
+        }
+
+        DnsMessage message() throws IOException {
+            DnsMessage message = new DnsMessage();
+            message.id = u16();
+            message.flags = u16();
+            int questions = u16();
+            int answers = u16();
+            int authority = u16();
+            int additional = u16();
+            for (int i = 0; i < questions; i++) {
+                String qname = name();
+                int type = u16();
+                int cls = u16();
+                message.questions.add(new Question(qname, type, (cls & CLASS_FLAG) != 0));
+            }
+            for (int i = 0; i < answers + authority + additional; i++) {
+                int section = i < answers ? SECTION_ANSWER : i < answers + authority ? SECTION_AUTHORITY : SECTION_ADDITIONAL;
+                message.records.add(record(section));
+            }
+            return message;
+        }
+
+        private Record record(int section) throws IOException {
+            Record record = new Record();
+            record.name = name();
+            record.type = u16();
+            int cls = u16();
+            record.cacheFlush = (cls & CLASS_FLAG) != 0;
+            record.ttl = u32();
+            record.section = section;
+            int length = u16();
+            int rdataEnd = position + length;
+            require(length);
+            switch (record.type) {
+                case TYPE_PTR:
+                    record.target = name();
+                    break;
+                case TYPE_SRV:
+                    record.priority = u16();
+                    record.weight = u16();
+                    record.port = u16();
+                    record.target = name();
+                    break;
+                case TYPE_TXT:
+                    record.txt = new ArrayList<>();
+                    while (position < rdataEnd) {
+                        int size = data[position++] & 0xff;
+                        if (position + size > rdataEnd) {
+                            throw malformed("TXT string overruns record");
+                        }
+                        if (size > 0) {
+                            record.txt.add(new String(data, position, size, StandardCharsets.UTF_8));
+                        }
+                        position += size;
+                    }
+                    break;
+                default:
+                    record.data = new byte[length];
+                    System.arraycopy(data, position, record.data, 0, length);
+                    if ((record.type == TYPE_A && length != 4) || (record.type == TYPE_AAAA && length != 16)) {
+                        throw malformed("Bad address length " + length);
+                    }
+                    break;
+            }
+            if (position > rdataEnd) {
+                throw malformed("Record data overruns its length");
+            }
+            position = rdataEnd;
+            return record;
+        }
+
+        // Reads a possibly compressed name; labels are joined with dots, no trailing dot
+        private String name() throws IOException {
+            name.setLength(0);
+            int cursor = position;
+            int resume = -1;
+            int jumps = 0;
+            while (true) {
+                if (cursor >= end) {
+                    throw malformed("Name runs past the packet");
+                }
+                int length = data[cursor] & 0xff;
+                if ((length & 0xc0) == 0xc0) {
+                    if (cursor + 1 >= end) {
+                        throw malformed("Truncated name pointer");
+                    }
+                    if (++jumps > MAX_POINTER_JUMPS) {
+                        throw malformed("Name pointer loop");
+                    }
+                    if (resume < 0) {
+                        resume = cursor + 2;
+                    }
+                    cursor = start + ((length & 0x3f) << 8 | (data[cursor + 1] & 0xff));
+                    continue;
+                }
+                if ((length & 0xc0) != 0) {
+                    throw malformed("Unsupported label type");
+                }
+                cursor++;
+                if (length == 0) {
+                    break;
+                }
+                if (cursor + length > end) {
+                    throw malformed("Label runs past the packet");
+                }
+                if (name.length() > 0) {
+                    name.append('.');
+                }
+                name.append(new String(data, cursor, length, StandardCharsets.UTF_8));
+                cursor += length;
+            }
+            position = resume >= 0 ? resume : cursor;
+            return name.toString();
+        }
+
+        private int u16() throws IOException {
+            require(2);
+            int value = (data[position] & 0xff) << 8 | (data[position + 1] & 0xff);
+            position += 2;
+            return value;
+        }
+
+        private long u32() throws IOException {
+            require(4);
+            long value = ((long) (data[position] & 0xff) << 24) | (data[position + 1] & 0xff) << 16
+                    | (data[position + 2] & 0xff) << 8 | (data[position + 3] & 0xff);
+            position += 4;
+            return value;
+        }
+
+        private void require(int bytes) throws IOException {
+            if (position + bytes > end) {
+                throw malformed("Truncated packet");
+            }
+        }
+
+        private IOException malformed(String reason) {
+            return new IOException("Malformed DNS packet: " + reason);
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package com.example.tvremote.discovery;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Passive plus lightly active DNS-SD discovery on the mDNS group. It listens to every response
+ * on the link (other apps' queries make TVs announce themselves too) and sends its own PTR
+ * queries with exponential back-off, as RFC 6762 section 5.2 asks. A service is reported once
+ * its PTR, SRV and address records have all been seen; a PTR with TTL 0 (goodbye) reports it
+ * lost. On Android the caller must hold a WifiManager.MulticastLock while this runs.
+ */
+public class MdnsDiscovery {
+    public interface Listener {
+        void onServiceFound(Service service);
+
+        void onServiceLost(Service service);
+    }
+
+    public static final String ADB_TLS_SERVICE = "_adb-tls-connect._tcp.local";
+    public static final String ADB_SERVICE = "_adb._tcp.local";
+    public static final String TV_REMOTE_SERVICE = "_androidtvremote2._tcp.local";
+    public static final String[] SERVICE_TYPES = {ADB_TLS_SERVICE, ADB_SERVICE, TV_REMOTE_SERVICE};
+
+    static final String GROUP = "224.0.0.251";
+    static final int PORT = 5353;
+    private static final int ADB_PORT = 5555;
+    private static final long FIRST_QUERY_DELAY_MS = 1000;
+    private static final long MAX_QUERY_DELAY_MS = 60 * 60 * 1000;
+    private static final long FIRST_HOST_QUERY_DELAY_MS = 1000;
+    // A host still without an address after this many queries is left alone until requery()
+    static final int MAX_HOST_QUERIES = 4;
+
+    public static final class Service {
+        public final String instance;
+        public final String type;
+        public final String host;
+        public final int port;
+        public final String address;
+        public final long ttlSeconds;
+        public final List<String> txt;
+
+        Service(String instance, String type, String host, int port, String address, long ttlSeconds, List<String> txt) {
+            this.instance = instance;
+            this.type = type;
+            this.host = host;
+            this.port = port;
+            this.address = address;
+            this.ttlSeconds = ttlSeconds;
+            this.txt = txt;
+        }
+
+        // Instance label without the service type, e.g. "Living Room TV"
+        public String getName() {
+            return instance.length() > type.length() + 1 ? instance.substring(0, instance.length() - type.length() - 1) : instance;
+        }
+
+        /**
+         * Where to reach adbd. The TV remote service only tells us the box is an Android TV,
+         * so that maps to the classic network ADB port on the same address.
+         */
+        public String getAdbSerial() {
+            return address + ":" + (type.equals(TV_REMOTE_SERVICE) ? ADB_PORT : port);
+        }
+
+        // Android 11+ wireless debugging: needs pairing and TLS, which plain ADB auth cannot do
+        public boolean requiresPairing() {
+            return type.equals(ADB_TLS_SERVICE);
+        }
+
+        @Override
+        public String toString() {
+            return getName() + " (" + getAdbSerial() + ")";
+        }
+    }
+
+    private static final class Instance {
+        String type;
+        long ttl;
+        String host;
+        int port;
+        List<String> txt = Collections.emptyList();
+        Service reported;
+    }
+
+    // Address queries for one SRV target; any response packet can ask for the host again
+    private static final class HostQuery {
+        long nextQueryAt;
+        int sent;
+    }
+
+    private final Listener listener;
+    private final Map<String, Instance> instances = new HashMap<>();
+    private final Map<String, String> addresses = new HashMap<>();
+    private final Map<String, HostQuery> pendingHosts = new HashMap<>();
+    private long malformedPackets;
+
+    private volatile boolean running;
+    private volatile MulticastSocket socket;
+    private Thread thread;
+    private long queryDelayMs = FIRST_QUERY_DELAY_MS;
+    private boolean queryNow;
+
+    public MdnsDiscovery(Listener listener) {
+        this.listener = listener;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        queryDelayMs = FIRST_QUERY_DELAY_MS;
+        thread = new Thread(this::run, "mdns-discovery");
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        MulticastSocket s = socket;
+        if (s != null) {
+            s.close();
+        }
+        thread = null;
+    }
+
+    /** Queries again within the next poll and restarts the back-off, e.g. when the user asks for a scan. */
+    public synchronized void requery() {
+        queryDelayMs = FIRST_QUERY_DELAY_MS;
+        queryNow = true;
+        // Hosts given up on get another round too
+        pendingHosts.clear();
+    }
+
+    public synchronized long getMalformedPackets() {
+        return malformedPackets;
+    }
+
+    private void run() {
+        InetAddress group;
+        MulticastSocket s = null;
+        try {
+            group = InetAddress.getByName(GROUP);
+            // MulticastSocket enables SO_REUSEADDR, so this coexists with the system responder
+            s = new MulticastSocket(PORT);
+            s.joinGroup(group);
+            s.setSoTimeout(250);
+            socket = s;
+            byte[] buffer = new byte[9000];
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            long nextQuery = 0;
+            while (running) {
+                long now = System.currentTimeMillis();
+                boolean query;
+                synchronized (this) {
+                    query = queryNow || now >= nextQuery;
+                    if (query) {
+                        queryNow = false;
+                        nextQuery = now + queryDelayMs;
+                        queryDelayMs = Math.min(queryDelayMs * 2, MAX_QUERY_DELAY_MS);
+                    }
+                }
+                if (query) {
+                    send(s, DnsMessage.query(DnsMessage.TYPE_PTR, SERVICE_TYPES));
+                }
+                String[] hosts = dueHostQueries(now);
+                if (hosts.length > 0) {
+                    send(s, DnsMessage.query(DnsMessage.TYPE_A, hosts));
+                }
+                try {
+                    packet.setLength(buffer.length);
+                    s.receive(packet);
+                } catch (SocketTimeoutException e) {
+                    continue;
+                }
+                onPacket(packet.getData(), packet.getOffset(), packet.getLength());
+            }
+        } catch (IOException e) {
+            // Socket closed by stop(), or multicast is unavailable on this network
+        } finally {
+            if (s != null) {
+                s.close();
+            }
+            socket = null;
+            running = false;
+        }
+    }
+
+    private void send(MulticastSocket s, byte[] query) {
+        try {
+            s.send(new DatagramPacket(query, query.length, InetAddress.getByName(GROUP), PORT));
+        } catch (IOException ignored) {
+            // Best effort; the next back-off round retries
+        }
+    }
+
+    /**
+     * Hosts whose address query is due at `now`. Each host is asked again after 1, 2, 4...
+     * seconds and dropped after {@link #MAX_HOST_QUERIES}, so a TV that announces a host it
+     * never answers for is not queried on every poll.
+     */
+    synchronized String[] dueHostQueries(long now) {
+        List<String> due = new ArrayList<>();
+        for (Map.Entry<String, HostQuery> entry : pendingHosts.entrySet()) {
+            HostQuery query = entry.getValue();
+            if (query.sent < MAX_HOST_QUERIES && now >= query.nextQueryAt) {
+                due.add(entry.getKey());
+                query.nextQueryAt = now + (FIRST_HOST_QUERY_DELAY_MS << query.sent);
+                query.sent++;
+            }
+        }
+        return due.toArray(new String[0]);
+    }
+
+    /** Feeds one received datagram; malformed packets are counted and ignored. */
+    public void onPacket(byte[] data, int offset, int length) {
+        DnsMessage message;
+        try {
+            message = DnsMessage.parse(data, offset, length);
+        } catch (IOException e) {
+            synchronized (this) {
+                malformedPackets++;
+            }
+            return;
+        }
+        if (message.isResponse()) {
+            onResponse(message);
+        }
+    }
+
+    void onResponse(DnsMessage message) {
+        List<Service> found = new ArrayList<>();
+        List<Service> lost = new ArrayList<>();
+        synchronized (this) {
+            // Records may come in any order within a packet, so resolve in dependency order
+            for (DnsMessage.Record record : message.records) {
+                if (record.type == DnsMessage.TYPE_PTR && isServiceType(record.name)) {
+                    Instance instance = instances.get(record.target);
+                    if (record.ttl == 0) {
+                        if (instance != null && instance.reported != null) {
+                            lost.add(instance.reported);
+                        }
+                        instances.remove(record.target);
+                        continue;
+                    }
+                    if (instance == null) {
+                        instance = new Instance();
+                        instances.put(record.target, instance);
+                    }
+                    instance.type = record.name;
+                    instance.ttl = record.ttl;
+                }
+            }
+            for (DnsMessage.Record record : message.records) {
+                Instance instance = instances.get(record.name);
+                if (instance == null) {
+                    continue;
+                }
+                if (record.type == DnsMessage.TYPE_SRV) {
+                    instance.host = record.target;
+                    instance.port = record.port;
+                } else if (record.type == DnsMessage.TYPE_TXT) {
+                    instance.txt = record.txt;
+                }
+            }
+            for (DnsMessage.Record record : message.records) {
+                if (record.type == DnsMessage.TYPE_A && record.ttl > 0) {
+                    addresses.put(record.name, CidrRange.formatAddress(
+                            (record.data[0] & 0xff) << 24 | (record.data[1] & 0xff) << 16
+                                    | (record.data[2] & 0xff) << 8 | (record.data[3] & 0xff)));
+                }
+            }
+            for (Map.Entry<String, Instance> entry : instances.entrySet()) {
+                Instance instance = entry.getValue();
+                if (instance.host == null) {
+                    continue;
+                }
+                String address = addresses.get(instance.host);
+                if (address == null) {
+                    if (!pendingHosts.containsKey(instance.host)) {
+                        pendingHosts.put(instance.host, new HostQuery());
+                    }
+                    continue;
+                }
+                pendingHosts.remove(instance.host);
+                Service service = new Service(entry.getKey(), instance.type, instance.host, instance.port,
+                        address, instance.ttl, instance.txt);
+                Service previous = instance.reported;
+                if (previous == null || !previous.getAdbSerial().equals(service.getAdbSerial())
+                        || previous.port != service.port) {
+                    instance.reported = service;
+                    found.add(service);
+                }
+            }
+        }
+        for (Service service : lost) {
+            listener.onServiceLost(service);
+        }
+        for (Service service : found) {
+            listener.onServiceFound(service);
+        }
+    }
+
+    private static boolean isServiceType(String name) {
+        for (String type : SERVICE_TYPES) {
+            if (type.equalsIgnoreCase(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,379 @@
+package com.example.tvremote.discovery;
+
+import com.example.tvremote.adb.AdbMessage;
+import com.example.tvremote.adb.AdbProtocol;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Finds ADB endpoints in an address range from a single thread. Connects are non-blocking
+ * and multiplexed on one Selector with at most {@link #setWindow window} probes in flight.
+ * A port that accepts is confirmed in-process: device ports get an ADB CNXN and must answer
+ * with CNXN (authorized) or AUTH (needs the on-screen prompt); the adb server port gets a
+ * "host:version" request. Results are reported as soon as each probe finishes.
+ */
+public class SubnetScanner {
+    public interface Listener {
+        void onFound(Result result);
+
+        // Called whenever the completed percentage changes
+        void onProgress(int done, int total);
+
+        // Also called after cancel(), with whatever was found until then
+        void onComplete(int found, long elapsedNanos);
+    }
+
+    public static final class Result {
+        public static final int KIND_DEVICE = 0;
+        public static final int KIND_UNAUTHORIZED = 1;
+        public static final int KIND_ADB_SERVER = 2;
+
+        public final String host;
+        public final int port;
+        public final int kind;
+        // Device banner ("device::ro.product.model=...;...") or adb server version; may be empty
+        public final String banner;
+        public final long latencyNanos;
+
+        Result(String host, int port, int kind, String banner, long latencyNanos) {
+            this.host = host;
+            this.port = port;
+            this.kind = kind;
+            this.banner = banner;
+            this.latencyNanos = latencyNanos;
+        }
+
+        public String getSerial() {
+            return host + ":" + port;
+        }
+
+        public String getModel() {
+            int start = banner.indexOf("ro.product.model=");
+            if (start < 0) {
+                return null;
+            }
+            start += "ro.product.model=".length();
+            int end = banner.indexOf(';', start);
+            return banner.substring(start, end < 0 ? banner.length() : end);
+        }
+
+        @Override
+        public String toString() {
+            switch (kind) {
+                case KIND_UNAUTHORIZED:
+                    return getSerial() + " (unauthorized)";
+                case KIND_ADB_SERVER:
+                    return getSerial() + " (adb server " + banner + ")";
+                default:
+                    String model = getModel();
+                    return model != null ? getSerial() + " (" + model + ")" : getSerial();
+            }
+        }
+    }
+
+    public static final int[] DEFAULT_PORTS = {5555, 5565, 5037};
+    public static final int DEFAULT_WINDOW = 256;
+    public static final int DEFAULT_CONNECT_TIMEOUT_MS = 500;
+    public static final int DEFAULT_HANDSHAKE_TIMEOUT_MS = 1000;
+    static final int ADB_SERVER_PORT = 5037;
+
+    private static final int MAX_BANNER = 4096;
+    private static final byte[] CNXN = cnxnMessage();
+    private static final byte[] HOST_VERSION = "000chost:version".getBytes(StandardCharsets.US_ASCII);
+
+    private int[] ports = DEFAULT_PORTS;
+    private int window = DEFAULT_WINDOW;
+    private long connectTimeoutNanos = DEFAULT_CONNECT_TIMEOUT_MS * 1000000L;
+    private long handshakeTimeoutNanos = DEFAULT_HANDSHAKE_TIMEOUT_MS * 1000000L;
+    private int adbServerPort = ADB_SERVER_PORT;
+
+    private volatile boolean cancelled;
+    private Thread thread;
+
+    public void setPorts(int... ports) {
+        this.ports = ports.clone();
+    }
+
+    public void setWindow(int window) {
+        this.window = window;
+    }
+
+    public void setTimeouts(int connectTimeoutMs, int handshakeTimeoutMs) {
+        this.connectTimeoutNanos = connectTimeoutMs * 1000000L;
+        this.handshakeTimeoutNanos = handshakeTimeoutMs * 1000000L;
+    }
+
+    // Tests cannot bind 5037, so the port that speaks the adb server protocol is configurable
+    void setAdbServerPort(int adbServerPort) {
+        this.adbServerPort = adbServerPort;
+    }
+
+    public synchronized void start(CidrRange range, Listener listener) {
+        cancel();
+        cancelled = false;
+        thread = new Thread(() -> {
+            try {
+                scan(range, listener);
+            } catch (IOException e) {
+                listener.onComplete(0, 0);
+            }
+        }, "subnet-scanner");
+        thread.start();
+    }
+
+    public synchronized void cancel() {
+        cancelled = true;
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    /** Scans on the calling thread and returns the number of endpoints found. */
+    public int scan(CidrRange range, Listener listener) throws IOException {
+        long started = System.nanoTime();
+        int total = range.size() * ports.length;
+        int next = 0;
+        int done = 0;
+        int found = 0;
+        int lastPercent = -1;
+        List<Probe> active = new ArrayList<>(window);
+        List<Probe> free = new ArrayList<>(window);
+        Selector selector = Selector.open();
+        try {
+            while (!cancelled && !Thread.currentThread().isInterrupted() && (next < total || !active.isEmpty())) {
+                while (active.size() < window && next < total) {
+                    Probe probe = free.isEmpty() ? new Probe() : free.remove(free.size() - 1);
+                    int address = range.address(next / ports.length);
+                    int port = ports[next % ports.length];
+                    next++;
+                    if (open(probe, selector, address, port)) {
+                        probe.index = active.size();
+                        active.add(probe);
+                    } else {
+                        done++;
+                        free.add(probe);
+                    }
+                }
+
+                long now = System.nanoTime();
+                long wait = Long.MAX_VALUE;
+                for (int i = 0; i < active.size(); i++) {
+                    wait = Math.min(wait, active.get(i).deadline - now);
+                }
+                if (wait > 0) {
+                    selector.select(Math.max(1, wait / 1000000));
+                } else {
+                    selector.selectNow();
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Probe probe = (Probe) key.attachment();
+                    Result result = probe.onReady(key, this);
+                    if (result != null) {
+                        found++;
+                        listener.onFound(result);
+                    }
+                }
+
+                now = System.nanoTime();
+                for (int i = active.size() - 1; i >= 0; i--) {
+                    Probe probe = active.get(i);
+                    if (probe.finished || now - probe.deadline >= 0) {
+                        probe.close();
+                        // Swap-remove keeps this O(1); order of in-flight probes does not matter
+                        Probe last = active.remove(active.size() - 1);
+                        if (last != probe) {
+                            active.set(i, last);
+                            last.index = i;
+                        }
+                        free.add(probe);
+                        done++;
+                    }
+                }
+
+                int percent = (int) (done * 100L / total);
+                if (percent != lastPercent) {
+                    lastPercent = percent;
+                    listener.onProgress(done, total);
+                }
+            }
+        } finally {
+            for (Probe probe : active) {
+                probe.close();
+            }
+            selector.close();
+        }
+        listener.onComplete(found, System.nanoTime() - started);
+        return found;
+    }
+
+    private boolean open(Probe probe, Selector selector, int address, int port) {
+        probe.reset(address, port, port == adbServerPort);
+        try {
+            SocketChannel channel = SocketChannel.open();
+            probe.channel = channel;
+            channel.configureBlocking(false);
+            byte[] raw = {(byte) (address >>> 24), (byte) (address >> 16), (byte) (address >> 8), (byte) address};
+            InetSocketAddress target = new InetSocketAddress(InetAddress.getByAddress(raw), port);
+            probe.started = System.nanoTime();
+            probe.deadline = probe.started + connectTimeoutNanos;
+            if (channel.connect(target)) {
+                probe.onConnected(handshakeTimeoutNanos);
+                channel.register(selector, SelectionKey.OP_WRITE, probe);
+            } else {
+                channel.register(selector, SelectionKey.OP_CONNECT, probe);
+            }
+            return true;
+        } catch (IOException e) {
+            // Unreachable network, no route, out of descriptors: count it as a closed port
+            probe.close();
+            return false;
+        }
+    }
+
+    private static byte[] cnxnMessage() {
+        byte[] payload = AdbProtocol.HOST_BANNER.getBytes(StandardCharsets.UTF_8);
+        byte[] message = new byte[AdbProtocol.HEADER_SIZE + payload.length];
+        AdbMessage.writeHeader(message, AdbProtocol.A_CNXN, AdbProtocol.A_VERSION, AdbProtocol.MAX_PAYLOAD,
+                payload, 0, payload.length);
+        System.arraycopy(payload, 0, message, AdbProtocol.HEADER_SIZE, payload.length);
+        return message;
+    }
+
+    /** One connection attempt; instances are recycled, so a scan allocates at most window of them. */
+    private static final class Probe {
+        final ByteBuffer in = ByteBuffer.allocate(AdbProtocol.HEADER_SIZE + MAX_BANNER).order(ByteOrder.LITTLE_ENDIAN);
+        final ByteBuffer deviceRequest = ByteBuffer.wrap(CNXN);
+        final ByteBuffer serverRequest = ByteBuffer.wrap(HOST_VERSION);
+        ByteBuffer out;
+        SocketChannel channel;
+        int address;
+        int port;
+        boolean adbServer;
+        boolean finished;
+        long started;
+        long deadline;
+        int index;
+
+        void reset(int address, int port, boolean adbServer) {
+            this.address = address;
+            this.port = port;
+            this.adbServer = adbServer;
+            finished = false;
+            in.clear();
+            out = adbServer ? serverRequest : deviceRequest;
+            out.rewind();
+        }
+
+        void onConnected(long handshakeTimeoutNanos) {
+            deadline = System.nanoTime() + handshakeTimeoutNanos;
+        }
+
+        Result onReady(SelectionKey key, SubnetScanner scanner) {
+            if (finished || !key.isValid()) {
+                return null;
+            }
+            try {
+                if (key.isConnectable()) {
+                    channel.finishConnect();
+                    onConnected(scanner.handshakeTimeoutNanos);
+                    key.interestOps(SelectionKey.OP_WRITE);
+                }
+                if (key.isWritable()) {
+                    channel.write(out);
+                    if (!out.hasRemaining()) {
+                        key.interestOps(SelectionKey.OP_READ);
+                    }
+                }
+                if (key.isReadable()) {
+                    int n = channel.read(in);
+                    Result result = adbServer ? parseServerReply() : parseDeviceReply();
+                    if (result != null || n < 0 || !in.hasRemaining()) {
+                        finished = true;
+                    }
+                    return result;
+                }
+            } catch (IOException e) {
+                // Refused or reset: nothing listening, or not something that speaks ADB
+                finished = true;
+            }
+            return null;
+        }
+
+        private Result parseDeviceReply() {
+            if (in.position() < AdbProtocol.HEADER_SIZE) {
+                return null;
+            }
+            int command = in.getInt(0);
+            int length = in.getInt(12);
+            if (in.getInt(20) != ~command || length < 0) {
+                finished = true;
+                return null;
+            }
+            if (command == AdbProtocol.A_AUTH) {
+                return result(Result.KIND_UNAUTHORIZED, "");
+            }
+            if (command != AdbProtocol.A_CNXN) {
+                finished = true;
+                return null;
+            }
+            int wanted = Math.min(length, MAX_BANNER);
+            if (in.position() < AdbProtocol.HEADER_SIZE + wanted) {
+                return null;
+            }
+            String banner = new String(in.array(), AdbProtocol.HEADER_SIZE, wanted, StandardCharsets.UTF_8);
+            int nul = banner.indexOf('\0');
+            return result(Result.KIND_DEVICE, nul >= 0 ? banner.substring(0, nul) : banner);
+        }
+
+        // "OKAY" followed by a 4-digit hex length and the hex protocol version
+        private Result parseServerReply() {
+            if (in.position() < 4) {
+                return null;
+            }
+            if (in.get(0) != 'O' || in.get(1) != 'K' || in.get(2) != 'A' || in.get(3) != 'Y') {
+                finished = true;
+                return null;
+            }
+            if (in.position() < 12) {
+                return null;
+            }
+            String version = new String(in.array(), 8, 4, StandardCharsets.US_ASCII);
+            try {
+                return result(Result.KIND_ADB_SERVER, String.valueOf(Integer.parseInt(version, 16)));
+            } catch (NumberFormatException e) {
+                return result(Result.KIND_ADB_SERVER, "");
+            }
+        }
+
+        private Result result(int kind, String banner) {
+            return new Result(CidrRange.formatAddress(address), port, kind, banner, System.nanoTime() - started);
+        }
+
+        void close() {
+            finished = true;
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+                channel = null;
+            }
+        }
+    }
+}
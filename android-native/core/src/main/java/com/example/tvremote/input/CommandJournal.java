@@ -0,0 +1,404 @@
+package com.example.tvremote.input;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Durable record of the input sent to one device, so a Wi-Fi blip does not lose it. Every
+ * event is appended to a memory-mapped log before it goes out, and marked done once the
+ * device acknowledged it or it was given up; whatever is still open after the connection
+ * drops (or the app dies) is what {@link #replay} hands back to be sent again, in order.
+ * <p>
+ * Replaying everything would be as bad as losing it: the burst of presses a user makes while
+ * the TV does not react would all land at once. So replay skips what is no longer worth
+ * sending. D-pad moves and touches older than {@link #NAVIGATION_MAX_AGE_MS} are dropped, as
+ * they would act on a screen that has since changed; other keys and commands live for
+ * {@link #COMMAND_MAX_AGE_MS}, typed text for {@link #TEXT_MAX_AGE_MS}. Repeats of a toggle or
+ * a launch (POWER, HOME, MUTE, `am start`...) collapse into the first, since pressing POWER
+ * three times while nothing happens means "turn it off" and not "off, on, off".
+ * <p>
+ * An event that was written to the device but not acknowledged may have run: only the ack
+ * was lost with the connection. Such events are replayed only if running them twice does no
+ * harm ({@link #isReplaySafe}): plain keys, whose short life keeps a repeat harmless. Typed
+ * text, deletes, commands and toggles are given up instead, and counted in
+ * {@link #getUnconfirmedCount}, since typing a word twice is worse than missing it.
+ * <p>
+ * Records are written body first and length last, so a log cut short by a crash ends at the
+ * last whole record. Writes go to the page cache through the mapping: they survive the
+ * process being killed, not the phone losing power, which is the trade for not syncing the
+ * disk on every key press. When the mapping fills up, the events still open are copied to a
+ * fresh log that replaces the old one.
+ */
+public class CommandJournal implements Closeable {
+    public static final long NAVIGATION_MAX_AGE_MS = 1500;
+    public static final long COMMAND_MAX_AGE_MS = 10000;
+    public static final long TEXT_MAX_AGE_MS = 30000;
+    // Repeats further apart than this are two decisions, not one press mashed
+    public static final long COLLAPSE_WINDOW_MS = 3000;
+    public static final int DEFAULT_SIZE = 64 * 1024;
+
+    private static final int MAGIC = 0x54564a31; // "TVJ1"
+    private static final int HEADER_SIZE = 8;
+    private static final byte TYPE_EVENT = 1;
+    private static final byte TYPE_DONE = 2;
+    private static final byte TYPE_SENT = 3;
+    // type, seq; also the size of a SENT record
+    private static final int DONE_SIZE = 1 + 8;
+    // type, seq, time, code, command length
+    private static final int EVENT_SIZE = 1 + 8 + 8 + 4 + 2;
+
+    /** One event that has not been acknowledged yet. A null command means "key event". */
+    public static final class Entry {
+        public final long seq;
+        // Wall clock, so the age is still known after a restart
+        public final long timeMillis;
+        public final int code;
+        public final String command;
+        // Written to the device at least once
+        boolean sent;
+
+        Entry(long seq, long timeMillis, int code, String command) {
+            this.seq = seq;
+            this.timeMillis = timeMillis;
+            this.code = code;
+            this.command = command;
+        }
+
+        boolean sameAs(Entry other) {
+            return code == other.code && (command == null ? other.command == null : command.equals(other.command));
+        }
+    }
+
+    private final File file;
+    private final int size;
+    private final TreeMap<Long, Entry> open = new TreeMap<>();
+    private RandomAccessFile raf;
+    private MappedByteBuffer map;
+    private long nextSeq = 1;
+    private long staleEvents;
+    private long unconfirmedEvents;
+
+    private CommandJournal(File file, int size) {
+        this.file = file;
+        this.size = size;
+    }
+
+    public static CommandJournal open(File file) throws IOException {
+        return open(file, DEFAULT_SIZE);
+    }
+
+    /** Opens the log, creating it if needed, and reads back the events left open last time. */
+    public static CommandJournal open(File file, int size) throws IOException {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Could not create " + dir);
+        }
+        CommandJournal journal = new CommandJournal(file, size);
+        journal.map(file);
+        journal.recover();
+        return journal;
+    }
+
+    /** How long an event stays worth sending. */
+    public static long maxAgeMillis(int code, String command) {
+        if (command == null) {
+            if (isNavigationKey(code)) {
+                return NAVIGATION_MAX_AGE_MS;
+            }
+            return isTextKey(code) ? TEXT_MAX_AGE_MS : COMMAND_MAX_AGE_MS;
+        }
+        if (command.startsWith("input tap") || command.startsWith("input swipe")
+                || command.startsWith("input motionevent") || command.startsWith("input draganddrop")) {
+            return NAVIGATION_MAX_AGE_MS;
+        }
+        if (command.startsWith("input text") || command.startsWith(TextInjector.UNICODE_COMMAND)) {
+            return TEXT_MAX_AGE_MS;
+        }
+        return COMMAND_MAX_AGE_MS;
+    }
+
+    // Whether a second press right after the first adds nothing the user meant
+    static boolean collapses(int code, String command) {
+        if (command != null) {
+            return command.startsWith("am start") || command.startsWith("monkey ");
+        }
+        switch (code) {
+            case 3: // HOME
+            case 26: // POWER
+            case 85: // MEDIA_PLAY_PAUSE
+            case 164: // VOLUME_MUTE
+            case 170: // TV
+            case 176: // SETTINGS
+            case 178: // TV_INPUT
+            case 223: // SLEEP
+            case 224: // WAKEUP
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // Whether running the event twice is no worse than running it once late
+    static boolean isReplaySafe(int code, String command) {
+        if (command != null || isTextKey(code)) {
+            return false;
+        }
+        switch (code) {
+            case 26: // POWER
+            case 85: // MEDIA_PLAY_PAUSE
+            case 164: // VOLUME_MUTE
+                return false;
+            default:
+                return true;
+        }
+    }
+
+    private static boolean isNavigationKey(int code) {
+        switch (code) {
+            case 19: // DPAD_UP
+            case 20: // DPAD_DOWN
+            case 21: // DPAD_LEFT
+            case 22: // DPAD_RIGHT
+            case 23: // DPAD_CENTER
+            case 89: // MEDIA_REWIND
+            case 90: // MEDIA_FAST_FORWARD
+            case 92: // PAGE_UP
+            case 93: // PAGE_DOWN
+            case 166: // CHANNEL_UP
+            case 167: // CHANNEL_DOWN
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isTextKey(int code) {
+        return code == TextInjector.KEYCODE_DEL || code == TextInjector.KEYCODE_ENTER || code == TextInjector.KEYCODE_TAB;
+    }
+
+    /** Records an event about to be sent and returns its sequence number. */
+    public synchronized long append(int code, String command, long nowMillis) throws IOException {
+        Entry entry = new Entry(nextSeq++, nowMillis, code, command);
+        byte[] text = command != null ? command.getBytes(StandardCharsets.UTF_8) : null;
+        if (text != null && text.length >= 0xffff) {
+            throw new IOException("Command too long for the journal");
+        }
+        ensureRoom(4 + EVENT_SIZE + (text != null ? text.length : 0));
+        int start = map.position();
+        map.position(start + 4);
+        map.put(TYPE_EVENT).putLong(entry.seq).putLong(entry.timeMillis).putInt(code);
+        if (text != null) {
+            map.putShort((short) text.length).put(text);
+        } else {
+            map.putShort((short) 0xffff);
+        }
+        map.putInt(start, map.position() - start - 4);
+        open.put(entry.seq, entry);
+        return entry.seq;
+    }
+
+    /** The event is about to be written to the device; from now on it may have run. */
+    public synchronized void markSent(long seq) throws IOException {
+        Entry entry = open.get(seq);
+        if (entry == null || entry.sent) {
+            return;
+        }
+        entry.sent = true;
+        ensureRoom(4 + DONE_SIZE);
+        int start = map.position();
+        map.position(start + 4);
+        map.put(TYPE_SENT).putLong(seq);
+        map.putInt(start, DONE_SIZE);
+    }
+
+    /** The device ran the event, or it was given up; either way it is never replayed. */
+    public synchronized void complete(long seq) throws IOException {
+        if (open.remove(seq) == null) {
+            return;
+        }
+        ensureRoom(4 + DONE_SIZE);
+        int start = map.position();
+        map.position(start + 4);
+        map.put(TYPE_DONE).putLong(seq);
+        map.putInt(start, DONE_SIZE);
+    }
+
+    /**
+     * The open events worth sending again, oldest first. Those that expired or repeat the
+     * event before them are completed here and counted in {@link #getStaleCount}; those that
+     * may already have run and must not run twice, in {@link #getUnconfirmedCount}.
+     */
+    public synchronized List<Entry> replay(long nowMillis) throws IOException {
+        List<Entry> result = new ArrayList<>(open.size());
+        List<Long> stale = new ArrayList<>();
+        List<Long> unconfirmed = new ArrayList<>();
+        Entry previous = null;
+        for (Entry entry : open.values()) {
+            if (entry.sent && !isReplaySafe(entry.code, entry.command)) {
+                unconfirmed.add(entry.seq);
+            } else if (nowMillis - entry.timeMillis > maxAgeMillis(entry.code, entry.command)) {
+                stale.add(entry.seq);
+            } else if (previous != null && previous.sameAs(entry) && collapses(entry.code, entry.command)
+                    && entry.timeMillis - previous.timeMillis <= COLLAPSE_WINDOW_MS) {
+                stale.add(entry.seq);
+            } else {
+                result.add(entry);
+                previous = entry;
+            }
+        }
+        for (Long seq : stale) {
+            complete(seq);
+        }
+        for (Long seq : unconfirmed) {
+            complete(seq);
+        }
+        staleEvents += stale.size();
+        unconfirmedEvents += unconfirmed.size();
+        return result;
+    }
+
+    // Events not acknowledged yet
+    public synchronized int depth() {
+        return open.size();
+    }
+
+    public synchronized long getStaleCount() {
+        return staleEvents;
+    }
+
+    // Given up on replay because they may have run already
+    public synchronized long getUnconfirmedCount() {
+        return unconfirmedEvents;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (raf != null) {
+            try {
+                raf.close();
+            } catch (IOException ignored) {
+            }
+            raf = null;
+        }
+    }
+
+    private void map(File target) throws IOException {
+        RandomAccessFile file = new RandomAccessFile(target, "rw");
+        try {
+            int length = (int) Math.max(file.length(), size);
+            map = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+        if (raf != null) {
+            raf.close();
+        }
+        raf = file;
+        if (map.getInt(0) != MAGIC) {
+            map.putInt(0, MAGIC);
+            map.putInt(4, 0);
+        }
+        map.position(HEADER_SIZE);
+    }
+
+    /*
+     * Stops at the first record that was not written completely, and clears what follows:
+     * the next record goes there, and must not end in the middle of the old one's bytes.
+     */
+    private void recover() {
+        while (map.remaining() >= 4) {
+            int start = map.position();
+            int length = map.getInt();
+            if (length < DONE_SIZE || length > map.remaining()) {
+                map.position(start);
+                break;
+            }
+            byte type = map.get();
+            long seq = map.getLong();
+            if (type == TYPE_EVENT && length >= EVENT_SIZE) {
+                long time = map.getLong();
+                int code = map.getInt();
+                int textLength = map.getShort() & 0xffff;
+                String command = null;
+                if (textLength != 0xffff) {
+                    byte[] text = new byte[textLength];
+                    map.get(text);
+                    command = new String(text, StandardCharsets.UTF_8);
+                }
+                open.put(seq, new Entry(seq, time, code, command));
+            } else if (type == TYPE_DONE) {
+                open.remove(seq);
+            } else if (type == TYPE_SENT) {
+                Entry entry = open.get(seq);
+                if (entry != null) {
+                    entry.sent = true;
+                }
+            }
+            nextSeq = Math.max(nextSeq, seq + 1);
+            map.position(start + 4 + length);
+        }
+        for (int i = map.position(); i < map.limit(); i++) {
+            map.put(i, (byte) 0);
+        }
+    }
+
+    private void ensureRoom(int bytes) throws IOException {
+        if (raf == null) {
+            throw new IOException("Journal closed");
+        }
+        // Room for the record and a zero length after it, so recovery stops there
+        if (map.remaining() >= bytes + 4) {
+            return;
+        }
+        File fresh = new File(file.getPath() + ".tmp");
+        if (fresh.exists() && !fresh.delete()) {
+            throw new IOException("Could not delete " + fresh);
+        }
+        int needed = HEADER_SIZE + bytes + 4;
+        for (Entry entry : open.values()) {
+            needed += 4 + EVENT_SIZE + (entry.command != null ? entry.command.length() * 3 : 0) + 4 + DONE_SIZE;
+        }
+        int length = size;
+        while (length < needed) {
+            length *= 2;
+        }
+        RandomAccessFile copy = new RandomAccessFile(fresh, "rw");
+        try {
+            MappedByteBuffer out = copy.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+            out.putInt(MAGIC).putInt(0);
+            for (Entry entry : open.values()) {
+                int start = out.position();
+                out.position(start + 4);
+                out.put(TYPE_EVENT).putLong(entry.seq).putLong(entry.timeMillis).putInt(entry.code);
+                if (entry.command != null) {
+                    byte[] text = entry.command.getBytes(StandardCharsets.UTF_8);
+                    out.putShort((short) text.length).put(text);
+                } else {
+                    out.putShort((short) 0xffff);
+                }
+                out.putInt(start, out.position() - start - 4);
+                if (entry.sent) {
+                    out.putInt(DONE_SIZE).put(TYPE_SENT).putLong(entry.seq);
+                }
+            }
+            out.force();
+        } finally {
+            copy.close();
+        }
+        if (!fresh.renameTo(file)) {
+            throw new IOException("Could not replace " + file);
+        }
+        open.clear();
+        map(file);
+        recover();
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.tvremote.input;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A {@link Macro} pre-encoded into agent frames. Each run of events between settle
+ * checkpoints becomes one segment: a byte array that opens with a SCHEDULE_RESET and puts a
+ * SCHEDULE in front of every event, so the whole segment goes out in a single write and the
+ * agent, not the phone, keeps the time between events. Swipes are expanded into a DOWN, a
+ * MOVE every {@link #SWIPE_STEP_MS} and an UP.
+ */
+public final class CompiledMacro {
+    public static final int SWIPE_STEP_MS = 16;
+
+    public static final class Segment {
+        public final byte[] frames;
+        // From the first frame of the segment to its last event
+        public final int durationMs;
+        // How long the screen must stay unchanged after this segment, 0 to go straight on
+        public final int settleQuietMs;
+        public final int eventCount;
+
+        Segment(byte[] frames, int durationMs, int settleQuietMs, int eventCount) {
+            this.frames = frames;
+            this.durationMs = durationMs;
+            this.settleQuietMs = settleQuietMs;
+            this.eventCount = eventCount;
+        }
+    }
+
+    public final String name;
+    public final List<Segment> segments;
+
+    private CompiledMacro(String name, List<Segment> segments) {
+        this.name = name;
+        this.segments = Collections.unmodifiableList(segments);
+    }
+
+    public static CompiledMacro compile(Macro macro) {
+        List<Segment> segments = new ArrayList<>();
+        List<Macro.Step> steps = macro.steps;
+        int start = 0;
+        int baseMs = 0;
+        for (int i = 0; i <= steps.size(); i++) {
+            Macro.Step step = i < steps.size() ? steps.get(i) : null;
+            if (step != null && step.type != Macro.STEP_SETTLE) {
+                continue;
+            }
+            int quietMs = step != null ? step.durationMs : 0;
+            if (i > start || quietMs > 0) {
+                segments.add(compileSegment(steps.subList(start, i), baseMs, quietMs));
+            }
+            if (step != null) {
+                // Offsets in the next segment count from when the screen was seen to settle
+                baseMs = step.atMs;
+            }
+            start = i + 1;
+        }
+        return new CompiledMacro(macro.name, segments);
+    }
+
+    private static Segment compileSegment(List<Macro.Step> steps, int baseMs, int quietMs) {
+        int size = InputFrame.SCHEDULE_SIZE;
+        for (Macro.Step step : steps) {
+            size += encodedSize(step);
+        }
+        InputFrameEncoder encoder = new InputFrameEncoder(size);
+        encoder.putSchedule(InputFrame.SCHEDULE_RESET, 0);
+        int duration = 0;
+        int events = 0;
+        for (Macro.Step step : steps) {
+            int at = step.atMs - baseMs;
+            switch (step.type) {
+                case Macro.STEP_KEY:
+                    encoder.putSchedule(0, at);
+                    encoder.putKeyPress(step.keyCode, 0);
+                    break;
+                case Macro.STEP_TAP:
+                    encoder.putSchedule(0, at);
+                    encoder.putTap(step.x, step.y);
+                    break;
+                case Macro.STEP_SWIPE:
+                    putSwipe(encoder, step, at);
+                    break;
+                default:
+                    break;
+            }
+            duration = Math.max(duration, step.endMs() - baseMs);
+            events++;
+        }
+        return new Segment(encoder.array(), duration, quietMs, events);
+    }
+
+    private static void putSwipe(InputFrameEncoder encoder, Macro.Step step, int at) {
+        int moves = swipeMoves(step);
+        encoder.putSchedule(0, at);
+        encoder.putMotion(InputFrame.ACTION_DOWN, 0, step.x, step.y, InputFrame.MAX_PRESSURE);
+        int x = step.x;
+        int y = step.y;
+        for (int i = 1; i <= moves; i++) {
+            x = step.x + (step.toX - step.x) * i / moves;
+            y = step.y + (step.toY - step.y) * i / moves;
+            encoder.putSchedule(0, at + step.durationMs * i / moves);
+            encoder.putMotion(InputFrame.ACTION_MOVE, 0, x, y, InputFrame.MAX_PRESSURE);
+        }
+        encoder.putMotion(InputFrame.ACTION_UP, 0, x, y, 0);
+    }
+
+    private static int swipeMoves(Macro.Step step) {
+        return Math.max(1, step.durationMs / SWIPE_STEP_MS);
+    }
+
+    private static int encodedSize(Macro.Step step) {
+        switch (step.type) {
+            case Macro.STEP_KEY:
+                return InputFrame.SCHEDULE_SIZE + InputFrame.KEY_SIZE * 2;
+            case Macro.STEP_TAP:
+                return InputFrame.SCHEDULE_SIZE + InputFrame.MOTION_SIZE * 2;
+            case Macro.STEP_SWIPE:
+                return (swipeMoves(step) + 1) * (InputFrame.SCHEDULE_SIZE + InputFrame.MOTION_SIZE)
+                        + InputFrame.MOTION_SIZE;
+            default:
+                return 0;
+        }
+    }
+
+    public int getDurationMs() {
+        int total = 0;
+        for (Segment segment : segments) {
+            total += segment.durationMs;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.tvremote.input;
+
+/**
+ * Turns SCHEDULE frames into waits on the agent. Offsets count from the last
+ * {@link InputFrame#SCHEDULE_RESET}, not from the previous event, so a slow injection or a
+ * late wake-up delays one event without shifting every event after it.
+ */
+public final class FrameScheduler {
+    private long baseMs;
+
+    // Milliseconds to wait before handling the frames after this one
+    public long delayFor(InputFrame frame, long nowMs) {
+        if ((frame.action & InputFrame.SCHEDULE_RESET) != 0) {
+            baseMs = nowMs;
+        }
+        return Math.max(0, baseMs + frame.offsetMs - nowMs);
+    }
+}
@@ -0,0 +1,258 @@
+package com.example.tvremote.input;
+
+import java.io.Closeable;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turns touches on the phone into one continuous DOWN, MOVE..., UP stream on the TV. Touch
+ * events only update the latest position; a sampler sends that position every interval, so
+ * a burst of touch events costs one MOVE and the stream rate does not depend on the phone's
+ * touch rate. When the link falls behind (the sink is still sending earlier frames) a sample
+ * is skipped rather than queued, and the next one carries the newer position. DOWN and UP
+ * are never skipped. Pings ride along with the stream to measure touch-to-injected latency.
+ */
+public class GestureStreamer implements Closeable {
+    public interface Sink {
+        boolean motion(int action, int x, int y);
+
+        // True while earlier frames are still waiting to be sent
+        boolean isBacklogged();
+
+        // Asks for an answer once everything sent so far has been injected
+        boolean ping(InputAgentClient.PingListener listener);
+    }
+
+    public interface Listener {
+        /**
+         * Called on the sampler thread when a gesture ends, in target coordinates. streamed is
+         * false if the sink refused the gesture (agent not running), so the caller can send it
+         * another way, e.g. as a single `input swipe`.
+         */
+        void onGestureEnd(int x, int y, int toX, int toY, int durationMs, boolean streamed);
+    }
+
+    public static final long DEFAULT_INTERVAL_MS = 16;
+    // Latency is sampled, not measured for every move
+    private static final long ACK_INTERVAL_NANOS = 100000000L;
+
+    private final ScheduledExecutorService executor;
+    private final long intervalMs;
+    private volatile Listener listener;
+    private ScheduledFuture<?> task;
+
+    private Sink sink;
+    private TouchMapping mapping;
+    private boolean active;
+    private boolean downPending;
+    private boolean upPending;
+    private boolean moved;
+    private boolean streaming;
+    private int x;
+    private int y;
+    private long touchNanos;
+    private int startX;
+    private int startY;
+    private long startNanos;
+
+    private boolean ackOutstanding;
+    private long lastAckRequestNanos;
+    private long latencyCount;
+    private long latencyTotalNanos;
+    private long latencyMaxNanos;
+    private long lastLatencyNanos;
+    private long sentMoves;
+    private long droppedMoves;
+
+    public GestureStreamer() {
+        this(Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "gesture-streamer");
+            thread.setDaemon(true);
+            return thread;
+        }), DEFAULT_INTERVAL_MS);
+    }
+
+    // A null executor leaves calling tick() to the caller (tests)
+    GestureStreamer(ScheduledExecutorService executor, long intervalMs) {
+        this.executor = executor;
+        this.intervalMs = intervalMs;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    // Touches arrive in view pixels; mapping turns them into TV display pixels for this gesture
+    public void down(Sink sink, TouchMapping mapping, float viewX, float viewY, long touchNanos) {
+        synchronized (this) {
+            if (active) {
+                // The previous gesture has not been flushed yet; finish it first
+                upPending = true;
+            }
+        }
+        tick(System.nanoTime());
+        synchronized (this) {
+            this.sink = sink;
+            this.mapping = mapping;
+            active = true;
+            downPending = true;
+            upPending = false;
+            moved = false;
+            update(viewX, viewY, touchNanos);
+            startX = x;
+            startY = y;
+            startNanos = touchNanos;
+            if (executor != null && task == null) {
+                task = executor.scheduleAtFixedRate(() -> tick(System.nanoTime()), 0, intervalMs, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    public synchronized void move(float viewX, float viewY, long touchNanos) {
+        if (active && !upPending) {
+            update(viewX, viewY, touchNanos);
+            moved = true;
+        }
+    }
+
+    public synchronized void up(float viewX, float viewY, long touchNanos) {
+        if (active && !upPending) {
+            update(viewX, viewY, touchNanos);
+            moved = true;
+            upPending = true;
+        }
+    }
+
+    private void update(float viewX, float viewY, long touchNanos) {
+        x = mapping.mapX(viewX);
+        y = mapping.mapY(viewY);
+        this.touchNanos = touchNanos;
+    }
+
+    // One sample: sends whatever changed since the last tick
+    void tick(long nowNanos) {
+        Listener l = null;
+        int endX = 0;
+        int endY = 0;
+        int fromX = 0;
+        int fromY = 0;
+        int durationMs = 0;
+        boolean streamed = false;
+        synchronized (this) {
+            if (!active) {
+                return;
+            }
+            boolean sent = false;
+            // Every DOWN and UP is timed; moves in between only every ACK_INTERVAL_NANOS
+            boolean boundary = downPending || upPending;
+            if (downPending) {
+                downPending = false;
+                streaming = sink != null && sink.motion(InputFrame.ACTION_DOWN, startX, startY);
+                sent = streaming;
+            }
+            if (upPending) {
+                if (streaming) {
+                    // The final position always goes out, however far behind the link is
+                    if (moved) {
+                        streaming = sink.motion(InputFrame.ACTION_MOVE, x, y);
+                    }
+                    streaming = streaming && sink.motion(InputFrame.ACTION_UP, x, y);
+                    sent = streaming;
+                }
+                moved = false;
+                upPending = false;
+                active = false;
+                if (task != null) {
+                    task.cancel(false);
+                    task = null;
+                }
+                l = listener;
+                fromX = startX;
+                fromY = startY;
+                endX = x;
+                endY = y;
+                durationMs = (int) Math.max(0, (touchNanos - startNanos) / 1000000L);
+                streamed = streaming;
+            } else if (moved && streaming) {
+                if (sink.isBacklogged()) {
+                    droppedMoves++;
+                } else {
+                    moved = false;
+                    streaming = sink.motion(InputFrame.ACTION_MOVE, x, y);
+                    sent = streaming;
+                    sentMoves++;
+                }
+            }
+            if (sent && (boundary || !ackOutstanding && nowNanos - lastAckRequestNanos >= ACK_INTERVAL_NANOS)) {
+                requestAckLocked(nowNanos);
+            }
+        }
+        if (l != null) {
+            l.onGestureEnd(fromX, fromY, endX, endY, durationMs, streamed);
+        }
+    }
+
+    private void requestAckLocked(long nowNanos) {
+        long sampledAt = touchNanos;
+        lastAckRequestNanos = nowNanos;
+        ackOutstanding = sink.ping(roundTripNanos -> onAcked(sampledAt));
+    }
+
+    private synchronized void onAcked(long sampledAt) {
+        ackOutstanding = false;
+        long latency = System.nanoTime() - sampledAt;
+        lastLatencyNanos = latency;
+        latencyTotalNanos += latency;
+        latencyMaxNanos = Math.max(latencyMaxNanos, latency);
+        latencyCount++;
+    }
+
+    // From the touch event to the agent confirming it injected that position
+    public synchronized long getLastLatencyNanos() {
+        return lastLatencyNanos;
+    }
+
+    public synchronized long getAverageLatencyNanos() {
+        return latencyCount > 0 ? latencyTotalNanos / latencyCount : 0;
+    }
+
+    public synchronized long getMaxLatencyNanos() {
+        return latencyMaxNanos;
+    }
+
+    public synchronized long getSentMoves() {
+        return sentMoves;
+    }
+
+    // Samples skipped because the link was behind
+    public synchronized long getDroppedMoves() {
+        return droppedMoves;
+    }
+
+    // "touch 18.2 ms (max 40.1), 120 moves, 3 dropped"; empty before the first measurement
+    public synchronized String summary() {
+        if (latencyCount == 0) {
+            return "";
+        }
+        return String.format(Locale.US, "touch %.1f ms (max %.1f), %d moves, %d dropped",
+                latencyTotalNanos / latencyCount / 1e6, latencyMaxNanos / 1e6, sentMoves, droppedMoves);
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            active = false;
+            sink = null;
+            if (task != null) {
+                task.cancel(false);
+                task = null;
+            }
+        }
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,474 @@
+package com.example.tvremote.input;
+
+import com.example.tvremote.adb.AdbConnection;
+import com.example.tvremote.adb.AdbStream;
+import com.example.tvremote.adb.AdbSync;
+import com.example.tvremote.adb.ConnectionProvider;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Talks to the input agent running on the TV ({@code com.example.tvremote.agent.InputAgent}).
+ * The agent is this app's own APK pushed to /data/local/tmp and started with app_process, so
+ * injecting an event costs one small write instead of booting `input` for every tap.
+ * Frames are double buffered: callers append to one encoder while the writer thread sends
+ * the other, so submitting an event never blocks or allocates.
+ * <p>
+ * With a journal ({@link #setJournal}), key presses, taps and finished gestures are recorded
+ * before they are queued, and each write is followed by a confirmation ping the agent echoes
+ * once it has injected everything before it. When the agent goes away, whatever it had not
+ * confirmed is handed to the shell pipeline, which replays what is still worth sending.
+ * Gestures are journaled as the `input tap` or `input swipe` that stands in for them.
+ */
+public class InputAgentClient implements GestureStreamer.Sink, Closeable {
+    public interface PingListener {
+        // Called on the reply thread
+        void onPingAnswered(long roundTripNanos);
+    }
+
+    public static final String SOCKET_NAME = "tvremote-agent-" + InputFrame.VERSION;
+    public static final String REMOTE_PATH = "/data/local/tmp/tvremote-agent.apk";
+    public static final String AGENT_CLASS = "com.example.tvremote.agent.InputAgent";
+    public static final String READY_LINE = "ready";
+
+    private static final int BUFFER_SIZE = 4096;
+    private static final long START_TIMEOUT_MS = 5000;
+    private static final long RETRY_AFTER_FAILURE_MS = 30000;
+
+    private final ConnectionProvider provider;
+    private final File agentPackage;
+    private final Object lock = new Object();
+    private final InputFrameEncoder pending = new InputFrameEncoder(BUFFER_SIZE);
+    private final InputFrameEncoder sending = new InputFrameEncoder(BUFFER_SIZE);
+    private byte[] batch;
+    private int batchLength;
+
+    private AdbStream stream;
+    private AdbStream launcher;
+    private Thread writerThread;
+    private volatile boolean ready;
+    private volatile boolean closed;
+    private volatile long lastRoundTripNanos;
+    private int pingSeq;
+    private long pingSentAt;
+    private boolean pingAnswered;
+    private PingListener pingListener;
+    private long droppedFrames;
+    private long lastStartFailure;
+
+    private CommandJournal journal;
+    private InputPipeline fallback;
+    // Journaled events still in the pending encoder
+    private long[] unsentSeqs = new long[16];
+    private int unsentCount;
+    // Journaled events written to the agent, with the confirmation ping that follows them
+    private long[] writtenSeqs = new long[16];
+    private int[] writtenConfirms = new int[16];
+    private int writtenCount;
+    // Confirmation pings count down from -1 so they never match a caller's ping
+    private int confirmSeq;
+    private final InputFrameEncoder confirm = new InputFrameEncoder(InputFrame.PING_SIZE);
+    private int gestureX, gestureY;
+    private long gestureStart;
+
+    public InputAgentClient(ConnectionProvider provider, File agentPackage) {
+        this.provider = provider;
+        this.agentPackage = agentPackage;
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Journals presses, taps and gestures from now on. Whatever the agent does not confirm
+     * before it goes away is handed to {@code fallback}, which sends it through the shell.
+     */
+    public void setJournal(CommandJournal journal, InputPipeline fallback) {
+        synchronized (lock) {
+            this.journal = journal;
+            this.fallback = fallback;
+        }
+    }
+
+    // Journaled events the agent has not confirmed yet
+    public int getJournalDepth() {
+        synchronized (lock) {
+            return journal != null ? journal.depth() : 0;
+        }
+    }
+
+    public long getLastRoundTripNanos() {
+        return lastRoundTripNanos;
+    }
+
+    public long getDroppedFrames() {
+        synchronized (lock) {
+            return droppedFrames;
+        }
+    }
+
+    // Installs and starts the agent in the background; callers fall back until isReady()
+    public void startAsync() {
+        synchronized (lock) {
+            if (writerThread != null || closed) {
+                return;
+            }
+            if (lastStartFailure != 0 && System.currentTimeMillis() - lastStartFailure < RETRY_AFTER_FAILURE_MS) {
+                return;
+            }
+            writerThread = new Thread(this::run, "input-agent");
+            writerThread.setDaemon(true);
+            writerThread.start();
+        }
+    }
+
+    public boolean pressKey(int keyCode) {
+        synchronized (lock) {
+            return journaled(submitted(ready && pending.putKeyPress(keyCode, 0)), keyCode, null);
+        }
+    }
+
+    public boolean key(int action, int keyCode, int metaState) {
+        synchronized (lock) {
+            return submitted(ready && pending.putKey(action, keyCode, metaState));
+        }
+    }
+
+    public boolean tap(int x, int y) {
+        synchronized (lock) {
+            boolean accepted = submitted(ready && pending.putTap(x, y));
+            // The replay command is only built when there is a journal to keep it in
+            return journal != null ? journaled(accepted, 0, "input tap " + x + " " + y) : accepted;
+        }
+    }
+
+    @Override
+    public boolean motion(int action, int x, int y) {
+        synchronized (lock) {
+            int pressure = action == InputFrame.ACTION_UP ? 0 : InputFrame.MAX_PRESSURE;
+            boolean accepted = submitted(ready && pending.putMotion(action, 0, x, y, pressure));
+            if (action == InputFrame.ACTION_DOWN) {
+                gestureX = x;
+                gestureY = y;
+                gestureStart = System.nanoTime();
+            } else if (action == InputFrame.ACTION_UP && journal != null) {
+                long durationMs = Math.max((System.nanoTime() - gestureStart) / 1000000L, 50);
+                journaled(accepted, 0, Math.abs(x - gestureX) < 8 && Math.abs(y - gestureY) < 8
+                        ? "input tap " + x + " " + y
+                        : "input swipe " + gestureX + " " + gestureY + " " + x + " " + y + " " + durationMs);
+            }
+            return accepted;
+        }
+    }
+
+    // Frames are waiting behind a write the device has not acknowledged yet
+    @Override
+    public boolean isBacklogged() {
+        synchronized (lock) {
+            return batch != null || !pending.isEmpty();
+        }
+    }
+
+    // The agent echoes pings, which measures the full app -> agent -> app path
+    public boolean ping() {
+        return ping(null);
+    }
+
+    // The listener hears about this ping only; a newer ping replaces it
+    @Override
+    public boolean ping(PingListener listener) {
+        synchronized (lock) {
+            pingSentAt = System.nanoTime();
+            pingAnswered = false;
+            pingListener = listener;
+            return submitted(ready && pending.putPing(++pingSeq));
+        }
+    }
+
+    /**
+     * Waits until the agent echoes the last {@link #ping}. The agent handles frames in order,
+     * so this returns once everything submitted before the ping has been injected.
+     */
+    public boolean awaitPing(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (lock) {
+            while (!pingAnswered && ready) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                lock.wait(remaining);
+            }
+            return pingAnswered;
+        }
+    }
+
+    /**
+     * Sends pre-encoded frames (see {@link CompiledMacro}) as one write, ahead of any frames
+     * submitted after it. Only one batch can wait at a time; the array is not copied and must
+     * not change until it has been sent.
+     */
+    public boolean submitBatch(byte[] frames, int length) {
+        synchronized (lock) {
+            if (!ready || batch != null) {
+                return submitted(false);
+            }
+            batch = frames;
+            batchLength = length;
+            return submitted(true);
+        }
+    }
+
+    private boolean submitted(boolean accepted) {
+        if (accepted) {
+            lock.notifyAll();
+        } else if (ready) {
+            droppedFrames++;
+        }
+        return accepted;
+    }
+
+    private boolean journaled(boolean accepted, int code, String command) {
+        if (!accepted || journal == null) {
+            return accepted;
+        }
+        try {
+            long seq = journal.append(code, command, System.currentTimeMillis());
+            if (unsentCount == unsentSeqs.length) {
+                unsentSeqs = Arrays.copyOf(unsentSeqs, unsentCount * 2);
+            }
+            unsentSeqs[unsentCount++] = seq;
+        } catch (IOException e) {
+            // The event still goes out, it just is not replayed if the agent drops it
+        }
+        return true;
+    }
+
+    // The journaled events just drained are written next, followed by the returned ping
+    private int markWrittenLocked() {
+        if (unsentCount == 0) {
+            return 0;
+        }
+        int id = --confirmSeq;
+        if (writtenCount + unsentCount > writtenSeqs.length) {
+            int length = Math.max(writtenSeqs.length * 2, writtenCount + unsentCount);
+            writtenSeqs = Arrays.copyOf(writtenSeqs, length);
+            writtenConfirms = Arrays.copyOf(writtenConfirms, length);
+        }
+        for (int i = 0; i < unsentCount; i++) {
+            try {
+                journal.markSent(unsentSeqs[i]);
+            } catch (IOException ignored) {
+            }
+            writtenSeqs[writtenCount] = unsentSeqs[i];
+            writtenConfirms[writtenCount++] = id;
+        }
+        unsentCount = 0;
+        return id;
+    }
+
+    // The agent injected everything written before confirmation ping `id`
+    private void confirmLocked(int id) {
+        int done = 0;
+        while (done < writtenCount && writtenConfirms[done] >= id) {
+            try {
+                journal.complete(writtenSeqs[done]);
+            } catch (IOException ignored) {
+            }
+            done++;
+        }
+        System.arraycopy(writtenSeqs, done, writtenSeqs, 0, writtenCount - done);
+        System.arraycopy(writtenConfirms, done, writtenConfirms, 0, writtenCount - done);
+        writtenCount -= done;
+    }
+
+    private void run() {
+        AdbStream out;
+        try {
+            out = start();
+        } catch (IOException e) {
+            synchronized (lock) {
+                lastStartFailure = System.currentTimeMillis();
+            }
+            stop();
+            return;
+        }
+        byte[] frames;
+        int length;
+        int confirmId;
+        try {
+            while (true) {
+                synchronized (lock) {
+                    while (pending.isEmpty() && batch == null && stream == out && !closed) {
+                        lock.wait();
+                    }
+                    if (stream != out || closed) {
+                        return;
+                    }
+                    frames = batch;
+                    length = batchLength;
+                    batch = null;
+                    pending.drainTo(sending);
+                    confirmId = markWrittenLocked();
+                }
+                if (frames != null) {
+                    out.write(frames, 0, length);
+                }
+                if (!sending.isEmpty()) {
+                    out.write(sending.array(), 0, sending.size());
+                    sending.reset();
+                }
+                if (confirmId != 0) {
+                    confirm.putPing(confirmId);
+                    out.write(confirm.array(), 0, confirm.size());
+                    confirm.reset();
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            stop();
+        }
+    }
+
+    private AdbStream start() throws IOException {
+        AdbConnection connection = provider.connect();
+        AdbStream agent;
+        try {
+            // Already running from an earlier session
+            agent = connection.open("localabstract:" + SOCKET_NAME);
+        } catch (IOException notRunning) {
+            install(connection);
+            launch(connection);
+            agent = connection.open("localabstract:" + SOCKET_NAME);
+        }
+        synchronized (lock) {
+            if (closed) {
+                agent.close();
+                throw new IOException("Input agent client closed");
+            }
+            stream = agent;
+            ready = true;
+        }
+        final AdbStream replies = agent;
+        Thread reader = new Thread(() -> readReplies(replies), "input-agent-replies");
+        reader.setDaemon(true);
+        reader.start();
+        return agent;
+    }
+
+    private void install(AdbConnection connection) throws IOException {
+        AdbSync sync = new AdbSync(connection);
+        try {
+            AdbSync.Stat stat = sync.stat(REMOTE_PATH);
+            if (stat.exists() && stat.size == agentPackage.length()
+                    && stat.mtime == (int) (agentPackage.lastModified() / 1000)) {
+                return;
+            }
+            InputStream in = new FileInputStream(agentPackage);
+            try {
+                sync.push(in, REMOTE_PATH, 0644, (int) (agentPackage.lastModified() / 1000));
+            } finally {
+                in.close();
+            }
+        } finally {
+            sync.close();
+        }
+    }
+
+    // The launcher shell stays open: the agent exits when it (or the connection) goes away
+    private void launch(AdbConnection connection) throws IOException {
+        AdbStream shell = connection.open("shell:CLASSPATH=" + REMOTE_PATH
+                + " app_process / " + AGENT_CLASS + " " + SOCKET_NAME);
+        long deadline = System.currentTimeMillis() + START_TIMEOUT_MS;
+        StringBuilder output = new StringBuilder();
+        while (output.indexOf(READY_LINE) < 0) {
+            long remaining = deadline - System.currentTimeMillis();
+            byte[] data = remaining > 0 ? shell.read(remaining) : null;
+            if (data == null) {
+                shell.close();
+                throw new IOException("Input agent did not start: " + output.toString().trim());
+            }
+            output.append(new String(data, StandardCharsets.UTF_8));
+        }
+        synchronized (lock) {
+            launcher = shell;
+        }
+    }
+
+    private void readReplies(AdbStream replies) {
+        InputFrameDecoder decoder = new InputFrameDecoder();
+        InputFrame frame = new InputFrame();
+        try {
+            byte[] data;
+            while ((data = replies.read()) != null) {
+                decoder.feed(data, 0, data.length);
+                while (decoder.next(frame)) {
+                    if (frame.type == InputFrame.TYPE_PING && frame.seq < 0) {
+                        synchronized (lock) {
+                            if (journal != null) {
+                                confirmLocked(frame.seq);
+                            }
+                        }
+                    } else if (frame.type == InputFrame.TYPE_PING) {
+                        PingListener listener = null;
+                        long roundTrip = 0;
+                        synchronized (lock) {
+                            if (frame.seq == pingSeq) {
+                                roundTrip = System.nanoTime() - pingSentAt;
+                                lastRoundTripNanos = roundTrip;
+                                pingAnswered = true;
+                                listener = pingListener;
+                                pingListener = null;
+                                lock.notifyAll();
+                            }
+                        }
+                        if (listener != null) {
+                            listener.onPingAnswered(roundTrip);
+                        }
+                    }
+                }
+            }
+        } catch (IOException ignored) {
+            // Handled by the writer noticing the closed stream
+        }
+        stop();
+    }
+
+    private void stop() {
+        synchronized (lock) {
+            ready = false;
+            writerThread = null;
+            pending.reset();
+            batch = null;
+            if (stream != null) {
+                stream.close();
+                stream = null;
+            }
+            // Nothing the agent did not confirm is lost; the pipeline decides what to resend
+            unsentCount = 0;
+            writtenCount = 0;
+            if (journal != null && fallback != null && journal.depth() > 0) {
+                fallback.adopt(journal);
+            }
+            lock.notifyAll();
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            if (launcher != null) {
+                launcher.close();
+                launcher = null;
+            }
+        }
+        stop();
+    }
+}
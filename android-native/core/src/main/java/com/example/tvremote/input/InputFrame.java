@@ -0,0 +1,71 @@
+package com.example.tvremote.input;
+
+/**
+ * Wire format spoken between the app and the on-device input agent. Frames are fixed size per
+ * type and big-endian:
+ * <pre>
+ *   KEY    (8)  type, action, keyCode:u16, metaState:i32
+ *   MOTION (12) type, action, pointerId:u8, buttons:u8, x:u16, y:u16, pressure:u16, reserved:u16
+ *   PING   (8)  type, 0, 0, 0, seq:i32          (echoed back unchanged by the agent)
+ *   SCHEDULE (8) type, flags, 0, 0, offsetMs:i32 (agent waits until offsetMs after the last RESET)
+ * </pre>
+ * Instances are mutable so the decoder can reuse one for every frame.
+ */
+public final class InputFrame {
+    // Bump when the layout changes; the agent socket name includes it
+    public static final int VERSION = 2;
+
+    public static final int TYPE_KEY = 1;
+    public static final int TYPE_MOTION = 2;
+    public static final int TYPE_PING = 3;
+    public static final int TYPE_SCHEDULE = 4;
+
+    public static final int KEY_SIZE = 8;
+    public static final int MOTION_SIZE = 12;
+    public static final int PING_SIZE = 8;
+    public static final int SCHEDULE_SIZE = 8;
+
+    // SCHEDULE flag: start a new timeline at the moment this frame is read
+    public static final int SCHEDULE_RESET = 1;
+
+    // Same values as KeyEvent/MotionEvent so the agent passes them straight through
+    public static final int ACTION_DOWN = 0;
+    public static final int ACTION_UP = 1;
+    public static final int ACTION_MOVE = 2;
+
+    public static final int MAX_PRESSURE = 0xffff;
+
+    public int type;
+    public int action;
+    public int keyCode;
+    public int metaState;
+    public int pointerId;
+    public int buttons;
+    public int x;
+    public int y;
+    public int pressure;
+    public int seq;
+    public int offsetMs;
+
+    // Size of a frame of the given type, or -1 if the type is unknown
+    public static int sizeOf(int type) {
+        switch (type) {
+            case TYPE_KEY: return KEY_SIZE;
+            case TYPE_MOTION: return MOTION_SIZE;
+            case TYPE_PING: return PING_SIZE;
+            case TYPE_SCHEDULE: return SCHEDULE_SIZE;
+            default: return -1;
+        }
+    }
+
+    @Override
+    public String toString() {
+        switch (type) {
+            case TYPE_KEY: return "KEY(" + action + ", " + keyCode + ", meta=" + metaState + ")";
+            case TYPE_MOTION: return "MOTION(" + action + ", " + x + "," + y + ", p=" + pressure + ")";
+            case TYPE_PING: return "PING(" + seq + ")";
+            case TYPE_SCHEDULE: return "SCHEDULE(" + action + ", " + offsetMs + ")";
+            default: return "UNKNOWN(" + type + ")";
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package com.example.tvremote.input;
+
+import java.io.IOException;
+
+/**
+ * Incremental decoder for {@link InputFrame}s. Bytes arrive in arbitrary chunks (socket reads,
+ * ADB payloads); a frame split across chunks is held until it is complete.
+ */
+public final class InputFrameDecoder {
+    private static final int MAX_FRAME_SIZE = InputFrame.MOTION_SIZE;
+
+    private final byte[] partial = new byte[MAX_FRAME_SIZE];
+    private int partialSize;
+
+    private byte[] input;
+    private int position;
+    private int limit;
+
+    public void feed(byte[] data, int offset, int length) {
+        input = data;
+        position = offset;
+        limit = offset + length;
+    }
+
+    // Decodes the next complete frame into out; false when more input is needed
+    public boolean next(InputFrame out) throws IOException {
+        if (partialSize > 0) {
+            int needed = frameSize(partial[0]) - partialSize;
+            int available = Math.min(needed, limit - position);
+            System.arraycopy(input, position, partial, partialSize, available);
+            partialSize += available;
+            position += available;
+            if (available < needed) {
+                return false;
+            }
+            decode(partial, 0, out);
+            partialSize = 0;
+            return true;
+        }
+        if (position >= limit) {
+            return false;
+        }
+        int size = frameSize(input[position]);
+        if (limit - position < size) {
+            partialSize = limit - position;
+            System.arraycopy(input, position, partial, 0, partialSize);
+            position = limit;
+            return false;
+        }
+        decode(input, position, out);
+        position += size;
+        return true;
+    }
+
+    private static int frameSize(byte type) throws IOException {
+        int size = InputFrame.sizeOf(type);
+        if (size < 0) {
+            throw new IOException("Unknown input frame type " + type);
+        }
+        return size;
+    }
+
+    private static void decode(byte[] b, int p, InputFrame out) {
+        out.type = b[p];
+        out.action = b[p + 1];
+        switch (out.type) {
+            case InputFrame.TYPE_KEY:
+                out.keyCode = getShort(b, p + 2);
+                out.metaState = getInt(b, p + 4);
+                break;
+            case InputFrame.TYPE_MOTION:
+                out.pointerId = b[p + 2] & 0xff;
+                out.buttons = b[p + 3] & 0xff;
+                out.x = getShort(b, p + 4);
+                out.y = getShort(b, p + 6);
+                out.pressure = getShort(b, p + 8);
+                break;
+            case InputFrame.TYPE_PING:
+                out.seq = getInt(b, p + 4);
+                break;
+            case InputFrame.TYPE_SCHEDULE:
+                out.offsetMs = getInt(b, p + 4);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static int getShort(byte[] b, int p) {
+        return (b[p] & 0xff) << 8 | (b[p + 1] & 0xff);
+    }
+
+    private static int getInt(byte[] b, int p) {
+        return (b[p] & 0xff) << 24 | (b[p + 1] & 0xff) << 16 | (b[p + 2] & 0xff) << 8 | (b[p + 3] & 0xff);
+    }
+}
@@ -0,0 +1,139 @@
+package com.example.tvremote.input;
+
+/**
+ * Appends {@link InputFrame}s to a fixed byte array. Nothing is allocated per event; callers
+ * write {@link #array()} up to {@link #size()} and then {@link #reset()}.
+ */
+public final class InputFrameEncoder {
+    private final byte[] buffer;
+    private int size;
+
+    public InputFrameEncoder(int capacity) {
+        buffer = new byte[capacity];
+    }
+
+    public byte[] array() {
+        return buffer;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int remaining() {
+        return buffer.length - size;
+    }
+
+    public void reset() {
+        size = 0;
+    }
+
+    public boolean putKey(int action, int keyCode, int metaState) {
+        if (remaining() < InputFrame.KEY_SIZE) {
+            return false;
+        }
+        int p = size;
+        buffer[p] = (byte) InputFrame.TYPE_KEY;
+        buffer[p + 1] = (byte) action;
+        putShort(p + 2, keyCode);
+        putInt(p + 4, metaState);
+        size = p + InputFrame.KEY_SIZE;
+        return true;
+    }
+
+    // Down and up together, so a key press is a single write
+    public boolean putKeyPress(int keyCode, int metaState) {
+        if (remaining() < InputFrame.KEY_SIZE * 2) {
+            return false;
+        }
+        putKey(InputFrame.ACTION_DOWN, keyCode, metaState);
+        putKey(InputFrame.ACTION_UP, keyCode, metaState);
+        return true;
+    }
+
+    public boolean putMotion(int action, int pointerId, int x, int y, int pressure) {
+        if (remaining() < InputFrame.MOTION_SIZE) {
+            return false;
+        }
+        int p = size;
+        buffer[p] = (byte) InputFrame.TYPE_MOTION;
+        buffer[p + 1] = (byte) action;
+        buffer[p + 2] = (byte) pointerId;
+        buffer[p + 3] = 0;
+        putShort(p + 4, clamp(x));
+        putShort(p + 6, clamp(y));
+        putShort(p + 8, pressure);
+        putShort(p + 10, 0);
+        size = p + InputFrame.MOTION_SIZE;
+        return true;
+    }
+
+    public boolean putTap(int x, int y) {
+        if (remaining() < InputFrame.MOTION_SIZE * 2) {
+            return false;
+        }
+        putMotion(InputFrame.ACTION_DOWN, 0, x, y, InputFrame.MAX_PRESSURE);
+        putMotion(InputFrame.ACTION_UP, 0, x, y, 0);
+        return true;
+    }
+
+    public boolean putPing(int seq) {
+        if (remaining() < InputFrame.PING_SIZE) {
+            return false;
+        }
+        int p = size;
+        buffer[p] = (byte) InputFrame.TYPE_PING;
+        buffer[p + 1] = 0;
+        buffer[p + 2] = 0;
+        buffer[p + 3] = 0;
+        putInt(p + 4, seq);
+        size = p + InputFrame.PING_SIZE;
+        return true;
+    }
+
+    // Events after this frame run offsetMs after the last SCHEDULE_RESET (see FrameScheduler)
+    public boolean putSchedule(int flags, int offsetMs) {
+        if (remaining() < InputFrame.SCHEDULE_SIZE) {
+            return false;
+        }
+        int p = size;
+        buffer[p] = (byte) InputFrame.TYPE_SCHEDULE;
+        buffer[p + 1] = (byte) flags;
+        buffer[p + 2] = 0;
+        buffer[p + 3] = 0;
+        putInt(p + 4, offsetMs);
+        size = p + InputFrame.SCHEDULE_SIZE;
+        return true;
+    }
+
+    // Moves everything written so far into another encoder (used for double buffering)
+    public boolean drainTo(InputFrameEncoder other) {
+        if (other.remaining() < size) {
+            return false;
+        }
+        System.arraycopy(buffer, 0, other.buffer, other.size, size);
+        other.size += size;
+        size = 0;
+        return true;
+    }
+
+    private static int clamp(int coordinate) {
+        return coordinate < 0 ? 0 : (coordinate > 0xffff ? 0xffff : coordinate);
+    }
+
+    private void putShort(int offset, int value) {
+        buffer[offset] = (byte) (value >>> 8);
+        buffer[offset + 1] = (byte) value;
+    }
+
+    private void putInt(int offset, int value) {
+        buffer[offset] = (byte) (value >>> 24);
+        buffer[offset + 1] = (byte) (value >>> 16);
+        buffer[offset + 2] = (byte) (value >>> 8);
+        buffer[offset + 3] = (byte) value;
+    }
+}
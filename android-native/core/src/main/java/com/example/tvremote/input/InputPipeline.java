@@ -0,0 +1,903 @@
+package com.example.tvremote.input;
+
+import com.example.tvremote.adb.AdbStream;
+import com.example.tvremote.metrics.DeviceMetrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Feeds input to one interactive shell that stays open on the device. Keys queued while the
+ * previous write is still in flight are coalesced into a single `input keyevent A B C` line,
+ * and every line ends with an echo marker so the device acknowledges when it has run it.
+ * The queue is bounded: when the device stops acknowledging, new events are dropped rather
+ * than buffered, since a late D-pad press only makes the focus overshoot. For the same reason
+ * an event still queued past {@link CommandJournal#maxAgeMillis} is dropped instead of sent.
+ * <p>
+ * With a {@link CommandJournal}, a shell that breaks no longer takes the lines in flight with
+ * it: the queue is rebuilt from the journal's open events, minus the stale ones, and sent
+ * again in order once the shell is back. Events of those lines that must not run twice (text,
+ * deletes, commands) are given up and counted as failed, as they may have run already.
+ * <p>
+ * A caller that needs to know what became of a command, e.g. a broadcast with a deadline,
+ * submits it with a {@link Completion} and can {@link Submission#cancel} it while it is still
+ * queued. Such submissions fail right away when the shell cannot be opened rather than wait
+ * for it, since their caller is waiting too.
+ */
+public class InputPipeline implements Closeable, TextInjector.Sink {
+    public interface ShellOpener {
+        AdbStream openShell() throws IOException;
+    }
+
+    public interface Listener {
+        void onAcked(int events, long latencyNanos);
+
+        void onError(IOException error);
+    }
+
+    // Called with the pipeline's lock held, so it must not block or call back into it
+    public interface Completion {
+        void onAcked(long latencyNanos);
+
+        // Dropped, stale, or lost with a shell that broke; it may have run in the last case
+        void onFailed(String reason);
+    }
+
+    /** One command submitted with a {@link Completion}. */
+    public final class Submission implements TextInjector.Pending {
+        private final Completion completion;
+        // Guarded by lock
+        private boolean done;
+
+        Submission(Completion completion) {
+            this.completion = completion;
+        }
+
+        /**
+         * Takes the command out of the queue if it has not been written to the shell yet.
+         * Returns false once it is on its way, as it will then run whole, or once it is done;
+         * the completion is not called either way.
+         */
+        public boolean cancel() {
+            synchronized (lock) {
+                if (done) {
+                    return false;
+                }
+                for (int i = 0; i < size; i++) {
+                    int index = (head + i) % capacity;
+                    if (submissions[index] == this) {
+                        done = true;
+                        completeLocked(journalSeqs[index]);
+                        removeLocked(i);
+                        return true;
+                    }
+                }
+                return false;
+            }
+        }
+
+        /**
+         * Swaps in another command while this one is the last in the queue and has never been
+         * written, so it keeps its place and nothing queued after it is overtaken. Returns
+         * false otherwise; the caller then submits the new part on its own.
+         */
+        @Override
+        public boolean replace(String command) {
+            synchronized (lock) {
+                int index = (head + size - 1) % capacity;
+                // A replayed command came back from a shell that broke and may have run already
+                if (done || size == 0 || submissions[index] != this || replayed[index]) {
+                    return false;
+                }
+                completeLocked(journalSeqs[index]);
+                journalSeqs[index] = journalLocked(codes[index], command);
+                commands[index] = command;
+                return true;
+            }
+        }
+    }
+
+    public static final int DEFAULT_CAPACITY = 64;
+    static final int MAX_KEYS_PER_LINE = 16;
+    static final int MAX_LINES_IN_FLIGHT = 2;
+    static final long DEFAULT_ACK_TIMEOUT_MS = 5000;
+    private static final long RETRY_DELAY_MS = 500;
+    // The quotes keep the PTY echo of our own line from matching the marker
+    private static final String ACK_COMMAND = "; echo @ack' '";
+    private static final String ACK_MARKER = "@ack ";
+
+    private static final class Line {
+        long seq;
+        long writtenAt;
+        int count;
+        long[] enqueuedAt = new long[MAX_KEYS_PER_LINE];
+        long[] journalSeqs = new long[MAX_KEYS_PER_LINE];
+        boolean[] replayed = new boolean[MAX_KEYS_PER_LINE];
+        Submission[] submissions = new Submission[MAX_KEYS_PER_LINE];
+    }
+
+    private final ShellOpener opener;
+    private final int capacity;
+    private final Object lock = new Object();
+    // Null without one, or once it failed to write
+    private CommandJournal journal;
+
+    // Pending events as a ring buffer; a null command means "key event"
+    private final int[] codes;
+    private final String[] commands;
+    private final long[] enqueuedAt;
+    // 0 for events not in the journal
+    private final long[] journalSeqs;
+    private final boolean[] replayed;
+    // Null for events submitted without a completion
+    private final Submission[] submissions;
+    private int head;
+    private int size;
+
+    private final ArrayDeque<Line> inFlight = new ArrayDeque<>();
+    private final ArrayDeque<Line> freeLines = new ArrayDeque<>();
+    private final StringBuilder lineBuilder = new StringBuilder(128);
+    private long nextSeq = 1;
+
+    private AdbStream shell;
+    private Thread writerThread;
+    private volatile boolean closed;
+    private volatile Listener listener;
+    private volatile DeviceMetrics metrics;
+    private volatile long ackTimeoutMs = DEFAULT_ACK_TIMEOUT_MS;
+
+    private long sentEvents;
+    private long ackedEvents;
+    private long droppedEvents;
+    private long failedEvents;
+    private long staleEvents;
+    private long replayedEvents;
+    private long maxReplayLagNanos;
+    private long totalLatencyNanos;
+    private long maxLatencyNanos;
+    private long lastLatencyNanos;
+
+    public InputPipeline(ShellOpener opener) {
+        this(opener, DEFAULT_CAPACITY);
+    }
+
+    public InputPipeline(ShellOpener opener, int capacity) {
+        this(opener, capacity, null);
+    }
+
+    /** Events the journal still holds from before, e.g. a previous run, are replayed first. */
+    public InputPipeline(ShellOpener opener, int capacity, CommandJournal journal) {
+        this.opener = opener;
+        this.capacity = capacity;
+        this.journal = journal;
+        this.codes = new int[capacity];
+        this.commands = new String[capacity];
+        this.enqueuedAt = new long[capacity];
+        this.journalSeqs = new long[capacity];
+        this.replayed = new boolean[capacity];
+        this.submissions = new Submission[capacity];
+        for (int i = 0; i < MAX_LINES_IN_FLIGHT; i++) {
+            freeLines.add(new Line());
+        }
+        if (journal != null && journal.depth() > 0) {
+            synchronized (lock) {
+                replayLocked(null);
+                if (size > 0) {
+                    startWriterLocked();
+                }
+            }
+        }
+    }
+
+    // How long a line may wait for the device, to be written or to be acked, before the shell is dropped
+    void setAckTimeout(long ackTimeoutMs) {
+        this.ackTimeoutMs = ackTimeoutMs;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    // Journal depth, replay lag and stale input are recorded there
+    public void setMetrics(DeviceMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    // Returns false if the queue is full and the key was dropped
+    public boolean submitKey(int keyCode) {
+        return enqueue(keyCode, null, null);
+    }
+
+    // Any other shell command (tap, swipe...); keeps its position relative to queued keys
+    public boolean submitCommand(String command) {
+        return enqueue(0, command, null);
+    }
+
+    /**
+     * Like {@link #submitCommand(String)}, but reports what became of the command. A command
+     * that cannot be queued fails before this returns.
+     */
+    public Submission submitCommand(String command, Completion completion) {
+        Submission submission = new Submission(completion);
+        enqueue(0, command, submission);
+        return submission;
+    }
+
+    // Text from TextInjector: a command that can still be rewritten while it waits
+    @Override
+    public TextInjector.Pending submitPending(String command) {
+        Submission submission = new Submission(null);
+        return enqueue(0, command, submission) ? submission : null;
+    }
+
+    /**
+     * Opens the shell ahead of the first event so the first key press does not wait for the
+     * OPEN round trip. Blocking; call it off the main thread, e.g. right after connecting.
+     */
+    public void warmUp() throws IOException {
+        synchronized (lock) {
+            if (closed || shell != null) {
+                return;
+            }
+        }
+        openShell();
+    }
+
+    private boolean enqueue(int code, String command, Submission submission) {
+        synchronized (lock) {
+            if (closed) {
+                finishLocked(submission, false, 0, "Input pipeline closed");
+                return false;
+            }
+            if (size == capacity) {
+                droppedEvents++;
+                finishLocked(submission, false, 0, "Input queue full");
+                return false;
+            }
+            long journalSeq = journalLocked(code, command);
+            int index = (head + size) % capacity;
+            codes[index] = code;
+            commands[index] = command;
+            enqueuedAt[index] = System.nanoTime();
+            journalSeqs[index] = journalSeq;
+            replayed[index] = false;
+            submissions[index] = submission;
+            size++;
+            startWriterLocked();
+            lock.notifyAll();
+        }
+        return true;
+    }
+
+    // Journals an event about to be queued; 0 without a journal
+    private long journalLocked(int code, String command) {
+        if (journal == null) {
+            return 0;
+        }
+        long journalSeq = 0;
+        try {
+            journalSeq = journal.append(code, command, System.currentTimeMillis());
+        } catch (IOException e) {
+            dropJournalLocked();
+        }
+        updateDepthLocked();
+        return journalSeq;
+    }
+
+    private void startWriterLocked() {
+        if (writerThread == null) {
+            writerThread = new Thread(this::writeLoop, "input-pipeline");
+            writerThread.setDaemon(true);
+            writerThread.start();
+        }
+    }
+
+    public int getQueueDepth() {
+        synchronized (lock) {
+            return size;
+        }
+    }
+
+    public int getInFlightLines() {
+        synchronized (lock) {
+            return inFlight.size();
+        }
+    }
+
+    public long getSentEvents() {
+        synchronized (lock) {
+            return sentEvents;
+        }
+    }
+
+    public long getAckedEvents() {
+        synchronized (lock) {
+            return ackedEvents;
+        }
+    }
+
+    public long getDroppedEvents() {
+        synchronized (lock) {
+            return droppedEvents;
+        }
+    }
+
+    public long getFailedEvents() {
+        synchronized (lock) {
+            return failedEvents;
+        }
+    }
+
+    // Too old to send, or a repeat collapsed on replay
+    public long getStaleEvents() {
+        synchronized (lock) {
+            return staleEvents;
+        }
+    }
+
+    // Queued again from the journal after the shell broke
+    public long getReplayedEvents() {
+        synchronized (lock) {
+            return replayedEvents;
+        }
+    }
+
+    // Longest time from submit to ack among replayed events
+    public long getMaxReplayLagNanos() {
+        synchronized (lock) {
+            return maxReplayLagNanos;
+        }
+    }
+
+    // Events journaled and not acknowledged yet
+    public int getJournalDepth() {
+        synchronized (lock) {
+            return journal != null ? journal.depth() : 0;
+        }
+    }
+
+    public long getLastLatencyNanos() {
+        synchronized (lock) {
+            return lastLatencyNanos;
+        }
+    }
+
+    public long getMaxLatencyNanos() {
+        synchronized (lock) {
+            return maxLatencyNanos;
+        }
+    }
+
+    public long getAverageLatencyNanos() {
+        synchronized (lock) {
+            return ackedEvents > 0 ? totalLatencyNanos / ackedEvents : 0;
+        }
+    }
+
+    private void writeLoop() {
+        while (!closed) {
+            String text;
+            AdbStream stream;
+            synchronized (lock) {
+                while (!closed) {
+                    dropStaleLocked(System.nanoTime());
+                    if (size > 0 && !freeLines.isEmpty()) {
+                        break;
+                    }
+                    if (!inFlight.isEmpty() && System.nanoTime() - inFlight.peekFirst().writtenAt > ackTimeoutMs * 1000000L) {
+                        // Device stopped answering; drop the shell and start over
+                        failInFlightLocked();
+                        closeShellLocked();
+                        continue;
+                    }
+                    waitLocked(inFlight.isEmpty() ? 0 : 100);
+                }
+                if (closed) {
+                    return;
+                }
+                stream = shell;
+                if (stream != null) {
+                    text = buildLineLocked(freeLines.poll());
+                } else {
+                    text = null;
+                }
+            }
+            try {
+                if (stream == null) {
+                    // Before the line is built, so nothing counts as sent while the shell opens
+                    openShell();
+                    continue;
+                }
+                // A device that stops OKAYing would otherwise hold the writer here for good
+                stream.write(text, ackTimeoutMs);
+            } catch (IOException e) {
+                synchronized (lock) {
+                    // The line just built is already in flight and fails with the rest
+                    failInFlightLocked();
+                    closeShellLocked();
+                    if (stream == null) {
+                        failQueuedSubmissionsLocked("Cannot open shell: " + e.getMessage());
+                    }
+                }
+                notifyError(e);
+                sleep(RETRY_DELAY_MS);
+            }
+        }
+    }
+
+    // Drains keys up to the next command (or a single command) into one shell line
+    private String buildLineLocked(Line line) {
+        StringBuilder sb = lineBuilder;
+        sb.setLength(0);
+        line.count = 0;
+        if (commands[head] != null) {
+            sb.append(commands[head]);
+            takeHeadLocked(line);
+        } else {
+            sb.append("input keyevent");
+            long now = System.nanoTime();
+            while (size > 0 && commands[head] == null && line.count < MAX_KEYS_PER_LINE) {
+                // The first key was checked by the caller
+                if (line.count > 0 && isStale(head, now)) {
+                    dropHeadLocked();
+                    continue;
+                }
+                sb.append(' ').append(codes[head]);
+                takeHeadLocked(line);
+            }
+        }
+        markSentLocked(line);
+        line.seq = nextSeq++;
+        line.writtenAt = System.nanoTime();
+        sb.append(ACK_COMMAND).append(line.seq).append('\n');
+        inFlight.add(line);
+        sentEvents += line.count;
+        return sb.toString();
+    }
+
+    private void takeHeadLocked(Line line) {
+        line.enqueuedAt[line.count] = enqueuedAt[head];
+        line.journalSeqs[line.count] = journalSeqs[head];
+        line.replayed[line.count] = replayed[head];
+        line.submissions[line.count] = submissions[head];
+        line.count++;
+        commands[head] = null;
+        submissions[head] = null;
+        head = (head + 1) % capacity;
+        size--;
+    }
+
+    private boolean isStale(int index, long now) {
+        return now - enqueuedAt[index] > CommandJournal.maxAgeMillis(codes[index], commands[index]) * 1000000L;
+    }
+
+    // Only the head is checked; an event behind a younger one goes when its line is built
+    private void dropStaleLocked(long now) {
+        while (size > 0 && isStale(head, now)) {
+            dropHeadLocked();
+        }
+    }
+
+    private void dropHeadLocked() {
+        completeLocked(journalSeqs[head]);
+        finishLocked(submissions[head], false, 0, "Too old to send");
+        staleEvents++;
+        DeviceMetrics m = metrics;
+        if (m != null) {
+            m.staleInput.increment();
+        }
+        commands[head] = null;
+        submissions[head] = null;
+        head = (head + 1) % capacity;
+        size--;
+    }
+
+    // Closes the gap left by the event `offset` places behind the head
+    private void removeLocked(int offset) {
+        for (int i = offset; i < size - 1; i++) {
+            int to = (head + i) % capacity;
+            int from = (head + i + 1) % capacity;
+            codes[to] = codes[from];
+            commands[to] = commands[from];
+            enqueuedAt[to] = enqueuedAt[from];
+            journalSeqs[to] = journalSeqs[from];
+            replayed[to] = replayed[from];
+            submissions[to] = submissions[from];
+        }
+        int last = (head + size - 1) % capacity;
+        commands[last] = null;
+        submissions[last] = null;
+        size--;
+    }
+
+    private void failQueuedSubmissionsLocked(String reason) {
+        for (int i = size - 1; i >= 0; i--) {
+            int index = (head + i) % capacity;
+            Submission submission = submissions[index];
+            // Text without a completion waits for the shell like any other command
+            if (submission != null && submission.completion != null) {
+                completeLocked(journalSeqs[index]);
+                removeLocked(i);
+                failedEvents++;
+                finishLocked(submission, false, 0, reason);
+            }
+        }
+    }
+
+    private static void finishLocked(Submission submission, boolean ok, long latencyNanos, String reason) {
+        if (submission == null || submission.done) {
+            return;
+        }
+        submission.done = true;
+        if (submission.completion == null) {
+            return;
+        }
+        if (ok) {
+            submission.completion.onAcked(latencyNanos);
+        } else {
+            submission.completion.onFailed(reason);
+        }
+    }
+
+    private void markSentLocked(Line line) {
+        for (int i = 0; i < line.count && journal != null; i++) {
+            if (line.journalSeqs[i] != 0) {
+                try {
+                    journal.markSent(line.journalSeqs[i]);
+                } catch (IOException e) {
+                    dropJournalLocked();
+                }
+            }
+        }
+    }
+
+    private void completeLocked(long journalSeq) {
+        if (journal == null || journalSeq == 0) {
+            return;
+        }
+        try {
+            journal.complete(journalSeq);
+        } catch (IOException e) {
+            dropJournalLocked();
+        }
+        updateDepthLocked();
+    }
+
+    /*
+     * The journal is the record of what the device has not run yet, so the queue is rebuilt
+     * from it: lines in flight first, then what was queued behind them. Whatever no longer
+     * fits in the queue is the oldest and the least worth sending. Submissions of the lines
+     * in flight come in `carried`, by journal sequence number, and go back with their event;
+     * those whose event is not replayed fail.
+     */
+    private void replayLocked(Map<Long, Submission> carried) {
+        if (carried == null) {
+            carried = new HashMap<>();
+        }
+        for (int i = 0; i < size; i++) {
+            int index = (head + i) % capacity;
+            if (submissions[index] != null) {
+                carried.put(journalSeqs[index], submissions[index]);
+            }
+        }
+        long before = journal.getStaleCount();
+        long unconfirmedBefore = journal.getUnconfirmedCount();
+        List<CommandJournal.Entry> entries;
+        try {
+            entries = journal.replay(System.currentTimeMillis());
+        } catch (IOException e) {
+            dropJournalLocked();
+            for (Submission submission : carried.values()) {
+                finishLocked(submission, false, 0, "Input journal failed");
+            }
+            return;
+        }
+        long stale = journal.getStaleCount() - before;
+        failedEvents += journal.getUnconfirmedCount() - unconfirmedBefore;
+        int skip = Math.max(0, entries.size() - capacity);
+        for (int i = 0; i < skip; i++) {
+            completeLocked(entries.get(i).seq);
+        }
+        stale += skip;
+        while (size > 0) {
+            commands[head] = null;
+            submissions[head] = null;
+            head = (head + 1) % capacity;
+            size--;
+        }
+        head = 0;
+        long nowNanos = System.nanoTime();
+        long nowMillis = System.currentTimeMillis();
+        for (int i = skip; i < entries.size(); i++) {
+            CommandJournal.Entry entry = entries.get(i);
+            codes[size] = entry.code;
+            commands[size] = entry.command;
+            enqueuedAt[size] = nowNanos - Math.max(0, nowMillis - entry.timeMillis) * 1000000L;
+            journalSeqs[size] = entry.seq;
+            replayed[size] = true;
+            submissions[size] = carried.remove(entry.seq);
+            size++;
+        }
+        for (Submission submission : carried.values()) {
+            finishLocked(submission, false, 0, "Lost with the shell and not safe to send again");
+        }
+        replayedEvents += entries.size() - skip;
+        staleEvents += stale;
+        DeviceMetrics m = metrics;
+        if (m != null) {
+            m.staleInput.add(stale);
+        }
+        updateDepthLocked();
+    }
+
+    /**
+     * Takes over what another channel, the input agent, journaled but could not confirm. The
+     * events still worth sending are journaled here and queued behind what is already queued;
+     * only then are they completed in {@code other}, so a crash in between repeats rather than
+     * loses them.
+     */
+    public void adopt(CommandJournal other) {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            long staleBefore = other.getStaleCount();
+            long unconfirmedBefore = other.getUnconfirmedCount();
+            List<CommandJournal.Entry> entries;
+            try {
+                entries = other.replay(System.currentTimeMillis());
+            } catch (IOException e) {
+                return;
+            }
+            long stale = other.getStaleCount() - staleBefore;
+            failedEvents += other.getUnconfirmedCount() - unconfirmedBefore;
+            long nowNanos = System.nanoTime();
+            long nowMillis = System.currentTimeMillis();
+            for (CommandJournal.Entry entry : entries) {
+                if (size == capacity) {
+                    droppedEvents++;
+                } else {
+                    long journalSeq = 0;
+                    if (journal != null) {
+                        try {
+                            journalSeq = journal.append(entry.code, entry.command, entry.timeMillis);
+                        } catch (IOException e) {
+                            dropJournalLocked();
+                        }
+                    }
+                    int index = (head + size) % capacity;
+                    codes[index] = entry.code;
+                    commands[index] = entry.command;
+                    enqueuedAt[index] = nowNanos - Math.max(0, nowMillis - entry.timeMillis) * 1000000L;
+                    journalSeqs[index] = journalSeq;
+                    replayed[index] = true;
+                    submissions[index] = null;
+                    size++;
+                    replayedEvents++;
+                }
+                try {
+                    other.complete(entry.seq);
+                } catch (IOException ignored) {
+                }
+            }
+            staleEvents += stale;
+            DeviceMetrics m = metrics;
+            if (m != null) {
+                m.staleInput.add(stale);
+            }
+            updateDepthLocked();
+            if (size > 0) {
+                startWriterLocked();
+            }
+            lock.notifyAll();
+        }
+    }
+
+    // A journal that cannot be written is worse than none: the pipeline goes on without
+    private void dropJournalLocked() {
+        journal.close();
+        journal = null;
+        DeviceMetrics m = metrics;
+        if (m != null) {
+            m.journalDepth.set(0);
+        }
+    }
+
+    private void updateDepthLocked() {
+        DeviceMetrics m = metrics;
+        if (m != null && journal != null) {
+            m.journalDepth.set(journal.depth());
+        }
+    }
+
+    private AdbStream openShell() throws IOException {
+        AdbStream stream = opener.openShell();
+        synchronized (lock) {
+            if (closed) {
+                stream.close();
+                throw new IOException("Input pipeline closed");
+            }
+            if (shell != null) {
+                // warmUp and the writer raced; keep the shell that won
+                stream.close();
+                return shell;
+            }
+            shell = stream;
+        }
+        Thread reader = new Thread(() -> readLoop(stream), "input-pipeline-acks");
+        reader.setDaemon(true);
+        reader.start();
+        return stream;
+    }
+
+    private void readLoop(AdbStream stream) {
+        StringBuilder pending = new StringBuilder();
+        try {
+            byte[] data;
+            while ((data = stream.read()) != null) {
+                pending.append(new String(data, StandardCharsets.UTF_8));
+                int newline;
+                while ((newline = pending.indexOf("\n")) >= 0) {
+                    parseAck(pending, newline);
+                    pending.delete(0, newline + 1);
+                }
+            }
+        } catch (IOException ignored) {
+            // Treated the same as the device closing the shell
+        }
+        synchronized (lock) {
+            if (shell == stream) {
+                failInFlightLocked();
+                shell = null;
+            }
+        }
+    }
+
+    private void parseAck(CharSequence text, int end) {
+        int start = indexOf(text, ACK_MARKER, end);
+        if (start < 0) {
+            return;
+        }
+        long seq = 0;
+        for (int i = start + ACK_MARKER.length(); i < end; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            seq = seq * 10 + (c - '0');
+        }
+        onAck(seq);
+    }
+
+    private void onAck(long seq) {
+        long now = System.nanoTime();
+        int events = 0;
+        long latency = 0;
+        DeviceMetrics m = metrics;
+        synchronized (lock) {
+            while (!inFlight.isEmpty() && inFlight.peekFirst().seq <= seq) {
+                Line line = inFlight.pollFirst();
+                for (int i = 0; i < line.count; i++) {
+                    latency = now - line.enqueuedAt[i];
+                    totalLatencyNanos += latency;
+                    if (latency > maxLatencyNanos) {
+                        maxLatencyNanos = latency;
+                    }
+                    completeLocked(line.journalSeqs[i]);
+                    finishLocked(line.submissions[i], true, latency, null);
+                    line.submissions[i] = null;
+                    if (line.replayed[i]) {
+                        maxReplayLagNanos = Math.max(maxReplayLagNanos, latency);
+                        if (m != null) {
+                            m.replayLag.record(latency);
+                        }
+                    }
+                }
+                lastLatencyNanos = latency;
+                ackedEvents += line.count;
+                events += line.count;
+                freeLines.add(line);
+            }
+            lock.notifyAll();
+        }
+        Listener l = listener;
+        if (l != null && events > 0) {
+            l.onAcked(events, latency);
+        }
+    }
+
+    private void failInFlightLocked() {
+        boolean replay = journal != null && !inFlight.isEmpty();
+        Map<Long, Submission> carried = replay ? new HashMap<Long, Submission>() : null;
+        while (!inFlight.isEmpty()) {
+            Line line = inFlight.pollFirst();
+            if (!replay) {
+                failedEvents += line.count;
+            }
+            for (int i = 0; i < line.count; i++) {
+                if (line.submissions[i] == null) {
+                    continue;
+                }
+                if (replay && line.journalSeqs[i] != 0) {
+                    carried.put(line.journalSeqs[i], line.submissions[i]);
+                } else {
+                    finishLocked(line.submissions[i], false, 0, "Shell broke before the device answered");
+                }
+                line.submissions[i] = null;
+            }
+            freeLines.add(line);
+        }
+        if (replay) {
+            replayLocked(carried);
+        }
+        lock.notifyAll();
+    }
+
+    private void closeShellLocked() {
+        if (shell != null) {
+            shell.close();
+            shell = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+            for (Line line : inFlight) {
+                for (int i = 0; i < line.count; i++) {
+                    finishLocked(line.submissions[i], false, 0, "Input pipeline closed");
+                }
+            }
+            for (int i = 0; i < size; i++) {
+                finishLocked(submissions[(head + i) % capacity], false, 0, "Input pipeline closed");
+            }
+            closeShellLocked();
+            if (journal != null) {
+                journal.close();
+            }
+            lock.notifyAll();
+        }
+    }
+
+    private void notifyError(IOException e) {
+        Listener l = listener;
+        if (l != null) {
+            l.onError(e);
+        }
+    }
+
+    private void waitLocked(long timeoutMs) {
+        try {
+            lock.wait(timeoutMs);
+        } catch (InterruptedException e) {
+            closed = true;
+        }
+    }
+
+    private static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException ignored) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static int indexOf(CharSequence text, String needle, int end) {
+        outer:
+        for (int i = 0; i + needle.length() <= end; i++) {
+            for (int j = 0; j < needle.length(); j++) {
+                if (text.charAt(i + j) != needle.charAt(j)) {
+                    continue outer;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,183 @@
+package com.example.tvremote.input;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A recorded sequence of key, tap and swipe events with their timing, plus "settle"
+ * checkpoints where playback waits for the screen to stop changing. Stored as a small binary
+ * file: a header, then per step a type byte, the delay since the previous step and the
+ * arguments, all as unsigned varints, so a 20 step navigation path is around 100 bytes.
+ */
+public final class Macro {
+    public static final int STEP_KEY = 1;
+    public static final int STEP_TAP = 2;
+    public static final int STEP_SWIPE = 3;
+    public static final int STEP_SETTLE = 4;
+
+    private static final int MAGIC = 0x54564d43; // "TVMC"
+    private static final int VERSION = 1;
+
+    public static final class Step {
+        public final int type;
+        // Milliseconds from the start of the macro
+        public final int atMs;
+        public final int keyCode;
+        public final int x;
+        public final int y;
+        public final int toX;
+        public final int toY;
+        // Swipe length, or how long the screen must stay unchanged for a settle checkpoint
+        public final int durationMs;
+
+        Step(int type, int atMs, int keyCode, int x, int y, int toX, int toY, int durationMs) {
+            this.type = type;
+            this.atMs = atMs;
+            this.keyCode = keyCode;
+            this.x = x;
+            this.y = y;
+            this.toX = toX;
+            this.toY = toY;
+            this.durationMs = durationMs;
+        }
+
+        public static Step key(int atMs, int keyCode) {
+            return new Step(STEP_KEY, atMs, keyCode, 0, 0, 0, 0, 0);
+        }
+
+        public static Step tap(int atMs, int x, int y) {
+            return new Step(STEP_TAP, atMs, 0, x, y, 0, 0, 0);
+        }
+
+        public static Step swipe(int atMs, int x, int y, int toX, int toY, int durationMs) {
+            return new Step(STEP_SWIPE, atMs, 0, x, y, toX, toY, durationMs);
+        }
+
+        public static Step settle(int atMs, int quietMs) {
+            return new Step(STEP_SETTLE, atMs, 0, 0, 0, 0, 0, quietMs);
+        }
+
+        // When the last event of this step happens
+        public int endMs() {
+            return type == STEP_SWIPE ? atMs + durationMs : atMs;
+        }
+    }
+
+    public final String name;
+    public final List<Step> steps;
+
+    // Steps must be in time order
+    public Macro(String name, List<Step> steps) {
+        this.name = name;
+        this.steps = Collections.unmodifiableList(new ArrayList<>(steps));
+    }
+
+    public int getDurationMs() {
+        int end = 0;
+        for (Step step : steps) {
+            end = Math.max(end, step.endMs());
+        }
+        return end;
+    }
+
+    public void writeTo(OutputStream stream) throws IOException {
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+        out.writeUTF(name);
+        ByteArrayOutputStream body = new ByteArrayOutputStream(steps.size() * 6);
+        writeVarint(body, steps.size());
+        int previous = 0;
+        for (Step step : steps) {
+            body.write(step.type);
+            writeVarint(body, step.atMs - previous);
+            previous = step.atMs;
+            switch (step.type) {
+                case STEP_KEY:
+                    writeVarint(body, step.keyCode);
+                    break;
+                case STEP_TAP:
+                    writeVarint(body, step.x);
+                    writeVarint(body, step.y);
+                    break;
+                case STEP_SWIPE:
+                    writeVarint(body, step.x);
+                    writeVarint(body, step.y);
+                    writeVarint(body, step.toX);
+                    writeVarint(body, step.toY);
+                    writeVarint(body, step.durationMs);
+                    break;
+                case STEP_SETTLE:
+                    writeVarint(body, step.durationMs);
+                    break;
+                default:
+                    throw new IOException("Unknown macro step " + step.type);
+            }
+        }
+        body.writeTo(out);
+        out.flush();
+    }
+
+    public static Macro readFrom(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+        if (in.readInt() != MAGIC || in.readUnsignedByte() != VERSION) {
+            throw new IOException("Not a macro file");
+        }
+        String name = in.readUTF();
+        int count = readVarint(in);
+        List<Step> steps = new ArrayList<>(Math.min(count, 1024));
+        int at = 0;
+        for (int i = 0; i < count; i++) {
+            int type = in.readUnsignedByte();
+            at += readVarint(in);
+            switch (type) {
+                case STEP_KEY:
+                    steps.add(Step.key(at, readVarint(in)));
+                    break;
+                case STEP_TAP:
+                    steps.add(Step.tap(at, readVarint(in), readVarint(in)));
+                    break;
+                case STEP_SWIPE:
+                    steps.add(Step.swipe(at, readVarint(in), readVarint(in), readVarint(in), readVarint(in), readVarint(in)));
+                    break;
+                case STEP_SETTLE:
+                    steps.add(Step.settle(at, readVarint(in)));
+                    break;
+                default:
+                    throw new IOException("Unknown macro step " + type);
+            }
+        }
+        return new Macro(name, steps);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Truncated macro");
+            }
+            value |= (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Bad varint in macro");
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.tvremote.input;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+
+/**
+ * Replays a {@link CompiledMacro} through the input agent. Each segment is one
+ * {@link InputAgentClient#submitBatch} followed by a ping; the agent does the waiting between
+ * events, so the ping comes back when the last event of the segment has been injected. At a
+ * checkpoint the player then waits for the screen to settle before sending the next segment.
+ */
+public class MacroPlayer {
+    public interface SettleDetector {
+        // True once the screen has not changed for quietMs; false if it was still changing at timeoutMs
+        boolean awaitSettled(long quietMs, long timeoutMs) throws IOException, InterruptedException;
+    }
+
+    public interface Listener {
+        void onPlaybackComplete(Result result);
+
+        void onPlaybackFailed(IOException error);
+    }
+
+    // On top of a segment's own duration, for the write and the ping to come back
+    private static final long SEGMENT_SLACK_MS = 2000;
+    private static final long SETTLE_TIMEOUT_MS = 10000;
+
+    public static final class Result {
+        public final String name;
+        public final long elapsedNanos;
+        // Part of elapsedNanos spent waiting for the screen to settle
+        public final long settleNanos;
+        public final int expectedMs;
+        public final boolean cancelled;
+        // Checkpoints where the screen kept changing and playback went on anyway
+        public final int unsettled;
+
+        Result(String name, long elapsedNanos, long settleNanos, int expectedMs, boolean cancelled, int unsettled) {
+            this.name = name;
+            this.elapsedNanos = elapsedNanos;
+            this.settleNanos = settleNanos;
+            this.expectedMs = expectedMs;
+            this.cancelled = cancelled;
+            this.unsettled = unsettled;
+        }
+
+        // "Home row: 1234 ms (recorded 1200 ms, 310 ms settling)"
+        public String summary() {
+            return String.format(Locale.US, "%s: %d ms (recorded %d ms, %d ms settling)%s", name,
+                    elapsedNanos / 1000000, expectedMs, settleNanos / 1000000,
+                    cancelled ? ", cancelled" : unsettled > 0 ? ", " + unsettled + " unsettled" : "");
+        }
+    }
+
+    private final InputAgentClient agent;
+    private final SettleDetector settle;
+    private volatile boolean cancelled;
+
+    // settle may be null when the macro has no checkpoints or the screen cannot be read
+    public MacroPlayer(InputAgentClient agent, SettleDetector settle) {
+        this.agent = agent;
+        this.settle = settle;
+    }
+
+    /** Stops after the segment that is playing; the agent finishes the events already sent. */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public Result play(CompiledMacro macro) throws IOException, InterruptedException {
+        cancelled = false;
+        if (!agent.isReady()) {
+            throw new IOException("Input agent is not running");
+        }
+        long start = System.nanoTime();
+        long settling = 0;
+        int unsettled = 0;
+        for (CompiledMacro.Segment segment : macro.segments) {
+            if (cancelled) {
+                break;
+            }
+            if (!agent.submitBatch(segment.frames, segment.frames.length) || !agent.ping()) {
+                throw new IOException("Input agent is busy or stopped");
+            }
+            if (!agent.awaitPing(segment.durationMs + SEGMENT_SLACK_MS)) {
+                throw new IOException("Input agent did not finish " + macro.name);
+            }
+            if (segment.settleQuietMs > 0 && settle != null && !cancelled) {
+                long settleStart = System.nanoTime();
+                if (!settle.awaitSettled(segment.settleQuietMs, SETTLE_TIMEOUT_MS)) {
+                    unsettled++;
+                }
+                settling += System.nanoTime() - settleStart;
+            }
+        }
+        return new Result(macro.name, System.nanoTime() - start, settling, macro.getDurationMs(), cancelled, unsettled);
+    }
+
+    /** Runs {@link #play} on the executor; the listener is called on its thread. */
+    public void playAsync(Executor executor, CompiledMacro macro, Listener listener) {
+        executor.execute(() -> {
+            try {
+                listener.onPlaybackComplete(play(macro));
+            } catch (IOException e) {
+                listener.onPlaybackFailed(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+    }
+}
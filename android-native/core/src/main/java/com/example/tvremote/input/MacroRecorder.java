@@ -0,0 +1,84 @@
+package com.example.tvremote.input;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the events the user sends while recording, timed from {@link #start}. The
+ * nanoTime overloads exist so tests can record a macro with exact timing.
+ */
+public final class MacroRecorder {
+    private final List<Macro.Step> steps = new ArrayList<>();
+    private long startNanos;
+    private boolean recording;
+
+    public synchronized boolean isRecording() {
+        return recording;
+    }
+
+    public void start() {
+        start(System.nanoTime());
+    }
+
+    public synchronized void start(long nowNanos) {
+        steps.clear();
+        startNanos = nowNanos;
+        recording = true;
+    }
+
+    public void key(int keyCode) {
+        key(keyCode, System.nanoTime());
+    }
+
+    public synchronized void key(int keyCode, long nowNanos) {
+        if (recording) {
+            steps.add(Macro.Step.key(at(nowNanos), keyCode));
+        }
+    }
+
+    public void tap(int x, int y) {
+        tap(x, y, System.nanoTime());
+    }
+
+    public synchronized void tap(int x, int y, long nowNanos) {
+        if (recording) {
+            steps.add(Macro.Step.tap(at(nowNanos), x, y));
+        }
+    }
+
+    // Called when the swipe starts; the recorder does not see its individual moves
+    public void swipe(int x, int y, int toX, int toY, int durationMs) {
+        swipe(x, y, toX, toY, durationMs, System.nanoTime());
+    }
+
+    public synchronized void swipe(int x, int y, int toX, int toY, int durationMs, long nowNanos) {
+        if (recording) {
+            steps.add(Macro.Step.swipe(at(nowNanos), x, y, toX, toY, durationMs));
+        }
+    }
+
+    // Playback waits here until the screen has not changed for quietMs
+    public void checkpoint(int quietMs) {
+        checkpoint(quietMs, System.nanoTime());
+    }
+
+    public synchronized void checkpoint(int quietMs, long nowNanos) {
+        if (recording) {
+            steps.add(Macro.Step.settle(at(nowNanos), quietMs));
+        }
+    }
+
+    public synchronized Macro stop(String name) {
+        recording = false;
+        Macro macro = new Macro(name, steps);
+        steps.clear();
+        return macro;
+    }
+
+    private int at(long nowNanos) {
+        int ms = (int) ((nowNanos - startNanos) / 1000000L);
+        // Events arrive from more than one thread; keep the steps in order
+        int previous = steps.isEmpty() ? 0 : steps.get(steps.size() - 1).atMs;
+        return Math.max(ms, previous);
+    }
+}
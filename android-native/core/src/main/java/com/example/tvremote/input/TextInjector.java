@@ -0,0 +1,271 @@
+package com.example.tvremote.input;
+
+/**
+ * Mirrors a phone-side text field into the focused field on the TV. {@link #sync} compares the
+ * field with what the TV has already received and sends only the difference: backspaces for
+ * the part that no longer matches, then the new text. Text goes out as a few large commands
+ * on the input shell rather than one process per keystroke:
+ * <ul>
+ *   <li>printable ASCII as `input text '...'`, single-quoted so spaces and shell
+ *       metacharacters arrive as typed;</li>
+ *   <li>newline and tab as ENTER and TAB key events;</li>
+ *   <li>anything else through the ADB keyboard IME (`am broadcast -a ADB_INPUT_CHARS`), since
+ *       `input text` can only type what the device's key character map has keys for. The TV
+ *       must have that IME selected for non-ASCII text to arrive.</li>
+ * </ul>
+ * If the sink refuses a command, the text up to it counts as sent and the next {@link #sync}
+ * sends the rest. While the last `input text` chunk is still waiting in the queue, edits after
+ * its start rewrite that chunk instead of adding a command, so a word typed faster than the TV
+ * runs commands costs one process rather than one per keystroke.
+ */
+public class TextInjector {
+    public interface Sink {
+        boolean submitKey(int keyCode);
+
+        boolean submitCommand(String command);
+
+        // Like submitCommand, but the command can be rewritten until it is written; null if refused
+        Pending submitPending(String command);
+    }
+
+    public interface Pending {
+        // Swaps in a new command if this one is still the last queued and not written yet
+        boolean replace(String command);
+    }
+
+    // Same values as KeyEvent
+    public static final int KEYCODE_TAB = 61;
+    public static final int KEYCODE_ENTER = 66;
+    public static final int KEYCODE_DEL = 67;
+
+    /*
+     * Every command starts a process on the TV (a few hundred ms), then injects each character
+     * with a synchronous round trip. Longer chunks spread the start-up over more characters, but
+     * one chunk has to finish well inside the pipeline's ack timeout and should not hold up keys
+     * queued behind it for long. Escaped, a chunk stays far below the 4095-byte PTY line limit.
+     */
+    static final int MAX_CHUNK_CHARS = 256;
+    static final String UNICODE_COMMAND = "am broadcast -a ADB_INPUT_CHARS --eia chars ";
+
+    private final Sink sink;
+    private final StringBuilder command = new StringBuilder(64);
+    private String sent = "";
+    // The last chunk of `sent`, from pendingStart, while it may still be waiting in the queue
+    private Pending pending;
+    private int pendingStart;
+    private long typedChars;
+    private long deletedChars;
+    private long commands;
+
+    public TextInjector(Sink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Brings the TV field in line with {@code text}. Returns false if the input queue was full;
+     * whatever did not fit goes out with the next call.
+     */
+    public synchronized boolean sync(CharSequence text) {
+        String target = text.toString();
+        int common = 0;
+        int limit = Math.min(sent.length(), target.length());
+        while (common < limit && sent.charAt(common) == target.charAt(common)) {
+            common++;
+        }
+        // Never split a surrogate pair between the kept and the retyped part
+        if (common > 0 && Character.isHighSurrogate(target.charAt(common - 1))) {
+            common--;
+        }
+        int from = rewritePending(target, common);
+        if (from < 0) {
+            if (common < sent.length() && !delete(sent.codePointCount(common, sent.length()))) {
+                return false;
+            }
+            from = common;
+        }
+        return from == target.length() || type(target, from);
+    }
+
+    // Appends text after whatever was sent before, as if typed at the end of the field
+    public synchronized boolean append(CharSequence text) {
+        return sync(sent + text);
+    }
+
+    /**
+     * Backspaces {@code deletes} characters, then types {@code text}; for remote clients that
+     * diff their field themselves. Returns false if the input queue was full.
+     */
+    public synchronized boolean edit(int deletes, CharSequence text) {
+        if (deletes > 0 && !delete(deletes)) {
+            return false;
+        }
+        return text.length() == 0 || type(sent + text, sent.length());
+    }
+
+    // A key in order with the text, e.g. ENTER to submit a search
+    public synchronized boolean pressKey(int keyCode) {
+        pending = null;
+        return sink.submitKey(keyCode);
+    }
+
+    // Forgets the field contents, e.g. after submitting or when focus moves to another field
+    public synchronized void reset() {
+        sent = "";
+        pending = null;
+    }
+
+    public synchronized String getSent() {
+        return sent;
+    }
+
+    public synchronized long getTypedChars() {
+        return typedChars;
+    }
+
+    public synchronized long getDeletedChars() {
+        return deletedChars;
+    }
+
+    public synchronized long getCommands() {
+        return commands;
+    }
+
+    /*
+     * Retypes target from the start of the pending chunk in that same command, when the edit
+     * leaves the text before the chunk alone. Returns where typing goes on, or -1 if the chunk
+     * cannot take the edit.
+     */
+    private int rewritePending(String target, int common) {
+        if (pending == null || common < pendingStart) {
+            return -1;
+        }
+        int end = asciiChunk(target, pendingStart);
+        if (end == pendingStart || !pending.replace(command.toString())) {
+            pending = null;
+            return -1;
+        }
+        // Characters the edit took back never reach the TV, so there is nothing to delete
+        typedChars += Math.max(0, end - common);
+        sent = target.substring(0, end);
+        return end;
+    }
+
+    // Backspaces from the end of `sent`, shortening it as each batch is accepted
+    private boolean delete(int count) {
+        while (count > 0) {
+            int batch = Math.min(count, MAX_CHUNK_CHARS);
+            command.setLength(0);
+            command.append("input keyevent");
+            for (int i = 0; i < batch; i++) {
+                command.append(' ').append(KEYCODE_DEL);
+            }
+            if (!submit(command.toString())) {
+                return false;
+            }
+            count -= batch;
+            deletedChars += batch;
+            // edit() may delete more than this field ever sent
+            int keep = Math.max(0, sent.codePointCount(0, sent.length()) - batch);
+            sent = sent.substring(0, sent.offsetByCodePoints(0, keep));
+        }
+        return true;
+    }
+
+    // Sends text.substring(from), advancing `sent` as each chunk is accepted
+    private boolean type(String text, int from) {
+        int i = from;
+        while (i < text.length()) {
+            int c = text.codePointAt(i);
+            int end;
+            boolean ok;
+            Pending chunk = null;
+            if (c == '\n' || c == '\t') {
+                end = i + 1;
+                ok = sink.submitKey(c == '\t' ? KEYCODE_TAB : KEYCODE_ENTER);
+                if (ok) {
+                    commands++;
+                }
+            } else if (isPrintableAscii(c)) {
+                end = asciiChunk(text, i);
+                chunk = sink.submitPending(command.toString());
+                ok = chunk != null;
+                if (ok) {
+                    commands++;
+                }
+            } else if (Character.isISOControl(c)) {
+                // Nothing a text field would show; skip it
+                end = i + 1;
+                ok = true;
+            } else {
+                end = unicodeChunk(text, i);
+                ok = submit(command.toString());
+            }
+            if (!ok) {
+                pending = null;
+                return false;
+            }
+            pending = chunk;
+            pendingStart = i;
+            typedChars += text.codePointCount(i, end);
+            sent = text.substring(0, end);
+            i = end;
+        }
+        return true;
+    }
+
+    // Builds one `input text` command in `command`; returns where the chunk ends
+    private int asciiChunk(String text, int start) {
+        command.setLength(0);
+        command.append("input text '");
+        int i = start;
+        while (i < text.length() && i - start < MAX_CHUNK_CHARS && isPrintableAscii(text.charAt(i))) {
+            char c = text.charAt(i++);
+            if (c == ' ') {
+                // `input text` turns %s into a space; older versions drop bare spaces
+                command.append("%s");
+            } else if (c == '\'') {
+                command.append("'\\''");
+            } else {
+                command.append(c);
+                // There is no escape for a literal "%s", so the 's' starts the next chunk
+                if (c == '%' && i < text.length() && text.charAt(i) == 's') {
+                    break;
+                }
+            }
+        }
+        command.append('\'');
+        return i;
+    }
+
+    private int unicodeChunk(String text, int start) {
+        command.setLength(0);
+        command.append(UNICODE_COMMAND);
+        int i = start;
+        int count = 0;
+        while (i < text.length() && count < MAX_CHUNK_CHARS) {
+            int c = text.codePointAt(i);
+            if (isPrintableAscii(c) || Character.isISOControl(c)) {
+                break;
+            }
+            if (count++ > 0) {
+                command.append(',');
+            }
+            command.append(c);
+            i += Character.charCount(c);
+        }
+        return i;
+    }
+
+    private boolean submit(String line) {
+        pending = null;
+        if (!sink.submitCommand(line)) {
+            return false;
+        }
+        commands++;
+        return true;
+    }
+
+    private static boolean isPrintableAscii(int c) {
+        return c >= 0x20 && c < 0x7f;
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.tvremote.input;
+
+import com.example.tvremote.screen.DisplayGeometry;
+
+/**
+ * Maps view pixels on the phone to display pixels on the TV. The scale and offset are worked
+ * out when the view or the display geometry changes, so mapping a touch is a multiply and an
+ * add per axis with nothing allocated or looked up. Results are clamped to the display.
+ */
+public final class TouchMapping {
+    private float scaleX = 1;
+    private float scaleY = 1;
+    private float offsetX;
+    private float offsetY;
+    private int maxX = 0xffff;
+    private int maxY = 0xffff;
+
+    // For a view showing the whole display, such as the mirror
+    public void setFullDisplay(int viewWidth, int viewHeight, DisplayGeometry display) {
+        set(viewWidth, viewHeight, 0, 0, display.width, display.height, display.width, display.height);
+    }
+
+    // For a view standing in for the part of the screen the viewer can see, such as the mouse pad
+    public void setVisibleArea(int viewWidth, int viewHeight, DisplayGeometry display) {
+        set(viewWidth, viewHeight, display.overscanLeft, display.overscanTop,
+                display.visibleWidth(), display.visibleHeight(), display.width, display.height);
+    }
+
+    /** The whole view covers the area (left, top, width, height) of a displayWidth x displayHeight display. */
+    public void set(int viewWidth, int viewHeight, int left, int top, int width, int height,
+                    int displayWidth, int displayHeight) {
+        if (viewWidth <= 0 || viewHeight <= 0 || width <= 0 || height <= 0) {
+            return;
+        }
+        scaleX = (float) width / viewWidth;
+        scaleY = (float) height / viewHeight;
+        offsetX = left;
+        offsetY = top;
+        maxX = displayWidth - 1;
+        maxY = displayHeight - 1;
+    }
+
+    public int mapX(float viewX) {
+        int x = Math.round(viewX * scaleX + offsetX);
+        return x < 0 ? 0 : (x > maxX ? maxX : x);
+    }
+
+    public int mapY(float viewY) {
+        int y = Math.round(viewY * scaleY + offsetY);
+        return y < 0 ? 0 : (y > maxY ? maxY : y);
+    }
+}
@@ -0,0 +1,20 @@
+package com.example.tvremote.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/** A count that only goes up; safe to bump from any thread without locking. */
+public final class Counter {
+    private final AtomicLong value = new AtomicLong();
+
+    public void increment() {
+        value.incrementAndGet();
+    }
+
+    public void add(long amount) {
+        value.addAndGet(amount);
+    }
+
+    public long get() {
+        return value.get();
+    }
+}
@@ -0,0 +1,22 @@
+package com.example.tvremote.metrics;
+
+/** What is measured for each device. */
+public final class DeviceMetrics {
+    public final String serial;
+    // Key press handed to the pipeline until the device acknowledged it
+    public final LatencyHistogram keyAck = new LatencyHistogram();
+    // Connections opened again after an earlier one to the device closed
+    public final Counter reconnects = new Counter();
+    // Everything read from the device's ADB connection, headers included
+    public final Meter bytesReceived = new Meter();
+    // Input journaled for the device and not yet acknowledged
+    public final Gauge journalDepth = new Gauge();
+    // Input sent again after a reconnect, from the first submit until the device acknowledged it
+    public final LatencyHistogram replayLag = new LatencyHistogram();
+    // Input dropped instead of replayed: too old, or a repeat of the press before it
+    public final Counter staleInput = new Counter();
+
+    DeviceMetrics(String serial) {
+        this.serial = serial;
+    }
+}
@@ -0,0 +1,16 @@
+package com.example.tvremote.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/** A level that goes up and down, such as a queue depth; the last value set wins. */
+public final class Gauge {
+    private final AtomicLong value = new AtomicLong();
+
+    public void set(long value) {
+        this.value.set(value);
+    }
+
+    public long get() {
+        return value.get();
+    }
+}
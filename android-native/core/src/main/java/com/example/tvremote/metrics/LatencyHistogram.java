@@ -0,0 +1,124 @@
+package com.example.tvremote.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency distribution in the style of HdrHistogram: values (in microseconds) fall into
+ * buckets that are linear below 32 us and then split every power of two into 16 parts, so any
+ * recorded value is known to within about 6%. Recording is two atomic adds and needs no lock;
+ * a snapshot taken while others record may be off by the values in flight.
+ */
+public final class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    // About 35 minutes; anything longer is recorded as this
+    private static final long MAX_MICROS = (1L << 31) - 1;
+    private static final int BUCKETS = index(MAX_MICROS) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    public void record(long nanos) {
+        long micros = Math.min(Math.max(nanos / 1000, 0), MAX_MICROS);
+        counts.incrementAndGet(index(micros));
+        count.incrementAndGet();
+        totalMicros.addAndGet(micros);
+        long max = maxMicros.get();
+        while (micros > max && !maxMicros.compareAndSet(max, micros)) {
+            max = maxMicros.get();
+        }
+    }
+
+    static int index(long micros) {
+        if (micros < 2 * SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(micros) - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((micros >> shift) - SUB_BUCKETS);
+    }
+
+    // The middle of a bucket, which is what a value in it is reported as
+    static long value(int index) {
+        if (index < 2 * SUB_BUCKETS) {
+            return index;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long low = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return low + (1L << shift) / 2;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            n += copy[i];
+        }
+        long max = maxMicros.get();
+        long mean = n > 0 ? totalMicros.get() / n : 0;
+        return new Snapshot(n, mean, percentile(copy, n, 50, max), percentile(copy, n, 90, max),
+                percentile(copy, n, 99, max), max);
+    }
+
+    private static long percentile(long[] buckets, long n, double percent, long max) {
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(n * percent / 100);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                // The bucket's middle can lie above the largest value actually seen
+                return Math.min(value(i), max);
+            }
+        }
+        return max;
+    }
+
+    /** A consistent-enough copy for display and export; all times in microseconds. */
+    public static final class Snapshot {
+        public final long count;
+        public final long meanMicros;
+        public final long p50Micros;
+        public final long p90Micros;
+        public final long p99Micros;
+        public final long maxMicros;
+
+        Snapshot(long count, long meanMicros, long p50Micros, long p90Micros, long p99Micros, long maxMicros) {
+            this.count = count;
+            this.meanMicros = meanMicros;
+            this.p50Micros = p50Micros;
+            this.p90Micros = p90Micros;
+            this.p99Micros = p99Micros;
+            this.maxMicros = maxMicros;
+        }
+
+        // "p50 12.0 ms, p99 40.2 ms, max 51.0 ms (120)"
+        public String summary() {
+            if (count == 0) {
+                return "no samples";
+            }
+            return String.format(Locale.US, "p50 %.1f ms, p99 %.1f ms, max %.1f ms (%d)",
+                    p50Micros / 1e3, p99Micros / 1e3, maxMicros / 1e3, count);
+        }
+
+        void appendJson(StringBuilder out) {
+            out.append("{\"count\":").append(count)
+                    .append(",\"mean_us\":").append(meanMicros)
+                    .append(",\"p50_us\":").append(p50Micros)
+                    .append(",\"p90_us\":").append(p90Micros)
+                    .append(",\"p99_us\":").append(p99Micros)
+                    .append(",\"max_us\":").append(maxMicros)
+                    .append('}');
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.tvremote.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A running total with its rate over the last few whole seconds. Amounts go into a small ring
+ * of one-second slots; a slot is cleared by the first writer of a new second. Two writers
+ * racing on that second can lose a few bytes from the rate, never from the total.
+ */
+public final class Meter {
+    private static final int SLOTS = 8;
+    // Whole seconds the rate is averaged over; the current second is still filling
+    private static final int WINDOW = 4;
+
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLongArray slotSeconds = new AtomicLongArray(SLOTS);
+    private final AtomicLongArray slotAmounts = new AtomicLongArray(SLOTS);
+
+    public Meter() {
+        for (int i = 0; i < SLOTS; i++) {
+            slotSeconds.set(i, -1);
+        }
+    }
+
+    public void add(long amount, long nowNanos) {
+        total.addAndGet(amount);
+        long second = nowNanos / 1000000000L;
+        int slot = (int) (second & (SLOTS - 1));
+        long stamp = slotSeconds.get(slot);
+        if (stamp != second && slotSeconds.compareAndSet(slot, stamp, second)) {
+            slotAmounts.set(slot, 0);
+        }
+        slotAmounts.addAndGet(slot, amount);
+    }
+
+    public long getTotal() {
+        return total.get();
+    }
+
+    // Average per second over the last WINDOW whole seconds
+    public long getRate(long nowNanos) {
+        long second = nowNanos / 1000000000L;
+        long sum = 0;
+        for (long s = second - WINDOW; s < second; s++) {
+            int slot = (int) (s & (SLOTS - 1));
+            if (slotSeconds.get(slot) == s) {
+                sum += slotAmounts.get(slot);
+            }
+        }
+        return sum / WINDOW;
+    }
+}
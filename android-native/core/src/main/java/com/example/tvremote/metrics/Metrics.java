@@ -0,0 +1,116 @@
+package com.example.tvremote.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The app's measurements. Everything here is recorded without locks and costs a few atomic
+ * operations, so it stays on in release builds. {@link #summary} is what the diagnostics tab
+ * shows and {@link #toJson} what it exports.
+ */
+public final class Metrics {
+    public final LatencyHistogram keyAck = new LatencyHistogram();
+    // Access unit or raw frame received until it was on screen
+    public final LatencyHistogram captureToDisplay = new LatencyHistogram();
+    public final LatencyHistogram scan = new LatencyHistogram();
+    // Tab tapped until the tab's first frame was drawn
+    public final LatencyHistogram tabSwitch = new LatencyHistogram();
+
+    private final ConcurrentHashMap<String, DeviceMetrics> devices = new ConcurrentHashMap<>();
+    private final long startNanos = System.nanoTime();
+
+    public DeviceMetrics device(String serial) {
+        DeviceMetrics metrics = devices.get(serial);
+        if (metrics == null) {
+            DeviceMetrics created = new DeviceMetrics(serial);
+            metrics = devices.putIfAbsent(serial, created);
+            if (metrics == null) {
+                metrics = created;
+            }
+        }
+        return metrics;
+    }
+
+    // Sorted by serial
+    public List<DeviceMetrics> devices() {
+        List<DeviceMetrics> result = new ArrayList<>(devices.values());
+        Collections.sort(result, (a, b) -> a.serial.compareTo(b.serial));
+        return result;
+    }
+
+    public String summary(long nowNanos) {
+        StringBuilder out = new StringBuilder();
+        out.append("Key to ack: ").append(keyAck.snapshot().summary()).append('\n');
+        out.append("Capture to display: ").append(captureToDisplay.snapshot().summary()).append('\n');
+        out.append("Scan: ").append(scan.snapshot().summary()).append('\n');
+        out.append("Tab switch: ").append(tabSwitch.snapshot().summary()).append('\n');
+        for (DeviceMetrics device : devices()) {
+            out.append('\n').append(device.serial).append('\n');
+            out.append(String.format(Locale.US, "  %.1f KB/s, %d KB received, %d reconnects",
+                    device.bytesReceived.getRate(nowNanos) / 1024.0, device.bytesReceived.getTotal() / 1024,
+                    device.reconnects.get())).append('\n');
+            out.append("  key to ack: ").append(device.keyAck.snapshot().summary()).append('\n');
+            out.append(String.format(Locale.US, "  %d journaled, %d stale dropped, replay lag: ",
+                    device.journalDepth.get(), device.staleInput.get()))
+                    .append(device.replayLag.snapshot().summary()).append('\n');
+        }
+        return out.toString();
+    }
+
+    /**
+     * A flat document for the fleet dashboards: histograms as count, mean and percentiles in
+     * microseconds, counters as totals, and byte rates over the last few seconds.
+     */
+    public String toJson(long nowMillis, long nowNanos) {
+        StringBuilder out = new StringBuilder(256);
+        out.append("{\"timestamp_ms\":").append(nowMillis)
+                .append(",\"uptime_ms\":").append((nowNanos - startNanos) / 1000000L)
+                .append(",\"key_ack\":");
+        keyAck.snapshot().appendJson(out);
+        out.append(",\"capture_to_display\":");
+        captureToDisplay.snapshot().appendJson(out);
+        out.append(",\"scan\":");
+        scan.snapshot().appendJson(out);
+        out.append(",\"tab_switch\":");
+        tabSwitch.snapshot().appendJson(out);
+        out.append(",\"devices\":[");
+        boolean first = true;
+        for (DeviceMetrics device : devices()) {
+            if (!first) {
+                out.append(',');
+            }
+            first = false;
+            out.append("{\"serial\":");
+            appendString(out, device.serial);
+            out.append(",\"key_ack\":");
+            device.keyAck.snapshot().appendJson(out);
+            out.append(",\"reconnects\":").append(device.reconnects.get())
+                    .append(",\"bytes_received\":").append(device.bytesReceived.getTotal())
+                    .append(",\"bytes_per_second\":").append(device.bytesReceived.getRate(nowNanos))
+                    .append(",\"journal_depth\":").append(device.journalDepth.get())
+                    .append(",\"stale_input\":").append(device.staleInput.get())
+                    .append(",\"replay_lag\":");
+            device.replayLag.snapshot().appendJson(out);
+            out.append('}');
+        }
+        return out.append("]}").toString();
+    }
+
+    private static void appendString(StringBuilder out, String value) {
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\').append(c);
+            } else if (c < 0x20) {
+                out.append(String.format(Locale.US, "\\u%04x", (int) c));
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.tvremote.screen;
+
+/**
+ * Groups NAL units into access units (one decoded picture each), the granularity MediaCodec
+ * wants on its input. SPS/PPS are handed out separately as codec config. Units keep their
+ * start codes and share one reused buffer, so listeners must consume them synchronously.
+ */
+public final class AccessUnitAssembler implements NalUnitParser.Listener {
+    public static final int NAL_SLICE = 1;
+    public static final int NAL_IDR = 5;
+    public static final int NAL_SEI = 6;
+    public static final int NAL_SPS = 7;
+    public static final int NAL_PPS = 8;
+    public static final int NAL_AUD = 9;
+
+    private static final byte[] START_CODE = {0, 0, 0, 1};
+
+    public static final class AccessUnit {
+        public byte[] data = new byte[256 * 1024];
+        public int size;
+        public boolean keyFrame;
+        public boolean config;
+        // When the first byte of the unit arrived; used for latency accounting
+        public long receivedAtNanos;
+        public int width;
+        public int height;
+    }
+
+    public interface Listener {
+        void onAccessUnit(AccessUnit unit);
+    }
+
+    private final Listener listener;
+    private final AccessUnit frame = new AccessUnit();
+    private final AccessUnit config = new AccessUnit();
+    private final SpsParser spsParser = new SpsParser();
+    private boolean frameHasSlice;
+    private long accessUnits;
+
+    public AccessUnitAssembler(Listener listener) {
+        this.listener = listener;
+        config.config = true;
+    }
+
+    public long getAccessUnitCount() {
+        return accessUnits;
+    }
+
+    @Override
+    public void onNalUnit(byte[] data, int offset, int length) {
+        int type = data[offset] & 0x1f;
+        switch (type) {
+            case NAL_SPS:
+                flushFrame();
+                if (spsParser.parse(data, offset, length)) {
+                    config.width = spsParser.width;
+                    config.height = spsParser.height;
+                }
+                appendTo(config, data, offset, length);
+                return;
+            case NAL_PPS:
+                flushFrame();
+                appendTo(config, data, offset, length);
+                return;
+            case NAL_AUD:
+            case NAL_SEI:
+                flushFrame();
+                flushConfig();
+                appendTo(frame, data, offset, length);
+                return;
+            case NAL_SLICE:
+            case NAL_IDR:
+                flushConfig();
+                // first_mb_in_slice is ue(v) right after the header; a leading 1 bit means 0
+                boolean firstSlice = length > 1 && (data[offset + 1] & 0x80) != 0;
+                if (frameHasSlice && firstSlice) {
+                    flushFrame();
+                }
+                appendTo(frame, data, offset, length);
+                frameHasSlice = true;
+                frame.keyFrame |= type == NAL_IDR;
+                return;
+            default:
+                appendTo(frame, data, offset, length);
+        }
+    }
+
+    // Call when the stream ends so the last picture is not held back
+    public void flush() {
+        flushConfig();
+        flushFrame();
+    }
+
+    // Drops the picture and config in progress without handing them out
+    public void reset() {
+        frame.size = 0;
+        frame.keyFrame = false;
+        frameHasSlice = false;
+        config.size = 0;
+    }
+
+    private void flushFrame() {
+        if (frameHasSlice) {
+            accessUnits++;
+            listener.onAccessUnit(frame);
+        }
+        frame.size = 0;
+        frame.keyFrame = false;
+        frameHasSlice = false;
+    }
+
+    private void flushConfig() {
+        if (config.size > 0) {
+            listener.onAccessUnit(config);
+            config.size = 0;
+        }
+    }
+
+    private static void appendTo(AccessUnit unit, byte[] data, int offset, int length) {
+        int needed = unit.size + START_CODE.length + length;
+        if (needed > unit.data.length) {
+            byte[] grown = new byte[Math.max(unit.data.length * 2, needed)];
+            System.arraycopy(unit.data, 0, grown, 0, unit.size);
+            unit.data = grown;
+        }
+        if (unit.size == 0) {
+            unit.receivedAtNanos = System.nanoTime();
+        }
+        System.arraycopy(START_CODE, 0, unit.data, unit.size, START_CODE.length);
+        System.arraycopy(data, offset, unit.data, unit.size + START_CODE.length, length);
+        unit.size = needed;
+    }
+}
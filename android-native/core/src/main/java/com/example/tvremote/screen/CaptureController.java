@@ -0,0 +1,156 @@
+package com.example.tvremote.screen;
+
+import java.util.Locale;
+
+/**
+ * Congestion control for screen mirroring. Each finished frame reports how long it took to
+ * transfer and decode; the controller paces captures at the smoothed frame cost (never faster
+ * than the FPS cap), drops the capture slots a slow frame overran instead of queueing them,
+ * and steps resolution/quality down when frames stay over the latency target and back up
+ * once the cost predicted for the next step up fits the target. Time is passed in, so the loop can be driven by a simulated
+ * link in tests.
+ */
+public final class CaptureController {
+    public interface Listener {
+        // Called on the capture thread when the resolution/quality step changes
+        void onLevelChanged(float scale, float quality);
+    }
+
+    public static final long DEFAULT_TARGET_LATENCY_MS = 150;
+    public static final int DEFAULT_MAX_FPS = 30;
+
+    private static final float[] SCALES = {1f, 0.75f, 0.5f, 0.375f, 0.25f};
+    private static final float[] QUALITIES = {1f, 0.75f, 0.5f, 0.35f, 0.25f};
+    private static final float SMOOTHING = 0.25f;
+    // Consecutive frames over target before stepping down, or fitting one step up before stepping up
+    private static final int STEP_DOWN_FRAMES = 3;
+    private static final int STEP_UP_FRAMES = 30;
+    // Pushed frames this far behind are not worth rendering
+    private static final int STALE_FACTOR = 2;
+
+    private final MirrorStats stats;
+    private final long targetLatencyNanos;
+    private final long minIntervalNanos;
+    private final int maxLevel;
+    private Listener listener;
+
+    private long frameNanos;
+    private long intervalNanos;
+    private long nextCaptureNanos;
+    private int level;
+    private int overTarget;
+    private int underTarget;
+    private long levelChanges;
+
+    // adaptResolution is false where the source cannot scale (screencap), leaving only pacing
+    public CaptureController(MirrorStats stats, long targetLatencyMs, int maxFps, boolean adaptResolution) {
+        this.stats = stats;
+        this.targetLatencyNanos = targetLatencyMs * 1000000L;
+        this.minIntervalNanos = 1000000000L / maxFps;
+        this.maxLevel = adaptResolution ? SCALES.length - 1 : 0;
+        this.intervalNanos = minIntervalNanos;
+    }
+
+    public synchronized void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    // Polling mode: how long to wait before starting the next capture
+    public synchronized long delayNanos(long nowNanos) {
+        return Math.max(0, nextCaptureNanos - nowNanos);
+    }
+
+    // Polling mode: a capture started at startNanos has been transferred and drawn
+    public synchronized void onFrame(long startNanos, long transferNanos, long decodeNanos, long nowNanos) {
+        long elapsed = nowNanos - startNanos;
+        // Whole slots that went by while this frame was in flight are skipped, not caught up on later
+        for (long missed = elapsed / intervalNanos - 1; missed > 0; missed--) {
+            stats.onFrameDropped();
+        }
+        update(transferNanos + decodeNanos);
+        nextCaptureNanos = Math.max(nowNanos, startNanos + intervalNanos);
+    }
+
+    // Push mode (H.264): returns false if the decoded frame is too stale to show
+    public synchronized boolean onFrameLatency(long latencyNanos) {
+        update(latencyNanos);
+        if (latencyNanos > targetLatencyNanos * STALE_FACTOR) {
+            stats.onFrameDropped();
+            return false;
+        }
+        return true;
+    }
+
+    private void update(long sampleNanos) {
+        frameNanos = frameNanos == 0 ? sampleNanos : (long) (frameNanos + SMOOTHING * (sampleNanos - frameNanos));
+        intervalNanos = Math.max(minIntervalNanos, frameNanos);
+        if (sampleNanos > targetLatencyNanos) {
+            overTarget++;
+            underTarget = 0;
+        } else if (level > 0 && sampleNanos * cost(level - 1) / cost(level) < targetLatencyNanos) {
+            // Checking the predicted cost keeps a link that only fits this step from oscillating
+            underTarget++;
+            overTarget = 0;
+        } else {
+            overTarget = 0;
+            underTarget = 0;
+        }
+        if (overTarget >= STEP_DOWN_FRAMES && level < maxLevel) {
+            setLevel(level + 1);
+        } else if (underTarget >= STEP_UP_FRAMES && level > 0) {
+            setLevel(level - 1);
+        }
+    }
+
+    // Relative bytes per frame: pixels times bitrate share
+    private static float cost(int level) {
+        return SCALES[level] * SCALES[level] * QUALITIES[level];
+    }
+
+    private void setLevel(int level) {
+        this.level = level;
+        overTarget = 0;
+        underTarget = 0;
+        // Cost at the new level is unknown; start the estimate over
+        frameNanos = 0;
+        levelChanges++;
+        if (listener != null) {
+            listener.onLevelChanged(SCALES[level], QUALITIES[level]);
+        }
+    }
+
+    public synchronized int getLevel() {
+        return level;
+    }
+
+    public synchronized float getScale() {
+        return SCALES[level];
+    }
+
+    public synchronized float getQuality() {
+        return QUALITIES[level];
+    }
+
+    public synchronized long getLevelChanges() {
+        return levelChanges;
+    }
+
+    public synchronized long getFrameNanos() {
+        return frameNanos;
+    }
+
+    public synchronized long getIntervalNanos() {
+        return intervalNanos;
+    }
+
+    public synchronized float getTargetFps() {
+        return 1e9f / intervalNanos;
+    }
+
+    // Achieved FPS, drops and latency come from the stats window the UI rolls every second
+    public synchronized String summary() {
+        return String.format(Locale.US, "%.0f/%.0f FPS  %d dropped  %d%%  %d ms",
+                stats.getFps(), getTargetFps(), stats.getDroppedFrames(),
+                Math.round(SCALES[level] * 100), stats.getLatencyMs());
+    }
+}
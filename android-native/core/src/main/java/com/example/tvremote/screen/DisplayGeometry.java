@@ -0,0 +1,134 @@
+package com.example.tvremote.screen;
+
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Size, rotation and overscan of a TV's built-in display, as parsed from {@link #QUERY}.
+ * Width and height are the logical size in the current rotation, which is the space injected
+ * touches are in. Overscan is the border the panel crops off (older Android TV builds only).
+ */
+public final class DisplayGeometry {
+    // One round trip; dumpsys is preferred, `wm size` is the fallback when it says nothing useful
+    public static final String QUERY = "wm size; dumpsys display";
+
+    // Until the real geometry is known
+    public static final DisplayGeometry DEFAULT = new DisplayGeometry(1920, 1080, 0, 0, 0, 0, 0);
+
+    private static final Pattern REAL = Pattern.compile("real (\\d+) x (\\d+)");
+    private static final Pattern ROTATION = Pattern.compile("rotation (\\d)");
+    private static final Pattern OVERSCAN = Pattern.compile("overscan \\((\\d+),(\\d+),(\\d+),(\\d+)\\)");
+    private static final Pattern WM_SIZE = Pattern.compile("(Physical|Override) size: (\\d+)x(\\d+)");
+
+    public final int width;
+    public final int height;
+    // Surface.ROTATION_0 .. ROTATION_270
+    public final int rotation;
+    public final int overscanLeft;
+    public final int overscanTop;
+    public final int overscanRight;
+    public final int overscanBottom;
+
+    public DisplayGeometry(int width, int height, int rotation,
+                           int overscanLeft, int overscanTop, int overscanRight, int overscanBottom) {
+        this.width = width;
+        this.height = height;
+        this.rotation = rotation;
+        this.overscanLeft = overscanLeft;
+        this.overscanTop = overscanTop;
+        this.overscanRight = overscanRight;
+        this.overscanBottom = overscanBottom;
+    }
+
+    /** Parses the output of {@link #QUERY}; returns null if it holds no display size. */
+    public static DisplayGeometry parse(String output) {
+        String info = displayInfo(output);
+        if (info != null) {
+            Matcher real = REAL.matcher(info);
+            if (real.find()) {
+                Matcher rotation = ROTATION.matcher(info);
+                Matcher overscan = OVERSCAN.matcher(info);
+                boolean insets = overscan.find();
+                return new DisplayGeometry(Integer.parseInt(real.group(1)), Integer.parseInt(real.group(2)),
+                        rotation.find() ? Integer.parseInt(rotation.group(1)) & 3 : 0,
+                        insets ? Integer.parseInt(overscan.group(1)) : 0,
+                        insets ? Integer.parseInt(overscan.group(2)) : 0,
+                        insets ? Integer.parseInt(overscan.group(3)) : 0,
+                        insets ? Integer.parseInt(overscan.group(4)) : 0);
+            }
+        }
+        // "Physical size: 1920x1080", then "Override size: ..." if `wm size` was used to change it
+        Matcher size = WM_SIZE.matcher(output);
+        DisplayGeometry result = null;
+        while (size.find()) {
+            result = new DisplayGeometry(Integer.parseInt(size.group(2)), Integer.parseInt(size.group(3)), 0, 0, 0, 0, 0);
+        }
+        return result;
+    }
+
+    // The WindowManager's view of display 0 (current rotation), else the first DisplayInfo
+    private static String displayInfo(String output) {
+        int start = output.indexOf("mOverrideDisplayInfo=DisplayInfo{");
+        if (start < 0) {
+            start = output.indexOf("DisplayInfo{");
+        }
+        if (start < 0) {
+            return null;
+        }
+        int end = output.indexOf('\n', start);
+        return output.substring(start, end < 0 ? output.length() : end);
+    }
+
+    public int visibleWidth() {
+        return width - overscanLeft - overscanRight;
+    }
+
+    public int visibleHeight() {
+        return height - overscanTop - overscanBottom;
+    }
+
+    /**
+     * Whether a mirrored frame still fits this geometry. The H.264 stream may be scaled down,
+     * so unless exact is set only the shape is compared; a rotation or a switch to a
+     * different aspect ratio shows up as a mismatch.
+     */
+    public boolean matchesFrame(int frameWidth, int frameHeight, boolean exact) {
+        if (exact) {
+            return frameWidth == width && frameHeight == height;
+        }
+        if (frameWidth <= 0 || frameHeight <= 0) {
+            return true;
+        }
+        // Encoders round sizes to multiples of 8 or 16
+        double ratio = (double) width / height;
+        double frameRatio = (double) frameWidth / frameHeight;
+        return Math.abs(ratio - frameRatio) <= ratio * 0.03;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof DisplayGeometry)) {
+            return false;
+        }
+        DisplayGeometry other = (DisplayGeometry) o;
+        return width == other.width && height == other.height && rotation == other.rotation
+                && overscanLeft == other.overscanLeft && overscanTop == other.overscanTop
+                && overscanRight == other.overscanRight && overscanBottom == other.overscanBottom;
+    }
+
+    @Override
+    public int hashCode() {
+        return (width * 31 + height) * 4 + rotation;
+    }
+
+    @Override
+    public String toString() {
+        String size = String.format(Locale.US, "%dx%d rot %d", width, height, rotation * 90);
+        if (overscanLeft + overscanTop + overscanRight + overscanBottom == 0) {
+            return size;
+        }
+        return size + String.format(Locale.US, " overscan %d,%d,%d,%d",
+                overscanLeft, overscanTop, overscanRight, overscanBottom);
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.tvremote.screen;
+
+import com.example.tvremote.adb.AdbSession;
+import com.example.tvremote.adb.AdbSessions;
+import com.example.tvremote.discovery.DeviceRegistry;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Knows each device's {@link DisplayGeometry}. It is queried once per device and kept in the
+ * {@link DeviceRegistry}, so later launches map touches correctly before any command has run.
+ * A mirrored frame that no longer fits the cached geometry (the TV was rotated or switched
+ * resolution) drops it and queries again.
+ */
+public class DisplayGeometryService {
+    public interface Listener {
+        // Called on the session thread
+        void onGeometry(String serial, DisplayGeometry geometry);
+    }
+
+    private final AdbSessions sessions;
+    private final DeviceRegistry registry;
+    // Listeners waiting for a query that is in flight, by serial
+    private final Map<String, List<Listener>> waiting = new HashMap<>();
+
+    public DisplayGeometryService(AdbSessions sessions, DeviceRegistry registry) {
+        this.sessions = sessions;
+        this.registry = registry;
+    }
+
+    /** The cached geometry, or null if it has not been queried yet. */
+    public DisplayGeometry get(String serial) {
+        return registry.getDisplayGeometry(serial);
+    }
+
+    /** Answers from the cache if it can, otherwise queries the device once for all callers. */
+    public void request(String serial, Listener listener) {
+        DisplayGeometry cached = registry.getDisplayGeometry(serial);
+        if (cached != null) {
+            listener.onGeometry(serial, cached);
+            return;
+        }
+        synchronized (waiting) {
+            List<Listener> listeners = waiting.get(serial);
+            if (listeners != null) {
+                listeners.add(listener);
+                return;
+            }
+            listeners = new ArrayList<>();
+            listeners.add(listener);
+            waiting.put(serial, listeners);
+        }
+        AdbSession session = sessions.get(serial);
+        session.shell(DisplayGeometry.QUERY, new AdbSession.Callback() {
+            @Override
+            public void onSuccess(String output, long latencyNanos) {
+                DisplayGeometry geometry = DisplayGeometry.parse(output);
+                if (geometry != null) {
+                    registry.setDisplayGeometry(serial, geometry);
+                }
+                finish(geometry);
+            }
+
+            @Override
+            public void onFailure(IOException error) {
+                finish(null);
+            }
+
+            private void finish(DisplayGeometry geometry) {
+                List<Listener> listeners;
+                synchronized (waiting) {
+                    listeners = waiting.remove(serial);
+                }
+                if (geometry == null) {
+                    // Keep mapping with whatever the callers had; the next request tries again
+                    return;
+                }
+                for (Listener l : listeners) {
+                    l.onGeometry(serial, geometry);
+                }
+            }
+        });
+    }
+
+    /**
+     * Checks a mirrored frame against the cached geometry. On a mismatch the cache is dropped
+     * and the device queried again; the listener hears the new geometry.
+     */
+    public void onFrameSize(String serial, int frameWidth, int frameHeight, boolean exact, Listener listener) {
+        DisplayGeometry cached = registry.getDisplayGeometry(serial);
+        if (cached != null && cached.matchesFrame(frameWidth, frameHeight, exact)) {
+            return;
+        }
+        registry.setDisplayGeometry(serial, null);
+        request(serial, listener);
+    }
+}
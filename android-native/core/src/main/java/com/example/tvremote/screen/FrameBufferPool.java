@@ -0,0 +1,64 @@
+package com.example.tvremote.screen;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Keeps a few direct ByteBuffers around for raw frames. A 1080p RGBA frame is 8 MB and direct
+ * memory is only given back when the GC gets to the owning object, so buffers are recycled
+ * across captures and across start/stop of the mirror instead of being reallocated.
+ */
+public final class FrameBufferPool {
+    private final int maxPooled;
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+    private int allocations;
+
+    public FrameBufferPool(int maxPooled) {
+        this.maxPooled = maxPooled;
+    }
+
+    // Returns a buffer with position 0 and limit == capacity, possibly larger than requested
+    public synchronized ByteBuffer acquire(int capacity) {
+        Iterator<ByteBuffer> it = free.iterator();
+        while (it.hasNext()) {
+            ByteBuffer buffer = it.next();
+            if (buffer.capacity() >= capacity) {
+                it.remove();
+                buffer.clear();
+                return buffer;
+            }
+        }
+        allocations++;
+        return ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public synchronized void release(ByteBuffer buffer) {
+        if (buffer == null || free.contains(buffer)) {
+            return;
+        }
+        if (free.size() >= maxPooled) {
+            // Keep the larger buffers; a resolution change usually goes up, not down
+            ByteBuffer smallest = buffer;
+            for (ByteBuffer pooled : free) {
+                if (pooled.capacity() < smallest.capacity()) {
+                    smallest = pooled;
+                }
+            }
+            if (smallest == buffer) {
+                return;
+            }
+            free.remove(smallest);
+        }
+        free.push(buffer);
+    }
+
+    public synchronized int getAllocationCount() {
+        return allocations;
+    }
+
+    public synchronized int getPooledCount() {
+        return free.size();
+    }
+}
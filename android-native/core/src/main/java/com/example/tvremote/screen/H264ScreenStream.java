@@ -0,0 +1,193 @@
+package com.example.tvremote.screen;
+
+import com.example.tvremote.adb.AdbStream;
+import com.example.tvremote.adb.ConnectionProvider;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streams the TV screen as raw H.264 from one long-running `screenrecord` process and hands
+ * complete access units to the listener. Uses the "exec:" service because a shell PTY would
+ * mangle binary output. screenrecord stops itself after three minutes, so the stream is
+ * restarted transparently when it ends.
+ */
+public class H264ScreenStream {
+    public interface Listener extends AccessUnitAssembler.Listener {
+        void onStreamError(IOException error, boolean fatal);
+    }
+
+    public static final int DEFAULT_BIT_RATE = 4000000;
+    private static final long RETRY_DELAY_MS = 1000;
+
+    private final ConnectionProvider provider;
+    private final Listener listener;
+    private final MirrorStats stats;
+    private final AccessUnitAssembler assembler;
+    private final NalUnitParser parser;
+
+    private volatile int bitRate = DEFAULT_BIT_RATE;
+    private volatile int width;
+    private volatile int height;
+    // Display size as reported by the first full-size stream; scaling is relative to it
+    private volatile int nativeWidth;
+    private volatile int nativeHeight;
+    private volatile boolean running;
+    // The current stream was closed on purpose, so whatever it cut off is not a picture
+    private volatile boolean restarted;
+    private volatile AdbStream stream;
+    private Thread thread;
+
+    public H264ScreenStream(ConnectionProvider provider, Listener listener, MirrorStats stats) {
+        this.provider = provider;
+        this.listener = listener;
+        this.stats = stats;
+        this.assembler = new AccessUnitAssembler(this::onAccessUnit);
+        this.parser = new NalUnitParser(assembler);
+    }
+
+    public void setBitRate(int bitRate) {
+        this.bitRate = bitRate;
+    }
+
+    // 0x0 keeps the display's native size
+    public void setSize(int width, int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Re-encodes at a fraction of the display size and of {@link #DEFAULT_BIT_RATE}, e.g. when
+     * {@link CaptureController} steps down. screenrecord cannot change settings on the fly, so
+     * the running process is replaced.
+     */
+    public void setQuality(float scale, float quality) {
+        bitRate = (int) (DEFAULT_BIT_RATE * quality);
+        if (scale >= 1f || nativeWidth == 0) {
+            setSize(0, 0);
+        } else {
+            // Encoders want dimensions in whole macroblocks
+            setSize(Math.max(16, (int) (nativeWidth * scale) & ~15), Math.max(16, (int) (nativeHeight * scale) & ~15));
+        }
+        restart();
+    }
+
+    private void restart() {
+        restarted = true;
+        AdbStream s = stream;
+        if (s != null) {
+            s.close();
+        }
+    }
+
+    private void onAccessUnit(AccessUnitAssembler.AccessUnit unit) {
+        if (unit.config && width == 0 && unit.width > 0) {
+            nativeWidth = unit.width;
+            nativeHeight = unit.height;
+        }
+        listener.onAccessUnit(unit);
+    }
+
+    public String command() {
+        StringBuilder sb = new StringBuilder("screenrecord --output-format=h264 --bit-rate ").append(bitRate);
+        if (width > 0 && height > 0) {
+            sb.append(" --size ").append(width).append('x').append(height);
+        }
+        return sb.append(" -").toString();
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "h264-stream");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        AdbStream s = stream;
+        if (s != null) {
+            s.close();
+        }
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void run() {
+        while (running) {
+            try {
+                streamOnce();
+            } catch (UnsupportedStreamException e) {
+                running = false;
+                listener.onStreamError(e, true);
+                return;
+            } catch (IOException e) {
+                if (!running) {
+                    return;
+                }
+                listener.onStreamError(e, false);
+                try {
+                    Thread.sleep(RETRY_DELAY_MS);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void streamOnce() throws IOException {
+        restarted = false;
+        AdbStream s = provider.connect().open("exec:" + command());
+        stream = s;
+        boolean first = true;
+        boolean ended = false;
+        try {
+            byte[] data;
+            while (running && (data = s.read()) != null) {
+                if (first && data.length > 0) {
+                    first = false;
+                    if (data.length < 3 || data[0] != 0 || data[1] != 0) {
+                        // screenrecord printed an error instead of video
+                        throw new UnsupportedStreamException(new String(data, StandardCharsets.UTF_8).trim());
+                    }
+                }
+                stats.onBytes(data.length);
+                parser.feed(data, 0, data.length);
+            }
+            if (first && running) {
+                throw new IOException("screenrecord exited without output");
+            }
+            // Only screenrecord ending on its own finishes the last picture
+            ended = running && !restarted;
+            if (ended) {
+                parser.flush();
+                assembler.flush();
+            }
+        } finally {
+            if (!ended) {
+                // A unit cut off by restart(), stop() or an error must not reach the decoder
+                parser.reset();
+                assembler.reset();
+            }
+            s.close();
+            stream = null;
+        }
+    }
+
+    public static class UnsupportedStreamException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public UnsupportedStreamException(String message) {
+            super("screenrecord cannot stream H.264 here: " + message);
+        }
+    }
+}
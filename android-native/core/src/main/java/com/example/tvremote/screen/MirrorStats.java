@@ -0,0 +1,99 @@
+package com.example.tvremote.screen;
+
+import com.example.tvremote.metrics.LatencyHistogram;
+
+import java.util.Locale;
+
+/**
+ * Rolling counters for the mirror view: frames shown, bytes received and receive-to-display
+ * latency. {@link #roll} closes the current one-second window and publishes its rates.
+ */
+public class MirrorStats {
+    // Every latency also goes here, when set; it outlives this capture
+    private final LatencyHistogram latencies;
+    private long windowStartNanos = System.nanoTime();
+    private int windowFrames;
+    private long windowBytes;
+    private long windowLatencyNanos;
+    private int windowLatencySamples;
+
+    private long totalFrames;
+    private long totalBytes;
+    private long droppedFrames;
+
+    private float fps;
+    private int kbps;
+    private int latencyMs;
+
+    public MirrorStats() {
+        this(null);
+    }
+
+    public MirrorStats(LatencyHistogram latencies) {
+        this.latencies = latencies;
+    }
+
+    public synchronized void onBytes(int count) {
+        windowBytes += count;
+        totalBytes += count;
+    }
+
+    public synchronized void onFrameShown(long latencyNanos) {
+        windowFrames++;
+        totalFrames++;
+        if (latencyNanos > 0) {
+            windowLatencyNanos += latencyNanos;
+            windowLatencySamples++;
+            if (latencies != null) {
+                latencies.record(latencyNanos);
+            }
+        }
+    }
+
+    public synchronized void onFrameDropped() {
+        droppedFrames++;
+    }
+
+    public synchronized void roll(long nowNanos) {
+        long elapsed = nowNanos - windowStartNanos;
+        if (elapsed <= 0) {
+            return;
+        }
+        fps = windowFrames * 1e9f / elapsed;
+        kbps = (int) (windowBytes * 8 * 1000000L / elapsed);
+        latencyMs = windowLatencySamples > 0 ? (int) (windowLatencyNanos / windowLatencySamples / 1000000) : 0;
+        windowStartNanos = nowNanos;
+        windowFrames = 0;
+        windowBytes = 0;
+        windowLatencyNanos = 0;
+        windowLatencySamples = 0;
+    }
+
+    public synchronized float getFps() {
+        return fps;
+    }
+
+    public synchronized int getKbps() {
+        return kbps;
+    }
+
+    public synchronized int getLatencyMs() {
+        return latencyMs;
+    }
+
+    public synchronized long getTotalFrames() {
+        return totalFrames;
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public synchronized long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    public synchronized String summary() {
+        return String.format(Locale.US, "%.0f FPS  %d kbps  %d ms", fps, kbps, latencyMs);
+    }
+}
@@ -0,0 +1,90 @@
+package com.example.tvremote.screen;
+
+/**
+ * Splits an H.264 Annex-B byte stream into NAL units. Input arrives in arbitrary chunks, so
+ * start codes and NAL units may straddle calls to {@link #feed}; the unit in progress is kept
+ * in a growable buffer that is reused for the whole stream.
+ */
+public final class NalUnitParser {
+    public interface Listener {
+        // data[offset, offset + length) is one NAL unit without its start code; valid only during the call
+        void onNalUnit(byte[] data, int offset, int length);
+    }
+
+    private final Listener listener;
+    private byte[] buffer = new byte[64 * 1024];
+    private int size;
+    private int zeros;
+    private boolean started;
+    private long nalCount;
+
+    public NalUnitParser(Listener listener) {
+        this.listener = listener;
+    }
+
+    public long getNalCount() {
+        return nalCount;
+    }
+
+    public void feed(byte[] data, int offset, int length) {
+        int end = offset + length;
+        int runStart = offset;
+        for (int i = offset; i < end; i++) {
+            byte b = data[i];
+            if (b == 0) {
+                zeros++;
+                continue;
+            }
+            if (b == 1 && zeros >= 2) {
+                // Start code found: everything before its zero bytes belongs to the previous unit
+                append(data, runStart, i + 1 - runStart);
+                size -= zeros + 1;
+                if (started && size > 0) {
+                    emit();
+                }
+                started = true;
+                size = 0;
+                runStart = i + 1;
+            }
+            zeros = 0;
+        }
+        append(data, runStart, end - runStart);
+    }
+
+    // Emits the final unit once the stream has ended
+    public void flush() {
+        int length = size - zeros;
+        if (started && length > 0) {
+            size = length;
+            emit();
+        }
+        size = 0;
+        zeros = 0;
+        started = false;
+    }
+
+    // Drops the unit in progress, e.g. one cut off when the stream was replaced
+    public void reset() {
+        size = 0;
+        zeros = 0;
+        started = false;
+    }
+
+    private void emit() {
+        nalCount++;
+        listener.onNalUnit(buffer, 0, size);
+    }
+
+    private void append(byte[] data, int offset, int length) {
+        if (length <= 0) {
+            return;
+        }
+        if (size + length > buffer.length) {
+            byte[] grown = new byte[Math.max(buffer.length * 2, size + length)];
+            System.arraycopy(buffer, 0, grown, 0, size);
+            buffer = grown;
+        }
+        System.arraycopy(data, offset, buffer, size, length);
+        size += length;
+    }
+}
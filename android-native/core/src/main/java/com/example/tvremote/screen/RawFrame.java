@@ -0,0 +1,54 @@
+package com.example.tvremote.screen;
+
+import java.nio.ByteBuffer;
+
+/**
+ * One uncompressed screen capture as written by `screencap` without -p. Rows are tightly
+ * packed; {@link #pixels} runs from position 0 to {@link #size()}.
+ */
+public final class RawFrame {
+    // android.graphics.PixelFormat values used in the screencap header
+    public static final int FORMAT_RGBA_8888 = 1;
+    public static final int FORMAT_RGBX_8888 = 2;
+    public static final int FORMAT_RGB_888 = 3;
+    public static final int FORMAT_RGB_565 = 4;
+    public static final int FORMAT_BGRA_8888 = 5;
+
+    public int width;
+    public int height;
+    public int format;
+    public ByteBuffer pixels;
+    public long capturedAtNanos;
+
+    public static int bytesPerPixel(int format) {
+        switch (format) {
+            case FORMAT_RGBA_8888:
+            case FORMAT_RGBX_8888:
+            case FORMAT_BGRA_8888:
+                return 4;
+            case FORMAT_RGB_888:
+                return 3;
+            case FORMAT_RGB_565:
+                return 2;
+            default:
+                return 0;
+        }
+    }
+
+    public int bytesPerPixel() {
+        return bytesPerPixel(format);
+    }
+
+    public int stride() {
+        return width * bytesPerPixel();
+    }
+
+    public int size() {
+        return stride() * height;
+    }
+
+    public boolean sameShape(RawFrame other) {
+        return other != null && other.pixels != null
+                && width == other.width && height == other.height && format == other.format;
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.tvremote.screen;
+
+import com.example.tvremote.adb.AdbStream;
+import com.example.tvremote.adb.ConnectionProvider;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Pulls one raw frame per call from `screencap` (no PNG encode on the TV, no decode here).
+ * Output is copied straight from the ADB payloads into a pooled direct buffer; the frame keeps
+ * its buffer between calls so steady-state capture allocates nothing beyond the transport's
+ * own message arrays.
+ */
+public class RawScreenCapture {
+    private static final int HEADER_SIZE = 12;
+    // Android 10+ appends a 4-byte colour space to the header
+    private static final int MAX_EXTRA_HEADER = 4;
+    private static final int MAX_DIMENSION = 16384;
+
+    private final ConnectionProvider provider;
+    private final FrameBufferPool pool;
+    private final byte[] header = new byte[HEADER_SIZE];
+    // Learned from the first frame: 0 before Android 10, 4 after
+    private int extraHeader = -1;
+
+    public RawScreenCapture(ConnectionProvider provider, FrameBufferPool pool) {
+        this.provider = provider;
+        this.pool = pool;
+    }
+
+    public void capture(RawFrame frame) throws IOException {
+        frame.capturedAtNanos = System.nanoTime();
+        AdbStream s = provider.connect().open("exec:screencap");
+        try {
+            int headerRead = 0;
+            int skip = 0;
+            int size = 0;
+            ByteBuffer pixels = null;
+            byte[] data;
+            while ((data = s.read()) != null) {
+                int offset = 0;
+                if (headerRead < HEADER_SIZE) {
+                    int n = Math.min(HEADER_SIZE - headerRead, data.length);
+                    System.arraycopy(data, 0, header, headerRead, n);
+                    headerRead += n;
+                    offset = n;
+                    if (headerRead < HEADER_SIZE) {
+                        continue;
+                    }
+                    readHeader(frame);
+                    size = frame.size();
+                    skip = Math.max(extraHeader, 0);
+                    pixels = buffer(frame, size + (extraHeader < 0 ? MAX_EXTRA_HEADER : 0));
+                }
+                int length = data.length - offset;
+                if (skip > 0) {
+                    int n = Math.min(skip, length);
+                    offset += n;
+                    length -= n;
+                    skip -= n;
+                }
+                if (length > pixels.remaining()) {
+                    throw new IOException("screencap sent more data than a " + frame.width + "x" + frame.height + " frame");
+                }
+                pixels.put(data, offset, length);
+            }
+            if (pixels == null) {
+                throw new IOException("screencap exited without output");
+            }
+            finish(pixels, size);
+        } finally {
+            s.close();
+        }
+    }
+
+    private void readHeader(RawFrame frame) throws IOException {
+        int width = getInt(header, 0);
+        int height = getInt(header, 4);
+        int format = getInt(header, 8);
+        if (width <= 0 || height <= 0 || width > MAX_DIMENSION || height > MAX_DIMENSION) {
+            // Most likely an error message instead of a frame
+            throw new UnsupportedFrameException(new String(header, StandardCharsets.UTF_8).trim());
+        }
+        // Every TV seen so far reports a 32-bit format, which is all the renderer handles
+        if (RawFrame.bytesPerPixel(format) != 4) {
+            throw new UnsupportedFrameException("pixel format " + format);
+        }
+        frame.width = width;
+        frame.height = height;
+        frame.format = format;
+    }
+
+    private ByteBuffer buffer(RawFrame frame, int capacity) {
+        ByteBuffer pixels = frame.pixels;
+        if (pixels == null || pixels.capacity() < capacity) {
+            pool.release(pixels);
+            pixels = pool.acquire(capacity);
+            frame.pixels = pixels;
+        }
+        pixels.clear();
+        return pixels;
+    }
+
+    private void finish(ByteBuffer pixels, int size) throws IOException {
+        int extra = pixels.position() - size;
+        if (extraHeader < 0) {
+            if (extra != 0 && extra != MAX_EXTRA_HEADER) {
+                throw new IOException("screencap frame has " + extra + " unexpected bytes");
+            }
+            extraHeader = extra;
+            if (extra > 0) {
+                // First frame only: drop the colour space field we could not skip in advance
+                pixels.limit(pixels.position());
+                pixels.position(extra);
+                pixels.compact();
+            }
+        } else if (extra != 0) {
+            throw new IOException("Truncated screencap frame");
+        }
+        pixels.position(0);
+        pixels.limit(size);
+    }
+
+    private static int getInt(byte[] b, int offset) {
+        return (b[offset] & 0xff) | (b[offset + 1] & 0xff) << 8 | (b[offset + 2] & 0xff) << 16 | (b[offset + 3] & 0xff) << 24;
+    }
+
+    public static class UnsupportedFrameException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        public UnsupportedFrameException(String message) {
+            super("screencap cannot provide raw frames here: " + message);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.example.tvremote.screen;
+
+import com.example.tvremote.adb.ConnectionProvider;
+
+import java.io.IOException;
+
+/**
+ * Fallback mirror for devices whose screenrecord cannot stream H.264: captures raw frames in
+ * a loop paced by a {@link CaptureController}, diffs each against the previous one and only
+ * reports frames that changed. Two
+ * frames alternate between "previous" and "current", so their buffers are reused for the
+ * whole session and handed back to the pool when the stream stops.
+ */
+public class RawScreenStream {
+    public interface Listener {
+        // Called on the stream thread; frame and diff are only valid during the call
+        void onFrame(RawFrame frame, TileDiff diff);
+
+        void onStreamError(IOException error, boolean fatal);
+    }
+
+    private static final long RETRY_DELAY_MS = 1000;
+
+    private final RawScreenCapture capture;
+    private final FrameBufferPool pool;
+    private final Listener listener;
+    private final MirrorStats stats;
+    private final CaptureController controller;
+    private final TileDiff diff = new TileDiff();
+
+    private volatile boolean running;
+    private Thread thread;
+
+    public RawScreenStream(ConnectionProvider provider, FrameBufferPool pool, Listener listener,
+                           MirrorStats stats, CaptureController controller) {
+        this.capture = new RawScreenCapture(provider, pool);
+        this.pool = pool;
+        this.listener = listener;
+        this.stats = stats;
+        this.controller = controller;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "raw-screen-stream");
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void run() {
+        RawFrame previous = new RawFrame();
+        RawFrame current = new RawFrame();
+        try {
+            while (running) {
+                sleep(controller.delayNanos(System.nanoTime()) / 1000000);
+                if (!running) {
+                    return;
+                }
+                long started = System.nanoTime();
+                try {
+                    capture.capture(current);
+                } catch (RawScreenCapture.UnsupportedFrameException e) {
+                    running = false;
+                    listener.onStreamError(e, true);
+                    return;
+                } catch (IOException e) {
+                    if (!running) {
+                        return;
+                    }
+                    listener.onStreamError(e, false);
+                    sleep(RETRY_DELAY_MS);
+                    continue;
+                }
+                long captured = System.nanoTime();
+                stats.onBytes(current.size());
+                if (current.sameShape(previous)) {
+                    diff.diff(previous.pixels, current.pixels, current.width, current.height, current.bytesPerPixel());
+                } else {
+                    diff.markAll(current.width, current.height);
+                }
+                if (diff.getDirtyCount() > 0) {
+                    listener.onFrame(current, diff);
+                } else {
+                    // Nothing to draw; the view already shows this frame
+                    stats.onFrameShown(System.nanoTime() - current.capturedAtNanos);
+                }
+                long drawn = System.nanoTime();
+                controller.onFrame(started, captured - started, drawn - captured, drawn);
+                RawFrame swap = previous;
+                previous = current;
+                current = swap;
+            }
+        } finally {
+            pool.release(previous.pixels);
+            pool.release(current.pixels);
+        }
+    }
+
+    private void sleep(long ms) {
+        if (ms <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            // stop() interrupts; running is already false
+            Thread.currentThread().interrupt();
+        }
+    }
+}
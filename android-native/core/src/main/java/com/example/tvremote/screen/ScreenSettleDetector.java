@@ -0,0 +1,55 @@
+package com.example.tvremote.screen;
+
+import com.example.tvremote.adb.ConnectionProvider;
+import com.example.tvremote.input.MacroPlayer;
+
+import java.io.IOException;
+
+/**
+ * Decides the screen has settled when raw captures compared with {@link TileDiff} stop
+ * changing for a while. Used at macro checkpoints so playback waits for an app to open
+ * instead of relying on the delay that happened to work while recording.
+ */
+public class ScreenSettleDetector implements MacroPlayer.SettleDetector {
+    private final RawScreenCapture capture;
+    private final FrameBufferPool pool;
+    private final TileDiff diff = new TileDiff();
+
+    public ScreenSettleDetector(ConnectionProvider provider) {
+        this.pool = new FrameBufferPool(2);
+        this.capture = new RawScreenCapture(provider, pool);
+    }
+
+    @Override
+    public boolean awaitSettled(long quietMs, long timeoutMs) throws IOException, InterruptedException {
+        RawFrame previous = new RawFrame();
+        RawFrame current = new RawFrame();
+        long deadline = System.nanoTime() + timeoutMs * 1000000L;
+        try {
+            capture.capture(previous);
+            long quietSince = previous.capturedAtNanos;
+            while (true) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                capture.capture(current);
+                if (!current.sameShape(previous)
+                        || diff.diff(previous.pixels, current.pixels, current.width, current.height, current.bytesPerPixel()) > 0) {
+                    quietSince = current.capturedAtNanos;
+                }
+                if (current.capturedAtNanos - quietSince >= quietMs * 1000000L) {
+                    return true;
+                }
+                if (current.capturedAtNanos >= deadline) {
+                    return false;
+                }
+                RawFrame swap = previous;
+                previous = current;
+                current = swap;
+            }
+        } finally {
+            pool.release(previous.pixels);
+            pool.release(current.pixels);
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.tvremote.screen;
+
+/**
+ * Reads the picture size out of an H.264 sequence parameter set (ITU-T H.264 7.3.2.1.1),
+ * so the view can be sized before the decoder reports its output format.
+ */
+public final class SpsParser {
+    public int profileIdc;
+    public int width;
+    public int height;
+
+    private byte[] rbsp = new byte[64];
+    private int rbspSize;
+    private int bitPosition;
+
+    // nal[offset] is the NAL header byte; returns false if the SPS is truncated or malformed
+    public boolean parse(byte[] nal, int offset, int length) {
+        unescape(nal, offset + 1, length - 1);
+        bitPosition = 0;
+        try {
+            profileIdc = readBits(8);
+            readBits(16); // constraint flags, level_idc
+            readUe(); // seq_parameter_set_id
+            int chromaFormatIdc = 1;
+            if (profileIdc == 100 || profileIdc == 110 || profileIdc == 122 || profileIdc == 244
+                    || profileIdc == 44 || profileIdc == 83 || profileIdc == 86 || profileIdc == 118
+                    || profileIdc == 128 || profileIdc == 138 || profileIdc == 139 || profileIdc == 134) {
+                chromaFormatIdc = readUe();
+                if (chromaFormatIdc == 3) {
+                    readBits(1); // separate_colour_plane_flag
+                }
+                readUe(); // bit_depth_luma_minus8
+                readUe(); // bit_depth_chroma_minus8
+                readBits(1); // qpprime_y_zero_transform_bypass_flag
+                if (readBits(1) == 1) {
+                    int lists = chromaFormatIdc != 3 ? 8 : 12;
+                    for (int i = 0; i < lists; i++) {
+                        if (readBits(1) == 1) {
+                            skipScalingList(i < 6 ? 16 : 64);
+                        }
+                    }
+                }
+            }
+            readUe(); // log2_max_frame_num_minus4
+            int picOrderCntType = readUe();
+            if (picOrderCntType == 0) {
+                readUe();
+            } else if (picOrderCntType == 1) {
+                readBits(1);
+                readSe();
+                readSe();
+                int cycle = readUe();
+                for (int i = 0; i < cycle; i++) {
+                    readSe();
+                }
+            }
+            readUe(); // max_num_ref_frames
+            readBits(1); // gaps_in_frame_num_value_allowed_flag
+            int widthInMbs = readUe() + 1;
+            int heightInMapUnits = readUe() + 1;
+            int frameMbsOnly = readBits(1);
+            if (frameMbsOnly == 0) {
+                readBits(1); // mb_adaptive_frame_field_flag
+            }
+            readBits(1); // direct_8x8_inference_flag
+            int frameHeightInMbs = (2 - frameMbsOnly) * heightInMapUnits;
+            width = widthInMbs * 16;
+            height = frameHeightInMbs * 16;
+            if (readBits(1) == 1) {
+                int cropLeft = readUe();
+                int cropRight = readUe();
+                int cropTop = readUe();
+                int cropBottom = readUe();
+                int cropUnitX = chromaFormatIdc == 0 || chromaFormatIdc == 3 ? 1 : 2;
+                int cropUnitY = (chromaFormatIdc == 1 ? 2 : 1) * (2 - frameMbsOnly);
+                width -= (cropLeft + cropRight) * cropUnitX;
+                height -= (cropTop + cropBottom) * cropUnitY;
+            }
+            return width > 0 && height > 0;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return false;
+        }
+    }
+
+    // Drops emulation prevention bytes (00 00 03 -> 00 00)
+    private void unescape(byte[] data, int offset, int length) {
+        if (rbsp.length < length) {
+            rbsp = new byte[length];
+        }
+        int zeros = 0;
+        rbspSize = 0;
+        for (int i = offset; i < offset + length; i++) {
+            byte b = data[i];
+            if (zeros >= 2 && b == 3) {
+                zeros = 0;
+                continue;
+            }
+            zeros = b == 0 ? zeros + 1 : 0;
+            rbsp[rbspSize++] = b;
+        }
+    }
+
+    private void skipScalingList(int size) {
+        int last = 8;
+        int next = 8;
+        for (int j = 0; j < size; j++) {
+            if (next != 0) {
+                next = (last + readSe() + 256) % 256;
+            }
+            last = next == 0 ? last : next;
+        }
+    }
+
+    private int readBits(int count) {
+        int value = 0;
+        for (int i = 0; i < count; i++) {
+            if (bitPosition >= rbspSize * 8) {
+                throw new ArrayIndexOutOfBoundsException("SPS truncated");
+            }
+            int bit = (rbsp[bitPosition >> 3] >> (7 - (bitPosition & 7))) & 1;
+            value = value << 1 | bit;
+            bitPosition++;
+        }
+        return value;
+    }
+
+    private int readUe() {
+        int leadingZeros = 0;
+        while (readBits(1) == 0) {
+            leadingZeros++;
+            if (leadingZeros > 31) {
+                throw new ArrayIndexOutOfBoundsException("Bad exp-Golomb code");
+            }
+        }
+        return (1 << leadingZeros) - 1 + readBits(leadingZeros);
+    }
+
+    private int readSe() {
+        int value = readUe();
+        return (value & 1) == 1 ? (value + 1) / 2 : -(value / 2);
+    }
+}
@@ -0,0 +1,227 @@
+package com.example.tvremote.screen;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Decides which device the thumbnail wall captures next, under one budget shared by all of
+ * them. Transfer (bytes per second) and decoding (nanoseconds of decode work per second) are
+ * token buckets holding at most a second's worth; a capture starts only while both can pay its
+ * estimated cost, and the estimate is settled against the real cost when it finishes. Among
+ * the devices whose refresh interval has run out, the one that has waited longest, weighted up
+ * when its tile is visible or its screen changed recently, goes first. More devices therefore
+ * mean slower refreshes, not more traffic. Time is passed in, so the budget can be checked
+ * against a simulated wall in tests.
+ */
+public final class ThumbnailScheduler {
+    public static final long DEFAULT_BYTES_PER_SECOND = 4L * 1024 * 1024;
+    // A quarter of one core
+    public static final long DEFAULT_DECODE_NANOS_PER_SECOND = 250000000L;
+    // screencap encodes on the TV, so a few captures in flight keep the link busy
+    public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+
+    // Shortest time between two captures of one device, by visibility
+    static final long VISIBLE_INTERVAL_NANOS = 500000000L;
+    static final long HIDDEN_INTERVAL_NANOS = 15000000000L;
+    // A screen that changed this recently is watched more closely
+    private static final long ACTIVE_NANOS = 5000000000L;
+    private static final int VISIBLE_WEIGHT = 4;
+    private static final int ACTIVE_WEIGHT = 4;
+    // Cost guesses before a device's first capture: a 1080p screencap PNG and its decode
+    private static final long INITIAL_BYTES = 1024 * 1024;
+    private static final long INITIAL_DECODE_NANOS = 40000000L;
+    private static final float SMOOTHING = 0.25f;
+
+    private static final class Device {
+        final String serial;
+        final long addedNanos;
+        boolean visible;
+        boolean inFlight;
+        boolean captured;
+        long lastStartNanos;
+        long lastChangeNanos = Long.MIN_VALUE;
+        long bytes = INITIAL_BYTES;
+        // Per capture, including the ones that were unchanged and not decoded at all
+        long decodeNanos = INITIAL_DECODE_NANOS;
+        long reservedBytes;
+        long reservedDecodeNanos;
+        long captures;
+
+        Device(String serial, long addedNanos) {
+            this.serial = serial;
+            this.addedNanos = addedNanos;
+        }
+    }
+
+    private final long bytesPerSecond;
+    private final long decodeNanosPerSecond;
+    private final int maxInFlight;
+    private final Map<String, Device> devices = new LinkedHashMap<>();
+    private double byteTokens;
+    private double decodeTokens;
+    private long refilledNanos;
+    private int inFlight;
+    private long bytesSpent;
+    private long decodeNanosSpent;
+    private long captures;
+
+    public ThumbnailScheduler(long bytesPerSecond, long decodeNanosPerSecond, int maxInFlight, long nowNanos) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.decodeNanosPerSecond = decodeNanosPerSecond;
+        this.maxInFlight = maxInFlight;
+        this.byteTokens = bytesPerSecond;
+        this.decodeTokens = decodeNanosPerSecond;
+        this.refilledNanos = nowNanos;
+    }
+
+    public synchronized void add(String serial, long nowNanos) {
+        if (!devices.containsKey(serial)) {
+            devices.put(serial, new Device(serial, nowNanos));
+        }
+    }
+
+    // A capture still in flight finishes and is paid for, but is not repeated
+    public synchronized void remove(String serial) {
+        devices.remove(serial);
+    }
+
+    public synchronized boolean contains(String serial) {
+        return devices.containsKey(serial);
+    }
+
+    public synchronized void setVisible(String serial, boolean visible) {
+        Device device = devices.get(serial);
+        if (device != null) {
+            device.visible = visible;
+        }
+    }
+
+    /**
+     * The device to capture now, or null if none is due or the budget cannot pay for one yet.
+     * Its estimated cost is reserved until {@link #onCaptured} or {@link #onFailed}.
+     */
+    public synchronized String next(long nowNanos) {
+        refill(nowNanos);
+        if (inFlight >= maxInFlight) {
+            return null;
+        }
+        Device best = null;
+        double bestScore = -1;
+        for (Device device : devices.values()) {
+            if (device.inFlight) {
+                continue;
+            }
+            long waited = nowNanos - (device.captured ? device.lastStartNanos : device.addedNanos);
+            if (device.captured && waited < (device.visible ? VISIBLE_INTERVAL_NANOS : HIDDEN_INTERVAL_NANOS)) {
+                continue;
+            }
+            // Devices never captured go first, so every tile gets a picture before any refresh
+            double score = (device.captured ? 0 : Long.MAX_VALUE / 2.0) + (double) waited * weight(device, nowNanos);
+            if (score > bestScore) {
+                best = device;
+                bestScore = score;
+            }
+        }
+        if (best == null) {
+            return null;
+        }
+        // The best device waits for its tokens rather than letting cheaper ones overtake it;
+        // a cost beyond what the buckets can hold waits for full buckets
+        long bytes = Math.min(best.bytes, bytesPerSecond);
+        long decodeNanos = Math.min(best.decodeNanos, decodeNanosPerSecond);
+        if (byteTokens < bytes || decodeTokens < decodeNanos) {
+            return null;
+        }
+        byteTokens -= bytes;
+        decodeTokens -= decodeNanos;
+        best.reservedBytes = bytes;
+        best.reservedDecodeNanos = decodeNanos;
+        best.inFlight = true;
+        best.lastStartNanos = nowNanos;
+        inFlight++;
+        return best.serial;
+    }
+
+    /** A capture finished; decodeNanos is 0 when the picture had not changed and was not decoded. */
+    public synchronized void onCaptured(String serial, long bytes, long decodeNanos, boolean changed, long nowNanos) {
+        refill(nowNanos);
+        Device device = finish(serial);
+        bytesSpent += bytes;
+        decodeNanosSpent += decodeNanos;
+        captures++;
+        if (device == null) {
+            // Removed meanwhile; its reservation stands in for the real cost
+            return;
+        }
+        byteTokens += device.reservedBytes - bytes;
+        decodeTokens += device.reservedDecodeNanos - decodeNanos;
+        device.bytes += (long) ((bytes - device.bytes) * SMOOTHING);
+        device.decodeNanos += (long) ((decodeNanos - device.decodeNanos) * SMOOTHING);
+        device.captured = true;
+        device.captures++;
+        if (changed) {
+            device.lastChangeNanos = nowNanos;
+        }
+    }
+
+    // The device is tried again after its usual interval; the reservation is given back
+    public synchronized void onFailed(String serial, long nowNanos) {
+        refill(nowNanos);
+        Device device = finish(serial);
+        if (device != null) {
+            byteTokens += device.reservedBytes;
+            decodeTokens += device.reservedDecodeNanos;
+            device.captured = true;
+        }
+    }
+
+    public synchronized long getCaptureCount(String serial) {
+        Device device = devices.get(serial);
+        return device != null ? device.captures : 0;
+    }
+
+    public synchronized long getCaptureCount() {
+        return captures;
+    }
+
+    public synchronized long getBytesSpent() {
+        return bytesSpent;
+    }
+
+    public synchronized long getDecodeNanosSpent() {
+        return decodeNanosSpent;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    private Device finish(String serial) {
+        inFlight = Math.max(0, inFlight - 1);
+        Device device = devices.get(serial);
+        if (device == null || !device.inFlight) {
+            return null;
+        }
+        device.inFlight = false;
+        return device;
+    }
+
+    private int weight(Device device, long nowNanos) {
+        int weight = device.visible ? VISIBLE_WEIGHT : 1;
+        if (device.lastChangeNanos != Long.MIN_VALUE && nowNanos - device.lastChangeNanos < ACTIVE_NANOS) {
+            weight *= ACTIVE_WEIGHT;
+        }
+        return weight;
+    }
+
+    private void refill(long nowNanos) {
+        long elapsed = nowNanos - refilledNanos;
+        if (elapsed <= 0) {
+            return;
+        }
+        refilledNanos = nowNanos;
+        double seconds = elapsed / 1e9;
+        byteTokens = Math.min(bytesPerSecond, byteTokens + bytesPerSecond * seconds);
+        decodeTokens = Math.min(decodeNanosPerSecond, decodeTokens + decodeNanosPerSecond * seconds);
+    }
+}
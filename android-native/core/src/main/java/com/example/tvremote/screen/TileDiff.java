@@ -0,0 +1,164 @@
+package com.example.tvremote.screen;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Compares two frames of the same shape tile by tile and records which tiles changed, so only
+ * those need to be copied to a Bitmap and redrawn. Rows are compared eight bytes at a time and
+ * a tile stops being scanned as soon as it is known to be dirty; a band of tiles stops once
+ * all of them are dirty. State is reused between calls.
+ */
+public final class TileDiff {
+    public static final int DEFAULT_TILE_SIZE = 32;
+
+    private final int tileSize;
+    private int tilesX;
+    private int tilesY;
+    private int width;
+    private int height;
+    private boolean[] dirty = new boolean[0];
+    private int dirtyCount;
+    private int left;
+    private int top;
+    private int right;
+    private int bottom;
+
+    public TileDiff() {
+        this(DEFAULT_TILE_SIZE);
+    }
+
+    public TileDiff(int tileSize) {
+        this.tileSize = tileSize;
+    }
+
+    // Returns the number of dirty tiles; both buffers hold width*height pixels from index 0
+    public int diff(ByteBuffer previous, ByteBuffer current, int width, int height, int bytesPerPixel) {
+        resize(width, height);
+        Arrays.fill(dirty, 0, tilesX * tilesY, false);
+        dirtyCount = 0;
+        int stride = width * bytesPerPixel;
+        int tileBytes = tileSize * bytesPerPixel;
+        for (int ty = 0; ty < tilesY; ty++) {
+            int rowEnd = Math.min((ty + 1) * tileSize, height);
+            int clean = tilesX;
+            int band = ty * tilesX;
+            for (int y = ty * tileSize; y < rowEnd && clean > 0; y++) {
+                int row = y * stride;
+                for (int tx = 0; tx < tilesX; tx++) {
+                    if (dirty[band + tx]) {
+                        continue;
+                    }
+                    int start = row + tx * tileBytes;
+                    int end = Math.min(start + tileBytes, row + stride);
+                    if (!rangeEquals(previous, current, start, end)) {
+                        dirty[band + tx] = true;
+                        dirtyCount++;
+                        clean--;
+                    }
+                }
+            }
+        }
+        computeBounds();
+        return dirtyCount;
+    }
+
+    // First frame or a shape change: everything must be drawn
+    public void markAll(int width, int height) {
+        resize(width, height);
+        Arrays.fill(dirty, 0, tilesX * tilesY, true);
+        dirtyCount = tilesX * tilesY;
+        computeBounds();
+    }
+
+    private static boolean rangeEquals(ByteBuffer a, ByteBuffer b, int start, int end) {
+        int i = start;
+        for (; i + 8 <= end; i += 8) {
+            if (a.getLong(i) != b.getLong(i)) {
+                return false;
+            }
+        }
+        for (; i < end; i++) {
+            if (a.get(i) != b.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void resize(int width, int height) {
+        this.width = width;
+        this.height = height;
+        tilesX = (width + tileSize - 1) / tileSize;
+        tilesY = (height + tileSize - 1) / tileSize;
+        if (dirty.length < tilesX * tilesY) {
+            dirty = new boolean[tilesX * tilesY];
+        }
+    }
+
+    private void computeBounds() {
+        int minX = tilesX;
+        int minY = tilesY;
+        int maxX = -1;
+        int maxY = -1;
+        for (int ty = 0; ty < tilesY; ty++) {
+            for (int tx = 0; tx < tilesX; tx++) {
+                if (dirty[ty * tilesX + tx]) {
+                    minX = Math.min(minX, tx);
+                    maxX = Math.max(maxX, tx);
+                    minY = Math.min(minY, ty);
+                    maxY = ty;
+                }
+            }
+        }
+        if (maxX < 0) {
+            left = top = right = bottom = 0;
+            return;
+        }
+        left = minX * tileSize;
+        top = minY * tileSize;
+        right = Math.min((maxX + 1) * tileSize, width);
+        bottom = Math.min((maxY + 1) * tileSize, height);
+    }
+
+    public boolean isDirty(int tileX, int tileY) {
+        return dirty[tileY * tilesX + tileX];
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public int getTilesX() {
+        return tilesX;
+    }
+
+    public int getTilesY() {
+        return tilesY;
+    }
+
+    public int getDirtyCount() {
+        return dirtyCount;
+    }
+
+    public float getDirtyRatio() {
+        return tilesX * tilesY == 0 ? 0 : (float) dirtyCount / (tilesX * tilesY);
+    }
+
+    // Bounding box of the dirty tiles in pixels, right/bottom exclusive; empty when nothing changed
+    public int getLeft() {
+        return left;
+    }
+
+    public int getTop() {
+        return top;
+    }
+
+    public int getRight() {
+        return right;
+    }
+
+    public int getBottom() {
+        return bottom;
+    }
+}
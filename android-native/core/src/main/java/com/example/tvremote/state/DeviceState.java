@@ -0,0 +1,280 @@
+package com.example.tvremote.state;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * What a TV is doing right now: whether the screen is on, the app in front, the music stream
+ * volume, the HDMI port it shows and the media session that is playing, all from one run of
+ * {@link #QUERY}. Fields the TV did not report are unknown (null, -1 or POWER_UNKNOWN).
+ */
+public final class DeviceState {
+    public static final int POWER_UNKNOWN = 0;
+    public static final int POWER_ON = 1;
+    public static final int POWER_OFF = 2;
+
+    /**
+     * One shell round trip. Each section starts with a marker line, and the dumpsys output is
+     * filtered on the TV so only a few lines come back. A TV that is asleep only runs the power
+     * section: nothing else about it matters until it wakes up.
+     */
+    public static final String QUERY = "p=$(dumpsys power | grep -E 'mWakefulness=|Display Power: state='); "
+            + "echo @power; echo \"$p\"; "
+            + "case \"$p\" in *Asleep*|*Dozing*) exit 0;; esac; "
+            + "echo @activity; dumpsys activity activities | grep -E 'mResumedActivity|topResumedActivity'; "
+            + "echo @audio; dumpsys audio | grep -A8 -E '^- STREAM_MUSIC:'; "
+            + "echo @media; dumpsys media_session | grep -E 'active=|state=PlaybackState|description='; "
+            + "echo @hdmi; dumpsys hdmi_control | grep -E 'ctivePortId'";
+
+    // android.media.session.PlaybackState.STATE_PLAYING
+    private static final int STATE_PLAYING = 3;
+
+    // Until the first probe answers
+    public static final DeviceState UNKNOWN = new DeviceState(POWER_UNKNOWN, null, null, -1, -1, false, -1, null, false);
+
+    public final int power;
+    public final String foregroundPackage;
+    // Fully qualified activity class
+    public final String foregroundActivity;
+    public final int volume;
+    public final int maxVolume;
+    public final boolean muted;
+    // HDMI port shown by the TV input, -1 if none or not reported
+    public final int hdmiPort;
+    // Title of the active media session, if it has one
+    public final String mediaTitle;
+    public final boolean playing;
+
+    public DeviceState(int power, String foregroundPackage, String foregroundActivity, int volume, int maxVolume,
+                       boolean muted, int hdmiPort, String mediaTitle, boolean playing) {
+        this.power = power;
+        this.foregroundPackage = foregroundPackage;
+        this.foregroundActivity = foregroundActivity;
+        this.volume = volume;
+        this.maxVolume = maxVolume;
+        this.muted = muted;
+        this.hdmiPort = hdmiPort;
+        this.mediaTitle = mediaTitle;
+        this.playing = playing;
+    }
+
+    /** Parses the whole output of {@link #QUERY} at once. */
+    public static DeviceState parse(String output) {
+        Parser parser = new Parser();
+        byte[] bytes = output.getBytes(StandardCharsets.UTF_8);
+        parser.feed(bytes, 0, bytes.length);
+        return parser.finish();
+    }
+
+    // One line for the remote screen, e.g. "On, com.netflix.ninja, playing Dark, volume 7/15"
+    public String describe() {
+        if (power == POWER_OFF) {
+            return "Off";
+        }
+        StringBuilder sb = new StringBuilder(power == POWER_ON ? "On" : "Unknown");
+        if (hdmiPort > 0) {
+            sb.append(", HDMI ").append(hdmiPort);
+        } else if (foregroundPackage != null) {
+            sb.append(", ").append(foregroundPackage);
+        }
+        if (mediaTitle != null) {
+            sb.append(playing ? ", playing " : ", paused ").append(mediaTitle);
+        }
+        if (muted) {
+            sb.append(", muted");
+        } else if (volume >= 0) {
+            sb.append(", volume ").append(volume);
+            if (maxVolume > 0) {
+                sb.append('/').append(maxVolume);
+            }
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof DeviceState)) {
+            return false;
+        }
+        DeviceState other = (DeviceState) o;
+        return power == other.power && volume == other.volume && maxVolume == other.maxVolume
+                && muted == other.muted && hdmiPort == other.hdmiPort && playing == other.playing
+                && equal(foregroundPackage, other.foregroundPackage)
+                && equal(foregroundActivity, other.foregroundActivity)
+                && equal(mediaTitle, other.mediaTitle);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(new Object[] {power, foregroundPackage, foregroundActivity, volume, maxVolume,
+                muted, hdmiPort, mediaTitle, playing});
+    }
+
+    @Override
+    public String toString() {
+        return describe();
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Reads {@link #QUERY} output as it arrives from the stream, one line at a time, so no
+     * copy of the whole output is built. Payloads may end anywhere, even inside a character.
+     */
+    public static final class Parser {
+        private static final Pattern WAKEFULNESS = Pattern.compile("mWakefulness=(\\w+)");
+        private static final Pattern DISPLAY_POWER = Pattern.compile("Display Power: state=(\\w+)");
+        private static final Pattern RESUMED = Pattern.compile("ResumedActivity[:=].*? ([\\w.]+)/([\\w.$]+)");
+        private static final Pattern MUTED = Pattern.compile("^\\s*Muted: (\\w+)");
+        private static final Pattern MAX = Pattern.compile("^\\s*Max: (\\d+)");
+        private static final Pattern STREAM_VOLUME = Pattern.compile("^\\s*streamVolume:\\s*(\\d+)");
+        // "Current: 2 (speaker): 7, 400 (hdmi): 15"; the first device stands in for the stream
+        private static final Pattern CURRENT = Pattern.compile("^\\s*Current: [0-9a-fx]+ \\([^)]*\\): (\\d+)");
+        private static final Pattern ACTIVE = Pattern.compile("\\bactive=(true|false)");
+        private static final Pattern PLAYBACK = Pattern.compile("state=PlaybackState \\{state=(\\d+)");
+        private static final Pattern DESCRIPTION = Pattern.compile("description=(.*?)(, .*)?$");
+        private static final Pattern PORT = Pattern.compile("ctivePortId[:=] ?(-?\\d+)");
+
+        private static final int NONE = 0, POWER = 1, ACTIVITY = 2, AUDIO = 3, MEDIA = 4, HDMI = 5;
+
+        private byte[] line = new byte[256];
+        private int length;
+        private int section = NONE;
+
+        private int power = POWER_UNKNOWN;
+        private int displayPower = POWER_UNKNOWN;
+        private String foregroundPackage;
+        private String foregroundActivity;
+        private int volume = -1;
+        private int currentVolume = -1;
+        private int maxVolume = -1;
+        private boolean muted;
+        private int hdmiPort = -1;
+        // Sessions are listed most recent first; the first active one is what is playing
+        private boolean inActiveSession;
+        private boolean mediaDone;
+        private int playbackState = -1;
+        private String mediaTitle;
+
+        public void feed(byte[] data, int offset, int count) {
+            for (int i = offset; i < offset + count; i++) {
+                byte b = data[i];
+                if (b == '\n') {
+                    endLine();
+                    continue;
+                }
+                if (length == line.length) {
+                    line = Arrays.copyOf(line, length * 2);
+                }
+                line[length++] = b;
+            }
+        }
+
+        public DeviceState finish() {
+            if (length > 0) {
+                endLine();
+            }
+            int screen = power != POWER_UNKNOWN ? power : displayPower;
+            // A screen that is off has nothing in front worth reporting, whatever was left over
+            if (screen == POWER_OFF) {
+                return new DeviceState(screen, null, null, -1, -1, false, -1, null, false);
+            }
+            String title = mediaTitle != null && !mediaTitle.isEmpty() && !mediaTitle.equals("null") ? mediaTitle : null;
+            return new DeviceState(screen, foregroundPackage, foregroundActivity,
+                    volume >= 0 ? volume : currentVolume, maxVolume, muted, hdmiPort > 0 ? hdmiPort : -1,
+                    title, title != null && playbackState == STATE_PLAYING);
+        }
+
+        private void endLine() {
+            int end = length;
+            if (end > 0 && line[end - 1] == '\r') {
+                end--;
+            }
+            String text = new String(line, 0, end, StandardCharsets.UTF_8);
+            length = 0;
+            if (text.startsWith("@")) {
+                section = section(text);
+                return;
+            }
+            Matcher m;
+            switch (section) {
+                case POWER:
+                    if ((m = WAKEFULNESS.matcher(text)).find()) {
+                        // Dreaming is the screensaver: the panel is still on
+                        String value = m.group(1);
+                        power = value.equals("Awake") || value.equals("Dreaming") ? POWER_ON : POWER_OFF;
+                    } else if ((m = DISPLAY_POWER.matcher(text)).find()) {
+                        displayPower = m.group(1).equals("ON") ? POWER_ON : POWER_OFF;
+                    }
+                    break;
+                case ACTIVITY:
+                    if (foregroundPackage == null && (m = RESUMED.matcher(text)).find()) {
+                        foregroundPackage = m.group(1);
+                        String activity = m.group(2);
+                        foregroundActivity = activity.startsWith(".") ? foregroundPackage + activity : activity;
+                    }
+                    break;
+                case AUDIO:
+                    if ((m = MUTED.matcher(text)).find()) {
+                        muted = m.group(1).equals("true");
+                    } else if ((m = MAX.matcher(text)).find()) {
+                        maxVolume = Integer.parseInt(m.group(1));
+                    } else if ((m = STREAM_VOLUME.matcher(text)).find()) {
+                        volume = Integer.parseInt(m.group(1));
+                    } else if ((m = CURRENT.matcher(text)).find()) {
+                        currentVolume = Integer.parseInt(m.group(1));
+                    }
+                    break;
+                case MEDIA:
+                    media(text);
+                    break;
+                case HDMI:
+                    if ((m = PORT.matcher(text)).find()) {
+                        hdmiPort = Integer.parseInt(m.group(1));
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void media(String text) {
+            if (mediaDone) {
+                return;
+            }
+            Matcher m = ACTIVE.matcher(text);
+            if (m.find()) {
+                // The next session starts; stop if the active one has been read
+                if (inActiveSession && (playbackState >= 0 || mediaTitle != null)) {
+                    mediaDone = true;
+                    return;
+                }
+                inActiveSession = m.group(1).equals("true");
+                return;
+            }
+            if (!inActiveSession) {
+                return;
+            }
+            if ((m = PLAYBACK.matcher(text)).find()) {
+                playbackState = Integer.parseInt(m.group(1));
+            } else if ((m = DESCRIPTION.matcher(text)).find()) {
+                mediaTitle = m.group(1).trim();
+            }
+        }
+
+        private static int section(String marker) {
+            switch (marker.trim()) {
+                case "@power": return POWER;
+                case "@activity": return ACTIVITY;
+                case "@audio": return AUDIO;
+                case "@media": return MEDIA;
+                case "@hdmi": return HDMI;
+                default: return NONE;
+            }
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.example.tvremote.state;
+
+import com.example.tvremote.adb.AdbConnection;
+import com.example.tvremote.adb.AdbSessions;
+import com.example.tvremote.adb.AdbStream;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the {@link DeviceState} of watched devices up to date by running {@link DeviceState#QUERY}
+ * now and then, and tells the listener when it changes. The poll interval adapts: right after
+ * input or a change a device is polled every activeMs, and each poll that finds nothing new
+ * doubles the interval up to idleMs. A TV that is off goes straight to idleMs, and its probe
+ * only runs dumpsys power.
+ * <p>
+ * Probes only use a connection that is already up; connecting, and backing off when that
+ * fails, is left to whoever owns the connection. A probe that gets no answer within the query
+ * timeout is abandoned and its stream closed, so a hung shell cannot hold a worker.
+ */
+public class DeviceStateService implements Closeable {
+    public interface Listener {
+        // Called on a probe thread, only when the state differs from the last one reported
+        void onStateChanged(String serial, DeviceState state);
+    }
+
+    public static final long DEFAULT_ACTIVE_INTERVAL_MS = 2000;
+    public static final long DEFAULT_IDLE_INTERVAL_MS = 60000;
+    // Time the TV gets to act on a key before the probe that should see the result
+    public static final long DEFAULT_INPUT_DELAY_MS = 800;
+    public static final long DEFAULT_QUERY_TIMEOUT_MS = 5000;
+    private static final int WORKERS = 2;
+
+    private static final class Entry {
+        final String serial;
+        DeviceState state;
+        long intervalMs;
+        long dueNanos;
+        boolean probing;
+        // Input arrived during a probe; poll again soon whatever it finds
+        boolean inputDuringProbe;
+        long probes;
+        ScheduledFuture<?> task;
+
+        Entry(String serial) {
+            this.serial = serial;
+        }
+    }
+
+    private final AdbSessions sessions;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private final ScheduledExecutorService executor;
+    private volatile Listener listener;
+    private volatile long activeMs = DEFAULT_ACTIVE_INTERVAL_MS;
+    private volatile long idleMs = DEFAULT_IDLE_INTERVAL_MS;
+    private volatile long inputDelayMs = DEFAULT_INPUT_DELAY_MS;
+    private volatile long queryTimeoutMs = DEFAULT_QUERY_TIMEOUT_MS;
+
+    public DeviceStateService(AdbSessions sessions) {
+        this.sessions = sessions;
+        ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(WORKERS, r -> {
+            Thread thread = new Thread(r, "device-state");
+            thread.setDaemon(true);
+            return thread;
+        });
+        pool.setRemoveOnCancelPolicy(true);
+        this.executor = pool;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public void setIntervals(long activeMs, long idleMs, long inputDelayMs) {
+        this.activeMs = activeMs;
+        this.idleMs = idleMs;
+        this.inputDelayMs = inputDelayMs;
+    }
+
+    public void setQueryTimeout(long queryTimeoutMs) {
+        this.queryTimeoutMs = queryTimeoutMs;
+    }
+
+    /** Starts polling a device, first right away. */
+    public synchronized void watch(String serial) {
+        if (entries.containsKey(serial)) {
+            return;
+        }
+        Entry entry = new Entry(serial);
+        entry.intervalMs = activeMs;
+        entries.put(serial, entry);
+        scheduleLocked(entry, 0);
+    }
+
+    public synchronized void unwatch(String serial) {
+        Entry entry = entries.remove(serial);
+        if (entry != null && entry.task != null) {
+            entry.task.cancel(false);
+        }
+    }
+
+    /** The last state probed, or null before the first probe has answered. */
+    public synchronized DeviceState get(String serial) {
+        Entry entry = entries.get(serial);
+        return entry != null ? entry.state : null;
+    }
+
+    public synchronized long getProbeCount(String serial) {
+        Entry entry = entries.get(serial);
+        return entry != null ? entry.probes : 0;
+    }
+
+    /**
+     * The user just sent something to the device: it is polled shortly, to show what the input
+     * did, and at the active rate for a while after that.
+     */
+    public synchronized void onInput(String serial) {
+        Entry entry = entries.get(serial);
+        if (entry == null) {
+            return;
+        }
+        entry.intervalMs = activeMs;
+        if (entry.probing) {
+            entry.inputDuringProbe = true;
+        } else if (entry.dueNanos - System.nanoTime() > inputDelayMs * 1000000L) {
+            scheduleLocked(entry, inputDelayMs);
+        }
+    }
+
+    // Polls now, e.g. when the user refreshes
+    public synchronized void refresh(String serial) {
+        Entry entry = entries.get(serial);
+        if (entry != null && !entry.probing) {
+            scheduleLocked(entry, 0);
+        }
+    }
+
+    private void probe(Entry entry) {
+        synchronized (this) {
+            if (entries.get(entry.serial) != entry) {
+                return;
+            }
+            entry.probing = true;
+            entry.inputDuringProbe = false;
+            entry.probes++;
+        }
+        DeviceState state = null;
+        try {
+            state = query(entry.serial);
+        } catch (IOException e) {
+            // Treated like an unchanged answer: the device is polled less and less often
+        }
+        boolean changed;
+        synchronized (this) {
+            entry.probing = false;
+            if (entries.get(entry.serial) != entry) {
+                return;
+            }
+            changed = state != null && !state.equals(entry.state);
+            if (changed) {
+                entry.state = state;
+            }
+            if (changed || entry.inputDuringProbe) {
+                entry.intervalMs = activeMs;
+            } else {
+                entry.intervalMs = Math.min(entry.intervalMs * 2, idleMs);
+            }
+            if (state != null && state.power == DeviceState.POWER_OFF && !entry.inputDuringProbe) {
+                entry.intervalMs = idleMs;
+            }
+            scheduleLocked(entry, entry.inputDuringProbe ? inputDelayMs : entry.intervalMs);
+        }
+        Listener l = listener;
+        if (changed && l != null) {
+            l.onStateChanged(entry.serial, state);
+        }
+    }
+
+    // The output is parsed as it streams in; null while the device is not connected
+    private DeviceState query(String serial) throws IOException {
+        AdbConnection connection = sessions.get(serial).getConnection();
+        if (connection == null) {
+            return null;
+        }
+        long deadline = System.nanoTime() + queryTimeoutMs * 1000000L;
+        AdbStream stream = connection.open("shell:" + DeviceState.QUERY);
+        try {
+            DeviceState.Parser parser = new DeviceState.Parser();
+            byte[] data;
+            while ((data = stream.read(Math.max(1, (deadline - System.nanoTime()) / 1000000L))) != null) {
+                if (data.length == 0 && System.nanoTime() - deadline >= 0) {
+                    throw new IOException("No answer from " + serial + " within " + queryTimeoutMs + " ms");
+                }
+                parser.feed(data, 0, data.length);
+            }
+            return parser.finish();
+        } finally {
+            stream.close();
+        }
+    }
+
+    private void scheduleLocked(Entry entry, long delayMs) {
+        if (entry.task != null) {
+            entry.task.cancel(false);
+        }
+        entry.dueNanos = System.nanoTime() + delayMs * 1000000L;
+        entry.task = executor.schedule(() -> probe(entry), delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            entries.clear();
+        }
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,131 @@
+package com.example.tvremote.task;
+
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of threads for one kind of work. Each lane has its own threads, so a slow task in one
+ * lane (a subnet scan, a capture tick) never delays a task in another (a key press). Every task
+ * is timed: how long it waited in the queue and how long it ran.
+ */
+public final class Lane implements Executor {
+    public final String name;
+    private final ScheduledThreadPoolExecutor executor;
+
+    private long taskCount;
+    private long waitTotalNanos;
+    private long waitMaxNanos;
+    private long runTotalNanos;
+    private long runMaxNanos;
+
+    // threadPriority is a java.lang.Thread priority; Android maps it to a nice level
+    public Lane(String name, int threads, int threadPriority) {
+        this.name = name;
+        AtomicInteger count = new AtomicInteger();
+        executor = new ScheduledThreadPoolExecutor(threads, r -> {
+            Thread thread = new Thread(r, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(threadPriority);
+            return thread;
+        });
+        // Cancelled periodic tasks would otherwise sit in the queue until their next run
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        submit(task);
+    }
+
+    public Future<?> submit(Runnable task) {
+        return executor.submit(new Timed(task, System.nanoTime(), 0));
+    }
+
+    /*
+     * Runs periodMs after the previous run finished, the first time after one period. A run
+     * slower than the period pushes the next one back rather than making the lane catch up
+     * with back-to-back runs.
+     */
+    public ScheduledFuture<?> schedule(Runnable task, long periodMs) {
+        long periodNanos = TimeUnit.MILLISECONDS.toNanos(periodMs);
+        return executor.scheduleWithFixedDelay(new Timed(task, System.nanoTime() + periodNanos, periodNanos),
+                periodMs, periodMs, TimeUnit.MILLISECONDS);
+    }
+
+    // Tasks waiting for a thread
+    public int getQueued() {
+        return executor.getQueue().size();
+    }
+
+    public synchronized long getTaskCount() {
+        return taskCount;
+    }
+
+    public synchronized long getAverageWaitNanos() {
+        return taskCount > 0 ? waitTotalNanos / taskCount : 0;
+    }
+
+    public synchronized long getMaxWaitNanos() {
+        return waitMaxNanos;
+    }
+
+    public synchronized long getAverageRunNanos() {
+        return taskCount > 0 ? runTotalNanos / taskCount : 0;
+    }
+
+    public synchronized long getMaxRunNanos() {
+        return runMaxNanos;
+    }
+
+    // "input: 42 tasks, wait 0.1 ms (max 1.2), run 3.4 ms (max 20.5)"
+    public synchronized String summary() {
+        if (taskCount == 0) {
+            return name + ": idle";
+        }
+        return String.format(Locale.US, "%s: %d tasks, wait %.1f ms (max %.1f), run %.1f ms (max %.1f)",
+                name, taskCount, waitTotalNanos / taskCount / 1e6, waitMaxNanos / 1e6,
+                runTotalNanos / taskCount / 1e6, runMaxNanos / 1e6);
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    private synchronized void record(long waitNanos, long runNanos) {
+        taskCount++;
+        waitTotalNanos += waitNanos;
+        waitMaxNanos = Math.max(waitMaxNanos, waitNanos);
+        runTotalNanos += runNanos;
+        runMaxNanos = Math.max(runMaxNanos, runNanos);
+    }
+
+    private final class Timed implements Runnable {
+        private final Runnable task;
+        private final long periodNanos;
+        // When the task was submitted, or when a periodic run was due after the previous one
+        private long dueNanos;
+
+        Timed(Runnable task, long dueNanos, long periodNanos) {
+            this.task = task;
+            this.dueNanos = dueNanos;
+            this.periodNanos = periodNanos;
+        }
+
+        @Override
+        public void run() {
+            long started = System.nanoTime();
+            try {
+                task.run();
+            } finally {
+                long finished = System.nanoTime();
+                record(Math.max(0, started - dueNanos), finished - started);
+                dueNanos = finished + periodNanos;
+            }
+        }
+    }
+}
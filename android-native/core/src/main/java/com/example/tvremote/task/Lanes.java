@@ -0,0 +1,35 @@
+package com.example.tvremote.task;
+
+/**
+ * The app's background threads, split by how urgent the work is. Input work (broadcasting
+ * keys, playing macros) has its own high-priority threads and never queues behind screen
+ * capture or discovery; discovery (scans, saving the device lists) runs at low priority.
+ */
+public final class Lanes {
+    public final Lane input;
+    public final Lane capture;
+    public final Lane discovery;
+
+    public Lanes() {
+        this(new Lane("input", 2, Thread.MAX_PRIORITY),
+                new Lane("capture", 1, Thread.NORM_PRIORITY),
+                new Lane("discovery", 2, Thread.MIN_PRIORITY));
+    }
+
+    public Lanes(Lane input, Lane capture, Lane discovery) {
+        this.input = input;
+        this.capture = capture;
+        this.discovery = discovery;
+    }
+
+    // One line per lane
+    public String summary() {
+        return input.summary() + "\n" + capture.summary() + "\n" + discovery.summary();
+    }
+
+    public void shutdown() {
+        input.shutdown();
+        capture.shutdown();
+        discovery.shutdown();
+    }
+}
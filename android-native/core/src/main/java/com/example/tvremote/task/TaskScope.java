@@ -0,0 +1,106 @@
+package com.example.tvremote.task;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+
+/**
+ * Tasks started on behalf of one owner, such as a fragment's view. Ending the scope cancels
+ * (and interrupts) everything it started, and results posted back to the UI thread after that
+ * are dropped, so a callback can no longer land on a fragment that has gone away.
+ */
+public final class TaskScope {
+    private final Executor uiThread;
+    private final List<Future<?>> tasks = new ArrayList<>();
+    private final List<Runnable> cancelActions = new ArrayList<>();
+    private volatile boolean cancelled;
+
+    public TaskScope(Executor uiThread) {
+        this.uiThread = uiThread;
+    }
+
+    /** Runs the task on the lane; returns null, and runs nothing, once the scope has ended. */
+    public Future<?> submit(Lane lane, Runnable task) {
+        synchronized (this) {
+            if (cancelled) {
+                return null;
+            }
+            pruneLocked();
+            Future<?> future = lane.submit(task);
+            tasks.add(future);
+            return future;
+        }
+    }
+
+    // Runs the task periodMs apart until it is cancelled or the scope ends
+    public Future<?> schedule(Lane lane, Runnable task, long periodMs) {
+        synchronized (this) {
+            if (cancelled) {
+                return null;
+            }
+            pruneLocked();
+            Future<?> future = lane.schedule(task, periodMs);
+            tasks.add(future);
+            return future;
+        }
+    }
+
+    /** Runs the action on the UI thread, unless the scope has ended by the time it gets there. */
+    public void ui(Runnable action) {
+        if (cancelled) {
+            return;
+        }
+        uiThread.execute(() -> {
+            if (!cancelled) {
+                action.run();
+            }
+        });
+    }
+
+    // For work this scope did not start itself, e.g. a stream with its own thread
+    public void onCancel(Runnable action) {
+        synchronized (this) {
+            if (!cancelled) {
+                cancelActions.add(action);
+                return;
+            }
+        }
+        action.run();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public void cancel() {
+        List<Future<?>> running;
+        List<Runnable> actions;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            running = new ArrayList<>(tasks);
+            actions = new ArrayList<>(cancelActions);
+            tasks.clear();
+            cancelActions.clear();
+        }
+        for (Future<?> future : running) {
+            future.cancel(true);
+        }
+        for (Runnable action : actions) {
+            action.run();
+        }
+    }
+
+    // Forgets finished tasks so a long-lived scope does not hold on to them
+    private void pruneLocked() {
+        for (Iterator<Future<?>> it = tasks.iterator(); it.hasNext(); ) {
+            if (it.next().isDone()) {
+                it.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.example.tvremote;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the hot-path benchmarks with the GC profiler and compares them with the checked-in
+ * baseline: a benchmark fails when its time per op grows by more than {@link #TIME_TOLERANCE}
+ * or it allocates more than {@link #ALLOC_SLACK_BYTES} bytes per op over its baseline.
+ * Allocation is checked tightly because it does not depend on the machine; time does, so
+ * the baseline should be refreshed (--update) on the machine that runs the check.
+ *
+ * Usage: BenchmarkCheck baseline.txt [--update] [include regex]
+ */
+public final class BenchmarkCheck {
+    // Network-bound benchmarks (Broadcast, InputLatency, TextInjection, SubnetScan, ControlServer)
+    // are too noisy to gate on
+    private static final String DEFAULT_INCLUDE = "AdbMessage|InputFrame|NalUnitParser|TileDiff|DnsMessage";
+    private static final double TIME_TOLERANCE = 0.25;
+    // JMH reports a few bytes per op even for code that allocates nothing
+    private static final double ALLOC_SLACK_BYTES = 16;
+
+    private static final class Score {
+        final double nanos;
+        final double bytes;
+
+        Score(double nanos, double bytes) {
+            this.nanos = nanos;
+            this.bytes = bytes;
+        }
+    }
+
+    public static void main(String[] args) throws IOException, RunnerException {
+        File baselineFile = new File(args[0]);
+        boolean update = false;
+        String include = DEFAULT_INCLUDE;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--update")) {
+                update = true;
+            } else {
+                include = args[i];
+            }
+        }
+
+        Options options = new OptionsBuilder()
+                .include("com\\.example\\.tvremote\\..*(" + include + ")Benchmark")
+                .addProfiler(GCProfiler.class)
+                .timeUnit(TimeUnit.NANOSECONDS)
+                .build();
+        Map<String, Score> measured = new TreeMap<>();
+        for (RunResult result : new Runner(options).run()) {
+            measured.put(key(result.getParams()), score(result));
+        }
+
+        if (update) {
+            write(baselineFile, measured);
+            System.out.println("Wrote " + measured.size() + " baselines to " + baselineFile);
+            return;
+        }
+        Map<String, Score> baseline = read(baselineFile);
+        List<String> failures = new ArrayList<>();
+        System.out.println(String.format(Locale.US, "%-60s %12s %12s %10s %10s",
+                "benchmark", "ns/op", "baseline", "B/op", "baseline"));
+        for (Map.Entry<String, Score> entry : measured.entrySet()) {
+            Score now = entry.getValue();
+            Score then = baseline.get(entry.getKey());
+            System.out.println(String.format(Locale.US, "%-60s %12.1f %12s %10.0f %10s", entry.getKey(),
+                    now.nanos, then != null ? String.format(Locale.US, "%.1f", then.nanos) : "-",
+                    now.bytes, then != null ? String.format(Locale.US, "%.0f", then.bytes) : "-"));
+            if (then == null) {
+                failures.add(entry.getKey() + " has no baseline; run with --update");
+                continue;
+            }
+            if (now.nanos > then.nanos * (1 + TIME_TOLERANCE)) {
+                failures.add(String.format(Locale.US, "%s got slower: %.1f ns/op, baseline %.1f",
+                        entry.getKey(), now.nanos, then.nanos));
+            }
+            if (now.bytes > then.bytes + ALLOC_SLACK_BYTES) {
+                failures.add(String.format(Locale.US, "%s allocates more: %.0f B/op, baseline %.0f",
+                        entry.getKey(), now.bytes, then.bytes));
+            }
+        }
+        if (!failures.isEmpty()) {
+            System.err.println();
+            System.err.println("BENCHMARK REGRESSION");
+            for (String failure : failures) {
+                System.err.println("  " + failure);
+            }
+            System.exit(1);
+        }
+        System.out.println("All " + measured.size() + " benchmarks within their baseline");
+    }
+
+    // "screen.TileDiffBenchmark.diff change=static"
+    private static String key(BenchmarkParams params) {
+        StringBuilder key = new StringBuilder(params.getBenchmark().substring("com.example.tvremote.".length()));
+        Collection<String> names = params.getParamsKeys();
+        for (String name : names) {
+            key.append(key.indexOf(" ") < 0 ? ' ' : ',').append(name).append('=').append(params.getParam(name));
+        }
+        return key.toString();
+    }
+
+    private static Score score(RunResult result) {
+        double bytes = 0;
+        // JMH declares the map with the raw Result type, so go through the keys
+        for (String name : result.getSecondaryResults().keySet()) {
+            if (name.endsWith("gc.alloc.rate.norm")) {
+                Result<?> secondary = result.getSecondaryResults().get(name);
+                bytes = secondary.getScore();
+            }
+        }
+        return new Score(result.getPrimaryResult().getScore(), bytes);
+    }
+
+    // One benchmark per line: key, ns/op, B/op, separated by tabs; # starts a comment
+    private static Map<String, Score> read(File file) throws IOException {
+        Map<String, Score> scores = new TreeMap<>();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+                StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\t");
+                scores.put(fields[0], new Score(Double.parseDouble(fields[1]), Double.parseDouble(fields[2])));
+            }
+        }
+        return scores;
+    }
+
+    private static void write(File file, Map<String, Score> scores) throws IOException {
+        try (PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file),
+                StandardCharsets.UTF_8))) {
+            out.println("# Baselines for ./gradlew :core:checkBenchmarks; refresh with -PupdateBaseline.");
+            out.println("# Measured on JDK " + System.getProperty("java.version") + ", "
+                    + System.getProperty("os.arch") + ", " + Runtime.getRuntime().availableProcessors() + " cpus");
+            out.println("# benchmark\tns/op\tB/op");
+            for (Map.Entry<String, Score> entry : scores.entrySet()) {
+                out.println(String.format(Locale.US, "%s\t%.1f\t%.0f",
+                        entry.getKey(), entry.getValue().nanos, entry.getValue().bytes));
+            }
+        }
+    }
+}
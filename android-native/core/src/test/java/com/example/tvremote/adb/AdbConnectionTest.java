@@ -0,0 +1,174 @@
+package com.example.tvremote.adb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class AdbConnectionTest {
+    private static AdbCrypto crypto;
+    private final FakeAdbd adbd;
+
+    public AdbConnectionTest() throws IOException {
+        adbd = new FakeAdbd();
+    }
+
+    @BeforeClass
+    public static void createKey() throws Exception {
+        crypto = AdbCrypto.generate("test@host");
+    }
+
+    @After
+    public void tearDown() {
+        adbd.close();
+    }
+
+    @Test
+    public void handshakeReadsDeviceBanner() throws IOException {
+        AdbConnection connection = AdbConnection.connect("127.0.0.1", adbd.getPort(), crypto);
+        try {
+            assertTrue(connection.getDeviceBanner().contains("ro.product.model=FakeTV"));
+            assertEquals(AdbProtocol.MAX_PAYLOAD, connection.getMaxPayload());
+        } finally {
+            connection.close();
+        }
+    }
+
+    @Test
+    public void unknownKeyIsOfferedOnceThenSignatureIsAccepted() throws IOException {
+        adbd.setRequireAuth(true);
+        AdbConnection.connect("127.0.0.1", adbd.getPort(), crypto).close();
+        assertEquals(1, adbd.getPublicKeyOffers());
+
+        AdbConnection.connect("127.0.0.1", adbd.getPort(), crypto).close();
+        assertEquals("second connect must authenticate by signature alone", 1, adbd.getPublicKeyOffers());
+    }
+
+    @Test
+    public void concurrentShellStreamsShareOneSocket() throws Exception {
+        adbd.setService((destination, channel) -> channel.write(destination.substring("shell:".length())));
+        AdbConnection connection = AdbConnection.connect("127.0.0.1", adbd.getPort(), crypto);
+        List<Thread> threads = new ArrayList<>();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        for (int t = 0; t < 8; t++) {
+            final int id = t;
+            Thread thread = new Thread(() -> {
+                try {
+                    for (int i = 0; i < 25; i++) {
+                        String command = "echo " + id + "-" + i;
+                        assertEquals(command, connection.shell(command));
+                    }
+                } catch (Throwable e) {
+                    failure.set(e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        connection.close();
+        assertNull(failure.get());
+        assertEquals(1, adbd.getConnectionCount());
+        assertEquals(200, adbd.getDestinations().size());
+    }
+
+    @Test
+    public void largeWritesAreSplitAndAcknowledged() throws IOException {
+        byte[] received = new byte[AdbProtocol.MAX_PAYLOAD * 2 + 17];
+        adbd.setService((destination, channel) -> {
+            int total = 0;
+            byte[] chunk;
+            while (total < received.length && (chunk = channel.read()) != null) {
+                System.arraycopy(chunk, 0, received, total, chunk.length);
+                total += chunk.length;
+            }
+            channel.write(Integer.toString(total));
+        });
+        AdbConnection connection = AdbConnection.connect("127.0.0.1", adbd.getPort(), crypto);
+        byte[] data = new byte[received.length];
+        Arrays.fill(data, (byte) 'x');
+        AdbStream stream = connection.open("sink:");
+        stream.write(data, 0, data.length);
+        assertEquals(Integer.toString(data.length), stream.readAll());
+        connection.close();
+        assertTrue(Arrays.equals(data, received));
+    }
+
+    @Test
+    public void sessionSendsKeyeventAsynchronously() throws Exception {
+        AdbSession session = new AdbSession("127.0.0.1", adbd.getPort(), () -> crypto);
+        CountDownLatch done = new CountDownLatch(1);
+        AtomicReference<IOException> error = new AtomicReference<>();
+        session.sendKey(19, new AdbSession.Callback() {
+            @Override
+            public void onSuccess(String output, long latencyNanos) {
+                done.countDown();
+            }
+
+            @Override
+            public void onFailure(IOException e) {
+                error.set(e);
+                done.countDown();
+            }
+        });
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertNull(error.get());
+        assertEquals(Arrays.asList("shell:input keyevent 19"), adbd.getDestinations());
+        session.close();
+    }
+
+    @Test
+    public void inputObjectsDoNotWaitForAConnectInProgress() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch connecting = new CountDownLatch(1);
+        // Stands in for a connect stuck in the AUTH wait
+        AdbSession session = new AdbSession("127.0.0.1", adbd.getPort(), () -> {
+            connecting.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            return crypto;
+        });
+        Thread connector = new Thread(() -> {
+            try {
+                session.ensureConnected();
+            } catch (IOException ignored) {
+            }
+        });
+        connector.start();
+        CountDownLatch served = new CountDownLatch(1);
+        Thread caller = new Thread(() -> {
+            session.getInputPipeline().submitKey(19);
+            session.getTextInjector();
+            session.getInputAgent(new File("agent.apk")).isReady();
+            served.countDown();
+        });
+        try {
+            assertTrue(connecting.await(5, TimeUnit.SECONDS));
+            caller.start();
+            // All three come back while the connect is still held up
+            assertTrue(served.await(5, TimeUnit.SECONDS));
+            assertEquals(1, release.getCount());
+        } finally {
+            release.countDown();
+            connector.join(5000);
+            session.close();
+        }
+    }
+}
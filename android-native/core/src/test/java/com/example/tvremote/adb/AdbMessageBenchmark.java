@@ -0,0 +1,92 @@
+package com.example.tvremote.adb;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ADB transport framing: one WRTE packet written the way AdbConnection sends it and read back
+ * the way its reader does. "0" is an OKAY-sized packet, "64" a key press on the input shell
+ * and "4096" a full chunk of mirror data. Reading allocates the payload and the message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AdbMessageBenchmark {
+    @Param({"0", "64", "4096"})
+    public int payloadSize;
+
+    private final byte[] header = new byte[AdbProtocol.HEADER_SIZE];
+    private final byte[] wire = new byte[AdbProtocol.HEADER_SIZE + 4096];
+    private final Sink sink = new Sink(wire);
+    private final Source source = new Source(wire);
+    private byte[] payload;
+
+    // ByteArrayOutputStream and ByteArrayInputStream over one buffer, rewound for every packet
+    private static final class Sink extends OutputStream {
+        final byte[] buffer;
+        int size;
+
+        Sink(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(int b) {
+            buffer[size++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            System.arraycopy(b, off, buffer, size, len);
+            size += len;
+        }
+    }
+
+    private static final class Source extends ByteArrayInputStream {
+        Source(byte[] buffer) {
+            super(buffer);
+        }
+
+        void rewind() {
+            pos = 0;
+        }
+    }
+
+    @Setup
+    public void setUp() {
+        payload = new byte[payloadSize];
+        Arrays.fill(payload, (byte) 'x');
+    }
+
+    @Benchmark
+    public int writeHeader() {
+        AdbMessage.writeHeader(header, AdbProtocol.A_WRTE, 1, 2, payload, 0, payload.length);
+        return header[16];
+    }
+
+    @Benchmark
+    public AdbMessage roundTrip() throws IOException {
+        sink.size = 0;
+        AdbMessage.write(sink, header, AdbProtocol.A_WRTE, 1, 2, payload, 0, payload.length);
+        source.rewind();
+        return AdbMessage.read(source, header);
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.tvremote.adb;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * One key press to 50 FakeAdbd devices on loopback whose shells take 1-10 ms each, so the
+ * slowest device needs ~10 ms and all of them together ~275 ms. "broadcast" fans out with
+ * {@link Broadcaster}; "sequential" is the old one-device-at-a-time loop for comparison.
+ * Run with `./gradlew :core:benchmark -Pjmh=Broadcast`.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BroadcastBenchmark {
+    private static final int DEVICES = 50;
+    private static final int[] KEYS = {3};
+    private static final Pattern ACK = Pattern.compile("echo @ack' '(\\d+)");
+
+    @Param({"broadcast", "sequential"})
+    public String mode;
+
+    private final List<FakeAdbd> fakes = new ArrayList<>();
+    private final List<String> serials = new ArrayList<>();
+    private AdbSessions sessions;
+    private Broadcaster broadcaster;
+
+    @Setup
+    public void setUp() throws IOException {
+        for (int i = 0; i < DEVICES; i++) {
+            int delayMs = i % 10 + 1;
+            FakeAdbd fake = new FakeAdbd();
+            // Interactive shell: runs each line after delayMs and prints its ack marker
+            fake.setService((destination, channel) -> {
+                if (!destination.equals("shell:")) {
+                    // One-shot shell:input... of the sequential loop
+                    sleep(delayMs);
+                    return;
+                }
+                StringBuilder pending = new StringBuilder();
+                byte[] data;
+                while ((data = channel.read()) != null) {
+                    pending.append(new String(data, StandardCharsets.UTF_8));
+                    int newline;
+                    while ((newline = pending.indexOf("\n")) >= 0) {
+                        String line = pending.substring(0, newline);
+                        pending.delete(0, newline + 1);
+                        sleep(delayMs);
+                        Matcher m = ACK.matcher(line);
+                        if (m.find()) {
+                            channel.write("@ack " + m.group(1) + "\r\n");
+                        }
+                    }
+                }
+            });
+            fakes.add(fake);
+            serials.add(fake.getSerial());
+        }
+        sessions = new AdbSessions(new File("unused")) {
+            @Override
+            public synchronized AdbCrypto getCrypto() {
+                return null;
+            }
+        };
+        for (String serial : serials) {
+            sessions.get(serial).ensureConnected();
+        }
+        broadcaster = new Broadcaster(sessions);
+    }
+
+    @TearDown
+    public void tearDown() {
+        sessions.closeAll();
+        for (FakeAdbd fake : fakes) {
+            fake.close();
+        }
+    }
+
+    @Benchmark
+    public int keyPress() throws Exception {
+        if (mode.equals("broadcast")) {
+            return broadcaster.send(serials, KEYS, Broadcaster.DEFAULT_TIMEOUT_MS).getSucceeded();
+        }
+        int ok = 0;
+        for (String serial : serials) {
+            sessions.get(serial).ensureConnected().shell("input keyevent 3");
+            ok++;
+        }
+        return ok;
+    }
+
+    private static void sleep(int ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException ignored) {
+        }
+    }
+}
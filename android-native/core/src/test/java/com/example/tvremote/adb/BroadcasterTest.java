@@ -0,0 +1,133 @@
+package com.example.tvremote.adb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.example.tvremote.input.InputPipeline;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class BroadcasterTest {
+    private static final Pattern ACK = Pattern.compile("echo @ack' '(\\d+)");
+
+    private final List<FakeAdbd> fakes = new ArrayList<>();
+    private final AdbSessions sessions = new AdbSessions(new File("unused")) {
+        @Override
+        public synchronized AdbCrypto getCrypto() {
+            // The fakes do not ask for authentication
+            return null;
+        }
+    };
+
+    @After
+    public void tearDown() {
+        sessions.closeAll();
+        for (FakeAdbd fake : fakes) {
+            fake.close();
+        }
+    }
+
+    private final List<String> lines = Collections.synchronizedList(new ArrayList<String>());
+
+    // A device whose interactive shell takes delayMs to run each line
+    private String device(int delayMs) throws Exception {
+        FakeAdbd fake = new FakeAdbd();
+        fake.setService((destination, channel) -> {
+            StringBuilder pending = new StringBuilder();
+            byte[] data;
+            while ((data = channel.read()) != null) {
+                pending.append(new String(data, StandardCharsets.UTF_8));
+                int newline;
+                while ((newline = pending.indexOf("\n")) >= 0) {
+                    String line = pending.substring(0, newline);
+                    pending.delete(0, newline + 1);
+                    lines.add(line);
+                    try {
+                        Thread.sleep(delayMs);
+                    } catch (InterruptedException ignored) {
+                    }
+                    Matcher m = ACK.matcher(line);
+                    if (m.find()) {
+                        channel.write("@ack " + m.group(1) + "\r\n");
+                    }
+                }
+            }
+        });
+        fakes.add(fake);
+        return fake.getSerial();
+    }
+
+    @Test
+    public void takesAboutAsLongAsTheSlowestDevice() throws Exception {
+        List<String> serials = new ArrayList<>();
+        for (int i = 1; i <= 10; i++) {
+            serials.add(device(i * 20));
+        }
+        Broadcaster broadcaster = new Broadcaster(sessions);
+        Broadcaster.Report report = broadcaster.send(serials, new int[] {3}, 5000);
+        assertEquals(10, report.getSucceeded());
+        assertTrue(report.getSlowestNanos() >= 200000000L);
+        // Through each device's input shell, one line apiece
+        for (FakeAdbd fake : fakes) {
+            assertEquals(Collections.singletonList("shell:"), fake.getDestinations());
+        }
+        assertEquals(10, lines.size());
+        for (String line : lines) {
+            assertTrue(line, line.startsWith("input keyevent 3;"));
+        }
+    }
+
+    @Test
+    public void slowAndDeadDevicesDoNotHoldUpTheRest() throws Exception {
+        List<String> serials = new ArrayList<>();
+        serials.add(device(10));
+        serials.add(device(3000));
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        serials.add("127.0.0.1:" + port);
+        serials.add(device(10));
+
+        Broadcaster.Report report = new Broadcaster(sessions).send(serials, new int[] {26}, 300);
+        assertEquals(2, report.getSucceeded());
+        assertTrue(report.results.get(0).ok);
+        assertTrue(report.results.get(1).timedOut);
+        assertFalse(report.results.get(2).ok);
+        assertFalse(report.results.get(2).timedOut);
+        assertTrue(report.results.get(3).ok);
+        assertTrue(report.summary(), report.summary().startsWith("2/4 devices"));
+    }
+
+    @Test
+    public void keysNotSentByTheDeadlineAreTakenBack() throws Exception {
+        String serial = device(0);
+        fakes.get(0).setOpenDelayMs(500);
+        Broadcaster.Report report = new Broadcaster(sessions).send(Collections.singletonList(serial), new int[] {19, 23}, 100);
+        assertTrue(report.results.get(0).timedOut);
+        assertNull(report.results.get(0).error);
+
+        // The shell opens later, and the keys the report gave up on do not go out after all
+        InputPipeline pipeline = sessions.get(serial).getInputPipeline();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (fakes.get(0).getDestinations().isEmpty() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        Thread.sleep(700);
+        assertTrue(lines.isEmpty());
+        assertEquals(0, pipeline.getQueueDepth());
+        assertEquals(0, pipeline.getSentEvents());
+    }
+}
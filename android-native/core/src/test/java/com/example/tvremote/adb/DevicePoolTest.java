@@ -0,0 +1,194 @@
+package com.example.tvremote.adb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class DevicePoolTest {
+    private static AdbCrypto crypto;
+
+    private final List<FakeAdbd> fakes = new ArrayList<>();
+    private final List<DevicePool.Status> events = Collections.synchronizedList(new ArrayList<DevicePool.Status>());
+    private AdbSessions sessions;
+    private DevicePool pool;
+
+    @BeforeClass
+    public static void createKey() throws Exception {
+        crypto = AdbCrypto.generate("test@host");
+    }
+
+    @After
+    public void tearDown() {
+        if (pool != null) {
+            pool.close();
+        }
+        if (sessions != null) {
+            sessions.closeAll();
+        }
+        for (FakeAdbd fake : fakes) {
+            fake.close();
+        }
+    }
+
+    private DevicePool pool(int maxOpen, int devices) throws Exception {
+        for (int i = 0; i < devices; i++) {
+            fakes.add(new FakeAdbd());
+        }
+        sessions = new AdbSessions(new File("unused")) {
+            @Override
+            public synchronized AdbCrypto getCrypto() {
+                return crypto;
+            }
+        };
+        pool = new DevicePool(sessions, maxOpen);
+        pool.setHeartbeatIntervalMs(50);
+        pool.setBackoff(50, 400);
+        pool.setListener(events::add);
+        return pool;
+    }
+
+    private void awaitState(String serial, int state) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        DevicePool.Status status = pool.getStatus(serial);
+        while ((status == null || status.state != state) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+            status = pool.getStatus(serial);
+        }
+        assertNotNull(status);
+        assertEquals(serial + " " + status.describe(), state, status.state);
+    }
+
+    @Test
+    public void keepsSeveralDevicesOnlineWithHeartbeats() throws Exception {
+        pool(32, 5);
+        for (FakeAdbd fake : fakes) {
+            pool.add(fake.getSerial());
+        }
+        for (FakeAdbd fake : fakes) {
+            awaitState(fake.getSerial(), DevicePool.STATE_ONLINE);
+        }
+        Thread.sleep(300);
+        for (FakeAdbd fake : fakes) {
+            // One connection each, however many heartbeats went over it
+            assertEquals(1, fake.getConnectionCount());
+            assertTrue(Collections.frequency(fake.getDestinations(), "exec:true") > 2);
+            assertTrue(pool.getStatus(fake.getSerial()).rttNanos > 0);
+        }
+        assertEquals(5, pool.getOpenCount());
+    }
+
+    @Test
+    public void reconnectsAfterTheSocketDrops() throws Exception {
+        pool(32, 2);
+        FakeAdbd flaky = fakes.get(0);
+        pool.add(flaky.getSerial());
+        pool.add(fakes.get(1).getSerial());
+        awaitState(flaky.getSerial(), DevicePool.STATE_ONLINE);
+        events.clear();
+
+        flaky.dropConnections();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (flaky.getConnectionCount() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(2, flaky.getConnectionCount());
+        awaitState(flaky.getSerial(), DevicePool.STATE_ONLINE);
+        boolean sawBackoff = false;
+        synchronized (events) {
+            for (DevicePool.Status status : events) {
+                sawBackoff |= status.serial.equals(flaky.getSerial()) && status.state == DevicePool.STATE_BACKOFF;
+            }
+        }
+        assertTrue(sawBackoff);
+        // The other device never noticed
+        assertEquals(1, fakes.get(1).getConnectionCount());
+    }
+
+    @Test
+    public void backoffDoublesUpToTheCap() throws Exception {
+        pool(32, 0);
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        String serial = "127.0.0.1:" + port;
+        pool.add(serial);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pool.getStatus(serial).failures < 5 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        DevicePool.Status status = pool.getStatus(serial);
+        assertTrue(status.failures >= 5);
+        assertEquals(DevicePool.STATE_BACKOFF, status.state);
+        assertNotNull(status.error);
+
+        for (int i = 0; i < 20; i++) {
+            long first = pool.backoffMs(1);
+            assertTrue(first >= 40 && first <= 60);
+            long third = pool.backoffMs(3);
+            assertTrue(third >= 160 && third <= 240);
+            assertTrue(pool.backoffMs(30) <= 480);
+        }
+    }
+
+    @Test
+    public void leastRecentlyUsedConnectionIsEvictedAtTheCap() throws Exception {
+        pool(2, 3);
+        String a = fakes.get(0).getSerial();
+        String b = fakes.get(1).getSerial();
+        String c = fakes.get(2).getSerial();
+        pool.add(a);
+        awaitState(a, DevicePool.STATE_ONLINE);
+        pool.add(b);
+        awaitState(b, DevicePool.STATE_ONLINE);
+        pool.touch(a);
+
+        pool.add(c);
+        awaitState(c, DevicePool.STATE_ONLINE);
+        awaitState(b, DevicePool.STATE_IDLE);
+        assertEquals(DevicePool.STATE_ONLINE, pool.getStatus(a).state);
+        assertEquals(2, pool.getOpenCount());
+
+        // Using the idle device brings it back at the expense of the now oldest one
+        pool.touch(b);
+        awaitState(b, DevicePool.STATE_ONLINE);
+        awaitState(a, DevicePool.STATE_IDLE);
+        assertEquals(2, pool.getOpenCount());
+        assertEquals(2, fakes.get(1).getConnectionCount());
+    }
+
+    @Test
+    public void idleTimeoutClosesUnusedConnections() throws Exception {
+        pool(32, 1);
+        pool.setIdleTimeoutMs(100);
+        String serial = fakes.get(0).getSerial();
+        pool.add(serial);
+        awaitState(serial, DevicePool.STATE_ONLINE);
+        awaitState(serial, DevicePool.STATE_IDLE);
+        assertEquals(0, pool.getOpenCount());
+    }
+
+    @Test
+    public void removeStopsWatching() throws Exception {
+        pool(32, 1);
+        String serial = fakes.get(0).getSerial();
+        pool.add(serial);
+        awaitState(serial, DevicePool.STATE_ONLINE);
+        pool.remove(serial);
+        assertNull(pool.getStatus(serial));
+        int pings = Collections.frequency(fakes.get(0).getDestinations(), "exec:true");
+        Thread.sleep(200);
+        assertEquals(pings, Collections.frequency(fakes.get(0).getDestinations(), "exec:true"));
+    }
+}
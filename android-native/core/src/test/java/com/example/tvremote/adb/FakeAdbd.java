@@ -0,0 +1,389 @@
+package com.example.tvremote.adb;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.crypto.Cipher;
+
+/**
+ * Minimal adbd speaking the wire protocol on loopback, used to exercise the transport and
+ * measure round trips without a TV. Services are pluggable; the default runs "shell:" commands
+ * as no-ops that return immediately.
+ */
+public class FakeAdbd implements Closeable {
+    public interface Service {
+        void serve(String destination, Channel channel) throws IOException;
+    }
+
+    private static final String BANNER =
+            "device::ro.product.name=fake;ro.product.model=FakeTV;ro.product.device=fake;features=shell_v2,cmd\0";
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "fake-adbd");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final List<String> destinations = Collections.synchronizedList(new ArrayList<String>());
+    private final List<Socket> clients = Collections.synchronizedList(new ArrayList<Socket>());
+    private final AtomicInteger connectionCount = new AtomicInteger();
+    private final AtomicInteger publicKeyOffers = new AtomicInteger();
+    private final SecureRandom random = new SecureRandom();
+
+    private volatile Service service = (destination, channel) -> { };
+    private volatile boolean requireAuth;
+    private volatile PublicKey trustedKey;
+    private volatile int openDelayMs;
+    private volatile boolean okayWrites = true;
+    private volatile boolean closed;
+
+    public FakeAdbd() throws IOException {
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        executor.execute(this::acceptLoop);
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public String getSerial() {
+        return "127.0.0.1:" + getPort();
+    }
+
+    public void setService(Service service) {
+        this.service = service;
+    }
+
+    public void setRequireAuth(boolean requireAuth) {
+        this.requireAuth = requireAuth;
+    }
+
+    // Simulates a slow device by delaying the OKAY that answers each OPEN
+    public void setOpenDelayMs(int openDelayMs) {
+        this.openDelayMs = openDelayMs;
+    }
+
+    // Simulates a stuck device that takes data but never OKAYs it, so the client cannot write again
+    public void setOkayWrites(boolean okayWrites) {
+        this.okayWrites = okayWrites;
+    }
+
+    public List<String> getDestinations() {
+        synchronized (destinations) {
+            return new ArrayList<>(destinations);
+        }
+    }
+
+    public int getConnectionCount() {
+        return connectionCount.get();
+    }
+
+    public int getPublicKeyOffers() {
+        return publicKeyOffers.get();
+    }
+
+    // Kills every client socket, like a Wi-Fi drop
+    public void dropConnections() {
+        synchronized (clients) {
+            for (Socket socket : clients) {
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+            clients.clear();
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            serverSocket.close();
+        } catch (IOException ignored) {
+        }
+        dropConnections();
+        executor.shutdownNow();
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                clients.add(socket);
+                connectionCount.incrementAndGet();
+                executor.execute(() -> new ClientConnection(socket).run());
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    /** One side of a stream as seen by the fake device. */
+    public static class Channel {
+        private static final byte[] EOF = new byte[0];
+
+        private final ClientConnection connection;
+        private final int localId;
+        private final int remoteId;
+        private final LinkedBlockingQueue<byte[]> incoming = new LinkedBlockingQueue<>();
+        private final Object lock = new Object();
+        private boolean writeReady = true;
+        private boolean closed;
+
+        Channel(ClientConnection connection, int localId, int remoteId) {
+            this.connection = connection;
+            this.localId = localId;
+            this.remoteId = remoteId;
+        }
+
+        public void write(String data) throws IOException {
+            write(data.getBytes(StandardCharsets.UTF_8));
+        }
+
+        public void write(byte[] data) throws IOException {
+            synchronized (lock) {
+                while (!writeReady && !closed) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+                if (closed) {
+                    throw new IOException("channel closed");
+                }
+                writeReady = false;
+            }
+            connection.send(AdbProtocol.A_WRTE, localId, remoteId, data);
+        }
+
+        // Next payload written by the client, or null when the client closed the stream
+        public byte[] read() throws IOException {
+            try {
+                byte[] data = incoming.take();
+                return data == EOF ? null : data;
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+        }
+
+        public void close() throws IOException {
+            synchronized (lock) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                lock.notifyAll();
+            }
+            incoming.offer(EOF);
+            connection.send(AdbProtocol.A_CLSE, localId, remoteId, null);
+        }
+
+        void onOkay() {
+            synchronized (lock) {
+                writeReady = true;
+                lock.notifyAll();
+            }
+        }
+
+        void onData(byte[] data) {
+            incoming.offer(data);
+        }
+
+        void onClose() {
+            synchronized (lock) {
+                closed = true;
+                lock.notifyAll();
+            }
+            incoming.offer(EOF);
+        }
+    }
+
+    private class ClientConnection {
+        private final Socket socket;
+        private final byte[] writeHeader = new byte[AdbProtocol.HEADER_SIZE];
+        private final Map<Integer, Channel> channels = new ConcurrentHashMap<>();
+        private final AtomicInteger nextId = new AtomicInteger(1000);
+        private OutputStream out;
+        private byte[] token;
+
+        ClientConnection(Socket socket) {
+            this.socket = socket;
+        }
+
+        void run() {
+            try {
+                InputStream in = new BufferedInputStream(socket.getInputStream());
+                out = new BufferedOutputStream(socket.getOutputStream());
+                byte[] header = new byte[AdbProtocol.HEADER_SIZE];
+                while (!closed) {
+                    handle(AdbMessage.read(in, header));
+                }
+            } catch (IOException ignored) {
+                // client went away
+            } finally {
+                for (Channel channel : channels.values()) {
+                    channel.onClose();
+                }
+                try {
+                    socket.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        private void handle(AdbMessage message) throws IOException {
+            switch (message.command) {
+                case AdbProtocol.A_CNXN:
+                    if (requireAuth) {
+                        sendToken();
+                    } else {
+                        sendBanner();
+                    }
+                    break;
+                case AdbProtocol.A_AUTH:
+                    if (message.arg0 == AdbProtocol.AUTH_SIGNATURE) {
+                        if (verify(message.payload)) {
+                            sendBanner();
+                        } else {
+                            sendToken();
+                        }
+                    } else if (message.arg0 == AdbProtocol.AUTH_RSAPUBLICKEY) {
+                        // Behaves as if the user tapped "Allow" on the TV
+                        publicKeyOffers.incrementAndGet();
+                        trustedKey = parsePublicKey(message.payloadString());
+                        sendBanner();
+                    }
+                    break;
+                case AdbProtocol.A_OPEN:
+                    open(message.arg0, message.payloadString());
+                    break;
+                case AdbProtocol.A_WRTE: {
+                    Channel channel = channels.get(message.arg1);
+                    if (channel != null) {
+                        channel.onData(message.payload);
+                        if (okayWrites) {
+                            send(AdbProtocol.A_OKAY, message.arg1, message.arg0, null);
+                        }
+                    }
+                    break;
+                }
+                case AdbProtocol.A_OKAY: {
+                    Channel channel = channels.get(message.arg1);
+                    if (channel != null) {
+                        channel.onOkay();
+                    }
+                    break;
+                }
+                case AdbProtocol.A_CLSE: {
+                    Channel channel = channels.remove(message.arg1);
+                    if (channel != null) {
+                        channel.onClose();
+                    }
+                    break;
+                }
+                default:
+                    break;
+            }
+        }
+
+        private void open(int remoteId, String destination) {
+            destinations.add(destination);
+            int localId = nextId.getAndIncrement();
+            Channel channel = new Channel(this, localId, remoteId);
+            channels.put(localId, channel);
+            executor.execute(() -> {
+                try {
+                    if (openDelayMs > 0) {
+                        Thread.sleep(openDelayMs);
+                    }
+                    send(AdbProtocol.A_OKAY, localId, remoteId, null);
+                    service.serve(destination, channel);
+                    channel.close();
+                } catch (IOException | InterruptedException ignored) {
+                    // connection dropped while serving
+                } finally {
+                    channels.remove(localId);
+                }
+            });
+        }
+
+        private void sendToken() throws IOException {
+            token = new byte[20];
+            random.nextBytes(token);
+            send(AdbProtocol.A_AUTH, AdbProtocol.AUTH_TOKEN, 0, token);
+        }
+
+        private void sendBanner() throws IOException {
+            send(AdbProtocol.A_CNXN, AdbProtocol.A_VERSION, AdbProtocol.MAX_PAYLOAD,
+                    BANNER.getBytes(StandardCharsets.UTF_8));
+        }
+
+        private boolean verify(byte[] signature) {
+            PublicKey key = trustedKey;
+            if (key == null || token == null) {
+                return false;
+            }
+            try {
+                Cipher cipher = Cipher.getInstance("RSA/ECB/NoPadding");
+                cipher.init(Cipher.DECRYPT_MODE, key);
+                byte[] block = cipher.doFinal(signature);
+                byte[] tail = Arrays.copyOfRange(block, block.length - token.length, block.length);
+                return Arrays.equals(tail, token);
+            } catch (Exception e) {
+                return false;
+            }
+        }
+
+        void send(int command, int arg0, int arg1, byte[] data) throws IOException {
+            synchronized (writeHeader) {
+                AdbMessage.write(out, writeHeader, command, arg0, arg1, data, 0, data != null ? data.length : 0);
+            }
+        }
+    }
+
+    // Decodes the mincrypt RSAPublicKey struct that AdbCrypto.publicKeyPayload() produces
+    static PublicKey parsePublicKey(String payload) {
+        try {
+            String encoded = payload.substring(0, payload.indexOf(' '));
+            byte[] struct = Base64.getDecoder().decode(encoded);
+            int words = AdbMessage.getInt(struct, 0);
+            BigInteger modulus = BigInteger.ZERO;
+            for (int i = words - 1; i >= 0; i--) {
+                long word = AdbMessage.getInt(struct, 8 + i * 4) & 0xffffffffL;
+                modulus = modulus.shiftLeft(32).or(BigInteger.valueOf(word));
+            }
+            int exponent = AdbMessage.getInt(struct, 8 + words * 8);
+            return KeyFactory.getInstance("RSA")
+                    .generatePublic(new RSAPublicKeySpec(modulus, BigInteger.valueOf(exponent)));
+        } catch (Exception e) {
+            throw new IllegalArgumentException("Bad public key payload", e);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.example.tvremote.control;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.example.tvremote.adb.AdbSessions;
+import com.example.tvremote.adb.DevicePool;
+import com.example.tvremote.task.Lanes;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ControlApiTest {
+    private static final class RecordingPeer implements Peer {
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+
+        @Override
+        public boolean emit(String event, String data) {
+            events.add(event + " " + data);
+            return true;
+        }
+
+        @Override
+        public boolean sendScreen(ScreenFrame frame) {
+            return true;
+        }
+    }
+
+    private final AdbSessions sessions = new AdbSessions(new File("unused"));
+    private final DevicePool pool = new DevicePool(sessions);
+    private final Lanes lanes = new Lanes();
+    private final ControlApi api = new ControlApi(sessions, pool, lanes);
+    private final RecordingPeer peer = new RecordingPeer();
+
+    @After
+    public void tearDown() {
+        pool.close();
+        lanes.shutdown();
+    }
+
+    @Test
+    public void onlyPlainInputCommandsAreAllowed() {
+        assertTrue(ControlApi.isAllowedCommand("input keyevent KEYCODE_HOME"));
+        assertTrue(ControlApi.isAllowedCommand("input tap 10 20"));
+        assertTrue(ControlApi.isAllowedCommand("input swipe 0 0 100 100 300"));
+        assertTrue(ControlApi.isAllowedCommand("input text hello%sworld"));
+        assertTrue(ControlApi.isAllowedCommand("input keyevent --longpress 26"));
+        assertFalse(ControlApi.isAllowedCommand("reboot"));
+        assertFalse(ControlApi.isAllowedCommand("input text a; reboot"));
+        assertFalse(ControlApi.isAllowedCommand("input text $(reboot)"));
+        assertFalse(ControlApi.isAllowedCommand(null));
+        assertFalse(ControlApi.isAllowedCommand("input keyevent"));
+        assertFalse(ControlApi.isAllowedCommand("input roll 1 1"));
+        // Would comment out or swallow the ack marker that follows on the shell line
+        assertFalse(ControlApi.isAllowedCommand("input keyevent 3 #"));
+        assertFalse(ControlApi.isAllowedCommand("input text 'hi"));
+        assertFalse(ControlApi.isAllowedCommand("input text \"hi"));
+        assertFalse(ControlApi.isAllowedCommand("input text hi\\"));
+
+        api.handle(peer, "sendCommand", data("deviceId", "10.0.0.2:5555", "command", "rm -rf /"));
+        assertEquals(Collections.singletonList("commandResponse {\"error\":\"Unauthorized command\"}"), peer.events);
+    }
+
+    @Test
+    public void repliesLikeServerJs() {
+        api.handle(peer, "sendTap", data());
+        api.handle(peer, "listDevices", data());
+        api.handle(peer, "scanNetwork", data());
+        api.handle(peer, "stopScreenCapture", data());
+        api.handle(peer, "reboot", data());
+        assertEquals(Arrays.asList(
+                "commandResponse {\"error\":\"No device ID provided\"}",
+                "devicesList {\"devices\":[]}",
+                "scanStatus {\"status\":\"Starting network scan...\"}",
+                "scanStatus {\"status\":\"Error: Could not determine network range\"}",
+                "screenCaptureStopped null",
+                "error {\"error\":\"Unknown event reboot\"}"), peer.events);
+    }
+
+    @Test
+    public void listsPooledDevicesOverHttpToo() {
+        pool.add("10.0.0.2:5555");
+        String json = api.onGet("/devices");
+        assertTrue(json, json.startsWith("{\"devices\":[{\"id\":\"10.0.0.2:5555\",\"status\":"));
+        assertNull(api.onGet("/other"));
+    }
+
+    private static Map<String, Object> data(String... pairs) {
+        Map<String, Object> data = new HashMap<>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            data.put(pairs[i], pairs[i + 1]);
+        }
+        return data;
+    }
+}
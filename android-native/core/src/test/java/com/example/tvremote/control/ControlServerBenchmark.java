@@ -0,0 +1,116 @@
+package com.example.tvremote.control;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * WebSocket event round trips through the one-thread {@link ControlServer}, with 64 clients
+ * each waiting for its answer before sending again, the way kiosks drive it.
+ * Run with `./gradlew :core:benchmark -Pjmh=ControlServer`.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(64)
+@Fork(1)
+public class ControlServerBenchmark {
+    private static final String TOKEN = "0123456789abcdef";
+    private static final byte[] PING = "{\"event\":\"ping\",\"data\":null}".getBytes(StandardCharsets.UTF_8);
+
+    @State(Scope.Benchmark)
+    public static class Server {
+        ControlServer server;
+
+        @Setup
+        public void setUp() throws IOException {
+            server = new ControlServer(new ControlServer.Handler() {
+                @Override
+                public void onOpen(ControlServer.Client client) {
+                }
+
+                @Override
+                public void onEvent(ControlServer.Client client, String event, Map<String, Object> data) {
+                    client.emit("pong", null);
+                }
+
+                @Override
+                public void onClose(ControlServer.Client client) {
+                }
+
+                @Override
+                public String onGet(String path) {
+                    return null;
+                }
+            }, TOKEN);
+            server.start(InetAddress.getLoopbackAddress(), 0);
+        }
+
+        @TearDown
+        public void tearDown() {
+            server.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Client {
+        Socket socket;
+        DataInputStream in;
+        OutputStream out;
+        final byte[] ping = WebSocketTest.masked(WebSocket.OP_TEXT, true, PING);
+        final byte[] reply = new byte[125];
+
+        @Setup
+        public void setUp(Server server) throws IOException {
+            socket = new Socket(InetAddress.getLoopbackAddress(), server.server.getPort());
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(socket.getInputStream());
+            out = socket.getOutputStream();
+            out.write(("GET /socket?token=" + TOKEN + " HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\n"
+                    + "Connection: Upgrade\r\nSec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n\r\n")
+                    .getBytes(StandardCharsets.ISO_8859_1));
+            int matched = 0;
+            while (matched < 4) {
+                int b = in.read();
+                if (b < 0) {
+                    throw new IOException("Upgrade refused");
+                }
+                matched = b == "\r\n\r\n".charAt(matched) ? matched + 1 : (b == '\r' ? 1 : 0);
+            }
+        }
+
+        @TearDown
+        public void tearDown() throws IOException {
+            socket.close();
+        }
+    }
+
+    @Benchmark
+    public int roundTrip(Client client) throws IOException {
+        client.out.write(client.ping);
+        // Short text frames only: two header bytes, then the payload
+        client.in.readUnsignedByte();
+        int length = client.in.readUnsignedByte() & 0x7f;
+        client.in.readFully(client.reply, 0, length);
+        return length;
+    }
+}
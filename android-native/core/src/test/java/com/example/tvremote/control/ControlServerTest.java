@@ -0,0 +1,318 @@
+package com.example.tvremote.control;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ControlServerTest {
+    private static final int FRAME_SIZE = 8 * 1024 * 1024;
+    private static final String TOKEN = "0123456789abcdef";
+
+    // Echoes "ping" as "pong" with the same data; "frames" sends three large binary frames at once
+    private final class EchoHandler implements ControlServer.Handler {
+        final AtomicInteger opened = new AtomicInteger();
+        final AtomicInteger closed = new AtomicInteger();
+        final List<Boolean> binaryResults = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onOpen(ControlServer.Client client) {
+            opened.incrementAndGet();
+        }
+
+        @Override
+        public void onEvent(ControlServer.Client client, String event, Map<String, Object> data) {
+            if (event.equals("ping")) {
+                client.emit("pong", "{\"n\":" + Json.getInt(data, "n", -1) + "}");
+            } else if (event.equals("frames")) {
+                for (int i = 0; i < 3; i++) {
+                    binaryResults.add(client.sendBinary(frame));
+                }
+                client.emit("done", null);
+            }
+        }
+
+        @Override
+        public void onClose(ControlServer.Client client) {
+            closed.incrementAndGet();
+        }
+
+        @Override
+        public String onGet(String path) {
+            return path.equals("/devices") ? "{\"devices\":[]}" : null;
+        }
+    }
+
+    private static final class Frame {
+        final int opcode;
+        final byte[] payload;
+
+        Frame(int opcode, byte[] payload) {
+            this.opcode = opcode;
+            this.payload = payload;
+        }
+
+        String text() {
+            return new String(payload, StandardCharsets.UTF_8);
+        }
+    }
+
+    // Blocking client, one thread each, so the test and not the server pays for the threads
+    private static final class TestClient implements Closeable {
+        final Socket socket;
+        final DataInputStream in;
+        final OutputStream out;
+
+        TestClient(int port) throws IOException {
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            socket.setSoTimeout(10000);
+            in = new DataInputStream(socket.getInputStream());
+            out = socket.getOutputStream();
+            String key = "dGhlIHNhbXBsZSBub25jZQ==";
+            out.write(("GET /socket?token=" + TOKEN + " HTTP/1.1\r\nHost: localhost\r\nUpgrade: websocket\r\nConnection: Upgrade\r\n"
+                    + "Sec-WebSocket-Key: " + key + "\r\nSec-WebSocket-Version: 13\r\n\r\n")
+                    .getBytes(StandardCharsets.ISO_8859_1));
+            String head = readHead(in);
+            assertTrue(head, head.startsWith("HTTP/1.1 101"));
+            assertTrue(head, head.contains("Sec-WebSocket-Accept: " + WebSocket.acceptKey(key)));
+        }
+
+        void emit(String event, String data) throws IOException {
+            send(WebSocket.OP_TEXT, ("{\"event\":\"" + event + "\",\"data\":" + data + "}").getBytes(StandardCharsets.UTF_8));
+        }
+
+        void send(int opcode, byte[] payload) throws IOException {
+            out.write(WebSocketTest.masked(opcode, true, payload));
+        }
+
+        Frame read() throws IOException {
+            int b0 = in.readUnsignedByte();
+            int b1 = in.readUnsignedByte();
+            long length = b1 & 0x7f;
+            if (length == 126) {
+                length = in.readUnsignedShort();
+            } else if (length == 127) {
+                length = in.readLong();
+            }
+            byte[] payload = new byte[(int) length];
+            in.readFully(payload);
+            return new Frame(b0 & 0x0f, payload);
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    private final ByteBuffer frame = WebSocket.frame(WebSocket.OP_BINARY, pattern(FRAME_SIZE));
+    private final EchoHandler handler = new EchoHandler();
+    private ControlServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new ControlServer(handler, TOKEN);
+        server.start(InetAddress.getLoopbackAddress(), 0);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void servesManyConcurrentClientsFromOneThread() throws Exception {
+        int clients = 200;
+        int roundTrips = 50;
+        CountDownLatch connected = new CountDownLatch(clients);
+        CountDownLatch go = new CountDownLatch(1);
+        AtomicInteger replies = new AtomicInteger();
+        List<Throwable> failures = new CopyOnWriteArrayList<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            Thread thread = new Thread(() -> {
+                try (TestClient client = new TestClient(server.getPort())) {
+                    connected.countDown();
+                    go.await();
+                    for (int i = 0; i < roundTrips; i++) {
+                        client.emit("ping", "{\"n\":" + i + "}");
+                        Frame reply = client.read();
+                        assertEquals(WebSocket.OP_TEXT, reply.opcode);
+                        assertEquals("{\"event\":\"pong\",\"data\":{\"n\":" + i + "}}", reply.text());
+                        replies.incrementAndGet();
+                    }
+                } catch (Throwable t) {
+                    failures.add(t);
+                    connected.countDown();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        assertTrue(connected.await(20, TimeUnit.SECONDS));
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertEquals(clients, server.getClientCount());
+        assertEquals(1, countThreads("control-server"));
+
+        go.countDown();
+        for (Thread thread : threads) {
+            thread.join(30000);
+        }
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertEquals(clients * roundTrips, replies.get());
+
+        awaitCount(handler.closed, clients);
+        assertEquals(0, server.getClientCount());
+    }
+
+    @Test
+    public void binaryFramesWaitingForASlowClientAreDropped() throws Exception {
+        try (TestClient client = new TestClient(server.getPort())) {
+            client.emit("frames", "null");
+            Frame first = client.read();
+            assertEquals(WebSocket.OP_BINARY, first.opcode);
+            assertArrayEquals(pattern(FRAME_SIZE), first.payload);
+            // The later two were offered while the first was still queued
+            assertEquals(Arrays.asList(true, false, false), handler.binaryResults);
+            assertEquals("{\"event\":\"done\",\"data\":null}", client.read().text());
+        }
+    }
+
+    @Test
+    public void answersPingsAndBadMessages() throws Exception {
+        try (TestClient client = new TestClient(server.getPort())) {
+            client.send(WebSocket.OP_PING, "hi".getBytes(StandardCharsets.UTF_8));
+            Frame pong = client.read();
+            assertEquals(WebSocket.OP_PONG, pong.opcode);
+            assertEquals("hi", pong.text());
+
+            client.send(WebSocket.OP_TEXT, "not json".getBytes(StandardCharsets.UTF_8));
+            Frame error = client.read();
+            assertTrue(error.text(), error.text().startsWith("{\"event\":\"error\""));
+        }
+    }
+
+    @Test
+    public void protocolErrorsCloseTheConnection() throws Exception {
+        try (TestClient client = new TestClient(server.getPort())) {
+            // Unmasked, as only a server may send
+            ByteBuffer unmasked = WebSocket.frame(WebSocket.OP_TEXT, new byte[4]);
+            client.out.write(unmasked.array(), 0, unmasked.remaining());
+            Frame close = client.read();
+            assertEquals(WebSocket.OP_CLOSE, close.opcode);
+            assertEquals(1002, ((close.payload[0] & 0xff) << 8) | (close.payload[1] & 0xff));
+            assertEquals(-1, client.in.read());
+        }
+        awaitCount(handler.closed, 1);
+    }
+
+    @Test
+    public void plainGetsAreAnsweredAsJson() throws Exception {
+        assertEquals("HTTP/1.1 200 OK|{\"devices\":[]}", get("/devices?token=" + TOKEN, ""));
+        assertEquals("HTTP/1.1 200 OK|{\"devices\":[]}", get("/devices", "Authorization: Bearer " + TOKEN + "\r\n"));
+        assertEquals("HTTP/1.1 404 Not Found|{\"error\":\"Not found\"}", get("/other?token=" + TOKEN, ""));
+        assertEquals(0, handler.opened.get());
+    }
+
+    @Test
+    public void requestsWithoutTheTokenOrFromOtherSitesAreRefused() throws Exception {
+        assertTrue(get("/devices", "").startsWith("HTTP/1.1 401"));
+        assertTrue(get("/devices?token=0123456789abcdee", "").startsWith("HTTP/1.1 401"));
+        String upgrade = "Upgrade: websocket\r\nConnection: Upgrade\r\nSec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n";
+        assertTrue(get("/socket", upgrade).startsWith("HTTP/1.1 401"));
+        // A page elsewhere that learned the token still cannot use it from the user's browser
+        assertTrue(get("/socket?token=" + TOKEN, upgrade + "Origin: http://evil.example\r\n").startsWith("HTTP/1.1 403"));
+        assertTrue(get("/devices?token=" + TOKEN, "Origin: http://localhost\r\n").startsWith("HTTP/1.1 200"));
+        assertEquals(0, handler.opened.get());
+    }
+
+    @Test
+    public void tokenIsKeptAcrossRestarts() throws Exception {
+        File file = File.createTempFile("control", ".token");
+        file.delete();
+        try {
+            String token = ControlServer.loadToken(file);
+            assertEquals(32, token.length());
+            assertEquals(token, ControlServer.loadToken(file));
+        } finally {
+            file.delete();
+        }
+    }
+
+    private String get(String target, String extraHeaders) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+            socket.setSoTimeout(10000);
+            socket.getOutputStream().write(("GET " + target + " HTTP/1.1\r\nHost: localhost\r\n" + extraHeaders + "\r\n")
+                    .getBytes(StandardCharsets.ISO_8859_1));
+            InputStream in = socket.getInputStream();
+            String head = readHead(in);
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            int b;
+            while ((b = in.read()) >= 0) {
+                body.write(b);
+            }
+            return head.substring(0, head.indexOf("\r\n")) + "|" + new String(body.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static String readHead(InputStream in) throws IOException {
+        StringBuilder head = new StringBuilder();
+        while (head.length() < 4 || head.lastIndexOf("\r\n\r\n") != head.length() - 4) {
+            int b = in.read();
+            if (b < 0) {
+                throw new IOException("Connection closed in headers: " + head);
+            }
+            head.append((char) b);
+        }
+        return head.toString();
+    }
+
+    private static byte[] pattern(int size) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) (i * 31 + (i >> 8));
+        }
+        return data;
+    }
+
+    private static int countThreads(String name) {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals(name)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void awaitCount(AtomicInteger counter, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (counter.get() < expected && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(expected, counter.get());
+    }
+}
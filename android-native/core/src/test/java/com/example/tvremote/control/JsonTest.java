@@ -0,0 +1,47 @@
+package com.example.tvremote.control;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+
+public class JsonTest {
+    @Test
+    @SuppressWarnings("unchecked")
+    public void parsesControlMessages() {
+        Map<String, Object> message = (Map<String, Object>) Json.parse(
+                "{ \"event\": \"sendSwipe\", \"data\": {\"x1\": 10, \"y1\": -2.5e1, \"ok\": true, \"none\": null, "
+                        + "\"list\": [1, \"a\\\"b\\u00e9\\n\"]} }");
+        assertEquals("sendSwipe", Json.getString(message, "event"));
+        Map<String, Object> data = (Map<String, Object>) message.get("data");
+        assertEquals(10, Json.getInt(data, "x1", 0));
+        assertEquals(-25, Json.getInt(data, "y1", 0));
+        assertEquals(7, Json.getInt(data, "missing", 7));
+        assertEquals(Boolean.TRUE, data.get("ok"));
+        assertNull(data.get("none"));
+        assertEquals(Arrays.asList(1.0, "a\"b\u00e9\n"), data.get("list"));
+    }
+
+    @Test
+    public void quotesStringsThatParseBack() {
+        String value = "say \"hi\"\\\n\u0001\u00e9";
+        StringBuilder json = new StringBuilder();
+        Json.appendString(json, value);
+        assertEquals(value, Json.parse(json.toString()));
+    }
+
+    @Test
+    public void rejectsMalformedInput() {
+        for (String bad : new String[] {"", "{", "{\"a\" 1}", "[1,]", "\"open", "tru", "{} x", "{\"a\":-}"}) {
+            try {
+                Json.parse(bad);
+                fail("Parsed " + bad);
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+}
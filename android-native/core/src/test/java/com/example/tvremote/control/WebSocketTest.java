@@ -0,0 +1,105 @@
+package com.example.tvremote.control;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class WebSocketTest {
+    // Client frame as a browser would send it
+    static byte[] masked(int opcode, boolean fin, byte[] payload) {
+        byte[] mask = {0x12, 0x34, 0x56, 0x78};
+        ByteBuffer frame = ByteBuffer.allocate(14 + payload.length);
+        frame.put((byte) ((fin ? 0x80 : 0) | opcode));
+        if (payload.length < 126) {
+            frame.put((byte) (0x80 | payload.length));
+        } else if (payload.length <= 0xffff) {
+            frame.put((byte) (0x80 | 126)).putShort((short) payload.length);
+        } else {
+            frame.put((byte) (0x80 | 127)).putLong(payload.length);
+        }
+        frame.put(mask);
+        for (int i = 0; i < payload.length; i++) {
+            frame.put((byte) (payload[i] ^ mask[i & 3]));
+        }
+        return Arrays.copyOf(frame.array(), frame.position());
+    }
+
+    @Test
+    public void acceptKeyMatchesTheRfcExample() {
+        assertEquals("s3pPLMBiTxaQ9kYGzzhZRbK+xOo=", WebSocket.acceptKey("dGhlIHNhbXBsZSBub25jZQ=="));
+    }
+
+    @Test
+    public void serverFramesUseTheShortestLength() {
+        assertEquals(2 + 5, WebSocket.frame(WebSocket.OP_TEXT, new byte[5]).remaining());
+        ByteBuffer medium = WebSocket.frame(WebSocket.OP_BINARY, new byte[300]);
+        assertEquals(4 + 300, medium.remaining());
+        assertEquals((byte) 0x82, medium.get(0));
+        assertEquals(126, medium.get(1));
+        assertEquals(300, medium.getShort(2));
+        ByteBuffer large = WebSocket.frame(WebSocket.OP_BINARY, new byte[70000]);
+        assertEquals(10 + 70000, large.remaining());
+        assertEquals(70000, large.getLong(2));
+    }
+
+    @Test
+    public void decodesFramesSplitAcrossReads() throws Exception {
+        byte[] payload = new byte[1000];
+        for (int i = 0; i < payload.length; i++) {
+            payload[i] = (byte) i;
+        }
+        byte[] frame = masked(WebSocket.OP_BINARY, true, payload);
+        WebSocket.Decoder decoder = new WebSocket.Decoder(4096);
+        ByteBuffer in = ByteBuffer.allocate(frame.length);
+        for (int i = 0; i < frame.length - 1; i++) {
+            in.put(frame[i]).flip();
+            assertFalse(decoder.next(in));
+            in.compact();
+        }
+        in.put(frame[frame.length - 1]).flip();
+        assertTrue(decoder.next(in));
+        assertEquals(WebSocket.OP_BINARY, decoder.opcode);
+        assertArrayEquals(payload, Arrays.copyOf(decoder.payload, decoder.length));
+        assertFalse(in.hasRemaining());
+    }
+
+    @Test
+    public void reassemblesFragmentsAroundControlFrames() throws Exception {
+        ByteBuffer in = ByteBuffer.allocate(256);
+        in.put(masked(WebSocket.OP_TEXT, false, "hel".getBytes(StandardCharsets.UTF_8)));
+        in.put(masked(WebSocket.OP_PING, true, "p".getBytes(StandardCharsets.UTF_8)));
+        in.put(masked(WebSocket.OP_CONTINUATION, true, "lo".getBytes(StandardCharsets.UTF_8)));
+        in.flip();
+        WebSocket.Decoder decoder = new WebSocket.Decoder(4096);
+        assertTrue(decoder.next(in));
+        assertEquals(WebSocket.OP_PING, decoder.opcode);
+        assertTrue(decoder.next(in));
+        assertEquals(WebSocket.OP_TEXT, decoder.opcode);
+        assertEquals("hello", new String(decoder.payload, 0, decoder.length, StandardCharsets.UTF_8));
+        assertFalse(decoder.next(in));
+    }
+
+    @Test
+    public void rejectsUnmaskedOversizedAndStrayFrames() {
+        expectProtocolError(Arrays.copyOf(WebSocket.frame(WebSocket.OP_TEXT, new byte[3]).array(), 5));
+        expectProtocolError(masked(WebSocket.OP_BINARY, true, new byte[200]));
+        expectProtocolError(masked(WebSocket.OP_CONTINUATION, true, new byte[3]));
+        expectProtocolError(masked(WebSocket.OP_PING, false, new byte[3]));
+    }
+
+    private static void expectProtocolError(byte[] frame) {
+        try {
+            new WebSocket.Decoder(100).next(ByteBuffer.wrap(frame));
+            fail("Accepted a bad frame");
+        } catch (WebSocket.ProtocolException expected) {
+        }
+    }
+}
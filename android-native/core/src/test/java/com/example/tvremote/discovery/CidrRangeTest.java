@@ -0,0 +1,41 @@
+package com.example.tvremote.discovery;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class CidrRangeTest {
+
+    @Test
+    public void skipsNetworkAndBroadcast() {
+        CidrRange range = CidrRange.parse("192.168.1.77/24");
+        assertEquals("192.168.1.0/24", range.toString());
+        assertEquals(254, range.size());
+        assertEquals("192.168.1.1", range.host(0));
+        assertEquals("192.168.1.254", range.host(253));
+    }
+
+    @Test
+    public void spansOctets() {
+        CidrRange range = CidrRange.parse("10.0.4.0/22");
+        assertEquals(1022, range.size());
+        assertEquals("10.0.4.255", range.host(254));
+        assertEquals("10.0.7.254", range.host(1021));
+    }
+
+    @Test
+    public void singleHosts() {
+        assertEquals("10.1.2.3", CidrRange.parse("10.1.2.3").host(0));
+        assertEquals(2, CidrRange.parse("10.1.2.3/31").size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsHugeRanges() {
+        CidrRange.parse("10.0.0.0/8");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsGarbage() {
+        CidrRange.parse("192.168.1/24");
+    }
+}
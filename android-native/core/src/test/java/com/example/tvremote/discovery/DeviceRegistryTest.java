@@ -0,0 +1,133 @@
+package com.example.tvremote.discovery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.example.tvremote.screen.DisplayGeometry;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class DeviceRegistryTest {
+    private static final String BANNER =
+            "device::ro.product.name=fake;ro.product.model=FakeTV;ro.product.device=fake;features=shell_v2,cmd,abb_exec\0";
+
+    @Test
+    public void parsesBannerModelAndFeatures() {
+        assertEquals("FakeTV", DeviceRegistry.bannerProperty(BANNER, "ro.product.model"));
+        int features = DeviceRegistry.parseFeatures(BANNER);
+        assertEquals(DeviceRegistry.FEATURE_SHELL_V2 | DeviceRegistry.FEATURE_CMD | DeviceRegistry.FEATURE_ABB_EXEC, features);
+        assertEquals(0, DeviceRegistry.parseFeatures("device::"));
+    }
+
+    @Test
+    public void usedDevicesReconnectUntilDisconnected() {
+        DeviceRegistry registry = new DeviceRegistry(new File("unused"));
+        registry.markUsed("10.0.0.2:5555", null, 1000);
+        registry.markUsed("10.0.0.3:5555", "Bedroom TV", 2000);
+        assertEquals("10.0.0.3:5555", registry.getAutoConnectDevice().serial);
+        assertEquals("10.0.0.3:5555", registry.devices().get(0).serial);
+        assertEquals(2, registry.autoConnectDevices().size());
+
+        registry.clearAutoConnect("10.0.0.3:5555");
+        assertEquals("10.0.0.2:5555", registry.getAutoConnectDevice().serial);
+        registry.clearAutoConnect("10.0.0.2:5555");
+        assertNull(registry.getAutoConnectDevice());
+        assertEquals(2, registry.devices().size());
+    }
+
+    @Test
+    public void latencyHistoryKeepsTheNewestSamples() {
+        DeviceRegistry registry = new DeviceRegistry(new File("unused"));
+        registry.onConnected("10.0.0.2:5555", BANNER, 42, 1000);
+        for (int i = 1; i <= 40; i++) {
+            registry.addLatency("10.0.0.2:5555", i * 1000000L);
+        }
+        DeviceRegistry.Device device = registry.get("10.0.0.2:5555");
+        assertEquals(DeviceRegistry.LATENCY_SAMPLES, device.getLatencySampleCount());
+        // Samples 25..40 ms remain
+        assertEquals(33000, device.getMedianLatencyMicros());
+    }
+
+    @Test
+    public void survivesReload() throws Exception {
+        File file = File.createTempFile("devices", ".registry");
+        try {
+            DeviceRegistry registry = new DeviceRegistry(file);
+            registry.markUsed("192.168.1.42:5555", "Living Room TV", 5000);
+            registry.onConnected("192.168.1.42:5555", BANNER, 0x1234567890abcdefL, 5100);
+            for (int i = 1; i <= 20; i++) {
+                registry.addLatency("192.168.1.42:5555", i * 1000000L);
+            }
+            registry.onConnected("192.168.1.9:5555", "device::ro.product.model=Box", 77, 100);
+            registry.addToGroup("192.168.1.42:5555", "Lobby");
+            registry.addToGroup("192.168.1.9:5555", "Lobby");
+            registry.addToGroup("192.168.1.9:5555", "Bar");
+            registry.setDisplayGeometry("192.168.1.42:5555", new DisplayGeometry(1920, 1080, 0, 48, 27, 48, 27));
+            registry.save();
+
+            DeviceRegistry reloaded = new DeviceRegistry(file);
+            reloaded.load();
+            List<DeviceRegistry.Device> devices = reloaded.devices();
+            assertEquals(2, devices.size());
+            DeviceRegistry.Device tv = reloaded.getAutoConnectDevice();
+            assertEquals("192.168.1.42:5555", tv.serial);
+            assertEquals("Living Room TV", tv.label());
+            assertEquals("FakeTV", tv.model);
+            assertTrue(tv.hasFeature(DeviceRegistry.FEATURE_CMD));
+            assertFalse(tv.hasFeature(DeviceRegistry.FEATURE_ABB));
+            assertTrue(tv.isAuthorized(0x1234567890abcdefL));
+            assertEquals(1, tv.connectCount);
+            assertEquals(new DisplayGeometry(1920, 1080, 0, 48, 27, 48, 27), reloaded.getDisplayGeometry(tv.serial));
+            assertNull(reloaded.getDisplayGeometry("192.168.1.9:5555"));
+            assertEquals(registry.get(tv.serial).getMedianLatencyMicros(), tv.getMedianLatencyMicros());
+
+            // The ring continues where it left off: the oldest reloaded sample is replaced first
+            reloaded.addLatency(tv.serial, 100000000L);
+            registry.addLatency(tv.serial, 100000000L);
+            assertEquals(registry.get(tv.serial).getMedianLatencyMicros(), tv.getMedianLatencyMicros());
+            assertEquals("Box", reloaded.get("192.168.1.9:5555").label());
+            assertEquals(Arrays.asList("Bar", "Lobby"), reloaded.groupNames());
+            assertEquals(Arrays.asList("192.168.1.42:5555", "192.168.1.9:5555"), reloaded.members("Lobby"));
+            reloaded.removeFromGroup("192.168.1.9:5555", "Bar");
+            assertEquals(Collections.singletonList("Lobby"), reloaded.groupNames());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void damagedFileLeavesRegistryAsItWas() throws Exception {
+        File file = File.createTempFile("devices", ".registry");
+        try {
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                out.write(new byte[] {'T', 'V', 'R', 'G', 1, 0, 5});
+            }
+            DeviceRegistry registry = new DeviceRegistry(file);
+            try {
+                registry.load();
+            } catch (IOException expected) {
+                // Truncated after the header
+            }
+            assertTrue(registry.devices().isEmpty());
+
+            // Devices already known are not thrown away by a reload that fails
+            registry.markUsed("192.168.1.42:5555", "Living Room TV", 5000);
+            try {
+                registry.load();
+            } catch (IOException expected) {
+            }
+            assertEquals(1, registry.devices().size());
+        } finally {
+            file.delete();
+        }
+    }
+}
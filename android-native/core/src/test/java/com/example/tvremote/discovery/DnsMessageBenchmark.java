@@ -0,0 +1,39 @@
+package com.example.tvremote.discovery;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Discovery parsing: an mDNS answer from an Android TV, as MdnsDiscovery receives one for
+ * every TV on the network after each query.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DnsMessageBenchmark {
+    private byte[] response;
+
+    @Setup
+    public void setUp() throws IOException {
+        response = DnsMessageTest.fixture("androidtvremote2-response.bin");
+    }
+
+    @Benchmark
+    public DnsMessage parseResponse() throws IOException {
+        return DnsMessage.parse(response, 0, response.length);
+    }
+}
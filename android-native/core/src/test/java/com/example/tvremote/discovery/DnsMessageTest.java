@@ -0,0 +1,101 @@
+package com.example.tvremote.discovery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+public class DnsMessageTest {
+
+    static byte[] fixture(String name) throws IOException {
+        try (InputStream in = DnsMessageTest.class.getResourceAsStream("/discovery/" + name)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static DnsMessage parse(String name) throws IOException {
+        byte[] data = fixture(name);
+        return DnsMessage.parse(data, 0, data.length);
+    }
+
+    @Test
+    public void parsesCompressedResponse() throws IOException {
+        DnsMessage message = parse("androidtvremote2-response.bin");
+        assertTrue(message.isResponse());
+        assertEquals(7, message.records.size());
+
+        DnsMessage.Record ptr = message.records.get(0);
+        assertEquals(DnsMessage.SECTION_ANSWER, ptr.section);
+        assertEquals("_androidtvremote2._tcp.local", ptr.name);
+        assertEquals("Living Room TV._androidtvremote2._tcp.local", ptr.target);
+        assertEquals(4500, ptr.ttl);
+
+        DnsMessage.Record txt = message.records.get(1);
+        assertEquals(Arrays.asList("bt=5C:CB:99:12:34:56"), txt.txt);
+        assertTrue(txt.cacheFlush);
+
+        DnsMessage.Record srv = message.records.get(2);
+        assertEquals(DnsMessage.TYPE_SRV, srv.type);
+        assertEquals("Android-7f3a.local", srv.target);
+        assertEquals(6466, srv.port);
+        assertEquals(DnsMessage.SECTION_ADDITIONAL, srv.section);
+
+        DnsMessage.Record a = message.records.get(3);
+        assertEquals("Android-7f3a.local", a.name);
+        assertEquals(42, a.data[3]);
+        assertEquals(16, message.records.get(4).data.length);
+        // NSEC is not interpreted but must not throw the following record off
+        assertEquals(47, message.records.get(6).type);
+        assertEquals("Android-7f3a.local", message.records.get(6).name);
+    }
+
+    @Test
+    public void parsesQueries() throws IOException {
+        DnsMessage message = parse("query.bin");
+        assertFalse(message.isResponse());
+        assertEquals(2, message.questions.size());
+        assertEquals("_adb-tls-connect._tcp.local", message.questions.get(1).name);
+        assertTrue(message.questions.get(0).unicastResponse);
+    }
+
+    @Test
+    public void queryRoundTrips() throws IOException {
+        byte[] query = DnsMessage.query(DnsMessage.TYPE_PTR, MdnsDiscovery.SERVICE_TYPES);
+        DnsMessage message = DnsMessage.parse(query, 0, query.length);
+        assertEquals(MdnsDiscovery.SERVICE_TYPES.length, message.questions.size());
+        for (int i = 0; i < MdnsDiscovery.SERVICE_TYPES.length; i++) {
+            assertEquals(MdnsDiscovery.SERVICE_TYPES[i], message.questions.get(i).name);
+            assertEquals(DnsMessage.TYPE_PTR, message.questions.get(i).type);
+        }
+    }
+
+    @Test
+    public void rejectsTruncatedPackets() throws IOException {
+        try {
+            parse("truncated.bin");
+            fail();
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().startsWith("Malformed DNS packet"));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void rejectsPointerLoops() throws IOException {
+        // One question whose name points at itself
+        byte[] packet = {0, 0, 0, 0, 0, 1, 0, 0, 0, 0, 0, 0, (byte) 0xc0, 12, 0, 12, 0, 1};
+        DnsMessage.parse(packet, 0, packet.length);
+    }
+}
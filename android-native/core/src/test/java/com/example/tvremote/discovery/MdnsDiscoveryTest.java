@@ -0,0 +1,130 @@
+package com.example.tvremote.discovery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+public class MdnsDiscoveryTest {
+
+    private static class Recorder implements MdnsDiscovery.Listener {
+        final List<MdnsDiscovery.Service> found = new ArrayList<>();
+        final List<MdnsDiscovery.Service> lost = new ArrayList<>();
+
+        @Override
+        public void onServiceFound(MdnsDiscovery.Service service) {
+            found.add(service);
+        }
+
+        @Override
+        public void onServiceLost(MdnsDiscovery.Service service) {
+            lost.add(service);
+        }
+    }
+
+    private static void feed(MdnsDiscovery discovery, String fixture) throws Exception {
+        byte[] data = DnsMessageTest.fixture(fixture);
+        discovery.onPacket(data, 0, data.length);
+    }
+
+    @Test
+    public void resolvesTvRemoteAnnouncementToAdbPort() throws Exception {
+        Recorder recorder = new Recorder();
+        MdnsDiscovery discovery = new MdnsDiscovery(recorder);
+        feed(discovery, "androidtvremote2-response.bin");
+        assertEquals(1, recorder.found.size());
+        MdnsDiscovery.Service service = recorder.found.get(0);
+        assertEquals("Living Room TV", service.getName());
+        assertEquals("192.168.1.42:5555", service.getAdbSerial());
+        assertEquals(6466, service.port);
+        assertFalse(service.requiresPairing());
+
+        // Repeated announcements are not reported again
+        feed(discovery, "androidtvremote2-response.bin");
+        assertEquals(1, recorder.found.size());
+
+        feed(discovery, "androidtvremote2-goodbye.bin");
+        assertEquals(1, recorder.lost.size());
+    }
+
+    @Test
+    public void waitsForAddressInALaterPacket() throws Exception {
+        Recorder recorder = new Recorder();
+        MdnsDiscovery discovery = new MdnsDiscovery(recorder);
+        feed(discovery, "adb-tls-connect-srv-only.bin");
+        assertTrue(recorder.found.isEmpty());
+        feed(discovery, "adb-tls-connect-address.bin");
+        assertEquals(1, recorder.found.size());
+        MdnsDiscovery.Service service = recorder.found.get(0);
+        assertEquals("192.168.1.57:37123", service.getAdbSerial());
+        assertTrue(service.requiresPairing());
+    }
+
+    @Test
+    public void hostsWithoutAnAddressAreQueriedWithBackOff() throws Exception {
+        MdnsDiscovery discovery = new MdnsDiscovery(new Recorder());
+        feed(discovery, "adb-tls-connect-srv-only.bin");
+        assertEquals(1, discovery.dueHostQueries(0).length);
+        // More packets naming the host do not bring the next query forward
+        feed(discovery, "adb-tls-connect-srv-only.bin");
+        assertEquals(0, discovery.dueHostQueries(500).length);
+        assertEquals(1, discovery.dueHostQueries(1000).length);
+        assertEquals(0, discovery.dueHostQueries(2500).length);
+        assertEquals(1, discovery.dueHostQueries(3000).length);
+        assertEquals(1, discovery.dueHostQueries(7000).length);
+        // Given up on until the next requery
+        assertEquals(0, discovery.dueHostQueries(60000).length);
+        discovery.requery();
+        feed(discovery, "adb-tls-connect-srv-only.bin");
+        assertEquals(1, discovery.dueHostQueries(60000).length);
+
+        feed(discovery, "adb-tls-connect-address.bin");
+        assertEquals(0, discovery.dueHostQueries(120000).length);
+    }
+
+    @Test
+    public void ignoresQueriesAndGarbage() throws Exception {
+        Recorder recorder = new Recorder();
+        MdnsDiscovery discovery = new MdnsDiscovery(recorder);
+        feed(discovery, "query.bin");
+        feed(discovery, "truncated.bin");
+        assertTrue(recorder.found.isEmpty());
+        assertEquals(1, discovery.getMalformedPackets());
+    }
+
+    @Test
+    public void cacheMergesSourcesAndSurvivesReload() throws Exception {
+        File file = File.createTempFile("devices", ".cache");
+        try {
+            DeviceCache cache = new DeviceCache(file);
+            long now = 1000000;
+            cache.put("192.168.1.42:5555", "FakeTV", DeviceCache.SOURCE_SCAN, DeviceCache.SCAN_TTL_MS, now);
+            cache.put("192.168.1.42:5555", "Living Room TV", DeviceCache.SOURCE_MDNS, 4500 * 1000L, now + 10);
+            cache.put("192.168.1.42:5555", "FakeTV", DeviceCache.SOURCE_SCAN, DeviceCache.SCAN_TTL_MS, now + 20);
+            cache.put("192.168.1.9:5555", null, DeviceCache.SOURCE_SCAN, 1000, now);
+            cache.save();
+
+            DeviceCache reloaded = new DeviceCache(file);
+            reloaded.load();
+            List<DeviceCache.Entry> entries = reloaded.entries(now + 5000);
+            assertEquals(2, entries.size());
+            DeviceCache.Entry tv = entries.get(0);
+            assertEquals("Living Room TV", tv.label());
+            assertEquals(DeviceCache.SOURCE_SCAN | DeviceCache.SOURCE_MDNS, tv.sources);
+            assertTrue(tv.isFresh(now + 5000));
+            assertFalse(entries.get(1).isFresh(now + 5000));
+            assertEquals("192.168.1.9:5555", entries.get(1).label());
+
+            reloaded.expire("192.168.1.42:5555", now + 6000);
+            assertFalse(reloaded.get("192.168.1.42:5555").isFresh(now + 6000));
+            assertTrue(reloaded.entries(now + DeviceCache.RETENTION_MS + 100).isEmpty());
+        } finally {
+            file.delete();
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.example.tvremote.discovery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.example.tvremote.adb.FakeAdbd;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+public class SubnetScannerTest {
+
+    /** Accepts connections and answers every one with a fixed reply (or nothing). */
+    private static class Listener implements AutoCloseable {
+        final ServerSocket server;
+        final List<Socket> sockets = Collections.synchronizedList(new ArrayList<Socket>());
+
+        Listener(byte[] reply) throws IOException {
+            server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+            Thread thread = new Thread(() -> {
+                try {
+                    while (true) {
+                        Socket socket = server.accept();
+                        sockets.add(socket);
+                        if (reply != null) {
+                            OutputStream out = socket.getOutputStream();
+                            out.write(reply);
+                            out.flush();
+                        }
+                    }
+                } catch (IOException closed) {
+                    // test finished
+                }
+            }, "fake-listener");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int port() {
+            return server.getLocalPort();
+        }
+
+        @Override
+        public void close() throws IOException {
+            server.close();
+            for (Socket socket : sockets) {
+                socket.close();
+            }
+        }
+    }
+
+    private static class Collector implements SubnetScanner.Listener {
+        final List<SubnetScanner.Result> results = Collections.synchronizedList(new ArrayList<SubnetScanner.Result>());
+        int lastDone;
+        int total;
+
+        @Override
+        public void onFound(SubnetScanner.Result result) {
+            results.add(result);
+        }
+
+        @Override
+        public void onProgress(int done, int total) {
+            lastDone = done;
+            this.total = total;
+        }
+
+        @Override
+        public void onComplete(int found, long elapsedNanos) {
+        }
+    }
+
+    @Test
+    public void scansSlash22AcrossManyPorts() throws Exception {
+        List<FakeAdbd> devices = new ArrayList<>();
+        List<Listener> others = new ArrayList<>();
+        try {
+            for (int i = 0; i < 6; i++) {
+                FakeAdbd adbd = new FakeAdbd();
+                adbd.setRequireAuth(i >= 4);
+                devices.add(adbd);
+            }
+            Listener silent = new Listener(null);
+            Listener http = new Listener("HTTP/1.1 400 Bad Request\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            Listener adbServer = new Listener("OKAY0004002a".getBytes(StandardCharsets.US_ASCII));
+            others.add(silent);
+            others.add(http);
+            others.add(adbServer);
+
+            int[] ports = new int[devices.size() + others.size()];
+            for (int i = 0; i < devices.size(); i++) {
+                ports[i] = devices.get(i).getPort();
+            }
+            for (int i = 0; i < others.size(); i++) {
+                ports[devices.size() + i] = others.get(i).port();
+            }
+
+            SubnetScanner scanner = new SubnetScanner();
+            scanner.setPorts(ports);
+            scanner.setAdbServerPort(adbServer.port());
+            scanner.setTimeouts(500, 300);
+            Collector collector = new Collector();
+            // Only 127.0.0.1 listens; the other 1021 hosts refuse on every port
+            CidrRange range = CidrRange.parse("127.0.0.0/22");
+            int found = scanner.scan(range, collector);
+
+            TreeSet<String> expected = new TreeSet<>();
+            for (int i = 0; i < devices.size(); i++) {
+                expected.add("127.0.0.1:" + devices.get(i).getPort() + (i >= 4 ? " (unauthorized)" : " (FakeTV)"));
+            }
+            expected.add("127.0.0.1:" + adbServer.port() + " (adb server 42)");
+            TreeSet<String> actual = new TreeSet<>();
+            for (SubnetScanner.Result result : collector.results) {
+                actual.add(result.toString());
+            }
+            assertEquals(expected, actual);
+            assertEquals(expected.size(), found);
+            assertEquals(range.size() * ports.length, collector.total);
+            assertEquals(collector.total, collector.lastDone);
+        } finally {
+            for (FakeAdbd adbd : devices) {
+                adbd.close();
+            }
+            for (Listener listener : others) {
+                listener.close();
+            }
+        }
+    }
+
+    @Test
+    public void cancelStopsTheScan() throws Exception {
+        try (Listener silent = new Listener(null)) {
+            SubnetScanner scanner = new SubnetScanner();
+            scanner.setPorts(silent.port());
+            scanner.setWindow(4);
+            scanner.setTimeouts(5000, 5000);
+            Collector collector = new Collector();
+            int[] completed = new int[1];
+            scanner.start(CidrRange.parse("127.0.0.1/32"), new SubnetScanner.Listener() {
+                @Override
+                public void onFound(SubnetScanner.Result result) {
+                    collector.onFound(result);
+                }
+
+                @Override
+                public void onProgress(int done, int total) {
+                }
+
+                @Override
+                public void onComplete(int found, long elapsedNanos) {
+                    synchronized (completed) {
+                        completed[0]++;
+                        completed.notifyAll();
+                    }
+                }
+            });
+            Thread.sleep(100);
+            scanner.cancel();
+            synchronized (completed) {
+                long deadline = System.currentTimeMillis() + 2000;
+                while (completed[0] == 0 && System.currentTimeMillis() < deadline) {
+                    completed.wait(100);
+                }
+            }
+            assertEquals(1, completed[0]);
+            assertTrue(collector.results.isEmpty());
+        }
+    }
+}
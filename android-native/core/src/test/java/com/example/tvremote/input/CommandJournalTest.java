@@ -0,0 +1,172 @@
+package com.example.tvremote.input;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+public class CommandJournalTest {
+    private static final long NOW = 1700000000000L;
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("input", ".journal");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void reopensWithTheEventsStillOpen() throws Exception {
+        CommandJournal journal = CommandJournal.open(file);
+        long first = journal.append(24, null, NOW);
+        journal.append(0, "am start -n com.example/.Main", NOW);
+        journal.append(25, null, NOW);
+        journal.complete(first);
+        journal.close();
+
+        journal = CommandJournal.open(file);
+        assertEquals(2, journal.depth());
+        List<CommandJournal.Entry> open = journal.replay(NOW);
+        assertEquals(2, open.size());
+        assertEquals("am start -n com.example/.Main", open.get(0).command);
+        assertNull(open.get(1).command);
+        assertEquals(25, open.get(1).code);
+        assertEquals(NOW, open.get(1).timeMillis);
+        // Sequence numbers carry on from the last run
+        assertEquals(4, journal.append(26, null, NOW));
+        journal.close();
+    }
+
+    @Test
+    public void replayDropsStaleNavigationAndCollapsesRepeats() throws Exception {
+        CommandJournal journal = CommandJournal.open(file);
+        journal.append(0, "input text 'hello'", NOW - 20000);
+        journal.append(22, null, NOW - 2000);
+        journal.append(26, null, NOW - 900);
+        journal.append(26, null, NOW - 600);
+        journal.append(26, null, NOW - 300);
+        journal.append(24, null, NOW - 200);
+        journal.append(24, null, NOW - 100);
+        journal.append(0, "input tap 10 20", NOW - 50);
+
+        List<CommandJournal.Entry> open = journal.replay(NOW);
+        assertEquals(5, open.size());
+        assertEquals("input text 'hello'", open.get(0).command);
+        assertEquals(26, open.get(1).code);
+        // Volume steps add up, so both stay
+        assertEquals(24, open.get(2).code);
+        assertEquals(24, open.get(3).code);
+        assertEquals("input tap 10 20", open.get(4).command);
+        assertEquals(3, journal.getStaleCount());
+        assertEquals(5, journal.depth());
+
+        // What was dropped is done for good
+        journal.close();
+        journal = CommandJournal.open(file);
+        assertEquals(5, journal.depth());
+        journal.close();
+    }
+
+    @Test
+    public void sentEventsAreReplayedOnlyIfTheyCanRunTwice() throws Exception {
+        CommandJournal journal = CommandJournal.open(file);
+        long key = journal.append(24, null, NOW);
+        long text = journal.append(0, "input text 'hi'", NOW);
+        long delete = journal.append(TextInjector.KEYCODE_DEL, null, NOW);
+        long power = journal.append(26, null, NOW);
+        journal.append(0, "input text 'there'", NOW);
+        journal.markSent(key);
+        journal.markSent(text);
+        journal.markSent(delete);
+        journal.markSent(power);
+        journal.close();
+
+        // What was sent is known after a restart too
+        journal = CommandJournal.open(file);
+        List<CommandJournal.Entry> open = journal.replay(NOW);
+        assertEquals(2, open.size());
+        assertEquals(24, open.get(0).code);
+        assertEquals("input text 'there'", open.get(1).command);
+        assertEquals(3, journal.getUnconfirmedCount());
+        assertEquals(0, journal.getStaleCount());
+        assertEquals(2, journal.depth());
+        journal.close();
+    }
+
+    @Test
+    public void repeatsFarApartAreKept() throws Exception {
+        CommandJournal journal = CommandJournal.open(file);
+        journal.append(3, null, NOW - 8000);
+        journal.append(3, null, NOW - 1000);
+        assertEquals(2, journal.replay(NOW).size());
+        journal.close();
+    }
+
+    @Test
+    public void compactsWhenTheMapFillsUp() throws Exception {
+        CommandJournal journal = CommandJournal.open(file, 4096);
+        for (int i = 0; i < 1000; i++) {
+            long seq = journal.append(0, "input text 'chunk " + i + "'", NOW);
+            if (i < 995) {
+                journal.complete(seq);
+            } else if (i == 996) {
+                journal.markSent(seq);
+            }
+        }
+        // Enough after the last open event that it was copied at least once
+        for (int i = 0; i < 100; i++) {
+            journal.complete(journal.append(0, "input text 'filler'", NOW));
+        }
+        assertEquals(5, journal.depth());
+        assertEquals(4096, file.length());
+        journal.close();
+
+        journal = CommandJournal.open(file, 4096);
+        List<CommandJournal.Entry> open = journal.replay(NOW);
+        // The copy kept the record of what was sent
+        assertEquals(1, journal.getUnconfirmedCount());
+        assertEquals(4, open.size());
+        assertEquals("input text 'chunk 995'", open.get(0).command);
+        assertEquals("input text 'chunk 997'", open.get(1).command);
+        assertEquals(1000, open.get(3).seq);
+        journal.close();
+    }
+
+    @Test
+    public void recordCutShortEndsTheLog() throws Exception {
+        CommandJournal journal = CommandJournal.open(file);
+        journal.append(0, "am start -n com.example/.Main", NOW);
+        journal.append(0, "am start -n com.example/.Other", NOW);
+        journal.close();
+        // The second record's length was never written: header, then one whole record
+        int second = 8 + 4 + 1 + 8 + 8 + 4 + 2 + "am start -n com.example/.Main".length();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(second);
+        raf.writeInt(0);
+        raf.close();
+
+        journal = CommandJournal.open(file);
+        assertEquals(1, journal.depth());
+        journal.append(4, null, NOW);
+        journal.close();
+
+        // A shorter record took its place, and nothing of the old bytes is read after it
+        journal = CommandJournal.open(file);
+        List<CommandJournal.Entry> open = journal.replay(NOW);
+        assertEquals(2, open.size());
+        assertEquals(4, open.get(1).code);
+        journal.close();
+    }
+}
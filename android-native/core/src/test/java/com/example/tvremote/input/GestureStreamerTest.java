@@ -0,0 +1,152 @@
+package com.example.tvremote.input;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import com.example.tvremote.screen.DisplayGeometry;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class GestureStreamerTest {
+
+    private static final class FakeSink implements GestureStreamer.Sink {
+        final List<String> frames = new ArrayList<>();
+        boolean accept = true;
+        boolean backlogged;
+        InputAgentClient.PingListener ping;
+
+        @Override
+        public boolean motion(int action, int x, int y) {
+            if (accept) {
+                frames.add(action + ":" + x + "," + y);
+            }
+            return accept;
+        }
+
+        @Override
+        public boolean isBacklogged() {
+            return backlogged;
+        }
+
+        @Override
+        public boolean ping(InputAgentClient.PingListener listener) {
+            ping = listener;
+            return accept;
+        }
+    }
+
+    private final List<String> ended = new ArrayList<>();
+    // A 480x270 pad driving a 1920x1080 TV
+    private final TouchMapping pad = new TouchMapping();
+
+    private GestureStreamer streamer() {
+        GestureStreamer streamer = new GestureStreamer(null, GestureStreamer.DEFAULT_INTERVAL_MS);
+        pad.setFullDisplay(480, 270, DisplayGeometry.DEFAULT);
+        streamer.setListener((x, y, toX, toY, durationMs, streamed) ->
+                ended.add(x + "," + y + "->" + toX + "," + toY + " " + durationMs + "ms " + streamed));
+        return streamer;
+    }
+
+    @Test
+    public void dragBecomesOneContinuousStream() {
+        FakeSink sink = new FakeSink();
+        GestureStreamer streamer = streamer();
+        streamer.down(sink, pad, 10, 10, 0);
+        streamer.tick(0);
+        // A burst of touch events between two samples is one MOVE at the newest position
+        for (int i = 1; i <= 10; i++) {
+            streamer.move(10 + i, 10, i * 1000000L);
+        }
+        streamer.tick(16000000L);
+        streamer.tick(32000000L);
+        streamer.move(100, 50, 40000000L);
+        streamer.tick(48000000L);
+        streamer.up(120, 60, 50000000L);
+        streamer.tick(64000000L);
+        streamer.tick(80000000L);
+
+        assertEquals(Arrays.asList("0:40,40", "2:80,40", "2:400,200", "2:480,240", "1:480,240"), sink.frames);
+        assertEquals(Arrays.asList("40,40->480,240 50ms true"), ended);
+        assertEquals(2, streamer.getSentMoves());
+    }
+
+    @Test
+    public void staleMovesAreDroppedWhileTheLinkIsBehind() {
+        FakeSink sink = new FakeSink();
+        GestureStreamer streamer = streamer();
+        streamer.down(sink, pad, 0, 0, 0);
+        streamer.tick(0);
+        sink.backlogged = true;
+        for (int i = 1; i <= 5; i++) {
+            streamer.move(i * 10, 0, i * 16000000L);
+            streamer.tick(i * 16000000L);
+        }
+        assertEquals(1, sink.frames.size());
+        sink.backlogged = false;
+        streamer.tick(96000000L);
+        // Coordinates are clamped to the display
+        streamer.up(1000, 1000, 100000000L);
+        sink.backlogged = true;
+        streamer.tick(112000000L);
+
+        assertEquals(Arrays.asList("0:0,0", "2:200,0", "2:1919,1079", "1:1919,1079"), sink.frames);
+        assertEquals(5, streamer.getDroppedMoves());
+    }
+
+    @Test
+    public void gestureIsHandedBackWhenTheAgentIsNotRunning() {
+        FakeSink sink = new FakeSink();
+        sink.accept = false;
+        GestureStreamer streamer = streamer();
+        streamer.down(sink, pad, 100, 100, 0);
+        streamer.tick(0);
+        streamer.move(200, 100, 100000000L);
+        streamer.tick(16000000L);
+        streamer.up(300, 100, 300000000L);
+        streamer.tick(32000000L);
+        assertTrue(sink.frames.isEmpty());
+        assertEquals(Arrays.asList("400,400->1200,400 300ms false"), ended);
+    }
+
+    @Test
+    public void acknowledgementsMeasureTouchToInjectLatency() throws Exception {
+        FakeSink sink = new FakeSink();
+        GestureStreamer streamer = streamer();
+        long touched = System.nanoTime();
+        streamer.down(sink, pad, 10, 10, touched);
+        streamer.tick(touched);
+        assertNotNull(sink.ping);
+        Thread.sleep(5);
+        sink.ping.onPingAnswered(1000000L);
+        assertTrue(streamer.getLastLatencyNanos() >= 5000000L);
+        assertFalse(streamer.summary().isEmpty());
+
+        // The UP is always timed, even inside the sampling interval
+        sink.ping = null;
+        streamer.up(10, 10, System.nanoTime());
+        streamer.tick(touched + 1000000L);
+        assertNotNull(sink.ping);
+        sink.ping.onPingAnswered(1000000L);
+        assertTrue(streamer.getMaxLatencyNanos() >= streamer.getLastLatencyNanos());
+    }
+
+    @Test
+    public void newGestureFlushesAnUnfinishedOne() {
+        FakeSink sink = new FakeSink();
+        GestureStreamer streamer = streamer();
+        streamer.down(sink, pad, 10, 10, 0);
+        streamer.tick(0);
+        streamer.move(20, 10, 1000000L);
+        // No UP (e.g. a lost event), then a new touch
+        streamer.down(sink, pad, 50, 50, 2000000L);
+        streamer.tick(16000000L);
+        assertEquals(Arrays.asList("0:40,40", "2:80,40", "1:80,40", "0:200,200"), sink.frames);
+        assertEquals(1, ended.size());
+    }
+}
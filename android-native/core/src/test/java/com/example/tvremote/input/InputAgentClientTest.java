@@ -0,0 +1,160 @@
+package com.example.tvremote.input;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.example.tvremote.adb.AdbCrypto;
+import com.example.tvremote.adb.AdbSession;
+import com.example.tvremote.adb.FakeAdbd;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class InputAgentClientTest {
+
+    @Test
+    public void deliversFramesAndMeasuresPing() throws Exception {
+        List<String> received = Collections.synchronizedList(new ArrayList<String>());
+        FakeAdbd adbd = new FakeAdbd();
+        // Stands in for InputAgent: decodes frames and echoes pings
+        adbd.setService((destination, channel) -> {
+            if (!destination.equals("localabstract:" + InputAgentClient.SOCKET_NAME)) {
+                return;
+            }
+            InputFrameDecoder decoder = new InputFrameDecoder();
+            InputFrameEncoder replies = new InputFrameEncoder(64);
+            InputFrame frame = new InputFrame();
+            byte[] data;
+            while ((data = channel.read()) != null) {
+                decoder.feed(data, 0, data.length);
+                while (decoder.next(frame)) {
+                    received.add(frame.toString());
+                    if (frame.type == InputFrame.TYPE_PING) {
+                        replies.putPing(frame.seq);
+                        channel.write(Arrays.copyOf(replies.array(), replies.size()));
+                        replies.reset();
+                    }
+                }
+            }
+        });
+        AdbCrypto crypto = AdbCrypto.generate("test@host");
+        AdbSession session = new AdbSession("127.0.0.1", adbd.getPort(), () -> crypto);
+        try {
+            InputAgentClient agent = session.getInputAgent(new File("unused.apk"));
+            assertFalse(agent.tap(1, 1));
+            agent.startAsync();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!agent.isReady() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertTrue(agent.isReady());
+            assertTrue(agent.tap(100, 200));
+            assertTrue(agent.pressKey(23));
+            assertTrue(agent.ping());
+            while (agent.getLastRoundTripNanos() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            assertTrue(agent.getLastRoundTripNanos() > 0);
+            assertEquals("MOTION(0, 100,200, p=65535)", received.get(0));
+            assertEquals("MOTION(1, 100,200, p=0)", received.get(1));
+            assertEquals("KEY(0, 23, meta=0)", received.get(2));
+            assertEquals("KEY(1, 23, meta=0)", received.get(3));
+        } finally {
+            session.close();
+            adbd.close();
+        }
+    }
+
+    @Test
+    public void inputTheAgentDidNotConfirmGoesToThePipeline() throws Exception {
+        List<String> shellLines = Collections.synchronizedList(new ArrayList<String>());
+        AtomicBoolean confirming = new AtomicBoolean(true);
+        Pattern ack = Pattern.compile("echo @ack' '(\\d+)");
+        FakeAdbd adbd = new FakeAdbd();
+        adbd.setService((destination, channel) -> {
+            byte[] data;
+            if (destination.equals("shell:")) {
+                StringBuilder pending = new StringBuilder();
+                while ((data = channel.read()) != null) {
+                    pending.append(new String(data, StandardCharsets.UTF_8));
+                    int newline;
+                    while ((newline = pending.indexOf("\n")) >= 0) {
+                        String line = pending.substring(0, newline);
+                        pending.delete(0, newline + 1);
+                        shellLines.add(line);
+                        Matcher m = ack.matcher(line);
+                        if (m.find()) {
+                            channel.write("@ack " + m.group(1) + "\r\n");
+                        }
+                    }
+                }
+                return;
+            }
+            // An agent that stops echoing confirmations, as if the link went quiet
+            InputFrameDecoder decoder = new InputFrameDecoder();
+            InputFrameEncoder replies = new InputFrameEncoder(64);
+            InputFrame frame = new InputFrame();
+            while ((data = channel.read()) != null) {
+                decoder.feed(data, 0, data.length);
+                while (decoder.next(frame)) {
+                    if (frame.type == InputFrame.TYPE_PING && confirming.get()) {
+                        replies.putPing(frame.seq);
+                        channel.write(Arrays.copyOf(replies.array(), replies.size()));
+                        replies.reset();
+                    }
+                }
+            }
+        });
+        File journal = File.createTempFile("input", ".journal");
+        journal.delete();
+        AdbCrypto crypto = AdbCrypto.generate("test@host");
+        AdbSession session = new AdbSession("127.0.0.1", adbd.getPort(), () -> crypto);
+        session.setJournalFile(journal);
+        try {
+            InputAgentClient agent = session.getInputAgent(new File("unused.apk"));
+            InputPipeline pipeline = session.getInputPipeline();
+            agent.startAsync();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!agent.isReady() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertTrue(agent.pressKey(24));
+            while (pipeline.getJournalDepth() + agent.getJournalDepth() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(0, agent.getJournalDepth());
+
+            confirming.set(false);
+            assertTrue(agent.pressKey(25));
+            assertTrue(agent.tap(5, 5));
+            Thread.sleep(100);
+            assertEquals(2, agent.getJournalDepth());
+            adbd.dropConnections();
+
+            // The key can run twice without harm; the tap may have landed and is given up
+            while (pipeline.getAckedEvents() < 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(1, pipeline.getAckedEvents());
+            assertEquals(1, shellLines.size());
+            assertTrue(shellLines.get(0), shellLines.get(0).startsWith("input keyevent 25;"));
+            assertEquals(1, pipeline.getFailedEvents());
+            assertEquals(0, agent.getJournalDepth());
+        } finally {
+            session.close();
+            adbd.close();
+            journal.delete();
+            new File(journal.getParentFile(), "agent-" + journal.getName()).delete();
+        }
+    }
+}
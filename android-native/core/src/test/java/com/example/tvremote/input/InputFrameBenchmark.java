@@ -0,0 +1,57 @@
+package com.example.tvremote.input;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Input agent frames: a one-second swipe as a macro segment sends it (a SCHEDULE before
+ * each of 62 MOVEs, 16 ms apart), encoded and then decoded as the agent does. Both sides are
+ * meant to run without allocating.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InputFrameBenchmark {
+    private static final int MOVES = 62;
+
+    private final InputFrameEncoder encoder = new InputFrameEncoder(4096);
+    private final InputFrameDecoder decoder = new InputFrameDecoder();
+    private final InputFrame frame = new InputFrame();
+
+    @Benchmark
+    public int encodeSwipe() {
+        encoder.reset();
+        encoder.putSchedule(InputFrame.SCHEDULE_RESET, 0);
+        encoder.putMotion(InputFrame.ACTION_DOWN, 0, 100, 540, 1);
+        for (int i = 1; i <= MOVES; i++) {
+            encoder.putSchedule(0, i * 16);
+            encoder.putMotion(InputFrame.ACTION_MOVE, 0, 100 + i * 27, 540, 1);
+        }
+        encoder.putMotion(InputFrame.ACTION_UP, 0, 100 + MOVES * 27, 540, 0);
+        return encoder.size();
+    }
+
+    @Benchmark
+    public int decodeSwipe() throws IOException {
+        int size = encodeSwipe();
+        decoder.feed(encoder.array(), 0, size);
+        int frames = 0;
+        while (decoder.next(frame)) {
+            frames++;
+        }
+        return frames;
+    }
+}
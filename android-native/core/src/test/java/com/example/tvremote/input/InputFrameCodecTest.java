@@ -0,0 +1,111 @@
+package com.example.tvremote.input;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+public class InputFrameCodecTest {
+
+    @Test
+    public void framesRoundTrip() throws Exception {
+        InputFrameEncoder encoder = new InputFrameEncoder(256);
+        assertTrue(encoder.putKey(InputFrame.ACTION_DOWN, 19, 0x41));
+        assertTrue(encoder.putMotion(InputFrame.ACTION_MOVE, 3, 1919, 1079, 1234));
+        assertTrue(encoder.putPing(-7));
+        assertTrue(encoder.putSchedule(InputFrame.SCHEDULE_RESET, 1500));
+        assertEquals(InputFrame.KEY_SIZE + InputFrame.MOTION_SIZE + InputFrame.PING_SIZE + InputFrame.SCHEDULE_SIZE,
+                encoder.size());
+
+        List<String> decoded = decode(encoder.array(), encoder.size(), encoder.size());
+        assertEquals("KEY(0, 19, meta=65)", decoded.get(0));
+        assertEquals("MOTION(2, 1919,1079, p=1234)", decoded.get(1));
+        assertEquals("PING(-7)", decoded.get(2));
+        assertEquals("SCHEDULE(1, 1500)", decoded.get(3));
+    }
+
+    @Test
+    public void framesSplitAcrossReadsAreReassembled() throws Exception {
+        InputFrameEncoder encoder = new InputFrameEncoder(1024);
+        for (int i = 0; i < 20; i++) {
+            encoder.putTap(i * 10, i * 5);
+            encoder.putKeyPress(20 + i, 0);
+        }
+        List<String> whole = decode(encoder.array(), encoder.size(), encoder.size());
+        for (int chunk = 1; chunk <= 13; chunk++) {
+            assertEquals("chunk size " + chunk, whole, decode(encoder.array(), encoder.size(), chunk));
+        }
+        assertEquals(80, whole.size());
+    }
+
+    @Test
+    public void encoderRefusesFramesThatDoNotFit() {
+        InputFrameEncoder encoder = new InputFrameEncoder(InputFrame.MOTION_SIZE + 4);
+        assertTrue(encoder.putMotion(InputFrame.ACTION_DOWN, 0, 1, 1, 1));
+        assertFalse(encoder.putKey(InputFrame.ACTION_DOWN, 1, 0));
+        assertFalse(encoder.putTap(1, 1));
+        assertEquals(InputFrame.MOTION_SIZE, encoder.size());
+    }
+
+    @Test(expected = java.io.IOException.class)
+    public void unknownFrameTypeIsRejected() throws Exception {
+        InputFrameDecoder decoder = new InputFrameDecoder();
+        decoder.feed(new byte[] {42, 0, 0, 0}, 0, 4);
+        decoder.next(new InputFrame());
+    }
+
+    @Test
+    public void encodingDoesNotAllocate() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        InputFrameEncoder encoder = new InputFrameEncoder(4096);
+        InputFrameDecoder decoder = new InputFrameDecoder();
+        InputFrame frame = new InputFrame();
+        // Warm up so JIT and class loading do not count
+        encodeAndDecode(encoder, decoder, frame, 100000);
+
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        encodeAndDecode(encoder, decoder, frame, 100000);
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+        assertTrue("allocated " + allocated + " bytes", allocated < 4096);
+    }
+
+    private static void encodeAndDecode(InputFrameEncoder encoder, InputFrameDecoder decoder,
+                                        InputFrame frame, int events) {
+        try {
+            for (int i = 0; i < events; i++) {
+                if (!encoder.putMotion(InputFrame.ACTION_MOVE, 0, i & 0xfff, i & 0x7ff, 100)) {
+                    decoder.feed(encoder.array(), 0, encoder.size());
+                    while (decoder.next(frame)) {
+                        // drain
+                    }
+                    encoder.reset();
+                }
+            }
+        } catch (java.io.IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static List<String> decode(byte[] data, int length, int chunk) throws Exception {
+        InputFrameDecoder decoder = new InputFrameDecoder();
+        InputFrame frame = new InputFrame();
+        List<String> frames = new ArrayList<>();
+        for (int offset = 0; offset < length; offset += chunk) {
+            decoder.feed(data, offset, Math.min(chunk, length - offset));
+            while (decoder.next(frame)) {
+                frames.add(frame.toString());
+            }
+        }
+        return frames;
+    }
+}
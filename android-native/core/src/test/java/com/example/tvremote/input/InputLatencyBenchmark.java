@@ -0,0 +1,148 @@
+package com.example.tvremote.input;
+
+import com.example.tvremote.adb.AdbConnection;
+import com.example.tvremote.adb.AdbCrypto;
+import com.example.tvremote.adb.AdbSession;
+import com.example.tvremote.adb.FakeAdbd;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * One key press, sent and confirmed, against FakeAdbd on loopback, so only our side of the
+ * path is measured. "shell" is a one-shot shell:input per key, "pipeline" the interactive
+ * shell of {@link InputPipeline} waiting for its ack, and "agent" a ping through
+ * {@link InputAgentClient}, which is echoed after everything before it was injected.
+ * Run with `./gradlew :core:benchmark -Pjmh=InputLatency`.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InputLatencyBenchmark {
+    private static final Pattern ACK = Pattern.compile("echo @ack' '(\\d+)");
+
+    @Param({"shell", "pipeline", "agent"})
+    public String path;
+
+    private FakeAdbd adbd;
+    private AdbSession session;
+    private AdbConnection connection;
+    private InputPipeline pipeline;
+    private InputAgentClient agent;
+    private final Object acks = new Object();
+    private long acked;
+
+    @Setup
+    public void setUp() throws Exception {
+        adbd = new FakeAdbd();
+        adbd.setService((destination, channel) -> {
+            byte[] data;
+            if (destination.equals("shell:")) {
+                StringBuilder pending = new StringBuilder();
+                while ((data = channel.read()) != null) {
+                    pending.append(new String(data, StandardCharsets.UTF_8));
+                    int newline;
+                    while ((newline = pending.indexOf("\n")) >= 0) {
+                        Matcher m = ACK.matcher(pending.substring(0, newline));
+                        pending.delete(0, newline + 1);
+                        if (m.find()) {
+                            channel.write("@ack " + m.group(1) + "\r\n");
+                        }
+                    }
+                }
+            } else if (destination.equals("localabstract:" + InputAgentClient.SOCKET_NAME)) {
+                // Stands in for InputAgent: echoes pings
+                InputFrameDecoder decoder = new InputFrameDecoder();
+                InputFrameEncoder replies = new InputFrameEncoder(64);
+                InputFrame frame = new InputFrame();
+                while ((data = channel.read()) != null) {
+                    decoder.feed(data, 0, data.length);
+                    while (decoder.next(frame)) {
+                        if (frame.type == InputFrame.TYPE_PING) {
+                            replies.putPing(frame.seq);
+                            channel.write(Arrays.copyOf(replies.array(), replies.size()));
+                            replies.reset();
+                        }
+                    }
+                }
+            }
+        });
+        AdbCrypto crypto = AdbCrypto.generate("bench@host");
+        session = new AdbSession("127.0.0.1", adbd.getPort(), () -> crypto);
+        connection = session.ensureConnected();
+        if (path.equals("pipeline")) {
+            pipeline = session.getInputPipeline();
+            pipeline.setListener(new InputPipeline.Listener() {
+                @Override
+                public void onAcked(int events, long latencyNanos) {
+                    synchronized (acks) {
+                        acked += events;
+                        acks.notifyAll();
+                    }
+                }
+
+                @Override
+                public void onError(IOException error) {
+                }
+            });
+            pipeline.warmUp();
+        } else if (path.equals("agent")) {
+            agent = session.getInputAgent(new File("unused.apk"));
+            agent.startAsync();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!agent.isReady() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            if (!agent.isReady()) {
+                throw new IllegalStateException("agent did not start");
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        session.close();
+        adbd.close();
+    }
+
+    @Benchmark
+    public boolean keyPress() throws Exception {
+        switch (path) {
+            case "shell":
+                connection.shell("input keyevent 20");
+                return true;
+            case "pipeline":
+                synchronized (acks) {
+                    long target = acked + 1;
+                    pipeline.submitKey(20);
+                    while (acked < target) {
+                        acks.wait();
+                    }
+                }
+                return true;
+            default:
+                return agent.ping() && agent.awaitPing(5000);
+        }
+    }
+}
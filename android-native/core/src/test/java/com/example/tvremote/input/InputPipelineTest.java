@@ -0,0 +1,298 @@
+package com.example.tvremote.input;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.example.tvremote.adb.AdbCrypto;
+import com.example.tvremote.adb.AdbSession;
+import com.example.tvremote.adb.FakeAdbd;
+import com.example.tvremote.metrics.DeviceMetrics;
+import com.example.tvremote.metrics.Metrics;
+
+import org.junit.After;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class InputPipelineTest {
+    private static final Pattern ACK = Pattern.compile("echo @ack' '(\\d+)");
+
+    private static AdbCrypto crypto;
+    private final FakeAdbd adbd;
+    private final List<String> lines = Collections.synchronizedList(new ArrayList<String>());
+    private volatile int lineDelayMs;
+    private volatile boolean acking = true;
+    private AdbSession session;
+
+    public InputPipelineTest() throws Exception {
+        adbd = new FakeAdbd();
+        // Interactive shell: runs each line after a delay and prints the ack marker
+        adbd.setService((destination, channel) -> {
+            StringBuilder pending = new StringBuilder();
+            byte[] data;
+            while ((data = channel.read()) != null) {
+                pending.append(new String(data, StandardCharsets.UTF_8));
+                int newline;
+                while ((newline = pending.indexOf("\n")) >= 0) {
+                    String line = pending.substring(0, newline);
+                    pending.delete(0, newline + 1);
+                    lines.add(line);
+                    sleep(lineDelayMs);
+                    Matcher m = ACK.matcher(line);
+                    if (acking && m.find()) {
+                        channel.write("@ack " + m.group(1) + "\r\n");
+                    }
+                }
+            }
+        });
+    }
+
+    @BeforeClass
+    public static void createKey() throws Exception {
+        crypto = AdbCrypto.generate("test@host");
+    }
+
+    @After
+    public void tearDown() {
+        if (session != null) {
+            session.close();
+        }
+        adbd.close();
+    }
+
+    private InputPipeline pipeline() {
+        session = new AdbSession("127.0.0.1", adbd.getPort(), () -> crypto);
+        return session.getInputPipeline();
+    }
+
+    @Test
+    public void burstOfKeysIsCoalescedIntoFewLinesInOrder() throws Exception {
+        lineDelayMs = 20;
+        InputPipeline pipeline = pipeline();
+        for (int i = 0; i < 40; i++) {
+            assertTrue(pipeline.submitKey(i % 2 == 0 ? 19 : 20));
+        }
+        waitForAcks(pipeline, 40);
+
+        List<String> keys = new ArrayList<>();
+        for (String line : lines) {
+            String codes = line.substring("input keyevent ".length(), line.indexOf(';'));
+            Collections.addAll(keys, codes.split(" "));
+        }
+        assertEquals(40, keys.size());
+        for (int i = 0; i < 40; i++) {
+            assertEquals(i % 2 == 0 ? "19" : "20", keys.get(i));
+        }
+        assertTrue("expected coalescing, got " + lines.size() + " lines", lines.size() <= 6);
+        assertEquals(1, adbd.getDestinations().size());
+        assertEquals(0, pipeline.getQueueDepth());
+        assertTrue(pipeline.getAverageLatencyNanos() > 0);
+    }
+
+    @Test
+    public void commandsKeepTheirPlaceBetweenKeys() throws Exception {
+        InputPipeline pipeline = pipeline();
+        pipeline.submitKey(21);
+        pipeline.submitCommand("input tap 10 20");
+        pipeline.submitKey(22);
+        waitForAcks(pipeline, 3);
+        assertTrue(lines.get(0).startsWith("input keyevent 21;"));
+        assertTrue(lines.get(1).startsWith("input tap 10 20;"));
+        assertTrue(lines.get(2).startsWith("input keyevent 22;"));
+    }
+
+    @Test
+    public void stuckDeviceCannotGrowTheQueue() throws Exception {
+        acking = false;
+        InputPipeline pipeline = pipeline();
+        int accepted = 0;
+        for (int i = 0; i < 1000; i++) {
+            if (pipeline.submitKey(19)) {
+                accepted++;
+            }
+            if (i == 0) {
+                sleep(200);
+            }
+        }
+        assertTrue(pipeline.getQueueDepth() <= InputPipeline.DEFAULT_CAPACITY);
+        assertTrue(accepted <= InputPipeline.DEFAULT_CAPACITY
+                + InputPipeline.MAX_KEYS_PER_LINE * InputPipeline.MAX_LINES_IN_FLIGHT);
+        assertEquals(1000 - accepted, pipeline.getDroppedEvents());
+    }
+
+    @Test
+    public void deviceThatStopsOkayingWritesIsDroppedAndReopened() throws Exception {
+        InputPipeline pipeline = pipeline();
+        pipeline.setAckTimeout(300);
+        pipeline.submitKey(19);
+        waitForAcks(pipeline, 1);
+        // The next line goes out and is run, but the device never OKAYs it
+        adbd.setOkayWrites(false);
+        pipeline.submitKey(20);
+        waitForAcks(pipeline, 2);
+        pipeline.submitKey(21);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pipeline.getFailedEvents() == 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(1, pipeline.getFailedEvents());
+
+        adbd.setOkayWrites(true);
+        pipeline.submitKey(22);
+        waitForAcks(pipeline, 3);
+        assertEquals(2, adbd.getDestinations().size());
+    }
+
+    @Test
+    public void perEventLatencyIsReported() throws Exception {
+        InputPipeline pipeline = pipeline();
+        int rounds = 200;
+        for (int i = 0; i < rounds; i++) {
+            pipeline.submitKey(20);
+            waitForAcks(pipeline, i + 1);
+        }
+        assertEquals(rounds, pipeline.getAckedEvents());
+        assertEquals(0, pipeline.getFailedEvents());
+        assertTrue(pipeline.getLastLatencyNanos() > 0);
+        assertTrue(pipeline.getMaxLatencyNanos() >= pipeline.getAverageLatencyNanos());
+    }
+
+    @Test
+    public void openInputIsReplayedInOrderAfterADrop() throws Exception {
+        File journal = File.createTempFile("input", ".journal");
+        journal.delete();
+        acking = false;
+        session = new AdbSession("127.0.0.1", adbd.getPort(), () -> crypto);
+        session.setJournalFile(journal);
+        DeviceMetrics metrics = new Metrics().device(session.getSerial());
+        session.setMetrics(metrics);
+        InputPipeline pipeline = session.getInputPipeline();
+        try {
+            // Goes out, but the Wi-Fi is gone before the TV answers
+            pipeline.submitKey(19);
+            waitForLines(1);
+            sleep((int) CommandJournal.NAVIGATION_MAX_AGE_MS + 100);
+            pipeline.submitKey(24);
+            waitForLines(2);
+            // Queued behind the two lines in flight
+            pipeline.submitCommand("input text 'hi'");
+            // The user mashes POWER because nothing happens
+            pipeline.submitKey(26);
+            pipeline.submitKey(26);
+            pipeline.submitKey(26);
+            assertEquals(6, pipeline.getJournalDepth());
+
+            int before = lines.size();
+            acking = true;
+            adbd.dropConnections();
+            waitForAcks(pipeline, 3);
+
+            List<String> replayed = new ArrayList<>(lines.subList(before, lines.size()));
+            assertEquals(3, replayed.size());
+            // A plain key may run twice; the stale D-pad press and the repeated POWER do not
+            assertTrue(replayed.get(0), replayed.get(0).startsWith("input keyevent 24;"));
+            assertTrue(replayed.get(1), replayed.get(1).startsWith("input text 'hi';"));
+            assertTrue(replayed.get(2), replayed.get(2).startsWith("input keyevent 26;"));
+            assertEquals(0, pipeline.getFailedEvents());
+            assertEquals(3, pipeline.getStaleEvents());
+            assertEquals(3, pipeline.getReplayedEvents());
+            assertTrue(pipeline.getMaxReplayLagNanos() > 0);
+            assertEquals(0, pipeline.getJournalDepth());
+            assertEquals(0, metrics.journalDepth.get());
+            assertEquals(3, metrics.staleInput.get());
+            assertEquals(3, metrics.replayLag.getCount());
+
+            // Text that went out may have been typed already, so it is not typed again
+            acking = false;
+            before = lines.size() + 1;
+            pipeline.submitCommand("input text 'yo'");
+            waitForLines(before);
+            acking = true;
+            adbd.dropConnections();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (pipeline.getFailedEvents() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(1);
+            }
+            assertEquals(1, pipeline.getFailedEvents());
+            assertEquals(0, pipeline.getJournalDepth());
+            sleep(100);
+            assertEquals(before, lines.size());
+        } finally {
+            session.close();
+            journal.delete();
+        }
+    }
+
+    @Test
+    public void inputStillQueuedWhenItExpiresIsNotSent() throws Exception {
+        lineDelayMs = (int) CommandJournal.NAVIGATION_MAX_AGE_MS + 200;
+        InputPipeline pipeline = pipeline();
+        pipeline.submitCommand("input tap 1 1");
+        waitForLines(1);
+        // Both lines in flight, so the D-pad waits behind them and goes stale
+        pipeline.submitCommand("input tap 2 2");
+        pipeline.submitKey(20);
+        pipeline.submitKey(24);
+        // Only the first line is slow
+        lineDelayMs = 0;
+        waitForAcks(pipeline, 3);
+        assertEquals(1, pipeline.getStaleEvents());
+        assertTrue(lines.get(2), lines.get(2).startsWith("input keyevent 24;"));
+    }
+
+    @Test
+    public void warmUpTakesShellOpenOffTheFirstKey() throws Exception {
+        adbd.setOpenDelayMs(200);
+        InputPipeline pipeline = pipeline();
+        CountDownLatch warm = new CountDownLatch(1);
+        session.warmUp(new AdbSession.Callback() {
+            @Override
+            public void onSuccess(String output, long latencyNanos) {
+                warm.countDown();
+            }
+
+            @Override
+            public void onFailure(IOException error) {
+            }
+        });
+        assertTrue(warm.await(5, TimeUnit.SECONDS));
+        pipeline.submitKey(23);
+        waitForAcks(pipeline, 1);
+        assertTrue(pipeline.getLastLatencyNanos() < 150000000L);
+        pipeline.warmUp();
+        assertEquals(Collections.singletonList("shell:"), adbd.getDestinations());
+    }
+
+    private static void waitForAcks(InputPipeline pipeline, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pipeline.getAckedEvents() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(count, pipeline.getAckedEvents());
+    }
+
+    private void waitForLines(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (lines.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertTrue(lines.size() >= count);
+    }
+
+    private static void sleep(int ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException ignored) {
+        }
+    }
+}
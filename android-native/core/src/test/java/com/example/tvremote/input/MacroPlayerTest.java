@@ -0,0 +1,114 @@
+package com.example.tvremote.input;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.example.tvremote.adb.AdbCrypto;
+import com.example.tvremote.adb.AdbSession;
+import com.example.tvremote.adb.FakeAdbd;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class MacroPlayerTest {
+    // Sleep granularity on a loaded CI machine, not what the agent achieves on a TV
+    private static final long TOLERANCE_MS = 40;
+
+    @Test
+    public void replaysWithRecordedTimingAndOneWritePerSegment() throws Exception {
+        // Event arrival times relative to the latest SCHEDULE_RESET, in ms
+        List<Long> eventTimes = Collections.synchronizedList(new ArrayList<Long>());
+        List<Integer> segmentWrites = Collections.synchronizedList(new ArrayList<Integer>());
+        FakeAdbd adbd = new FakeAdbd();
+        // Stands in for InputAgent: the same scheduler, with Thread.sleep instead of SystemClock
+        adbd.setService((destination, channel) -> {
+            if (!destination.equals("localabstract:" + InputAgentClient.SOCKET_NAME)) {
+                return;
+            }
+            InputFrameDecoder decoder = new InputFrameDecoder();
+            InputFrameEncoder replies = new InputFrameEncoder(64);
+            FrameScheduler scheduler = new FrameScheduler();
+            InputFrame frame = new InputFrame();
+            long resetNanos = 0;
+            byte[] data;
+            try {
+                while ((data = channel.read()) != null) {
+                    decoder.feed(data, 0, data.length);
+                    while (decoder.next(frame)) {
+                        if (frame.type == InputFrame.TYPE_SCHEDULE) {
+                            if ((frame.action & InputFrame.SCHEDULE_RESET) != 0) {
+                                resetNanos = System.nanoTime();
+                                segmentWrites.add(data.length);
+                            }
+                            long delay = scheduler.delayFor(frame, System.nanoTime() / 1000000);
+                            if (delay > 0) {
+                                Thread.sleep(delay);
+                            }
+                        } else if (frame.type == InputFrame.TYPE_PING) {
+                            replies.putPing(frame.seq);
+                            channel.write(Arrays.copyOf(replies.array(), replies.size()));
+                            replies.reset();
+                        } else if (frame.action == InputFrame.ACTION_DOWN) {
+                            eventTimes.add((System.nanoTime() - resetNanos) / 1000000);
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        List<Long> settleCalls = Collections.synchronizedList(new ArrayList<Long>());
+        AdbCrypto crypto = AdbCrypto.generate("test@host");
+        AdbSession session = new AdbSession("127.0.0.1", adbd.getPort(), () -> crypto);
+        try {
+            InputAgentClient agent = session.getInputAgent(new File("unused.apk"));
+            agent.startAsync();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!agent.isReady() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertTrue(agent.isReady());
+
+            List<Macro.Step> steps = new ArrayList<>();
+            int[] keyTimes = {0, 120, 250, 260, 400};
+            for (int at : keyTimes) {
+                steps.add(Macro.Step.key(at, 22));
+            }
+            steps.add(Macro.Step.settle(450, 200));
+            steps.add(Macro.Step.tap(500, 10, 10));
+            steps.add(Macro.Step.swipe(600, 0, 0, 500, 0, 100));
+            CompiledMacro macro = CompiledMacro.compile(new Macro("timing", steps));
+
+            MacroPlayer player = new MacroPlayer(agent, (quietMs, timeoutMs) -> {
+                settleCalls.add(quietMs);
+                return true;
+            });
+            MacroPlayer.Result result = player.play(macro);
+
+            long[] expected = {0, 120, 250, 260, 400, 50, 150};
+            assertEquals(expected.length, eventTimes.size());
+            for (int i = 0; i < expected.length; i++) {
+                long error = eventTimes.get(i) - expected[i];
+                assertTrue("event " + i + " at " + eventTimes.get(i) + " ms, expected " + expected[i],
+                        error >= -1 && error <= TOLERANCE_MS);
+            }
+            // Each segment reached the agent as one write of exactly its frames
+            assertEquals(Arrays.asList(macro.segments.get(0).frames.length, macro.segments.get(1).frames.length),
+                    segmentWrites);
+            assertEquals(Collections.singletonList(200L), settleCalls);
+            assertEquals(650, macro.getDurationMs());
+            assertEquals(650, result.expectedMs);
+            assertFalse(result.cancelled);
+            assertEquals(0, result.unsettled);
+        } finally {
+            session.close();
+            adbd.close();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.example.tvremote.input;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class MacroTest {
+
+    private static Macro sample() {
+        MacroRecorder recorder = new MacroRecorder();
+        long t0 = 5000000000L;
+        recorder.start(t0);
+        recorder.key(3, t0);
+        recorder.key(22, t0 + 180000000L);
+        recorder.checkpoint(400, t0 + 300000000L);
+        recorder.tap(960, 540, t0 + 450000000L);
+        recorder.swipe(100, 500, 900, 500, 64, t0 + 600000000L);
+        return recorder.stop("Open settings");
+    }
+
+    @Test
+    public void formatRoundTripsAndStaysSmall() throws Exception {
+        Macro macro = sample();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        macro.writeTo(out);
+        // Header (4 + 1 + 2 + 13), then six bytes a step on average
+        assertTrue("encoded " + out.size() + " bytes", out.size() <= 20 + 5 * 6);
+
+        Macro read = Macro.readFrom(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals("Open settings", read.name);
+        assertEquals(5, read.steps.size());
+        for (int i = 0; i < macro.steps.size(); i++) {
+            Macro.Step expected = macro.steps.get(i);
+            Macro.Step actual = read.steps.get(i);
+            assertEquals(expected.type, actual.type);
+            assertEquals(expected.atMs, actual.atMs);
+            assertEquals(expected.keyCode, actual.keyCode);
+            assertEquals(expected.toX, actual.toX);
+            assertEquals(expected.durationMs, actual.durationMs);
+        }
+        assertEquals(664, read.getDurationMs());
+    }
+
+    @Test
+    public void compilesIntoOneBatchPerCheckpoint() throws Exception {
+        CompiledMacro compiled = CompiledMacro.compile(sample());
+        assertEquals(2, compiled.segments.size());
+
+        CompiledMacro.Segment first = compiled.segments.get(0);
+        assertEquals(400, first.settleQuietMs);
+        assertEquals(180, first.durationMs);
+        assertEquals(Arrays.asList(
+                "SCHEDULE(1, 0)",
+                "SCHEDULE(0, 0)", "KEY(0, 3, meta=0)", "KEY(1, 3, meta=0)",
+                "SCHEDULE(0, 180)", "KEY(0, 22, meta=0)", "KEY(1, 22, meta=0)"), decode(first.frames));
+
+        // Offsets restart at the checkpoint; the 64 ms swipe becomes a move every 16 ms
+        CompiledMacro.Segment second = compiled.segments.get(1);
+        assertEquals(0, second.settleQuietMs);
+        assertEquals(364, second.durationMs);
+        List<String> frames = decode(second.frames);
+        assertEquals("SCHEDULE(0, 150)", frames.get(1));
+        assertEquals("SCHEDULE(0, 300)", frames.get(4));
+        assertEquals("MOTION(0, 100,500, p=65535)", frames.get(5));
+        assertEquals("SCHEDULE(0, 316)", frames.get(6));
+        assertEquals("MOTION(2, 300,500, p=65535)", frames.get(7));
+        assertEquals("SCHEDULE(0, 364)", frames.get(12));
+        assertEquals("MOTION(2, 900,500, p=65535)", frames.get(13));
+        assertEquals("MOTION(1, 900,500, p=0)", frames.get(14));
+        assertEquals(15, frames.size());
+        assertEquals(544, compiled.getDurationMs());
+    }
+
+    @Test
+    public void schedulerCountsFromTheLastReset() {
+        FrameScheduler scheduler = new FrameScheduler();
+        InputFrame frame = new InputFrame();
+        frame.type = InputFrame.TYPE_SCHEDULE;
+        frame.action = InputFrame.SCHEDULE_RESET;
+        assertEquals(0, scheduler.delayFor(frame, 1000));
+        frame.action = 0;
+        frame.offsetMs = 100;
+        assertEquals(100, scheduler.delayFor(frame, 1000));
+        // A late wake-up shortens the next wait instead of pushing everything back
+        frame.offsetMs = 200;
+        assertEquals(70, scheduler.delayFor(frame, 1130));
+        assertEquals(0, scheduler.delayFor(frame, 1250));
+    }
+
+    private static List<String> decode(byte[] frames) throws Exception {
+        InputFrameDecoder decoder = new InputFrameDecoder();
+        InputFrame frame = new InputFrame();
+        decoder.feed(frames, 0, frames.length);
+        List<String> result = new ArrayList<>();
+        while (decoder.next(frame)) {
+            result.add(frame.toString());
+        }
+        return result;
+    }
+}
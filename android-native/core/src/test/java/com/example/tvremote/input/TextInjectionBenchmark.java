@@ -0,0 +1,109 @@
+package com.example.tvremote.input;
+
+import com.example.tvremote.adb.AdbCrypto;
+import com.example.tvremote.adb.AdbSession;
+import com.example.tvremote.adb.FakeAdbd;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Typing 100 characters into a FakeAdbd shell that takes 20 ms per line, the TV's cost of
+ * starting an `input` process. "keystroke" is one `input text` per character, "chunked" goes
+ * through {@link TextInjector}. Run with `./gradlew :core:benchmark -Pjmh=TextInjection`.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TextInjectionBenchmark {
+    private static final Pattern ACK = Pattern.compile("echo @ack' '(\\d+)");
+    private static final int LINE_COST_MS = 20;
+    private static final int LENGTH = 100;
+
+    @Param({"keystroke", "chunked"})
+    public String mode;
+
+    private FakeAdbd adbd;
+    private AdbSession session;
+    private InputPipeline pipeline;
+    private String text;
+
+    @Setup
+    public void setUp() throws Exception {
+        adbd = new FakeAdbd();
+        adbd.setService((destination, channel) -> {
+            StringBuilder pending = new StringBuilder();
+            byte[] data;
+            while ((data = channel.read()) != null) {
+                pending.append(new String(data, StandardCharsets.UTF_8));
+                int newline;
+                while ((newline = pending.indexOf("\n")) >= 0) {
+                    Matcher m = ACK.matcher(pending.substring(0, newline));
+                    pending.delete(0, newline + 1);
+                    try {
+                        Thread.sleep(LINE_COST_MS);
+                    } catch (InterruptedException ignored) {
+                    }
+                    if (m.find()) {
+                        channel.write("@ack " + m.group(1) + "\r\n");
+                    }
+                }
+            }
+        });
+        AdbCrypto crypto = AdbCrypto.generate("bench@host");
+        session = new AdbSession("127.0.0.1", adbd.getPort(), () -> crypto);
+        pipeline = session.getInputPipeline();
+        pipeline.warmUp();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < LENGTH; i++) {
+            sb.append(i % 10 == 9 ? ' ' : (char) ('a' + i % 26));
+        }
+        text = sb.toString();
+    }
+
+    @TearDown
+    public void tearDown() {
+        session.close();
+        adbd.close();
+    }
+
+    @Benchmark
+    public long type() throws Exception {
+        long target = pipeline.getAckedEvents();
+        if (mode.equals("keystroke")) {
+            for (int i = 0; i < text.length(); i++) {
+                // More than the queue holds; a real keyboard is slower than this loop
+                while (!pipeline.submitCommand("input text '" + text.charAt(i) + "'")) {
+                    Thread.sleep(1);
+                }
+            }
+            target += text.length();
+        } else {
+            TextInjector injector = new TextInjector(pipeline);
+            injector.sync(text);
+            target += injector.getCommands();
+        }
+        while (pipeline.getAckedEvents() < target) {
+            Thread.sleep(1);
+        }
+        return target;
+    }
+}
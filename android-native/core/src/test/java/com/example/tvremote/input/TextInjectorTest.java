@@ -0,0 +1,292 @@
+package com.example.tvremote.input;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.example.tvremote.adb.AdbCrypto;
+import com.example.tvremote.adb.AdbSession;
+import com.example.tvremote.adb.FakeAdbd;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class TextInjectorTest {
+    private static final Pattern ACK = Pattern.compile("echo @ack' '(\\d+)");
+
+    // Records what would reach the shell; refuses everything after `capacity` submissions
+    private static final class RecordingSink implements TextInjector.Sink {
+        final List<String> lines = new ArrayList<>();
+        int capacity = Integer.MAX_VALUE;
+        // While holding, nothing is written, so the last text command can still be rewritten
+        boolean holding;
+
+        @Override
+        public boolean submitKey(int keyCode) {
+            return submitCommand("key " + keyCode);
+        }
+
+        @Override
+        public boolean submitCommand(String command) {
+            if (lines.size() >= capacity) {
+                return false;
+            }
+            lines.add(command);
+            return true;
+        }
+
+        @Override
+        public TextInjector.Pending submitPending(String command) {
+            if (!submitCommand(command)) {
+                return null;
+            }
+            int index = lines.size() - 1;
+            return replacement -> {
+                if (!holding || index != lines.size() - 1) {
+                    return false;
+                }
+                lines.set(index, replacement);
+                return true;
+            };
+        }
+    }
+
+    private final RecordingSink sink = new RecordingSink();
+    private final TextInjector injector = new TextInjector(sink);
+
+    @Test
+    public void typingSendsOnlyTheNewCharacters() {
+        injector.sync("net");
+        injector.sync("netf");
+        injector.sync("netfli");
+        assertEquals(Arrays.asList("input text 'net'", "input text 'f'", "input text 'li'"), sink.lines);
+        assertEquals("netfli", injector.getSent());
+        assertEquals(6, injector.getTypedChars());
+    }
+
+    @Test
+    public void typingWhileTheChunkWaitsRewritesIt() {
+        sink.holding = true;
+        String[] edits = {"n", "ne", "net", "netf", "netfl", "netfla", "netfl", "netfli", "netflix"};
+        for (String edit : edits) {
+            assertTrue(injector.sync(edit));
+        }
+        assertEquals(Collections.singletonList("input text 'netflix'"), sink.lines);
+        assertEquals("netflix", injector.getSent());
+        assertEquals(0, injector.getDeletedChars());
+
+        // A key after the chunk must not be overtaken, so the next text is a command of its own
+        injector.pressKey(TextInjector.KEYCODE_ENTER);
+        injector.sync("netflix ok");
+        assertEquals(Arrays.asList("input text 'netflix'", "key 66", "input text '%sok'"), sink.lines);
+    }
+
+    @Test
+    public void editsBackspaceToTheFirstDifference() {
+        injector.sync("hello world");
+        sink.lines.clear();
+        injector.sync("hello there");
+        assertEquals(Arrays.asList("input keyevent 67 67 67 67 67", "input text 'there'"), sink.lines);
+        sink.lines.clear();
+        injector.sync("");
+        assertEquals(1, sink.lines.size());
+        assertEquals(11, sink.lines.get(0).split(" ").length - 2);
+        assertEquals(16, injector.getDeletedChars());
+    }
+
+    @Test
+    public void spacesAndShellMetacharactersAreQuoted() {
+        injector.sync("it's $HOME; rm -rf / `x` \"q\" a&b|c");
+        assertEquals(Collections.singletonList(
+                "input text 'it'\\''s%s$HOME;%srm%s-rf%s/%s`x`%s\"q\"%sa&b|c'"), sink.lines);
+    }
+
+    @Test
+    public void literalPercentSIsSplitSoItIsNotReadAsASpace() {
+        injector.sync("100%sure");
+        assertEquals(Arrays.asList("input text '100%'", "input text 'sure'"), sink.lines);
+        assertEquals("100%sure", injector.getSent());
+    }
+
+    @Test
+    public void newlinesAndTabsBecomeKeys() {
+        injector.sync("user\tpass\n");
+        assertEquals(Arrays.asList("input text 'user'", "key 61", "input text 'pass'", "key 66"), sink.lines);
+    }
+
+    @Test
+    public void nonAsciiGoesThroughTheImeInOrder() {
+        injector.sync("caf\u00e9 \uD83D\uDE00 ok");
+        assertEquals(Arrays.asList(
+                "input text 'caf'",
+                TextInjector.UNICODE_COMMAND + "233",
+                "input text '%s'",
+                TextInjector.UNICODE_COMMAND + "128512",
+                "input text '%sok'"), sink.lines);
+        assertEquals(9, injector.getTypedChars());
+
+        // Deleting the emoji is one backspace, not two
+        sink.lines.clear();
+        injector.sync("caf\u00e9 ");
+        assertEquals(Collections.singletonList("input keyevent 67 67 67 67"), sink.lines);
+    }
+
+    @Test
+    public void surrogatePairsAreNeverSplit() {
+        injector.sync("\uD83D\uDE00");
+        sink.lines.clear();
+        // Same high surrogate, different emoji: the whole pair is replaced
+        injector.sync("\uD83D\uDE03");
+        assertEquals(Arrays.asList("input keyevent 67", TextInjector.UNICODE_COMMAND + "128515"), sink.lines);
+    }
+
+    @Test
+    public void largePastesAreChunked() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            text.append((char) ('a' + i % 26));
+        }
+        injector.sync(text);
+        int chunks = (1000 + TextInjector.MAX_CHUNK_CHARS - 1) / TextInjector.MAX_CHUNK_CHARS;
+        assertEquals(chunks, sink.lines.size());
+        StringBuilder typed = new StringBuilder();
+        for (String line : sink.lines) {
+            assertTrue(line.length() < 4000);
+            typed.append(line, "input text '".length(), line.length() - 1);
+        }
+        assertEquals(text.toString(), typed.toString());
+    }
+
+    @Test
+    public void refusedChunksAreSentByTheNextSync() {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 3 * TextInjector.MAX_CHUNK_CHARS; i++) {
+            text.append('x');
+        }
+        sink.capacity = 1;
+        assertFalse(injector.sync(text));
+        assertEquals(TextInjector.MAX_CHUNK_CHARS, injector.getSent().length());
+
+        sink.capacity = Integer.MAX_VALUE;
+        assertTrue(injector.sync(text));
+        assertEquals(3, sink.lines.size());
+        assertEquals(text.toString(), injector.getSent());
+    }
+
+    @Test
+    public void appendAndResetFollowTheField() {
+        injector.append("abc");
+        injector.append("def");
+        injector.reset();
+        injector.sync("x");
+        assertEquals(Arrays.asList("input text 'abc'", "input text 'def'", "input text 'x'"), sink.lines);
+    }
+
+    @Test
+    public void editDeletesThenTypesForRemoteClients() {
+        injector.sync("abc");
+        sink.lines.clear();
+        assertTrue(injector.edit(2, "x y"));
+        assertTrue(injector.edit(5, ""));
+        assertEquals(Arrays.asList("input keyevent 67 67", "input text 'x%sy'", "input keyevent 67 67 67 67 67"),
+                sink.lines);
+        assertEquals("", injector.getSent());
+    }
+
+    // Each `input` process costs the TV tens of ms, so long text must take few shell lines
+    @Test
+    public void longTextGoesOutInFewShellLines() throws Exception {
+        List<String> lines = Collections.synchronizedList(new ArrayList<String>());
+        FakeAdbd adbd = shell(lines, 0);
+        AdbCrypto crypto = AdbCrypto.generate("test@host");
+        AdbSession session = new AdbSession("127.0.0.1", adbd.getPort(), () -> crypto);
+        try {
+            InputPipeline pipeline = session.getInputPipeline();
+            pipeline.warmUp();
+
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < 2000; i++) {
+                text.append(i % 10 == 9 ? ' ' : (char) ('a' + i % 26));
+            }
+            TextInjector injector = session.getTextInjector();
+            assertTrue(injector.sync(text));
+            waitForAcks(pipeline, injector.getCommands());
+            assertTrue(injector.getCommands() + " commands", injector.getCommands() * 10 < text.length());
+            assertEquals(injector.getCommands(), lines.size());
+            assertEquals(text.toString(), injector.getSent());
+        } finally {
+            session.close();
+            adbd.close();
+        }
+    }
+
+    @Test
+    public void keystrokesTypedWhileTheTvIsBusyShareACommand() throws Exception {
+        List<String> lines = Collections.synchronizedList(new ArrayList<String>());
+        FakeAdbd adbd = shell(lines, 50);
+        AdbCrypto crypto = AdbCrypto.generate("test@host");
+        AdbSession session = new AdbSession("127.0.0.1", adbd.getPort(), () -> crypto);
+        try {
+            InputPipeline pipeline = session.getInputPipeline();
+            pipeline.warmUp();
+            TextInjector injector = session.getTextInjector();
+            String word = "abcdefghijklmnopqrstuvwxyz";
+            for (int i = 1; i <= word.length(); i++) {
+                assertTrue(injector.sync(word.substring(0, i)));
+                Thread.sleep(5);
+            }
+            waitForAcks(pipeline, injector.getCommands());
+            assertTrue(injector.getCommands() + " commands", injector.getCommands() < word.length() / 2);
+            StringBuilder typed = new StringBuilder();
+            for (String line : lines) {
+                typed.append(line, "input text '".length(), line.indexOf("';"));
+            }
+            assertEquals(word, typed.toString());
+        } finally {
+            session.close();
+            adbd.close();
+        }
+    }
+
+    // Interactive shell that records each line and acks it after lineDelayMs
+    private static FakeAdbd shell(List<String> lines, int lineDelayMs) throws Exception {
+        FakeAdbd adbd = new FakeAdbd();
+        adbd.setService((destination, channel) -> {
+            StringBuilder pending = new StringBuilder();
+            byte[] data;
+            while ((data = channel.read()) != null) {
+                pending.append(new String(data, StandardCharsets.UTF_8));
+                int newline;
+                while ((newline = pending.indexOf("\n")) >= 0) {
+                    String line = pending.substring(0, newline);
+                    pending.delete(0, newline + 1);
+                    lines.add(line);
+                    try {
+                        Thread.sleep(lineDelayMs);
+                    } catch (InterruptedException ignored) {
+                    }
+                    Matcher m = ACK.matcher(line);
+                    if (m.find()) {
+                        channel.write("@ack " + m.group(1) + "\r\n");
+                    }
+                }
+            }
+        });
+        return adbd;
+    }
+
+    private static void waitForAcks(InputPipeline pipeline, long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pipeline.getAckedEvents() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(count, pipeline.getAckedEvents());
+    }
+}
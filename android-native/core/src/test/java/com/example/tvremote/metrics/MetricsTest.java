@@ -0,0 +1,91 @@
+package com.example.tvremote.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class MetricsTest {
+
+    @Test
+    public void bucketsKeepValuesWithinSixPercent() {
+        for (long micros = 0; micros < 100000000L; micros = micros * 3 / 2 + 1) {
+            long value = LatencyHistogram.value(LatencyHistogram.index(micros));
+            assertTrue(micros + " reported as " + value, Math.abs(value - micros) <= micros * 0.0625 + 1);
+        }
+        // Every bucket index is reached in order, with no gaps
+        assertEquals(31, LatencyHistogram.index(31));
+        assertEquals(32, LatencyHistogram.index(32));
+        assertEquals(LatencyHistogram.index(63) + 1, LatencyHistogram.index(64));
+    }
+
+    @Test
+    public void percentilesComeFromTheDistribution() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000000L);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.count);
+        assertEquals(500500, snapshot.meanMicros);
+        assertEquals(500000, snapshot.p50Micros, 500000 * 0.07);
+        assertEquals(990000, snapshot.p99Micros, 990000 * 0.07);
+        assertEquals(1000000, snapshot.maxMicros);
+        assertTrue(snapshot.p99Micros <= snapshot.maxMicros);
+    }
+
+    @Test
+    public void recordsFromManyThreadsWithoutLosingSamples() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        Counter counter = new Counter();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    histogram.record(i * 1000L);
+                    counter.increment();
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(40000, histogram.snapshot().count);
+        assertEquals(40000, counter.get());
+    }
+
+    @Test
+    public void meterAveragesTheLastWholeSeconds() {
+        Meter meter = new Meter();
+        long second = 1000000000L;
+        for (int s = 10; s < 14; s++) {
+            meter.add(1000, s * second);
+            meter.add(1000, s * second + second / 2);
+        }
+        // The second still filling does not count
+        meter.add(50000, 14 * second);
+        assertEquals(2000, meter.getRate(14 * second + 1));
+        assertEquals(58000, meter.getTotal());
+        // Nothing for a while: old slots are not mistaken for recent ones
+        assertEquals(0, meter.getRate(30 * second));
+    }
+
+    @Test
+    public void exportsJson() {
+        Metrics metrics = new Metrics();
+        metrics.keyAck.record(12000000L);
+        DeviceMetrics tv = metrics.device("192.168.1.42:5555");
+        tv.reconnects.increment();
+        tv.bytesReceived.add(4096, 0);
+        metrics.device("lab \"b\"").keyAck.record(1000);
+        String json = metrics.toJson(1700000000000L, 0);
+        assertTrue(json, json.startsWith("{\"timestamp_ms\":1700000000000,"));
+        assertTrue(json, json.contains("\"key_ack\":{\"count\":1,\"mean_us\":12000,"));
+        assertTrue(json, json.contains("{\"serial\":\"192.168.1.42:5555\","));
+        assertTrue(json, json.contains("\"reconnects\":1,\"bytes_received\":4096,"));
+        assertTrue(json, json.contains("\"serial\":\"lab \\\"b\\\"\""));
+        assertTrue(json.endsWith("]}"));
+        assertTrue(metrics.summary(0).contains("192.168.1.42:5555"));
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.tvremote.screen;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class AccessUnitAssemblerTest {
+    // 12 frames of 320x180 baseline H.264 with an IDR every 5 frames, as screenrecord emits it
+    static final String FIXTURE = "/screen/synthetic-320x180.h264";
+
+    static byte[] fixture() throws IOException {
+        try (InputStream in = AccessUnitAssemblerTest.class.getResourceAsStream(FIXTURE)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static class Recorder implements AccessUnitAssembler.Listener {
+        final List<String> units = new ArrayList<>();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int width;
+        int height;
+
+        @Override
+        public void onAccessUnit(AccessUnitAssembler.AccessUnit unit) {
+            units.add(unit.config ? "config" : unit.keyFrame ? "key" : "delta");
+            bytes.write(unit.data, 0, unit.size);
+            if (unit.config) {
+                width = unit.width;
+                height = unit.height;
+            }
+        }
+    }
+
+    private static Recorder parse(byte[] stream, Random chunking) {
+        Recorder recorder = new Recorder();
+        AccessUnitAssembler assembler = new AccessUnitAssembler(recorder);
+        NalUnitParser parser = new NalUnitParser(assembler);
+        int offset = 0;
+        while (offset < stream.length) {
+            int length = chunking == null ? stream.length : Math.min(1 + chunking.nextInt(4096), stream.length - offset);
+            parser.feed(stream, offset, length);
+            offset += length;
+        }
+        parser.flush();
+        assembler.flush();
+        return recorder;
+    }
+
+    @Test
+    public void splitsFixtureIntoFrames() throws IOException {
+        Recorder recorder = parse(fixture(), null);
+        int frames = 0;
+        List<Integer> keyFrames = new ArrayList<>();
+        for (String unit : recorder.units) {
+            if (unit.equals("key")) {
+                keyFrames.add(frames);
+            }
+            if (!unit.equals("config")) {
+                frames++;
+            }
+        }
+        assertEquals(12, frames);
+        assertEquals("[0, 5, 10]", keyFrames.toString());
+        assertEquals("config", recorder.units.get(0));
+        assertEquals(320, recorder.width);
+        assertEquals(180, recorder.height);
+    }
+
+    @Test
+    public void resetDropsTheUnitCutOff() throws IOException {
+        byte[] stream = fixture();
+        Recorder recorder = new Recorder();
+        AccessUnitAssembler assembler = new AccessUnitAssembler(recorder);
+        NalUnitParser parser = new NalUnitParser(assembler);
+        parser.feed(stream, 0, stream.length / 2);
+        int before = recorder.units.size();
+        int bytesBefore = recorder.bytes.size();
+        parser.reset();
+        assembler.reset();
+        // The next stream starts clean and its output is not glued to the old half
+        parser.feed(stream, 0, stream.length);
+        parser.flush();
+        assembler.flush();
+        Recorder clean = parse(stream, null);
+        assertEquals(clean.units, recorder.units.subList(before, recorder.units.size()));
+        assertEquals(clean.bytes.size(), recorder.bytes.size() - bytesBefore);
+    }
+
+    @Test
+    public void chunkBoundariesDoNotChangeOutput() throws IOException {
+        byte[] stream = fixture();
+        Recorder whole = parse(stream, null);
+        for (int seed = 0; seed < 20; seed++) {
+            Recorder chunked = parse(stream, new Random(seed));
+            assertEquals(whole.units, chunked.units);
+            assertArrayEquals(whole.bytes.toByteArray(), chunked.bytes.toByteArray());
+        }
+    }
+
+    @Test
+    public void tinyChunksKeepStartCodesIntact() throws IOException {
+        byte[] stream = fixture();
+        Recorder whole = parse(stream, null);
+        Recorder recorder = new Recorder();
+        AccessUnitAssembler assembler = new AccessUnitAssembler(recorder);
+        NalUnitParser parser = new NalUnitParser(assembler);
+        for (int i = 0; i < stream.length; i++) {
+            parser.feed(stream, i, 1);
+        }
+        parser.flush();
+        assembler.flush();
+        assertEquals(whole.units, recorder.units);
+        assertTrue(parser.getNalCount() >= 14);
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.tvremote.screen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CaptureControllerTest {
+    private static final long MS = 1000000L;
+
+    /** A link with a fixed round trip plus a per-byte cost; frames shrink as the controller steps down. */
+    private static class SimulatedLink {
+        long roundTripNanos = 20 * MS;
+        long bytesPerSecond;
+        long fullFrameBytes = 400 * 1024;
+        long decodeNanos = 5 * MS;
+        long now;
+        long frames;
+
+        SimulatedLink(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+        }
+
+        // Runs the capture loop for a simulated duration
+        void run(CaptureController controller, long durationNanos) {
+            long end = now + durationNanos;
+            while (now < end) {
+                now += controller.delayNanos(now);
+                long start = now;
+                long bytes = (long) (fullFrameBytes * controller.getScale() * controller.getScale() * controller.getQuality());
+                long transfer = roundTripNanos + bytes * 1000000000L / bytesPerSecond;
+                long decode = (long) (decodeNanos * controller.getScale() * controller.getScale());
+                now += transfer + decode;
+                controller.onFrame(start, transfer, decode, now);
+                frames++;
+            }
+        }
+    }
+
+    @Test
+    public void slowFramesStretchTheIntervalInsteadOfQueueing() {
+        MirrorStats stats = new MirrorStats();
+        CaptureController controller = new CaptureController(stats, 150, 30, false);
+        // ~600 ms per frame: the old fixed 100 ms loop would fall further behind every frame
+        SimulatedLink link = new SimulatedLink(700 * 1024);
+        link.run(controller, 10000 * MS);
+        long droppedAfterWarmup = stats.getDroppedFrames();
+        link.run(controller, 30000 * MS);
+        assertEquals(0, controller.getLevel());
+        assertEquals(1000f / 600, controller.getTargetFps(), 0.1f);
+        // Once paced, no slot is overrun, so nothing more is dropped
+        assertEquals(droppedAfterWarmup, stats.getDroppedFrames());
+        assertTrue(droppedAfterWarmup > 0);
+    }
+
+    @Test
+    public void stepsDownToHoldTargetLatencyWithoutOscillating() {
+        MirrorStats stats = new MirrorStats();
+        CaptureController controller = new CaptureController(stats, 150, 30, true);
+        SimulatedLink link = new SimulatedLink(1024 * 1024);
+        link.run(controller, 5000 * MS);
+        int level = controller.getLevel();
+        long changes = controller.getLevelChanges();
+        assertTrue(level > 0);
+        link.run(controller, 60000 * MS);
+        assertEquals(level, controller.getLevel());
+        assertEquals(changes, controller.getLevelChanges());
+    }
+
+    @Test
+    public void stepsBackUpWhenTheLinkRecovers() {
+        MirrorStats stats = new MirrorStats();
+        CaptureController controller = new CaptureController(stats, 150, 30, true);
+        SimulatedLink link = new SimulatedLink(512 * 1024);
+        link.run(controller, 10000 * MS);
+        assertTrue(controller.getLevel() >= 2);
+        link.bytesPerSecond = 20 * 1024 * 1024;
+        link.run(controller, 20000 * MS);
+        assertEquals(0, controller.getLevel());
+        // Paced by the ~44 ms full-size frame cost
+        assertEquals(1000f / 44, controller.getTargetFps(), 1f);
+    }
+
+    @Test
+    public void staleFramesAreDroppedAndReported() {
+        MirrorStats stats = new MirrorStats();
+        CaptureController controller = new CaptureController(stats, 100, 30, true);
+        int[] changes = new int[1];
+        controller.setListener((scale, quality) -> changes[0]++);
+        assertTrue(controller.onFrameLatency(50 * MS));
+        assertTrue(!controller.onFrameLatency(250 * MS));
+        controller.onFrameLatency(250 * MS);
+        controller.onFrameLatency(250 * MS);
+        assertEquals(3, stats.getDroppedFrames());
+        assertEquals(1, changes[0]);
+        assertEquals(0.75f, controller.getScale(), 0f);
+        stats.roll(System.nanoTime() + 1);
+        assertTrue(controller.summary(), controller.summary().contains("3 dropped  75%"));
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.tvremote.screen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.example.tvremote.input.TouchMapping;
+
+import org.junit.Test;
+
+public class DisplayGeometryTest {
+    private static final String DUMPSYS = "Physical size: 1920x1080\n"
+            + "DISPLAY MANAGER (dumpsys display)\n"
+            + "  mDisplayId=0\n"
+            + "    mBaseDisplayInfo=DisplayInfo{\"Built-in Screen\", uniqueId \"local:0\", app 1920 x 1080, "
+            + "real 1920 x 1080, largest app 1920 x 1080, rotation 0, density 320, overscan (0,0,0,0)}\n"
+            + "    mOverrideDisplayInfo=DisplayInfo{\"Built-in Screen\", uniqueId \"local:0\", app 1080 x 1920, "
+            + "real 1080 x 1920, largest app 1920 x 1920, rotation 1, density 320, overscan (27,48,27,48)}\n";
+
+    @Test
+    public void prefersTheWindowManagersDisplayInfo() {
+        DisplayGeometry geometry = DisplayGeometry.parse(DUMPSYS);
+        assertEquals(new DisplayGeometry(1080, 1920, 1, 27, 48, 27, 48), geometry);
+        assertEquals(1026, geometry.visibleWidth());
+        assertEquals(1824, geometry.visibleHeight());
+    }
+
+    @Test
+    public void fallsBackToWmSize() {
+        assertEquals(new DisplayGeometry(3840, 2160, 0, 0, 0, 0, 0),
+                DisplayGeometry.parse("Physical size: 3840x2160\n"));
+        // An override set with `wm size` wins over the physical size
+        assertEquals(new DisplayGeometry(1280, 720, 0, 0, 0, 0, 0),
+                DisplayGeometry.parse("Physical size: 1920x1080\nOverride size: 1280x720\n"));
+        assertNull(DisplayGeometry.parse("/system/bin/sh: wm: not found\n"));
+    }
+
+    @Test
+    public void framesAreComparedByShapeUnlessExact() {
+        DisplayGeometry geometry = DisplayGeometry.DEFAULT;
+        assertTrue(geometry.matchesFrame(1280, 720, false));
+        // Rounded up to a multiple of 16 by the encoder
+        assertTrue(geometry.matchesFrame(1280, 736, false));
+        assertFalse(geometry.matchesFrame(720, 1280, false));
+        assertFalse(geometry.matchesFrame(1280, 720, true));
+        assertTrue(geometry.matchesFrame(1920, 1080, true));
+    }
+
+    @Test
+    public void visibleAreaMappingSkipsTheOverscan() {
+        TouchMapping mapping = new TouchMapping();
+        mapping.setVisibleArea(912, 513, new DisplayGeometry(1920, 1080, 0, 48, 27, 48, 27));
+        assertEquals(48, mapping.mapX(0));
+        assertEquals(27, mapping.mapY(0));
+        assertEquals(1872, mapping.mapX(912));
+        assertEquals(1053, mapping.mapY(513));
+        assertEquals(960, mapping.mapX(456));
+    }
+}
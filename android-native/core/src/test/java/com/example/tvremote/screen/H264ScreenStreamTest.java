@@ -0,0 +1,105 @@
+package com.example.tvremote.screen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.example.tvremote.adb.AdbCrypto;
+import com.example.tvremote.adb.AdbSession;
+import com.example.tvremote.adb.FakeAdbd;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class H264ScreenStreamTest {
+
+    private static class Counter implements H264ScreenStream.Listener {
+        final AtomicInteger frames = new AtomicInteger();
+        final AtomicReference<IOException> fatal = new AtomicReference<>();
+        final CountDownLatch done;
+
+        Counter(int expectedFrames) {
+            done = new CountDownLatch(expectedFrames);
+        }
+
+        @Override
+        public void onAccessUnit(AccessUnitAssembler.AccessUnit unit) {
+            if (!unit.config) {
+                frames.incrementAndGet();
+                done.countDown();
+            }
+        }
+
+        @Override
+        public void onStreamError(IOException error, boolean fatal) {
+            if (fatal) {
+                this.fatal.set(error);
+                while (done.getCount() > 0) {
+                    done.countDown();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void streamsAndRestartsWhenScreenrecordExits() throws Exception {
+        byte[] video = AccessUnitAssemblerTest.fixture();
+        FakeAdbd adbd = new FakeAdbd();
+        adbd.setService((destination, channel) -> {
+            if (!destination.startsWith("exec:screenrecord --output-format=h264")) {
+                return;
+            }
+            // Odd-sized chunks so NAL units straddle WRTE payloads
+            for (int offset = 0; offset < video.length; offset += 1000) {
+                channel.write(Arrays.copyOfRange(video, offset, Math.min(offset + 1000, video.length)));
+            }
+        });
+        AdbCrypto crypto = AdbCrypto.generate("test@host");
+        AdbSession session = new AdbSession("127.0.0.1", adbd.getPort(), () -> crypto);
+        MirrorStats stats = new MirrorStats();
+        // Two passes: the second only happens if the stream restarts after the process ends
+        Counter counter = new Counter(24);
+        H264ScreenStream stream = new H264ScreenStream(session, counter, stats);
+        stream.setSize(1280, 720);
+        try {
+            stream.start();
+            assertTrue(counter.done.await(10, TimeUnit.SECONDS));
+            stream.stop();
+            assertTrue(counter.frames.get() >= 24);
+            assertTrue(stats.getTotalBytes() >= 2L * video.length);
+            assertTrue(adbd.getDestinations().get(0).contains("--size 1280x720"));
+        } finally {
+            stream.stop();
+            session.close();
+            adbd.close();
+        }
+    }
+
+    @Test
+    public void textOutputIsFatal() throws Exception {
+        FakeAdbd adbd = new FakeAdbd();
+        adbd.setService((destination, channel) ->
+                channel.write("Unrecognized option: --output-format=h264\n"));
+        AdbCrypto crypto = AdbCrypto.generate("test@host");
+        AdbSession session = new AdbSession("127.0.0.1", adbd.getPort(), () -> crypto);
+        Counter counter = new Counter(1);
+        H264ScreenStream stream = new H264ScreenStream(session, counter, new MirrorStats());
+        try {
+            stream.start();
+            assertTrue(counter.done.await(10, TimeUnit.SECONDS));
+            assertTrue(counter.fatal.get() instanceof H264ScreenStream.UnsupportedStreamException);
+            assertFalse(stream.isRunning());
+            assertEquals(0, counter.frames.get());
+        } finally {
+            stream.stop();
+            session.close();
+            adbd.close();
+        }
+    }
+}
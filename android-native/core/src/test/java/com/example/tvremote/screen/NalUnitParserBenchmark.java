@@ -0,0 +1,49 @@
+package com.example.tvremote.screen;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NAL splitting and access unit assembly over the 12-frame test stream, fed in the chunk
+ * sizes the shell stream delivers ("4096") and in a worst case of tiny reads ("64").
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NalUnitParserBenchmark {
+    @Param({"64", "4096"})
+    public int chunkSize;
+
+    private byte[] stream;
+    private long units;
+    private final AccessUnitAssembler assembler = new AccessUnitAssembler(unit -> units++);
+    private final NalUnitParser parser = new NalUnitParser(assembler);
+
+    @Setup
+    public void setUp() throws IOException {
+        stream = AccessUnitAssemblerTest.fixture();
+    }
+
+    @Benchmark
+    public long parseStream() {
+        for (int offset = 0; offset < stream.length; offset += chunkSize) {
+            parser.feed(stream, offset, Math.min(chunkSize, stream.length - offset));
+        }
+        return units;
+    }
+}
@@ -0,0 +1,112 @@
+package com.example.tvremote.screen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.example.tvremote.adb.AdbCrypto;
+import com.example.tvremote.adb.AdbSession;
+import com.example.tvremote.adb.FakeAdbd;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+public class RawScreenCaptureTest {
+
+    // What `screencap` writes to stdout: LE width, height, format, [colour space,] pixels
+    private static byte[] screencap(int width, int height, int headerSize, int seed) {
+        ByteBuffer out = ByteBuffer.allocate(headerSize + width * height * 4).order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(width).putInt(height).putInt(RawFrame.FORMAT_RGBA_8888);
+        if (headerSize == 16) {
+            out.putInt(0);
+        }
+        for (int i = 0; i < width * height; i++) {
+            out.putInt(i + seed);
+        }
+        return out.array();
+    }
+
+    private static FakeAdbd serve(byte[] output) throws IOException {
+        FakeAdbd adbd = new FakeAdbd();
+        adbd.setService((destination, channel) -> {
+            if (destination.equals("exec:screencap")) {
+                // Uneven payloads so the header and pixel rows straddle messages
+                for (int offset = 0; offset < output.length; offset += 7001) {
+                    channel.write(Arrays.copyOfRange(output, offset, Math.min(offset + 7001, output.length)));
+                }
+            }
+        });
+        return adbd;
+    }
+
+    private static void check(int headerSize) throws Exception {
+        byte[] output = screencap(120, 90, headerSize, 5);
+        FakeAdbd adbd = serve(output);
+        AdbCrypto crypto = AdbCrypto.generate("test@host");
+        AdbSession session = new AdbSession("127.0.0.1", adbd.getPort(), () -> crypto);
+        FrameBufferPool pool = new FrameBufferPool(2);
+        RawScreenCapture capture = new RawScreenCapture(session, pool);
+        RawFrame frame = new RawFrame();
+        try {
+            for (int i = 0; i < 3; i++) {
+                capture.capture(frame);
+                ByteBuffer pixels = frame.pixels;
+                assertEquals(120, frame.width);
+                assertEquals(90, frame.height);
+                assertEquals(120 * 90 * 4, pixels.limit());
+                assertEquals(5, pixels.getInt(0));
+                assertEquals(120 * 90 - 1 + 5, pixels.getInt(pixels.limit() - 4));
+            }
+            // One buffer for the whole session
+            assertEquals(1, pool.getAllocationCount());
+        } finally {
+            session.close();
+            adbd.close();
+        }
+    }
+
+    @Test
+    public void readsFramesWithLegacyHeader() throws Exception {
+        check(12);
+    }
+
+    @Test
+    public void skipsColourSpaceField() throws Exception {
+        check(16);
+    }
+
+    @Test
+    public void errorTextIsUnsupported() throws Exception {
+        FakeAdbd adbd = serve("/system/bin/sh: screencap: not found\n".getBytes("UTF-8"));
+        AdbCrypto crypto = AdbCrypto.generate("test@host");
+        AdbSession session = new AdbSession("127.0.0.1", adbd.getPort(), () -> crypto);
+        try {
+            new RawScreenCapture(session, new FrameBufferPool(1)).capture(new RawFrame());
+            fail();
+        } catch (RawScreenCapture.UnsupportedFrameException expected) {
+            // falls through to the caller as fatal
+        } finally {
+            session.close();
+            adbd.close();
+        }
+    }
+
+    @Test
+    public void poolReusesBuffers() {
+        FrameBufferPool pool = new FrameBufferPool(2);
+        ByteBuffer a = pool.acquire(1000);
+        pool.release(a);
+        assertSame(a, pool.acquire(800));
+        pool.release(a);
+        pool.release(pool.acquire(2000));
+        pool.release(pool.acquire(10));
+        assertEquals(2, pool.getAllocationCount());
+        assertEquals(2, pool.getPooledCount());
+        assertTrue(pool.acquire(1500).capacity() >= 2000);
+    }
+}
@@ -0,0 +1,159 @@
+package com.example.tvremote.screen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+public class ThumbnailSchedulerTest {
+    private static final long MS = 1000000L;
+    private static final long SECOND = 1000 * MS;
+    private static final long BYTES_PER_SECOND = 4L * 1024 * 1024;
+    private static final long DECODE_NANOS_PER_SECOND = 250 * MS;
+    // What fits on one phone screen; the rest of the wall is scrolled away
+    private static final int VISIBLE_TILES = 12;
+
+    /**
+     * A wall of TVs: screencap PNGs of 600-1000 KB, encoded on the TV in 300 ms and sent over
+     * a 10 MB/s link, decoded in 60 ms when they changed. Every fourth TV plays video and
+     * changes on each capture; the others show a static menu after their first picture.
+     */
+    private static class SimulatedWall {
+        final ThumbnailScheduler scheduler;
+        final int devices;
+        final List<long[]> pending = new ArrayList<>();
+        long now;
+
+        SimulatedWall(int devices) {
+            this.devices = devices;
+            scheduler = new ThumbnailScheduler(BYTES_PER_SECOND, DECODE_NANOS_PER_SECOND,
+                    ThumbnailScheduler.DEFAULT_MAX_IN_FLIGHT, 0);
+            for (int i = 0; i < devices; i++) {
+                scheduler.add(serial(i), 0);
+                scheduler.setVisible(serial(i), i < VISIBLE_TILES);
+            }
+        }
+
+        static String serial(int i) {
+            return "10.0.0." + i + ":5555";
+        }
+
+        static long bytes(int i) {
+            return (600 + (i % 5) * 100) * 1024;
+        }
+
+        static boolean playsVideo(int i) {
+            return i % 4 == 0;
+        }
+
+        void run(long durationNanos) {
+            long end = now + durationNanos;
+            for (; now < end; now += 10 * MS) {
+                Iterator<long[]> it = pending.iterator();
+                while (it.hasNext()) {
+                    long[] capture = it.next();
+                    if (capture[1] <= now) {
+                        it.remove();
+                        int i = (int) capture[0];
+                        boolean changed = playsVideo(i) || scheduler.getCaptureCount(serial(i)) == 0;
+                        scheduler.onCaptured(serial(i), bytes(i), changed ? 60 * MS : 0, changed, now);
+                    }
+                }
+                String serial;
+                while ((serial = scheduler.next(now)) != null) {
+                    int i = Integer.parseInt(serial.substring(7, serial.indexOf(':')));
+                    pending.add(new long[] {i, now + 300 * MS + bytes(i) * SECOND / (10 * 1024 * 1024)});
+                }
+            }
+        }
+
+        double averageCaptures(boolean visible, boolean video) {
+            long total = 0;
+            int count = 0;
+            for (int i = 0; i < devices; i++) {
+                if ((i < VISIBLE_TILES) == visible && playsVideo(i) == video) {
+                    total += scheduler.getCaptureCount(serial(i));
+                    count++;
+                }
+            }
+            return (double) total / count;
+        }
+    }
+
+    @Test
+    public void staysWithinBudgetAsTheWallGrows() {
+        long seconds = 60;
+        for (int devices : new int[] {1, 4, 12, 24, 48, 96}) {
+            SimulatedWall wall = new SimulatedWall(devices);
+            wall.run(seconds * SECOND);
+            ThumbnailScheduler scheduler = wall.scheduler;
+            // Full buckets at the start allow one extra second's worth, never more
+            assertTrue(devices + " devices", scheduler.getBytesSpent() <= BYTES_PER_SECOND * (seconds + 1));
+            assertTrue(devices + " devices", scheduler.getDecodeNanosSpent() <= DECODE_NANOS_PER_SECOND * (seconds + 1));
+            for (int i = 0; i < devices; i++) {
+                long captures = scheduler.getCaptureCount(SimulatedWall.serial(i));
+                // No device starves, and none is captured faster than its tile refreshes
+                assertTrue(devices + " devices, device " + i, captures > 0);
+                assertTrue(devices + " devices, device " + i,
+                        captures <= seconds * SECOND / ThumbnailScheduler.VISIBLE_INTERVAL_NANOS + 1);
+            }
+        }
+    }
+
+    @Test
+    public void largeWallsUseTheWholeBudget() {
+        SimulatedWall wall = new SimulatedWall(48);
+        wall.run(60 * SECOND);
+        assertTrue(wall.scheduler.getBytesSpent() > BYTES_PER_SECOND * 60 * 9 / 10);
+    }
+
+    @Test
+    public void favorsVisibleAndChangingTiles() {
+        SimulatedWall wall = new SimulatedWall(48);
+        wall.run(60 * SECOND);
+        double visibleVideo = wall.averageCaptures(true, true);
+        double visibleStatic = wall.averageCaptures(true, false);
+        double hiddenVideo = wall.averageCaptures(false, true);
+        double hiddenStatic = wall.averageCaptures(false, false);
+        assertTrue(visibleVideo + " vs " + visibleStatic, visibleVideo > 2 * visibleStatic);
+        assertTrue(visibleStatic + " vs " + hiddenVideo, visibleStatic > hiddenVideo);
+        assertTrue(hiddenVideo + " vs " + hiddenStatic, hiddenVideo >= hiddenStatic);
+        // Hidden tiles are still refreshed now and then
+        assertTrue(hiddenStatic >= 2);
+    }
+
+    @Test
+    public void failuresGiveTheReservationBack() {
+        ThumbnailScheduler scheduler = new ThumbnailScheduler(BYTES_PER_SECOND, DECODE_NANOS_PER_SECOND, 1, 0);
+        scheduler.add("a", 0);
+        scheduler.setVisible("a", true);
+        assertEquals("a", scheduler.next(0));
+        // One capture at a time
+        scheduler.add("b", 0);
+        assertNull(scheduler.next(0));
+        scheduler.onFailed("a", 0);
+        assertEquals(0, scheduler.getInFlight());
+        assertEquals("b", scheduler.next(0));
+        scheduler.onCaptured("b", 1024 * 1024, 40 * MS, true, 0);
+        // a waits out its interval after the failure
+        assertNull(scheduler.next(100 * MS));
+        assertEquals("a", scheduler.next(ThumbnailScheduler.VISIBLE_INTERVAL_NANOS));
+    }
+
+    @Test
+    public void removedDevicesAreNotCapturedAgain() {
+        ThumbnailScheduler scheduler = new ThumbnailScheduler(BYTES_PER_SECOND, DECODE_NANOS_PER_SECOND, 2, 0);
+        scheduler.add("a", 0);
+        assertEquals("a", scheduler.next(0));
+        scheduler.remove("a");
+        scheduler.onCaptured("a", 1024, 0, false, 10 * MS);
+        assertEquals(0, scheduler.getInFlight());
+        assertEquals(1, scheduler.getCaptureCount());
+        assertNull(scheduler.next(60 * SECOND));
+    }
+}
@@ -0,0 +1,77 @@
+package com.example.tvremote.screen;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tile diff over synthetic 1080p RGBA frames. "static" is the worst case (every byte is
+ * compared), "cursor" a single changed tile, "scroll" ~10% of rows and "full" a scene change
+ * where every tile exits on its first row. Run with `./gradlew :core:benchmark`.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TileDiffBenchmark {
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+
+    @Param({"static", "cursor", "scroll", "full"})
+    public String change;
+
+    private final TileDiff diff = new TileDiff();
+    private ByteBuffer previous;
+    private ByteBuffer current;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        previous = ByteBuffer.allocateDirect(WIDTH * HEIGHT * 4).order(ByteOrder.LITTLE_ENDIAN);
+        current = ByteBuffer.allocateDirect(WIDTH * HEIGHT * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < WIDTH * HEIGHT; i++) {
+            int pixel = random.nextInt() | 0xff000000;
+            previous.putInt(i * 4, pixel);
+            current.putInt(i * 4, pixel);
+        }
+        switch (change) {
+            case "cursor":
+                current.putInt((540 * WIDTH + 960) * 4, 0);
+                break;
+            case "scroll":
+                for (int y = 900; y < 1008; y++) {
+                    for (int x = 0; x < WIDTH; x++) {
+                        current.putInt((y * WIDTH + x) * 4, ~previous.getInt((y * WIDTH + x) * 4));
+                    }
+                }
+                break;
+            case "full":
+                for (int i = 0; i < WIDTH * HEIGHT; i++) {
+                    current.putInt(i * 4, ~previous.getInt(i * 4));
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Benchmark
+    public int diff() {
+        return diff.diff(previous, current, WIDTH, HEIGHT, 4);
+    }
+}
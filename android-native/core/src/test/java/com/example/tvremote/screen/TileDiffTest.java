@@ -0,0 +1,73 @@
+package com.example.tvremote.screen;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+public class TileDiffTest {
+
+    private static ByteBuffer frame(int width, int height, int seed) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(width * height * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < width * height; i++) {
+            buffer.putInt(i * 4, i * 31 + seed);
+        }
+        return buffer;
+    }
+
+    @Test
+    public void identicalFramesHaveNoDirtyTiles() {
+        TileDiff diff = new TileDiff(32);
+        assertEquals(0, diff.diff(frame(100, 70, 1), frame(100, 70, 1), 100, 70, 4));
+        assertEquals(4, diff.getTilesX());
+        assertEquals(3, diff.getTilesY());
+        assertEquals(diff.getLeft(), diff.getRight());
+    }
+
+    @Test
+    public void singlePixelMarksOnlyItsTile() {
+        ByteBuffer previous = frame(100, 70, 1);
+        ByteBuffer current = frame(100, 70, 1);
+        // Last pixel of the partial bottom-right tile
+        current.put((99 + 69 * 100) * 4 + 2, (byte) 0x7f);
+        TileDiff diff = new TileDiff(32);
+        assertEquals(1, diff.diff(previous, current, 100, 70, 4));
+        assertTrue(diff.isDirty(3, 2));
+        assertFalse(diff.isDirty(2, 2));
+        assertEquals(96, diff.getLeft());
+        assertEquals(64, diff.getTop());
+        assertEquals(100, diff.getRight());
+        assertEquals(70, diff.getBottom());
+    }
+
+    @Test
+    public void boundsCoverAllChangedTiles() {
+        ByteBuffer previous = frame(256, 128, 1);
+        ByteBuffer current = frame(256, 128, 1);
+        current.putInt((5 * 256 + 40) * 4, 0);
+        current.putInt((100 * 256 + 200) * 4, 0);
+        TileDiff diff = new TileDiff(32);
+        assertEquals(2, diff.diff(previous, current, 256, 128, 4));
+        assertTrue(diff.isDirty(1, 0));
+        assertTrue(diff.isDirty(6, 3));
+        assertEquals(32, diff.getLeft());
+        assertEquals(0, diff.getTop());
+        assertEquals(224, diff.getRight());
+        assertEquals(128, diff.getBottom());
+    }
+
+    @Test
+    public void stateIsResetBetweenCalls() {
+        TileDiff diff = new TileDiff(16);
+        diff.markAll(64, 64);
+        assertEquals(16, diff.getDirtyCount());
+        assertEquals(1f, diff.getDirtyRatio(), 0f);
+        assertEquals(16, diff.diff(frame(64, 64, 1), frame(64, 64, 2), 64, 64, 4));
+        assertEquals(0, diff.diff(frame(64, 64, 3), frame(64, 64, 3), 64, 64, 4));
+        assertFalse(diff.isDirty(0, 0));
+    }
+}
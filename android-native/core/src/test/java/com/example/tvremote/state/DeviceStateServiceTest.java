@@ -0,0 +1,160 @@
+package com.example.tvremote.state;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.example.tvremote.adb.AdbCrypto;
+import com.example.tvremote.adb.AdbSessions;
+import com.example.tvremote.adb.FakeAdbd;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class DeviceStateServiceTest {
+    private static final String ASLEEP = "@power\n  mWakefulness=Asleep\n";
+
+    private static AdbCrypto crypto;
+    private final List<DeviceState> changes = new CopyOnWriteArrayList<>();
+    private FakeAdbd fake;
+    private AdbSessions sessions;
+    private DeviceStateService service;
+    private volatile String output = DeviceStateTest.AWAKE;
+    private volatile boolean hang;
+
+    @BeforeClass
+    public static void createKey() throws Exception {
+        crypto = AdbCrypto.generate("test@host");
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        fake = new FakeAdbd();
+        fake.setService((destination, channel) -> {
+            if (destination.equals("shell:" + DeviceState.QUERY)) {
+                if (hang) {
+                    // Keeps the stream open without a word, like a wedged dumpsys
+                    while (channel.read() != null) {
+                    }
+                    return;
+                }
+                channel.write(output);
+            }
+            channel.close();
+        });
+        sessions = new AdbSessions(new File("unused")) {
+            @Override
+            public synchronized AdbCrypto getCrypto() {
+                return crypto;
+            }
+        };
+        service = new DeviceStateService(sessions);
+        service.setIntervals(20, 320, 10);
+        service.setListener((serial, state) -> changes.add(state));
+    }
+
+    @After
+    public void tearDown() {
+        service.close();
+        sessions.closeAll();
+        fake.close();
+    }
+
+    @Test
+    public void reportsChangesOnly() throws Exception {
+        String serial = connected();
+        service.watch(serial);
+        awaitChanges(1);
+        assertEquals("com.netflix.ninja", service.get(serial).foregroundPackage);
+        Thread.sleep(200);
+        assertEquals(1, changes.size());
+        assertTrue(service.getProbeCount(serial) > 1);
+
+        output = ASLEEP;
+        service.refresh(serial);
+        awaitChanges(2);
+        assertEquals(DeviceState.POWER_OFF, changes.get(1).power);
+    }
+
+    @Test
+    public void unchangedDevicesArePolledLessAndLess() throws Exception {
+        String serial = connected();
+        service.watch(serial);
+        awaitChanges(1);
+        // 20, 40, 80, 160, 320, 320 ms: six probes in the first second instead of fifty
+        Thread.sleep(1000);
+        long probes = service.getProbeCount(serial);
+        assertTrue("" + probes, probes <= 9);
+
+        // Input brings the active rate back, and its effect is seen within the input delay
+        output = DeviceStateTest.AWAKE.replace("streamVolume:7", "streamVolume:8");
+        service.onInput(serial);
+        awaitChanges(2);
+        assertEquals(8, changes.get(1).volume);
+    }
+
+    @Test
+    public void tvsThatAreOffWaitTheIdleInterval() throws Exception {
+        output = ASLEEP;
+        String serial = connected();
+        service.watch(serial);
+        awaitChanges(1);
+        Thread.sleep(250);
+        assertEquals(1, service.getProbeCount(serial));
+        service.unwatch(serial);
+        assertEquals(null, service.get(serial));
+    }
+
+    @Test
+    public void devicesThatAreNotConnectedAreLeftAlone() throws Exception {
+        String serial = fake.getSerial();
+        service.watch(serial);
+        Thread.sleep(200);
+        assertTrue(service.getProbeCount(serial) > 0);
+        assertEquals(0, fake.getConnectionCount());
+        assertTrue(changes.isEmpty());
+
+        // Once the device is connected elsewhere, the next probe uses that connection
+        sessions.get(serial).ensureConnected();
+        service.refresh(serial);
+        awaitChanges(1);
+        assertEquals(1, fake.getConnectionCount());
+    }
+
+    @Test
+    public void probesThatGetNoAnswerAreAbandoned() throws Exception {
+        hang = true;
+        service.setQueryTimeout(100);
+        String serial = connected();
+        service.watch(serial);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (service.getProbeCount(serial) < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(service.getProbeCount(serial) >= 3);
+        assertTrue(changes.isEmpty());
+
+        hang = false;
+        service.refresh(serial);
+        awaitChanges(1);
+    }
+
+    private String connected() throws Exception {
+        String serial = fake.getSerial();
+        sessions.get(serial).ensureConnected();
+        return serial;
+    }
+
+    private void awaitChanges(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (changes.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(count, changes.size());
+    }
+}
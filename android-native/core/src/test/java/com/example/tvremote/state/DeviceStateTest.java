@@ -0,0 +1,97 @@
+package com.example.tvremote.state;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class DeviceStateTest {
+    static final String AWAKE = "@power\n"
+            + "  mWakefulness=Awake\n"
+            + "Display Power: state=ON\n"
+            + "@activity\n"
+            + "  topResumedActivity=ActivityRecord{3c1f2a u0 com.netflix.ninja/.MainActivity t42}\n"
+            + "    mResumedActivity: ActivityRecord{3c1f2a u0 com.netflix.ninja/.MainActivity t42}\n"
+            + "@audio\n"
+            + "- STREAM_MUSIC:\n"
+            + "   Muted: false\n"
+            + "   Muted Internally: false\n"
+            + "   Min: 0\n"
+            + "   Max: 15\n"
+            + "   streamVolume:7\n"
+            + "   Current: 2 (speaker): 5, 400 (hdmi): 7, 40000000 (default): 5\n"
+            + "   Devices: hdmi\n"
+            + "@media\n"
+            + "    Sessions Stack - have 2 sessions:\n"
+            + "      Netflix com.netflix.ninja/Netflix (userId=0)\n"
+            + "        active=true\n"
+            + "        state=PlaybackState {state=3, position=1234, buffered position=0, speed=1.0}\n"
+            + "        metadata: size=4, description=Dark, Season 1: Secrets, null\n"
+            + "      YouTube com.google.android.youtube.tv/YouTube (userId=0)\n"
+            + "        active=true\n"
+            + "        state=PlaybackState {state=2, position=0, buffered position=0, speed=0.0}\n"
+            + "        metadata: size=2, description=Other video, null, null\n"
+            + "@hdmi\n";
+
+    @Test
+    public void parsesEverySection() {
+        DeviceState state = DeviceState.parse(AWAKE);
+        assertEquals(DeviceState.POWER_ON, state.power);
+        assertEquals("com.netflix.ninja", state.foregroundPackage);
+        assertEquals("com.netflix.ninja.MainActivity", state.foregroundActivity);
+        assertEquals(7, state.volume);
+        assertEquals(15, state.maxVolume);
+        assertFalse(state.muted);
+        assertEquals(-1, state.hdmiPort);
+        assertEquals("Dark", state.mediaTitle);
+        assertTrue(state.playing);
+        assertEquals("On, com.netflix.ninja, playing Dark, volume 7/15", state.describe());
+    }
+
+    @Test
+    public void sameResultHoweverTheOutputIsSplit() {
+        String output = AWAKE.replace("Dark", "D\u00e9j\u00e0 vu").replace("\n", "\r\n");
+        byte[] bytes = output.getBytes(StandardCharsets.UTF_8);
+        DeviceState whole = DeviceState.parse(output);
+        assertEquals("D\u00e9j\u00e0 vu", whole.mediaTitle);
+        for (int chunk = 1; chunk < 64; chunk += 7) {
+            DeviceState.Parser parser = new DeviceState.Parser();
+            for (int i = 0; i < bytes.length; i += chunk) {
+                parser.feed(bytes, i, Math.min(chunk, bytes.length - i));
+            }
+            assertEquals("chunk " + chunk, whole, parser.finish());
+        }
+    }
+
+    @Test
+    public void asleepTvsReportOnlyPower() {
+        DeviceState state = DeviceState.parse("@power\n  mWakefulness=Asleep\nDisplay Power: state=OFF\n");
+        assertEquals(DeviceState.POWER_OFF, state.power);
+        assertNull(state.foregroundPackage);
+        assertEquals("Off", state.describe());
+        // Older builds only print the display state
+        assertEquals(DeviceState.POWER_OFF, DeviceState.parse("@power\nDisplay Power: state=OFF\n").power);
+        assertEquals(DeviceState.POWER_ON, DeviceState.parse("@power\n  mWakefulness=Dreaming\n").power);
+    }
+
+    @Test
+    public void olderAudioDumpsAndHdmiInputs() {
+        DeviceState state = DeviceState.parse("@power\n  mWakefulness=Awake\n"
+                + "@activity\n  mResumedActivity: ActivityRecord{1a2b u0 com.android.tv/com.android.tv.TvActivity t3}\n"
+                + "@audio\n- STREAM_MUSIC:\n   Muted: true\n   Min: 0\n   Max: 100\n"
+                + "   Current: 2 (speaker): 30, 400 (hdmi): 30\n"
+                + "@media\n"
+                + "@hdmi\n  mActivePortId: 2\n");
+        assertEquals("com.android.tv.TvActivity", state.foregroundActivity);
+        assertEquals(30, state.volume);
+        assertTrue(state.muted);
+        assertEquals(2, state.hdmiPort);
+        assertNull(state.mediaTitle);
+        assertEquals("On, HDMI 2, muted", state.describe());
+        assertEquals(DeviceState.UNKNOWN, DeviceState.parse("/system/bin/sh: dumpsys: not found\n"));
+    }
+}
@@ -0,0 +1,158 @@
+package com.example.tvremote.task;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class TaskScopeTest {
+    private final Lanes lanes = new Lanes();
+    // Stands in for the main looper: UI actions queue here until the test runs them
+    private final List<Runnable> uiQueue = new ArrayList<>();
+
+    @After
+    public void tearDown() {
+        lanes.shutdown();
+    }
+
+    private synchronized void runUi() {
+        for (Runnable action : uiQueue) {
+            action.run();
+        }
+        uiQueue.clear();
+    }
+
+    // Timings are recorded just after a task returns
+    private static void awaitTaskCount(Lane lane, long count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (lane.getTaskCount() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(count, lane.getTaskCount());
+    }
+
+    private TaskScope scope() {
+        return new TaskScope(action -> {
+            synchronized (this) {
+                uiQueue.add(action);
+            }
+        });
+    }
+
+    @Test
+    public void cancelInterruptsTasksAndDropsTheirResults() throws Exception {
+        TaskScope scope = scope();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        List<String> shown = new ArrayList<>();
+        scope.submit(lanes.discovery, () -> {
+            scope.ui(() -> shown.add("progress"));
+            started.countDown();
+            try {
+                Thread.sleep(10000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                // A result that arrives after the owner went away
+                scope.ui(() -> shown.add("complete"));
+            }
+        });
+        boolean[] stopped = new boolean[1];
+        scope.onCancel(() -> stopped[0] = true);
+        assertTrue(started.await(2, TimeUnit.SECONDS));
+
+        scope.cancel();
+        assertTrue(interrupted.await(2, TimeUnit.SECONDS));
+        assertTrue(stopped[0]);
+        // Posted before the cancel, but it had not run yet
+        runUi();
+        assertTrue(shown.isEmpty());
+        assertNull(scope.submit(lanes.discovery, () -> shown.add("late")));
+    }
+
+    @Test
+    public void inputDoesNotWaitBehindOtherLanes() throws Exception {
+        TaskScope scope = scope();
+        CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < 4; i++) {
+            scope.submit(lanes.capture, () -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        CountDownLatch keyed = new CountDownLatch(1);
+        scope.submit(lanes.input, keyed::countDown);
+        assertTrue(keyed.await(1, TimeUnit.SECONDS));
+        assertEquals(3, lanes.capture.getQueued());
+
+        release.countDown();
+        scope.cancel();
+        awaitTaskCount(lanes.input, 1);
+        assertTrue(lanes.input.getMaxWaitNanos() < TimeUnit.SECONDS.toNanos(1));
+    }
+
+    @Test
+    public void lanesTimeQueueWaitAndRun() throws Exception {
+        Lane lane = new Lane("test", 1, Thread.NORM_PRIORITY);
+        try {
+            CountDownLatch done = new CountDownLatch(2);
+            for (int i = 0; i < 2; i++) {
+                lane.submit(() -> {
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    done.countDown();
+                });
+            }
+            assertTrue(done.await(2, TimeUnit.SECONDS));
+            awaitTaskCount(lane, 2);
+            // The second task queued behind the first
+            assertTrue(lane.getMaxWaitNanos() >= TimeUnit.MILLISECONDS.toNanos(15));
+            assertTrue(lane.getAverageRunNanos() >= TimeUnit.MILLISECONDS.toNanos(15));
+            assertTrue(lane.summary().startsWith("test: 2 tasks"));
+        } finally {
+            lane.shutdown();
+        }
+    }
+
+    @Test
+    public void slowPeriodicTasksDoNotPileUp() throws Exception {
+        Lane lane = new Lane("test", 1, Thread.NORM_PRIORITY);
+        List<long[]> runs = new ArrayList<>();
+        try {
+            // Each run takes three periods; catching up would start the next one right away
+            lane.schedule(() -> {
+                long started = System.nanoTime();
+                try {
+                    Thread.sleep(30);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                synchronized (runs) {
+                    runs.add(new long[] {started, System.nanoTime()});
+                }
+            }, 10);
+            awaitTaskCount(lane, 4);
+        } finally {
+            lane.shutdown();
+        }
+        synchronized (runs) {
+            for (int i = 1; i < runs.size(); i++) {
+                long gap = runs.get(i)[0] - runs.get(i - 1)[1];
+                assertTrue("run " + i + " started " + gap + " ns after the last one ended",
+                        gap >= TimeUnit.MILLISECONDS.toNanos(9));
+            }
+        }
+    }
+}
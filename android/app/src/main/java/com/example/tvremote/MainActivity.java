@@ -1,5 +1,14 @@
 package com.example.tvremote;
 
+import android.os.Bundle;
+
 import com.getcapacitor.BridgeActivity;
 
-public class MainActivity extends BridgeActivity {}
+public class MainActivity extends BridgeActivity {
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        // Plugins have to be registered before the bridge is created
+        registerPlugin(TvRemotePlugin.class);
+        super.onCreate(savedInstanceState);
+    }
+}
@@ -0,0 +1,208 @@
+package com.example.tvremote;
+
+import android.content.Context;
+import android.net.wifi.WifiManager;
+import android.util.Base64;
+import android.util.Log;
+
+import androidx.webkit.JavaScriptReplyProxy;
+import androidx.webkit.WebViewCompat;
+import androidx.webkit.WebViewFeature;
+
+import com.example.tvremote.adb.AdbSessions;
+import com.example.tvremote.adb.DevicePool;
+import com.example.tvremote.control.ControlApi;
+import com.example.tvremote.control.Json;
+import com.example.tvremote.control.Peer;
+import com.example.tvremote.control.ScreenFrame;
+import com.example.tvremote.discovery.DeviceRegistry;
+import com.example.tvremote.screen.DisplayGeometryService;
+import com.example.tvremote.task.Lanes;
+import com.getcapacitor.JSObject;
+import com.getcapacitor.Plugin;
+import com.getcapacitor.PluginCall;
+import com.getcapacitor.PluginMethod;
+import com.getcapacitor.annotation.CapacitorPlugin;
+
+import org.json.JSONException;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Lets the bundled web UI drive TVs from the phone itself instead of through server.js. The
+ * methods take the same data as the socket.io events of the same name and resolve as soon as
+ * the work is queued; replies arrive as plugin events named like the server.js ones
+ * (commandResponse, devicesList, scanProgress, ...), so script.js handles both the same way.
+ *
+ * Screen frames skip the plugin bridge, which only carries JSON: they are posted as
+ * ArrayBuffers to the page's `tvFrames` object, and the next one is sent only after the page
+ * answers 'ready'. Without ArrayBuffer support they fall back to base64 screenData events.
+ */
+@CapacitorPlugin(name = "TvRemote")
+public class TvRemotePlugin extends Plugin implements Peer {
+    private static final String TAG = "TvRemotePlugin";
+    private static final String FRAME_CHANNEL = "tvFrames";
+
+    private AdbSessions sessions;
+    private DevicePool pool;
+    private Lanes lanes;
+    private ControlApi api;
+    private boolean binaryFrames;
+    private volatile JavaScriptReplyProxy frameChannel;
+    // Set while the page has a frame it has not answered 'ready' to
+    private final AtomicBoolean frameInFlight = new AtomicBoolean(true);
+
+    @Override
+    public void load() {
+        Context context = getContext();
+        sessions = new AdbSessions(context.getFilesDir());
+        pool = new DevicePool(sessions);
+        lanes = new Lanes();
+        DeviceRegistry registry = new DeviceRegistry(new File(context.getFilesDir(), "devices.registry"));
+        try {
+            registry.load();
+        } catch (IOException e) {
+            // Geometry is queried again
+        }
+        api = new ControlApi(sessions, pool, lanes);
+        api.setDisplayGeometry(new DisplayGeometryService(sessions, registry));
+        api.setDefaultRange(localRange(context));
+
+        // Registered before the page loads, so the object exists when script.js runs
+        if (WebViewFeature.isFeatureSupported(WebViewFeature.WEB_MESSAGE_LISTENER)) {
+            binaryFrames = WebViewFeature.isFeatureSupported(WebViewFeature.WEB_MESSAGE_ARRAY_BUFFER);
+            WebViewCompat.addWebMessageListener(getBridge().getWebView(), FRAME_CHANNEL,
+                    getBridge().getAllowedOriginRules(), (view, message, sourceOrigin, isMainFrame, replyProxy) -> {
+                        frameChannel = replyProxy;
+                        frameInFlight.set(false);
+                    });
+        }
+    }
+
+    @Override
+    protected void handleOnDestroy() {
+        api.disconnect(this);
+        pool.close();
+        sessions.closeAll();
+        lanes.shutdown();
+    }
+
+    // Nothing but the bridge round trip, for benchmarkTransport() in script.js
+    @PluginMethod
+    public void echo(PluginCall call) {
+        call.resolve(call.getData());
+    }
+
+    @PluginMethod
+    public void connect(PluginCall call) {
+        dispatch(call, "connectToDevice");
+    }
+
+    @PluginMethod
+    public void disconnect(PluginCall call) {
+        dispatch(call, "disconnectDevice");
+    }
+
+    @PluginMethod
+    public void listDevices(PluginCall call) {
+        dispatch(call, "listDevices");
+    }
+
+    @PluginMethod
+    public void sendCommand(PluginCall call) {
+        dispatch(call, "sendCommand");
+    }
+
+    @PluginMethod
+    public void sendText(PluginCall call) {
+        dispatch(call, "sendText");
+    }
+
+    @PluginMethod
+    public void sendTap(PluginCall call) {
+        dispatch(call, "sendTap");
+    }
+
+    @PluginMethod
+    public void sendSwipe(PluginCall call) {
+        dispatch(call, "sendSwipe");
+    }
+
+    @PluginMethod
+    public void scanNetwork(PluginCall call) {
+        dispatch(call, "scanNetwork");
+    }
+
+    @PluginMethod
+    public void getDisplayGeometry(PluginCall call) {
+        dispatch(call, "getDisplayGeometry");
+    }
+
+    @PluginMethod
+    public void startScreenCapture(PluginCall call) {
+        dispatch(call, "startScreenCapture");
+    }
+
+    @PluginMethod
+    public void stopScreenCapture(PluginCall call) {
+        dispatch(call, "stopScreenCapture");
+    }
+
+    @SuppressWarnings("unchecked")
+    private void dispatch(PluginCall call, String event) {
+        Map<String, Object> data;
+        try {
+            data = (Map<String, Object>) Json.parse(call.getData().toString());
+        } catch (IllegalArgumentException e) {
+            call.reject("Bad arguments: " + e.getMessage());
+            return;
+        }
+        api.handle(this, event, data);
+        call.resolve();
+    }
+
+    @Override
+    public boolean emit(String event, String data) {
+        try {
+            notifyListeners(event, data != null ? new JSObject(data) : new JSObject());
+            return true;
+        } catch (JSONException e) {
+            Log.w(TAG, "Bad " + event + " reply", e);
+            return false;
+        }
+    }
+
+    @Override
+    public boolean sendScreen(ScreenFrame frame) {
+        JavaScriptReplyProxy channel = frameChannel;
+        if (channel == null) {
+            JSObject data = new JSObject();
+            data.put("data", Base64.encodeToString(frame.png, Base64.NO_WRAP));
+            data.put("frameTime", frame.frameTimeMs);
+            notifyListeners("screenData", data);
+            return true;
+        }
+        if (!frameInFlight.compareAndSet(false, true)) {
+            return false;
+        }
+        // The reply proxy may only be used on the main thread
+        getBridge().executeOnMainThread(() -> {
+            if (binaryFrames) {
+                channel.postMessage(frame.png);
+            } else {
+                channel.postMessage(Base64.encodeToString(frame.png, Base64.NO_WRAP));
+            }
+        });
+        return true;
+    }
+
+    private static String localRange(Context context) {
+        WifiManager wifiManager = (WifiManager) context.getApplicationContext().getSystemService(Context.WIFI_SERVICE);
+        int ip = wifiManager.getConnectionInfo().getIpAddress();
+        return String.format(Locale.US, "%d.%d.%d.0/24", ip & 0xff, ip >> 8 & 0xff, ip >> 16 & 0xff);
+    }
+}
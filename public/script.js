@@ -1,5 +1,158 @@
+// Inside the Capacitor app the native TvRemote plugin talks to the TVs itself, and in the
+// android-app WebView shell the activity does; everywhere else the same events go through
+// socket.io to server.js. All of them look like a socket.io socket.
+const NATIVE_METHODS = {
+    connectToDevice: 'connect',
+    disconnectDevice: 'disconnect',
+    listDevices: 'listDevices',
+    sendCommand: 'sendCommand',
+    sendText: 'sendText',
+    sendTap: 'sendTap',
+    sendSwipe: 'sendSwipe',
+    scanNetwork: 'scanNetwork',
+    getDisplayGeometry: 'getDisplayGeometry',
+    startScreenCapture: 'startScreenCapture',
+    stopScreenCapture: 'stopScreenCapture'
+};
+const NATIVE_EVENTS = ['commandResponse', 'devicesList', 'displayGeometry', 'disconnectResponse', 'screenData',
+    'screenCaptureStopped', 'screenError', 'scanStatus', 'scanProgress', 'deviceDiscovered', 'scanComplete', 'error'];
+
+class EventTransport {
+    constructor() {
+        this.handlers = new Map();
+        setTimeout(() => this.dispatch('connect'), 0);
+    }
+
+    on(event, handler) {
+        if (!this.handlers.has(event)) {
+            this.handlers.set(event, []);
+        }
+        this.handlers.get(event).push(handler);
+    }
+
+    dispatch(event, data) {
+        for (const handler of this.handlers.get(event) || []) {
+            handler(data);
+        }
+    }
+}
+
+class NativeTransport extends EventTransport {
+    constructor(plugin) {
+        super();
+        this.plugin = plugin;
+        for (const event of NATIVE_EVENTS) {
+            plugin.addListener(event, (data) => this.dispatch(event, data));
+        }
+        // Screen frames arrive as ArrayBuffers on their own channel instead of base64 in JSON.
+        // Answering 'ready' asks for the next one, so frames are dropped natively, not queued here.
+        const frames = window.tvFrames;
+        if (frames) {
+            const ready = () => frames.postMessage('ready');
+            frames.onmessage = (event) => {
+                if (event.data instanceof ArrayBuffer) {
+                    this.dispatch('screenData', { bytes: event.data, done: ready });
+                } else {
+                    // WebViews without ArrayBuffer messages get base64
+                    this.dispatch('screenData', { data: event.data, done: ready });
+                }
+            };
+            ready();
+        }
+    }
+
+    emit(event, data, ack) {
+        const method = event === 'echo' ? 'echo' : NATIVE_METHODS[event];
+        if (!method) {
+            console.warn('No native handler for', event);
+            return;
+        }
+        this.plugin[method](data || {}).then(ack, (error) => this.dispatch('error', { error: error.message }));
+    }
+}
+
+// The activity answers through window.tvRemoteNative.dispatch(). Screen frames are fetched as
+// PNG bytes from the page's own origin, the next one only after the last one is drawn.
+class ActivityTransport extends EventTransport {
+    constructor(bridge) {
+        super();
+        this.bridge = bridge;
+        this.frameLoop = null;
+        window.tvRemoteNative = this;
+    }
+
+    emit(event, data, ack) {
+        const reply = this.bridge.send(event, JSON.stringify(data || {}));
+        if (ack) {
+            ack(reply ? JSON.parse(reply) : undefined);
+        }
+        if (event === 'startScreenCapture') {
+            this.fetchFrames();
+        } else if (event === 'stopScreenCapture') {
+            this.frameLoop = null;
+        }
+    }
+
+    async fetchFrames() {
+        const loop = {};
+        this.frameLoop = loop;
+        let seq = 0;
+        while (this.frameLoop === loop) {
+            try {
+                const response = await fetch(`/frames?after=${seq}`);
+                if (response.status !== 200) {
+                    // 204: no new frame yet
+                    continue;
+                }
+                seq = Number(response.headers.get('X-Frame-Seq'));
+                const bytes = await response.blob();
+                if (this.frameLoop === loop) {
+                    await new Promise((resolve) => handleScreenData({ bytes, done: resolve }));
+                }
+            } catch (e) {
+                console.error('Error fetching screen frame:', e);
+                await new Promise((resolve) => setTimeout(resolve, 500));
+            }
+        }
+    }
+}
+
+function createTransport(connectSocket) {
+    if (window.TvRemoteNative) {
+        return new ActivityTransport(window.TvRemoteNative);
+    }
+    const capacitor = window.Capacitor;
+    if (capacitor && capacitor.isNativePlatform() && capacitor.Plugins.TvRemote) {
+        return new NativeTransport(capacitor.Plugins.TvRemote);
+    }
+    return connectSocket();
+}
+
+// Round trips of an empty message through the current transport, to compare the plugin bridge
+// with socket.io to server.js. Run benchmarkTransport() from the console in each build.
+async function benchmarkTransport(count = 500) {
+    const times = [];
+    for (let i = 0; i < count; i++) {
+        const start = performance.now();
+        await new Promise((resolve) => socket.emit('echo', { i }, resolve));
+        times.push(performance.now() - start);
+    }
+    times.sort((a, b) => a - b);
+    const result = {
+        transport: socket instanceof NativeTransport ? 'native plugin'
+            : socket instanceof ActivityTransport ? 'WebView bridge' : 'socket.io',
+        count,
+        p50: times[Math.floor(count * 0.5)],
+        p95: times[Math.floor(count * 0.95)],
+        max: times[count - 1]
+    };
+    console.log(`${result.transport}: p50=${result.p50.toFixed(2)} ms p95=${result.p95.toFixed(2)} ms ` +
+        `max=${result.max.toFixed(2)} ms over ${count} calls`);
+    return result;
+}
+
 // Connect to the server via Socket.IO
-const socket = io();
+const socket = createTransport(() => io());
 
 // DOM elements
 const deviceIdSelect = document.getElementById('deviceId');
@@ -46,11 +199,27 @@ const tabContents = document.querySelectorAll('.tab-content');
 let keyboardInputEnabled = false;
 let isShiftPressed = false;
 let isMouseDown = false;
-let lastX = 0;
-let lastY = 0;
+// Current drag on the mouse pad, in TV pixels; sent as one swipe when the finger lifts
+let dragStartX = 0;
+let dragStartY = 0;
+let dragX = 0;
+let dragY = 0;
+let dragStartTime = 0;
+// The pad covers the whole TV screen. The display size is asked for once per device and the
+// view-to-TV factors are worked out only when it or a view's size changes, not per event.
+const DEFAULT_GEOMETRY = { width: 1920, height: 1080 };
+const displayGeometries = new Map();
+let tvGeometry = DEFAULT_GEOMETRY;
+const padMapping = { left: 0, top: 0, scaleX: 1, scaleY: 1 };
+const canvasMapping = { left: 0, top: 0, scaleX: 1, scaleY: 1 };
 let frameCount = 0;
 let lastFpsUpdate = Date.now();
-let previousInputValue = ''; // Track previous input value for better backspace handling
+let previousInputValue = ''; // What the TV field already holds from the visible input
+// Keystrokes typed within TEXT_FLUSH_MS go to the server as one sendText
+const TEXT_FLUSH_MS = 40;
+let pendingText = '';
+let pendingDeletes = 0;
+let textFlushTimer = null;
 
 // Tab navigation
 tabButtons.forEach(button => {
@@ -68,6 +237,8 @@ tabButtons.forEach(button => {
                 content.classList.add('active');
             }
         });
+        // Views in a hidden tab have no size until it is shown
+        updateMappings();
     });
 });
 
@@ -159,23 +330,56 @@ function sendCommand(command) {
         return;
     }
     
+    // Text typed just before the command goes first
+    flushText();
     updateStatus(`Sending command: ${command}`);
     
     socket.emit('sendCommand', { deviceId, command });
 }
 
-// Send text input to the server
+// Queue typed text; bursts of keystrokes are sent together
 function sendTextInput(text) {
-    const deviceId = deviceIdSelect.value;
+    pendingText += text;
+    scheduleTextFlush();
+}
+
+// Queue a backspace; one that undoes a queued character just drops it
+function sendBackspace() {
+    if (pendingText) {
+        pendingText = Array.from(pendingText).slice(0, -1).join('');
+    } else {
+        pendingDeletes++;
+    }
+    scheduleTextFlush();
+}
+
+function scheduleTextFlush() {
+    if (!textFlushTimer) {
+        textFlushTimer = setTimeout(flushText, TEXT_FLUSH_MS);
+    }
+}
+
+// The server presses backspace `deletes` times, then types the text
+function flushText() {
+    clearTimeout(textFlushTimer);
+    textFlushTimer = null;
+    if (!pendingText && !pendingDeletes) {
+        return;
+    }
+    const text = pendingText;
+    const deletes = pendingDeletes;
+    pendingText = '';
+    pendingDeletes = 0;
     
+    const deviceId = deviceIdSelect.value;
     if (!deviceId) {
         updateError('Please select a device first');
         return;
     }
     
-    updateStatus(`Sending text: ${text}`);
+    updateStatus(deletes ? `Sending text: ${text} (${deletes} backspace(s))` : `Sending text: ${text}`);
     
-    socket.emit('sendText', { deviceId, text });
+    socket.emit('sendText', { deviceId, text, deletes });
 }
 
 // Send mouse click to the server
@@ -260,32 +464,32 @@ function scanNetwork() {
     socket.emit('scanNetwork', { networkRange });
 }
 
-// Handle screen data
+// Handle screen data: base64 PNG from server.js, or an ArrayBuffer from the native plugin
 function handleScreenData(data) {
     try {
-        // Create image directly from base64 data
+        if (data.bytes) {
+            // Decoded off the JS thread; nothing is converted to or from base64
+            createImageBitmap(new Blob([data.bytes], { type: 'image/png' }))
+                .then((bitmap) => {
+                    drawScreenFrame(bitmap);
+                    bitmap.close();
+                })
+                .catch((e) => console.error('Error decoding screen frame:', e))
+                .finally(data.done);
+            return;
+        }
         const img = new Image();
         img.onload = function() {
-            // Draw the image on the canvas
-            screenCanvas.width = img.width;
-            screenCanvas.height = img.height;
-            ctx.drawImage(img, 0, 0);
-            
-            // Update FPS counter
-            frameCount++;
-            const now = Date.now();
-            if (now - lastFpsUpdate >= 1000) { // Update every second
-                const fps = Math.round((frameCount * 1000) / (now - lastFpsUpdate));
-                fpsCounter.textContent = `${fps} FPS`;
-                frameCount = 0;
-                lastFpsUpdate = now;
+            drawScreenFrame(img);
+            if (data.done) {
+                data.done();
             }
-            
-            // Clean up
-            URL.revokeObjectURL(this.src);
         };
         img.onerror = function() {
             console.error('Error loading screen image');
+            if (data.done) {
+                data.done();
+            }
         };
         img.src = 'data:image/png;base64,' + data.data;
     } catch (e) {
@@ -293,6 +497,31 @@ function handleScreenData(data) {
     }
 }
 
+function drawScreenFrame(image) {
+    if (screenCanvas.width !== image.width || screenCanvas.height !== image.height) {
+        screenCanvas.width = image.width;
+        screenCanvas.height = image.height;
+        // Screenshots are full size, so a new size means the TV rotated or changed mode
+        const deviceId = deviceIdSelect.value;
+        if (deviceId && (image.width !== tvGeometry.width || image.height !== tvGeometry.height)) {
+            displayGeometries.delete(deviceId);
+            requestDisplayGeometry();
+        }
+        updateMappings();
+    }
+    ctx.drawImage(image, 0, 0);
+    
+    // Update FPS counter
+    frameCount++;
+    const now = Date.now();
+    if (now - lastFpsUpdate >= 1000) { // Update every second
+        const fps = Math.round((frameCount * 1000) / (now - lastFpsUpdate));
+        fpsCounter.textContent = `${fps} FPS`;
+        frameCount = 0;
+        lastFpsUpdate = now;
+    }
+}
+
 // Toggle keyboard input
 function toggleKeyboardInput() {
     keyboardInputEnabled = !keyboardInputEnabled;
@@ -309,6 +538,7 @@ function toggleKeyboardInput() {
         inputContainer.classList.remove('active');
         visibleInput.classList.remove('active');
         visibleInput.value = ''; // Clear the input field
+        previousInputValue = '';
         toggleKeyboardBtn.textContent = 'Show Keyboard';
         toggleKeyboardBtn.classList.remove('active');
     }
@@ -325,11 +555,12 @@ function handleKeyboardEvent(event) {
     
     // Handle special keys
     switch (event.key) {
+        // Enter, Backspace and Tab travel with the text so they stay in order with it
         case 'Enter':
-            sendCommand('input keyevent KEYCODE_ENTER');
+            sendTextInput('\n');
             break;
         case 'Backspace':
-            sendCommand('input keyevent KEYCODE_DEL');
+            sendBackspace();
             break;
         case 'Escape':
             sendCommand('input keyevent KEYCODE_BACK');
@@ -347,7 +578,7 @@ function handleKeyboardEvent(event) {
             sendCommand('input keyevent KEYCODE_DPAD_RIGHT');
             break;
         case ' ':
-            sendTextInput(' '); // Send space as text input, not keyevent
+            sendTextInput(' ');
             break;
         case 'Shift':
             isShiftPressed = true;
@@ -357,7 +588,7 @@ function handleKeyboardEvent(event) {
             // Could be used for copy/paste shortcuts
             break;
         case 'Tab':
-            sendCommand('input keyevent KEYCODE_TAB');
+            sendTextInput('\t');
             break;
         default:
             // Handle regular text input
@@ -369,66 +600,42 @@ function handleKeyboardEvent(event) {
     }
 }
 
-// Handle input events on the visible input field with better backspace support
+// Mirror the visible input field: backspace to where it differs from what was sent, then type the rest
 function handleInputEvent(event) {
     if (!keyboardInputEnabled) return;
     
-    const currentValue = event.target.value;
-    
-    // If the current value is shorter than the previous value, it's likely a backspace/delete
-    if (currentValue.length < previousInputValue.length) {
-        // Calculate how many characters were deleted
-        const diff = previousInputValue.length - currentValue.length;
-        
-        // Send backspace commands for each deleted character
-        for (let i = 0; i < diff; i++) {
-            sendCommand('input keyevent KEYCODE_DEL');
-        }
-        
-        // Then send the new text that was typed (if any)
-        if (currentValue.length > 0) {
-            sendTextInput(currentValue);
-        }
-    } 
-    // If the current value is longer, characters were added
-    else if (currentValue.length > previousInputValue.length) {
-        // Send only the new characters
-        const newChars = currentValue.substring(previousInputValue.length);
-        sendTextInput(newChars);
-    }
-    // If same length, it might be a replacement (like typing over selected text)
-    else if (currentValue !== previousInputValue) {
-        // For simplicity, we'll clear and resend the entire text
-        // First, clear the field with backspaces
-        for (let i = 0; i < previousInputValue.length; i++) {
-            sendCommand('input keyevent KEYCODE_DEL');
-        }
-        // Then send the new text
-        if (currentValue.length > 0) {
-            sendTextInput(currentValue);
-        }
+    const previous = Array.from(previousInputValue);
+    const current = Array.from(event.target.value);
+    let common = 0;
+    while (common < previous.length && common < current.length && previous[common] === current[common]) {
+        common++;
     }
-    
-    // Update the previous value
-    previousInputValue = currentValue;
-    
-    // Clear the input field to prepare for next input
-    event.target.value = '';
-    previousInputValue = '';
+    for (let i = common; i < previous.length; i++) {
+        sendBackspace();
+    }
+    sendTextInput(current.slice(common).join(''));
+    previousInputValue = event.target.value;
 }
 
-// Clear input field
+// Clear input field, and the text it put on the TV
 function clearInput() {
+    for (let i = 0; i < Array.from(previousInputValue).length; i++) {
+        sendBackspace();
+    }
     visibleInput.value = '';
     previousInputValue = '';
     visibleInput.focus();
 }
 
-// Send input text
+// Send input text: type whatever is not on the TV yet, then submit it with Enter
 function sendInput() {
     const text = visibleInput.value;
     if (text) {
-        sendTextInput(text);
+        if (!keyboardInputEnabled) {
+            sendTextInput(text);
+        }
+        sendTextInput('\n');
+        flushText();
         visibleInput.value = '';
         previousInputValue = '';
         visibleInput.focus();
@@ -441,46 +648,88 @@ function handleKeyboardUp(event) {
     }
 }
 
+// Display geometry and view-to-TV mapping
+function setMapping(mapping, element, width, height) {
+    const rect = element.getBoundingClientRect();
+    if (rect.width === 0 || rect.height === 0) return;
+    mapping.left = rect.left + window.scrollX;
+    mapping.top = rect.top + window.scrollY;
+    mapping.scaleX = width / rect.width;
+    mapping.scaleY = height / rect.height;
+}
+
+function updateMappings() {
+    setMapping(padMapping, mousePadSurface, tvGeometry.width, tvGeometry.height);
+    setMapping(canvasMapping, screenCanvas, screenCanvas.width, screenCanvas.height);
+}
+
+function setGeometry(geometry) {
+    tvGeometry = geometry || DEFAULT_GEOMETRY;
+    updateMappings();
+}
+
+function requestDisplayGeometry() {
+    const deviceId = deviceIdSelect.value;
+    if (!deviceId) {
+        setGeometry(DEFAULT_GEOMETRY);
+        return;
+    }
+    const cached = displayGeometries.get(deviceId);
+    if (cached) {
+        setGeometry(cached);
+        return;
+    }
+    socket.emit('getDisplayGeometry', { deviceId });
+}
+
+function mapPoint(mapping, event, width, height) {
+    const x = Math.round(((event.pageX || 0) - mapping.left) * mapping.scaleX);
+    const y = Math.round(((event.pageY || 0) - mapping.top) * mapping.scaleY);
+    return {
+        x: Math.min(Math.max(x, 0), width - 1),
+        y: Math.min(Math.max(y, 0), height - 1)
+    };
+}
+
 // Mouse pad event handlers
+function padToTv(event) {
+    return mapPoint(padMapping, event, tvGeometry.width, tvGeometry.height);
+}
+
 function handleMouseDown(event) {
     isMouseDown = true;
-    lastX = event.clientX || (event.touches && event.touches[0].clientX) || 0;
-    lastY = event.clientY || (event.touches && event.touches[0].clientY) || 0;
+    const point = padToTv(event);
+    dragStartX = dragX = point.x;
+    dragStartY = dragY = point.y;
+    dragStartTime = Date.now();
     mousePadSurface.style.backgroundColor = '#3d3d3d';
 }
 
+// Moves only update the drag; sending a swipe per mousemove queued hundreds of them
 function handleMouseMove(event) {
     if (!isMouseDown) return;
     
-    event.preventDefault();
-    
-    const currentX = event.clientX || (event.touches && event.touches[0].clientX) || 0;
-    const currentY = event.clientY || (event.touches && event.touches[0].clientY) || 0;
-    
-    // Calculate movement delta
-    const deltaX = currentX - lastX;
-    const deltaY = currentY - lastY;
-    
-    // Scale down the movement for better control
-    const scaledDeltaX = Math.round(deltaX * 0.5);
-    const scaledDeltaY = Math.round(deltaY * 0.5);
-    
-    // Send swipe command with the movement
-    if (scaledDeltaX !== 0 || scaledDeltaY !== 0) {
-        sendSwipe(scaledDeltaX, scaledDeltaY);
+    if (event.preventDefault) {
+        event.preventDefault();
     }
-    
-    // Update last position
-    lastX = currentX;
-    lastY = currentY;
+    const point = padToTv(event);
+    dragX = point.x;
+    dragY = point.y;
 }
 
 function handleMouseUp() {
+    if (!isMouseDown) return;
     isMouseDown = false;
     mousePadSurface.style.backgroundColor = '#2d2d2d';
+    
+    if (Math.abs(dragX - dragStartX) < 8 && Math.abs(dragY - dragStartY) < 8) {
+        sendTap(dragStartX, dragStartY);
+    } else {
+        sendSwipe(dragStartX, dragStartY, dragX, dragY, Date.now() - dragStartTime);
+    }
 }
 
-function sendSwipe(deltaX, deltaY) {
+function sendSwipe(x1, y1, x2, y2, duration) {
     const deviceId = deviceIdSelect.value;
     
     if (!deviceId) {
@@ -488,18 +737,16 @@ function sendSwipe(deltaX, deltaY) {
         return;
     }
     
-    // We'll simulate a swipe by sending multiple small movements
-    // For now, we'll just send a single swipe command
-    updateStatus(`Sending swipe: ${deltaX}, ${deltaY}`);
+    updateStatus(`Sending swipe: ${x1},${y1} -> ${x2},${y2}`);
     
-    // Send swipe command to server
+    // One swipe for the whole drag, replayed at the speed it was drawn
     socket.emit('sendSwipe', { 
         deviceId, 
-        x1: 100, 
-        y1: 100, 
-        x2: 100 + deltaX, 
-        y2: 100 + deltaY,
-        duration: 100
+        x1, 
+        y1, 
+        x2, 
+        y2,
+        duration: Math.min(Math.max(duration, 50), 2000)
     });
 }
 
@@ -544,9 +791,7 @@ screenCanvas.addEventListener('click', (event) => {
     }
     
     // Calculate the click position relative to the canvas
-    const rect = screenCanvas.getBoundingClientRect();
-    const x = Math.floor((event.clientX - rect.left) * (screenCanvas.width / rect.width));
-    const y = Math.floor((event.clientY - rect.top) * (screenCanvas.height / rect.height));
+    const { x, y } = mapPoint(canvasMapping, event, screenCanvas.width, screenCanvas.height);
     
     updateStatus(`Sending tap at coordinates: ${x}, ${y}`);
     
@@ -582,6 +827,9 @@ mousePadSurface.addEventListener('touchmove', (event) => {
 
 mousePadSurface.addEventListener('touchend', handleMouseUp);
 
+window.addEventListener('resize', updateMappings);
+deviceIdSelect.addEventListener('change', requestDisplayGeometry);
+
 // Mouse button event listeners
 mouseLeftClickBtn.addEventListener('click', () => sendMouseClick('left'));
 mouseRightClickBtn.addEventListener('click', () => sendMouseClick('right'));
@@ -609,11 +857,23 @@ socket.on('devicesList', (data) => {
     }
 });
 
+socket.on('displayGeometry', (data) => {
+    if (data.error) {
+        console.error('Error reading display geometry:', data.error);
+        return;
+    }
+    displayGeometries.set(data.deviceId, { width: data.width, height: data.height });
+    if (data.deviceId === deviceIdSelect.value) {
+        setGeometry(displayGeometries.get(data.deviceId));
+    }
+});
+
 socket.on('disconnectResponse', (data) => {
     if (data.error) {
         updateError(`Error disconnecting device: ${data.error}`);
     } else {
         updateStatus(`Successfully disconnected device: ${data.deviceId}`);
+        displayGeometries.delete(data.deviceId);
         
         // Remove the disconnected device from the dropdown
         const options = deviceIdSelect.options;
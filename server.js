@@ -41,6 +41,68 @@ function getNetworkInfo() {
   return results;
 }
 
+// One long-lived `adb shell` per device for typed text, so each chunk costs a line on an open
+// shell instead of a new adb process, and chunks run in the order they were typed
+const textShells = new Map();
+
+function getTextShell(deviceId) {
+  const key = deviceId || '';
+  let shell = textShells.get(key);
+  if (!shell) {
+    shell = spawn('adb', deviceId ? ['-s', deviceId, 'shell'] : ['shell']);
+    shell.stdout.on('data', () => {});
+    shell.stderr.on('data', (data) => console.error('Text shell stderr:', data.toString()));
+    shell.on('error', (error) => console.error('Text shell error:', error));
+    shell.on('exit', () => textShells.delete(key));
+    textShells.set(key, shell);
+  }
+  return shell;
+}
+
+// Each `input` run starts a process on the TV, so text goes out in chunks of this many chars
+const TEXT_CHUNK_CHARS = 256;
+
+// Device shell commands that press backspace `deletes` times and then type `text`. Printable
+// ASCII goes through `input text` in single quotes (spaces as %s); newline and tab are keys;
+// anything else needs the ADB keyboard IME, since `input text` only types what has a key.
+function textCommands(text, deletes) {
+  const commands = [];
+  // Capped so a malformed request cannot tie the shell up for minutes
+  for (let left = Math.min(deletes, 10000); left > 0; left -= TEXT_CHUNK_CHARS) {
+    commands.push('input keyevent' + ' 67'.repeat(Math.min(left, TEXT_CHUNK_CHARS)));
+  }
+  const chars = Array.from(text);
+  let i = 0;
+  while (i < chars.length) {
+    const c = chars[i];
+    if (c === '\n' || c === '\t') {
+      commands.push(c === '\t' ? 'input keyevent 61' : 'input keyevent 66');
+      i++;
+    } else if (/^[\x20-\x7e]$/.test(c)) {
+      let chunk = '';
+      const start = i;
+      while (i < chars.length && i - start < TEXT_CHUNK_CHARS && /^[\x20-\x7e]$/.test(chars[i])) {
+        const ch = chars[i++];
+        chunk += ch === ' ' ? '%s' : ch === "'" ? "'\\''" : ch;
+        // There is no escape for a literal "%s", so the 's' starts the next chunk
+        if (ch === '%' && chars[i] === 's') {
+          break;
+        }
+      }
+      commands.push(`input text '${chunk}'`);
+    } else if (c.codePointAt(0) < 0x20 || c.codePointAt(0) === 0x7f) {
+      i++;
+    } else {
+      const codes = [];
+      while (i < chars.length && codes.length < TEXT_CHUNK_CHARS && !/^[\x00-\x7f]$/.test(chars[i])) {
+        codes.push(chars[i++].codePointAt(0));
+      }
+      commands.push(`am broadcast -a ADB_INPUT_CHARS --eia chars ${codes.join(',')}`);
+    }
+  }
+  return commands;
+}
+
 // Scan network for ADB devices
 function scanNetworkForADBDevices(socket, data) {
   const { networkRange } = data;
@@ -135,6 +197,21 @@ function scanNetworkForADBDevices(socket, data) {
   }
 }
 
+// Display size per device, shared by all clients; `wm size` only runs the first time a
+// device is asked about and again after it disconnects
+const displayGeometries = new Map();
+
+// "Physical size: 1920x1080", then "Override size: ..." if it was changed with `wm size`
+function parseDisplaySize(output) {
+  const pattern = /(Physical|Override) size: (\d+)x(\d+)/g;
+  let size = null;
+  let match;
+  while ((match = pattern.exec(output)) !== null) {
+    size = { width: parseInt(match[2], 10), height: parseInt(match[3], 10) };
+  }
+  return size;
+}
+
 // Handle socket connections
 io.on('connection', (socket) => {
   console.log('A user connected');
@@ -212,44 +289,26 @@ io.on('connection', (socket) => {
     });
   });
   
-  // Handle text input
+  // Handle text input: { deviceId, text, deletes } - backspaces first, then the new text
   socket.on('sendText', (data) => {
-    const { deviceId, text } = data;
-    
-    // Special handling for space character
-    let adbCommand;
-    if (text === ' ') {
-      // For space, use keyevent instead of text input to avoid issues
-      adbCommand = deviceId ? 
-        `adb -s ${deviceId} shell input keyevent KEYCODE_SPACE` : 
-        `adb shell input keyevent KEYCODE_SPACE`;
-    } else {
-      // Escape special characters in text
-      const escapedText = text.replace(/"/g, '\\"');
-      adbCommand = deviceId ? 
-        `adb -s ${deviceId} shell input text "${escapedText}"` : 
-        `adb shell input text "${escapedText}"`;
+    const { deviceId, text, deletes } = data;
+    const commands = textCommands(text || '', deletes || 0);
+    if (commands.length === 0) {
+      return;
     }
     
-    console.log('Sending text:', adbCommand);
+    console.log(`Sending ${(text || '').length} char(s) of text and ${deletes || 0} backspace(s) in ${commands.length} command(s)`);
     
-    // Execute the ADB command
-    exec(adbCommand, (error, stdout, stderr) => {
-      if (error) {
-        console.error('Error sending text:', error);
-        socket.emit('commandResponse', { error: error.message });
-        return;
-      }
-      
-      if (stderr) {
-        console.error('Text input stderr:', stderr);
-        socket.emit('commandResponse', { error: stderr });
-        return;
+    try {
+      const shell = getTextShell(deviceId);
+      for (const command of commands) {
+        shell.stdin.write(command + '\n');
       }
-      
-      console.log('Text sent successfully');
-      socket.emit('commandResponse', { success: true, output: stdout });
-    });
+      socket.emit('commandResponse', { success: true, output: '' });
+    } catch (error) {
+      console.error('Error sending text:', error);
+      socket.emit('commandResponse', { error: error.message });
+    }
   });
   
   // Handle touch events
@@ -321,15 +380,18 @@ io.on('connection', (socket) => {
       screenCaptureProcess.kill();
     }
     
-    // Start screen capture with better performance
+    // Pace captures by how long they actually take instead of a fixed 100ms, so a slow
+    // device or link lowers the frame rate rather than building up a backlog
+    const minFrameInterval = 100; // Fastest allowed capture interval in ms
+    let frameTime = 0; // Smoothed capture + transfer time in ms
     let lastFrameTime = 0;
-    const minFrameInterval = 100; // Minimum time between frames in ms
     
     const captureScreen = () => {
       const now = Date.now();
-      if (now - lastFrameTime < minFrameInterval) {
+      const frameInterval = Math.max(minFrameInterval, frameTime);
+      if (now - lastFrameTime < frameInterval) {
         // Schedule next capture
-        setTimeout(captureScreen, minFrameInterval - (now - lastFrameTime));
+        setTimeout(captureScreen, frameInterval - (now - lastFrameTime));
         return;
       }
       
@@ -341,6 +403,9 @@ io.on('connection', (socket) => {
         `adb shell screencap -p | base64`;
       
       exec(adbCommand, { maxBuffer: 1024 * 1024 * 10 }, (error, stdout, stderr) => {
+        const elapsed = Date.now() - now;
+        frameTime = frameTime ? frameTime + 0.25 * (elapsed - frameTime) : elapsed;
+        
         if (error) {
           console.error('Error capturing screen:', error);
           return;
@@ -351,11 +416,11 @@ io.on('connection', (socket) => {
           return;
         }
         
-        // Send the base64 encoded image data to the client
-        socket.emit('screenData', { data: stdout });
+        // Volatile: if the client is still busy with the previous frame this one is dropped
+        socket.volatile.emit('screenData', { data: stdout, frameTime: Math.round(frameTime) });
         
         // Continue capturing screens
-        setTimeout(captureScreen, 100); // Capture every 100ms
+        captureScreen();
       });
     };
     
@@ -406,10 +471,38 @@ io.on('connection', (socket) => {
     });
   });
   
+  // Handle display geometry requests
+  socket.on('getDisplayGeometry', (data) => {
+    const { deviceId } = data;
+    
+    if (!deviceId) {
+      socket.emit('displayGeometry', { error: 'No device ID provided' });
+      return;
+    }
+    
+    const cached = displayGeometries.get(deviceId);
+    if (cached) {
+      socket.emit('displayGeometry', { deviceId, ...cached });
+      return;
+    }
+    
+    exec(`adb -s ${deviceId} shell wm size`, (error, stdout) => {
+      const size = !error && parseDisplaySize(stdout);
+      if (!size) {
+        socket.emit('displayGeometry', { deviceId, error: error ? error.message : 'No display size reported' });
+        return;
+      }
+      
+      displayGeometries.set(deviceId, size);
+      socket.emit('displayGeometry', { deviceId, ...size });
+    });
+  });
+  
   // Handle device disconnection requests
   socket.on('disconnectDevice', (data) => {
     const { deviceId } = data;
     console.log('Received disconnectDevice request for:', deviceId);
+    displayGeometries.delete(deviceId);
     
     if (!deviceId) {
       socket.emit('disconnectResponse', { error: 'No device ID provided' });
@@ -438,6 +531,13 @@ io.on('connection', (socket) => {
     });
   });
   
+  // Acknowledges straight away; benchmarkTransport() in the client uses it to time the relay
+  socket.on('echo', (data, ack) => {
+    if (typeof ack === 'function') {
+      ack(data);
+    }
+  });
+  
   // Handle network scan requests
   socket.on('scanNetwork', (data) => {
     scanNetworkForADBDevices(socket, data);